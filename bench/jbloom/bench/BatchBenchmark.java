@@ -0,0 +1,125 @@
+package jbloom.bench;
+
+import jbloom.core.BloomFilter;
+import jbloom.core.DynamicBloomFilter;
+import jbloom.util.HashStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * hasAll/addAll against the single key loop over the same batch of BATCH keys, scored per key.
+ * Half of each batch is in the filter and half isn't. The 10 million key filter is far bigger
+ * than the caches, which is where hashing the whole batch before probing should pay off
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchBenchmark {
+    private static final int BATCH = 1024;
+    private static final int BATCHES = 64;
+
+    @Param({"100000", "10000000"})
+    public int capacity;
+
+    @Param({"MURMUR3", "DIGEST"})
+    public HashStrategy strategy;
+
+    private BloomFilter bf;
+    private DynamicBloomFilter dbf;
+    private String[][] batches, adds;
+    private int next, next_adds;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        bf = new BloomFilter(capacity, 0.01, strategy);
+        dbf = new DynamicBloomFilter(capacity / 10, capacity, 0.01, strategy);
+        String[] present = Keys.range(0, capacity);
+        bf.addAll(present);
+        dbf.addAll(present);
+        batches = new String[BATCHES][BATCH];
+        adds = new String[BATCHES][BATCH];
+        for(int b = 0; b < BATCHES; b++){
+            for(int i = 0; i < BATCH; i++){
+                //even keys are in the filter, odd ones start past the last key that is
+                int key = b * BATCH + i;
+                batches[b][i] = Integer.toString(i % 2 == 0 ? key % capacity : capacity + key);
+                adds[b][i] = present[key % capacity];
+            }
+        }
+    }
+
+    private String[] nextAdds() {
+        String[] batch = adds[next_adds];
+        next_adds = (next_adds + 1) % BATCHES;
+        return batch;
+    }
+
+    private String[] nextBatch() {
+        String[] batch = batches[next];
+        next = (next + 1) % BATCHES;
+        return batch;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void hasLoop(Blackhole bh) {
+        for(String key : nextBatch()){
+            bh.consume(bf.has((CharSequence) key));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long[] hasAll() {
+        return bf.hasAll(nextBatch());
+    }
+
+    /**
+     * Re-adds keys that are already in the filter, so the count never passes capacity
+     * but every key still hashes and sets all slices
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void addLoop(Blackhole bh) {
+        for(String key : nextAdds()){
+            bh.consume(bf.add((CharSequence) key));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long[] addAll() {
+        return bf.addAll(nextAdds());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void dynamicHasLoop(Blackhole bh) {
+        for(String key : nextBatch()){
+            bh.consume(dbf.has((CharSequence) key));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long[] dynamicHasAll() {
+        return dbf.hasAll(nextBatch());
+    }
+}
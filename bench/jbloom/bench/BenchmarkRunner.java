@@ -0,0 +1,31 @@
+package jbloom.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar.
+ * Takes the usual JMH command line, but always attaches the GC profiler so that every run
+ * reports the allocation rate (gc.alloc.rate.norm is bytes allocated per operation)
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args)
+            throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if(cmd.shouldHelp()){
+            cmd.showHelp();
+            return;
+        }
+        Runner runner = new Runner(new OptionsBuilder()
+                .parent(cmd)
+                .addProfiler(GCProfiler.class)
+                .build());
+        if(cmd.shouldList() || cmd.shouldListWithParams()){
+            runner.list();
+            return;
+        }
+        runner.run();
+    }
+}
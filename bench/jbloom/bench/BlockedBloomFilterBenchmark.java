@@ -0,0 +1,101 @@
+package jbloom.bench;
+
+import jbloom.core.BlockedBloomFilter;
+import jbloom.core.BloomFilter;
+import jbloom.util.HashStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The sliced layout of BloomFilter against the one block per key of BlockedBloomFilter,
+ * on full filters hashed with MURMUR3 so the hash doesn't hide the memory accesses.
+ * The 10 million key filters are far bigger than the caches, where a sliced lookup takes
+ * one cache miss per slice and a blocked one a single miss
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BlockedBloomFilterBenchmark {
+    private static final int BATCH = 1024;
+    private static final int BATCHES = 64;
+
+    @Param({"100000", "10000000"})
+    public int capacity;
+
+    @Param({"0.01", "0.001"})
+    public double error_rate;
+
+    @Param({"sliced", "blocked"})
+    public String layout;
+
+    private BloomFilter bf;
+    private String[] present, absent;
+    private String[][] batches;
+    private int next, next_batch;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        bf = layout.equals("blocked")
+                ? new BlockedBloomFilter(capacity, error_rate, HashStrategy.MURMUR3)
+                : new BloomFilter(capacity, error_rate, HashStrategy.MURMUR3);
+        present = Keys.range(0, capacity);
+        absent = Keys.range(capacity, capacity);
+        bf.addAll(present);
+        //half present and half absent keys
+        batches = new String[BATCHES][BATCH];
+        for(int b = 0; b < BATCHES; b++){
+            for(int i = 0; i < BATCH; i++){
+                int key = (b * BATCH + i) % capacity;
+                batches[b][i] = (i & 1) == 0 ? present[key] : absent[key];
+            }
+        }
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = (i + 1 == capacity) ? 0 : i + 1;
+        return i;
+    }
+
+    /**
+     * Re-adds keys that are already in the filter, so the count never passes capacity
+     */
+    @Benchmark
+    public boolean add() {
+        return bf.add((CharSequence) present[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean hasPresent() {
+        return bf.has((CharSequence) present[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean hasAbsent() {
+        return bf.has((CharSequence) absent[nextIndex()]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long[] hasAll() {
+        String[] batch = batches[next_batch];
+        next_batch = (next_batch + 1) % BATCHES;
+        return bf.hasAll(batch);
+    }
+}
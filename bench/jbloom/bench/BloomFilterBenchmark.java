@@ -0,0 +1,95 @@
+package jbloom.bench;
+
+import jbloom.core.BloomFilter;
+import jbloom.core.FrozenBloomFilter;
+import jbloom.util.HashStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single key add/has on a BloomFilter filled to capacity, swept over capacity and error_rate.
+ * hasPresent and hasAbsent are split because a miss can stop at the first clear bit while
+ * a hit always probes every slice. The frozen benchmarks look up in bf.freeze()
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BloomFilterBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int capacity;
+
+    @Param({"0.01", "0.001", "0.0001"})
+    public double error_rate;
+
+    @Param({"DIGEST", "MURMUR3"})
+    public HashStrategy strategy;
+
+    private BloomFilter bf;
+    private FrozenBloomFilter frozen;
+    private String[] present, absent;
+    private int next;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        bf = new BloomFilter(capacity, error_rate, strategy);
+        present = Keys.range(0, capacity);
+        absent = Keys.range(capacity, capacity);
+        for(String key : present){
+            bf.add(key);
+        }
+        frozen = bf.freeze();
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = (i + 1 == capacity) ? 0 : i + 1;
+        return i;
+    }
+
+    /**
+     * Re-adds keys that are already in the filter, so the count never passes capacity
+     * but every call still hashes and sets all slices
+     */
+    @Benchmark
+    public boolean add()
+            throws Exception {
+        return bf.add(present[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean hasPresent()
+            throws Exception {
+        return bf.has(present[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean hasAbsent()
+            throws Exception {
+        return bf.has(absent[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean frozenHasPresent() {
+        return frozen.has((CharSequence) present[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean frozenHasAbsent() {
+        return frozen.has((CharSequence) absent[nextIndex()]);
+    }
+}
@@ -0,0 +1,150 @@
+package jbloom.bench;
+
+import jbloom.core.BatchingFilter;
+import jbloom.core.BloomFilter;
+import jbloom.core.ConcurrentBloomFilter;
+import jbloom.core.ShardedBloomFilter;
+import jbloom.util.HashStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a ConcurrentBloomFilter shared by 1 to 8 threads, against a ShardedBloomFilter of
+ * 16 shards, a BloomFilter behind one global lock and a BloomFilter behind a BatchingFilter,
+ * each thread waiting for its lookup like a request handler would. Each nested class runs the same benchmarks with a different thread count,
+ * so one run gives the whole scaling curve:
+ * java -jar target/benchmarks.jar ConcurrentBloomFilterBenchmark
+ *
+ * MURMUR3 keeps the hashing cheap so the cost of sharing the bits shows.
+ * Every thread walks its own stride through a key space of size capacity,
+ * the first pass sets bits, later passes find them set
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class ConcurrentBloomFilterBenchmark {
+    @Param({"4000000"})
+    public int capacity;
+
+    private ConcurrentBloomFilter concurrent;
+    private ShardedBloomFilter sharded;
+    private BloomFilter locked;
+    private BatchingFilter batching;
+
+    @Setup(Level.Iteration)
+    public void setup()
+            throws Exception {
+        concurrent = new ConcurrentBloomFilter(capacity, 0.01, HashStrategy.MURMUR3);
+        sharded = new ShardedBloomFilter(capacity, 0.01, 16, HashStrategy.MURMUR3);
+        locked = new BloomFilter(capacity, 0.01, HashStrategy.MURMUR3);
+        batching = new BatchingFilter(new BloomFilter(capacity, 0.01, HashStrategy.MURMUR3), 64, 20,
+                TimeUnit.MICROSECONDS, 1024, null);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        batching.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        private static int threads;
+        private long next, step;
+
+        @Setup
+        public void setup() {
+            synchronized(ThreadKeys.class){
+                next = threads++;
+            }
+            step = 8;
+        }
+
+        long next(int capacity) {
+            long key = next;
+            next += step;
+            if(next >= capacity){
+                next -= capacity;
+            }
+            return key;
+        }
+    }
+
+    @Benchmark
+    public boolean concurrentAdd(ThreadKeys keys) {
+        return concurrent.add(keys.next(capacity));
+    }
+
+    @Benchmark
+    public boolean concurrentHas(ThreadKeys keys) {
+        return concurrent.has(keys.next(capacity));
+    }
+
+    @Benchmark
+    public boolean shardedAdd(ThreadKeys keys) {
+        return sharded.add(keys.next(capacity));
+    }
+
+    @Benchmark
+    public boolean shardedHas(ThreadKeys keys) {
+        return sharded.has(keys.next(capacity));
+    }
+
+    @Benchmark
+    public boolean lockedAdd(ThreadKeys keys) {
+        long key = keys.next(capacity);
+        synchronized(locked){
+            return locked.add(key);
+        }
+    }
+
+    @Benchmark
+    public boolean lockedHas(ThreadKeys keys) {
+        long key = keys.next(capacity);
+        synchronized(locked){
+            return locked.has(key);
+        }
+    }
+
+    @Benchmark
+    public boolean batchedAdd(ThreadKeys keys) {
+        return batching.add(keys.next(capacity)).join();
+    }
+
+    @Benchmark
+    public boolean batchedHas(ThreadKeys keys) {
+        return batching.has(keys.next(capacity)).join();
+    }
+
+    @Threads(1)
+    public static class Threads1 extends ConcurrentBloomFilterBenchmark {
+    }
+
+    @Threads(2)
+    public static class Threads2 extends ConcurrentBloomFilterBenchmark {
+    }
+
+    @Threads(4)
+    public static class Threads4 extends ConcurrentBloomFilterBenchmark {
+    }
+
+    @Threads(8)
+    public static class Threads8 extends ConcurrentBloomFilterBenchmark {
+    }
+}
@@ -0,0 +1,96 @@
+package jbloom.bench;
+
+import jbloom.core.BloomFilter;
+import jbloom.core.CountingBloomFilter;
+import jbloom.util.HashStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CountingBloomFilter against a BloomFilter of the same capacity, both full. The counting filter
+ * is 4 times the size, which shows once the BloomFilter fits in a cache level and the counters don't.
+ * The setup prints both sizes. toBloomFilter is the cost of collapsing the counters for shipping
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CountingBloomFilterBenchmark {
+    @Param({"100000", "10000000"})
+    public int capacity;
+
+    @Param({"0.01", "0.001"})
+    public double error_rate;
+
+    private BloomFilter bf;
+    private CountingBloomFilter cbf;
+    private String[] present, absent;
+    private int next;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        bf = new BloomFilter(capacity, error_rate, HashStrategy.MURMUR3);
+        cbf = new CountingBloomFilter(capacity, error_rate, HashStrategy.MURMUR3);
+        present = Keys.range(0, capacity);
+        absent = Keys.range(capacity, capacity);
+        bf.addAll(present);
+        for(String key : present){
+            cbf.add(key);
+        }
+        long bits = (long) bf.getNumSlices() * bf.getBitsPerSlice();
+        System.out.println("\nBloomFilter " + (bits + 7) / 8 + " bytes, CountingBloomFilter "
+                + cbf.getSizeInBytes() + " bytes, " + (double) cbf.getSizeInBytes() * 8 / capacity + " bits per key");
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = (i + 1 == capacity) ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public boolean hasPresent() {
+        return bf.has((CharSequence) present[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean countingHasPresent() {
+        return cbf.has(present[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean countingHasAbsent() {
+        return cbf.has(absent[nextIndex()]);
+    }
+
+    /**
+     * Removes a key and adds it back, so the filter stays full
+     */
+    @Benchmark
+    public boolean countingRemoveAdd() {
+        String key = present[nextIndex()];
+        cbf.remove(key);
+        return cbf.add(key);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public BloomFilter toBloomFilter()
+            throws Exception {
+        return cbf.toBloomFilter();
+    }
+}
@@ -0,0 +1,95 @@
+package jbloom.bench;
+
+import jbloom.core.BloomFilter;
+import jbloom.core.CuckooFilter;
+import jbloom.util.HashStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CuckooFilter against a BloomFilter of the same capacity and error rate, both full. A cuckoo lookup
+ * reads 2 buckets where the BloomFilter reads a bit per slice, 10 of them at 0.001, which shows once
+ * the filters are bigger than the caches. The setup prints both sizes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CuckooFilterBenchmark {
+    @Param({"100000", "10000000"})
+    public int capacity;
+
+    @Param({"0.001", "0.0001"})
+    public double error_rate;
+
+    private BloomFilter bf;
+    private CuckooFilter cf;
+    private String[] present, absent;
+    private int next;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        bf = new BloomFilter(capacity, error_rate, HashStrategy.MURMUR3);
+        cf = new CuckooFilter(capacity, error_rate, HashStrategy.MURMUR3);
+        present = Keys.range(0, capacity);
+        absent = Keys.range(capacity, capacity);
+        bf.addAll(present);
+        for(String key : present){
+            cf.add(key);
+        }
+        long bits = (long) bf.getNumSlices() * bf.getBitsPerSlice();
+        System.out.println("\nBloomFilter " + (bits + 7) / 8 + " bytes, " + (double) bits / capacity
+                + " bits per key, CuckooFilter " + cf.getSizeInBytes() + " bytes, "
+                + (double) cf.getSizeInBytes() * 8 / capacity + " bits per key");
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = (i + 1 == capacity) ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public boolean hasPresent() {
+        return bf.has((CharSequence) present[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean hasAbsent() {
+        return bf.has((CharSequence) absent[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean cuckooHasPresent() {
+        return cf.has(present[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean cuckooHasAbsent() {
+        return cf.has(absent[nextIndex()]);
+    }
+
+    /**
+     * Removes a key and adds it back, so the filter stays full
+     */
+    @Benchmark
+    public boolean cuckooRemoveAdd() {
+        String key = present[nextIndex()];
+        cf.remove(key);
+        return cf.add(key);
+    }
+}
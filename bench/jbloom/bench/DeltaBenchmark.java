@@ -0,0 +1,80 @@
+package jbloom.bench;
+
+import jbloom.core.BloomFilter;
+import jbloom.util.HashStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replicating a half full BloomFilter of a million keys after changes new keys were added to it:
+ * exporting and encoding just the changed words against shipping the whole filter as text or binary.
+ * Each invocation starts from a fresh copy with a checkpoint taken before the keys were added
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class DeltaBenchmark {
+    private static final int CAPACITY = 1000000;
+
+    @Param({"1000", "100000"})
+    public int changes;
+
+    private BloomFilter base, bf;
+    private String[] added;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        base = new BloomFilter(CAPACITY, 0.01, HashStrategy.MURMUR3);
+        for(String key : Keys.range(0, CAPACITY / 2)){
+            base.add((CharSequence) key);
+        }
+        added = Keys.range(CAPACITY / 2, changes);
+    }
+
+    @Setup(Level.Invocation)
+    public void change() {
+        bf = base.clone();
+        bf.checkpoint();
+        for(String key : added){
+            bf.add((CharSequence) key);
+        }
+    }
+
+    @Benchmark
+    public byte[] delta()
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bf.exportDelta().writeBinary(out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public String fullText() {
+        return bf.toString();
+    }
+
+    @Benchmark
+    public byte[] fullBinary()
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bf.writeBinary(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,84 @@
+package jbloom.bench;
+
+import jbloom.core.DynamicBloomFilter;
+import jbloom.util.HashStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * add/has on a DynamicBloomFilter holding sub_filters full sub-filters of base_capacity each.
+ * A miss has to probe every sub-filter, so hasAbsent shows how lookups degrade as the filter grows
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DynamicBloomFilterBenchmark {
+    @Param({"1", "10", "50"})
+    public int sub_filters;
+
+    @Param({"1000"})
+    public int base_capacity;
+
+    @Param({"0.01", "0.001"})
+    public double error_rate;
+
+    @Param({"DIGEST", "MURMUR3"})
+    public HashStrategy strategy;
+
+    private DynamicBloomFilter dbf;
+    private String[] present, absent;
+    private int next, size;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        size = sub_filters * base_capacity;
+        dbf = new DynamicBloomFilter(base_capacity, size, error_rate, strategy);
+        present = Keys.range(0, size);
+        absent = Keys.range(size, size);
+        for(String key : present){
+            dbf.add(key);
+        }
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = (i + 1 == size) ? 0 : i + 1;
+        return i;
+    }
+
+    /**
+     * Re-adds keys that are already present, which is a full has() followed by an early return
+     */
+    @Benchmark
+    public boolean add()
+            throws Exception {
+        return dbf.add(present[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean hasPresent()
+            throws Exception {
+        return dbf.has(present[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean hasAbsent()
+            throws Exception {
+        return dbf.has(absent[nextIndex()]);
+    }
+}
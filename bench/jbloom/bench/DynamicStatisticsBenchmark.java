@@ -0,0 +1,56 @@
+package jbloom.bench;
+
+import jbloom.core.DynamicBloomFilter;
+import jbloom.util.HashStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The intersection estimate of two dynamic filters of num_filters full bloom filters,
+ * which pairs up every bloom filter of one with every bloom filter of the other.
+ * Bloom filters of a million keys are 1.2MB and stay in cache, ten million are 12MB and don't
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DynamicStatisticsBenchmark {
+    @Param({"1000000", "10000000"})
+    public int base_capacity;
+
+    @Param({"4", "16"})
+    public int num_filters;
+
+    private DynamicBloomFilter dbf1, dbf2;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        int capacity = num_filters * base_capacity;
+        dbf1 = new DynamicBloomFilter(base_capacity, capacity, 0.01, HashStrategy.MURMUR3);
+        dbf2 = new DynamicBloomFilter(base_capacity, capacity, 0.01, HashStrategy.MURMUR3);
+        //a million keys at a time, all of them at once would take gigabytes of strings
+        for(int start = 0; start < capacity; start += 1000000){
+            dbf1.addAll(Keys.range(start, 1000000));
+            dbf2.addAll(Keys.range(capacity / 2 + start, 1000000));
+        }
+    }
+
+    @Benchmark
+    public double intersectionCount() {
+        return dbf1.estimateIntersectionCount(dbf2);
+    }
+}
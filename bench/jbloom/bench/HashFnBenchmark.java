@@ -0,0 +1,69 @@
+package jbloom.bench;
+
+import jbloom.util.HashFn;
+import jbloom.util.HashStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single HashFn.hash call for each digest HashFn can pick.
+ * With 16 bit chunks (bits_per_slice below 2^15) the digest is chosen from 16 * num_slices:
+ * 8 slices use MD5, 10 SHA-1, 16 SHA-256, 24 SHA-384 and 32 SHA-512.
+ * 64 slices needs two salted SHA-512 digests per key.
+ * MURMUR3 hashes once whatever the number of slices
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashFnBenchmark {
+    @Param({"8", "10", "16", "24", "32", "64"})
+    public int num_slices;
+
+    @Param({"1438", "100000"})
+    public int bits_per_slice;
+
+    @Param({"DIGEST", "MURMUR3"})
+    public HashStrategy strategy;
+
+    private HashFn hash;
+    private String[] keys;
+    private int next;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        hash = strategy.newHashFn(num_slices, bits_per_slice);
+        keys = Keys.range(0, 1024);
+    }
+
+    /**
+     * The allocating legacy call, which returns a fresh array per key
+     */
+    @Benchmark
+    public int[] hash()
+            throws Exception {
+        return hash.hash(keys[next++ & 1023]);
+    }
+
+    /**
+     * The allocation free path BloomFilter uses
+     */
+    @Benchmark
+    public int[] hashToBuffer() {
+        return hash.hashToBuffer(keys[next++ & 1023]);
+    }
+}
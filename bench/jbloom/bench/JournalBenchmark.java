@@ -0,0 +1,79 @@
+package jbloom.bench;
+
+import jbloom.core.BloomFilter;
+import jbloom.core.FilterJournal;
+import jbloom.core.FilterJournal.SyncPolicy;
+import jbloom.util.HashStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding a batch of keys to a journaled BloomFilter of ten million keys and committing them,
+ * for each SyncPolicy: the cost of a commit is spread over the keys it groups, so the score
+ * per key drops with the batch. Snapshots are written in the background as the log grows
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class JournalBenchmark {
+    private static final int CAPACITY = 10000000;
+
+    @Param({"NEVER", "PERIODIC", "EVERY_COMMIT"})
+    public SyncPolicy sync;
+
+    @Param({"1", "100"})
+    public int batch;
+
+    private Path dir;
+    private FilterJournal<BloomFilter> journal;
+    private BloomFilter bf;
+    private long next;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        dir = Files.createTempDirectory("jbloom-bench");
+        journal = FilterJournal.open(dir, new BloomFilter(CAPACITY, 0.01, HashStrategy.MURMUR3), sync);
+        bf = journal.getFilter();
+    }
+
+    @TearDown
+    public void tearDown()
+            throws Exception {
+        journal.close();
+        File[] files = dir.toFile().listFiles();
+        if(files != null){
+            for(File file : files){
+                file.delete();
+            }
+        }
+        dir.toFile().delete();
+    }
+
+    @Benchmark
+    public void addAndCommit()
+            throws Exception {
+        for(int i = 0; i < batch; i++){
+            bf.add(next++ % CAPACITY);
+        }
+        journal.commit();
+    }
+}
@@ -0,0 +1,78 @@
+package jbloom.bench;
+
+import jbloom.core.BloomFilter;
+import jbloom.util.HashStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * has() on numeric and binary keys through the typed overloads,
+ * against formatting the key into a String first
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyTypesBenchmark {
+    @Param({"100000"})
+    public int capacity;
+
+    @Param({"DIGEST", "MURMUR3"})
+    public HashStrategy strategy;
+
+    private BloomFilter bf;
+    private byte[] bytes;
+    private ByteBuffer direct;
+    private long next;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        bf = new BloomFilter(capacity, 0.001, strategy);
+        for(int i = 0; i < capacity; i++){
+            bf.add(i);
+        }
+        bytes = new byte[16];
+        direct = ByteBuffer.allocateDirect(16);
+    }
+
+    @Benchmark
+    public boolean hasFormattedLong()
+            throws Exception {
+        return bf.has(Long.toString(next++));
+    }
+
+    @Benchmark
+    public boolean hasLong() {
+        return bf.has(next++);
+    }
+
+    @Benchmark
+    public boolean hasBytes() {
+        long key = next++;
+        for(int i = 0; i < 8; i++){
+            bytes[i] = (byte) (key >>> (8 * i));
+        }
+        return bf.has(bytes, 0, 16);
+    }
+
+    @Benchmark
+    public boolean hasDirectBuffer() {
+        direct.putLong(0, next++);
+        return bf.has(direct);
+    }
+}
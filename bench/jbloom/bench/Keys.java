@@ -0,0 +1,24 @@
+package jbloom.bench;
+
+/**
+ * Key sets shared by the benchmarks.
+ * Keys are the decimal strings the unit tests and the python library use, generated up front
+ * so that no formatting cost ends up in the measured operation
+ */
+final class Keys {
+    private Keys() {
+    }
+
+    /**
+     * @param start first key
+     * @param n number of keys
+     * @return the keys start, start + 1, ... start + n - 1 as strings
+     */
+    static String[] range(int start, int n) {
+        String[] keys = new String[n];
+        for(int i = 0; i < n; i++){
+            keys[i] = Integer.toString(start + i);
+        }
+        return keys;
+    }
+}
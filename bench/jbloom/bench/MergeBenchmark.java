@@ -0,0 +1,73 @@
+package jbloom.bench;
+
+import jbloom.core.BloomFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unioning many filters of the same shape: a chain of union calls, which clones a filter for every
+ * other filter, against one merge, which makes a single pass over the words split between the cores
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MergeBenchmark {
+    @Param({"100000", "1000000"})
+    public int capacity;
+
+    @Param({"16", "128"})
+    public int filters;
+
+    private List<BloomFilter> others;
+    private BloomFilter into;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        others = new ArrayList<BloomFilter>(filters);
+        for(int f = 0; f < filters; f++){
+            BloomFilter bf = new BloomFilter(capacity, 0.01);
+            bf.addAll(Keys.range(f * capacity / filters, capacity / filters));
+            others.add(bf);
+        }
+        into = new BloomFilter(capacity, 0.01);
+    }
+
+    @Benchmark
+    public BloomFilter chainedUnion() {
+        BloomFilter union = others.get(0);
+        for(int f = 1; f < filters; f++){
+            union = union.union(others.get(f));
+        }
+        return union;
+    }
+
+    /**
+     * Merging into the same filter again doesn't change it, so every invocation does the same work
+     */
+    @Benchmark
+    public BloomFilter merge() {
+        return into.merge(others);
+    }
+
+    @Benchmark
+    public BloomFilter intersect() {
+        return into.intersect(others);
+    }
+}
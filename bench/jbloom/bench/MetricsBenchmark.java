@@ -0,0 +1,72 @@
+package jbloom.bench;
+
+import jbloom.core.BloomFilter;
+import jbloom.core.DynamicBloomFilter;
+import jbloom.metrics.FilterMetrics;
+import jbloom.util.HashStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups without a listener, with a FilterMetrics timing one in 1024 and with one timing every lookup.
+ * "none" should score the same as BloomFilterBenchmark.hasPresent and DynamicBloomFilterBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricsBenchmark {
+    private static final int CAPACITY = 100000;
+
+    @Param({"none", "sampled", "all"})
+    public String listener;
+
+    private BloomFilter bf;
+    private DynamicBloomFilter dbf;
+    private String[] present;
+    private int next;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        bf = new BloomFilter(CAPACITY, 0.01, HashStrategy.MURMUR3);
+        dbf = new DynamicBloomFilter(CAPACITY / 10, CAPACITY, 0.01, HashStrategy.MURMUR3);
+        present = Keys.range(0, CAPACITY);
+        bf.addAll(present);
+        dbf.addAll(present);
+        if(!listener.equals("none")){
+            FilterMetrics metrics = new FilterMetrics(listener.equals("all") ? 1 : FilterMetrics.DEFAULT_SAMPLE_INTERVAL);
+            bf.setListener(metrics);
+            dbf.setListener(metrics);
+        }
+    }
+
+    private String nextKey() {
+        int i = next;
+        next = (i + 1 == CAPACITY) ? 0 : i + 1;
+        return present[i];
+    }
+
+    @Benchmark
+    public boolean has() {
+        return bf.has((CharSequence) nextKey());
+    }
+
+    @Benchmark
+    public boolean dynamicHas() {
+        return dbf.has((CharSequence) nextKey());
+    }
+}
@@ -0,0 +1,73 @@
+package jbloom.bench;
+
+import jbloom.core.BloomFilter;
+import jbloom.core.RotatingBloomFilter;
+import jbloom.util.HashStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deduplicating an endless stream over a window of window keys, with a RotatingBloomFilter of
+ * 4 generations against swapping two whole BloomFilters: a new one is allocated every window keys
+ * and the lookups check both. The rotating filter allocates nothing once built
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RotatingBloomFilterBenchmark {
+    private static final int GENERATIONS = 4;
+
+    @Param({"100000", "1000000"})
+    public int window;
+
+    private RotatingBloomFilter rbf;
+    private BloomFilter current, previous;
+    private String[] keys;
+    private int next;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        rbf = new RotatingBloomFilter(GENERATIONS, window / (GENERATIONS - 1), 0.01, HashStrategy.MURMUR3);
+        current = new BloomFilter(window, 0.01, HashStrategy.MURMUR3);
+        previous = new BloomFilter(window, 0.01, HashStrategy.MURMUR3);
+        keys = Keys.range(0, 4 * window);
+    }
+
+    private String nextKey() {
+        int i = next;
+        next = (i + 1 == keys.length) ? 0 : i + 1;
+        return keys[i];
+    }
+
+    @Benchmark
+    public boolean rotating() {
+        return rbf.add((CharSequence) nextKey());
+    }
+
+    @Benchmark
+    public boolean swapping()
+            throws Exception {
+        String key = nextKey();
+        if(current.getCount() >= window){
+            previous = current;
+            current = new BloomFilter(window, 0.01, HashStrategy.MURMUR3);
+        }
+        boolean found = previous.has((CharSequence) key);
+        return current.add((CharSequence) key) || found;
+    }
+}
@@ -0,0 +1,70 @@
+package jbloom.bench;
+
+import jbloom.core.DynamicBloomFilter;
+import jbloom.core.ScalableBloomFilter;
+import jbloom.util.HashStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misses in a ScalableBloomFilter and in a DynamicBloomFilter that both started at 1000 keys
+ * and grew to size keys. A miss probes every bloom filter: the dynamic filter has size / 1000 of them,
+ * the scalable one (growth 4) about log4(size / 1000)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScalableBloomFilterBenchmark {
+    private static final int INITIAL_CAPACITY = 1000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private ScalableBloomFilter sbf;
+    private DynamicBloomFilter dbf;
+    private String[] absent;
+    private int next;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        sbf = new ScalableBloomFilter(INITIAL_CAPACITY, 0.001, ScalableBloomFilter.LARGE_SET_GROWTH, 0.9,
+                HashStrategy.MURMUR3);
+        dbf = new DynamicBloomFilter(INITIAL_CAPACITY, size, 0.001, HashStrategy.MURMUR3);
+        for(String key : Keys.range(0, size)){
+            sbf.add((CharSequence) key);
+            dbf.add((CharSequence) key);
+        }
+        absent = Keys.range(size, size);
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = (i + 1 == size) ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public boolean scalableHasAbsent() {
+        return sbf.has((CharSequence) absent[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean dynamicHasAbsent() {
+        return dbf.has((CharSequence) absent[nextIndex()]);
+    }
+}
@@ -0,0 +1,98 @@
+package jbloom.bench;
+
+import jbloom.core.BloomFilter;
+import jbloom.core.MappedBloomFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * toString/fromString of a full BloomFilter in the pybloom compatible text format,
+ * and for comparison the BinaryCodec format and opening the same filter from a MappedBloomFilter file
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int capacity;
+
+    @Param({"0.01", "0.001"})
+    public double error_rate;
+
+    private BloomFilter bf;
+    private String serialized;
+    private byte[] binary;
+    private Path mapped;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        bf = new BloomFilter(capacity, error_rate);
+        for(String key : Keys.range(0, capacity)){
+            bf.add(key);
+        }
+        serialized = bf.toString();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bf.writeBinary(out);
+        binary = out.toByteArray();
+        File file = File.createTempFile("jbloom-bench", ".bf");
+        file.delete();
+        mapped = file.toPath();
+        MappedBloomFilter.create(mapped, bf).close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mapped.toFile().delete();
+    }
+
+    @Benchmark
+    public String toStringBloom() {
+        return bf.toString();
+    }
+
+    @Benchmark
+    public BloomFilter fromStringBloom()
+            throws Exception {
+        return BloomFilter.fromString(serialized);
+    }
+
+    @Benchmark
+    public byte[] writeBinaryBloom()
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(binary.length);
+        bf.writeBinary(out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public BloomFilter readBinaryBloom()
+            throws Exception {
+        return BloomFilter.readBinary(new ByteArrayInputStream(binary));
+    }
+
+    @Benchmark
+    public MappedBloomFilter openMapped()
+            throws Exception {
+        return MappedBloomFilter.open(mapped);
+    }
+}
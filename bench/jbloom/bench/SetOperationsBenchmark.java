@@ -0,0 +1,100 @@
+package jbloom.bench;
+
+import jbloom.core.BloomFilter;
+import jbloom.core.DynamicBloomFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * union and intersection of two half overlapping filters of the same shape,
+ * copying ones against the in place unionWith and intersectWith
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SetOperationsBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int capacity;
+
+    @Param({"0.01", "0.001"})
+    public double error_rate;
+
+    private BloomFilter bf1, bf2, into;
+    private DynamicBloomFilter dbf1, dbf2;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        bf1 = new BloomFilter(capacity, error_rate);
+        bf2 = new BloomFilter(capacity, error_rate);
+        for(String key : Keys.range(0, capacity)){
+            bf1.add(key);
+        }
+        for(String key : Keys.range(capacity/2, capacity)){
+            bf2.add(key);
+        }
+        into = bf1.clone();
+
+        //ten sub-filters per dynamic filter
+        int base_capacity = Math.max(1, capacity/10);
+        dbf1 = new DynamicBloomFilter(base_capacity, capacity, error_rate);
+        dbf2 = new DynamicBloomFilter(base_capacity, capacity, error_rate);
+        for(String key : Keys.range(0, capacity)){
+            dbf1.add(key);
+        }
+        for(String key : Keys.range(capacity/2, capacity)){
+            dbf2.add(key);
+        }
+    }
+
+    @Benchmark
+    public BloomFilter union() {
+        return bf1.union(bf2);
+    }
+
+    @Benchmark
+    public BloomFilter intersection() {
+        return bf1.intersection(bf2);
+    }
+
+    /**
+     * ORing the same filter in again doesn't change the bits, so every invocation does the same work
+     */
+    @Benchmark
+    public BloomFilter unionWith() {
+        return into.unionWith(bf2);
+    }
+
+    @Benchmark
+    public BloomFilter intersectWith() {
+        return into.intersectWith(bf2);
+    }
+
+    /**
+     * union copies dbf1 and leaves both inputs as they were, so dbf2 doesn't grow between invocations
+     */
+    @Benchmark
+    public DynamicBloomFilter dynamicUnion() {
+        return dbf1.union(dbf2);
+    }
+
+    @Benchmark
+    public DynamicBloomFilter dynamicIntersection()
+            throws Exception {
+        return dbf1.intersection(dbf2);
+    }
+}
@@ -0,0 +1,57 @@
+package jbloom.bench;
+
+import jbloom.core.BloomFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The popcount statistics on filters of 12MB and 120MB. Counting bits takes the same time
+ * whatever they are, so the filters only get a million keys each
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatisticsBenchmark {
+    @Param({"10000000", "100000000"})
+    public int capacity;
+
+    private BloomFilter bf1, bf2;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        bf1 = new BloomFilter(capacity, 0.01);
+        bf2 = new BloomFilter(capacity, 0.01);
+        bf1.addAll(Keys.range(0, 1000000));
+        bf2.addAll(Keys.range(500000, 1000000));
+    }
+
+    @Benchmark
+    public double estimatedCount() {
+        return bf1.getEstimatedCount();
+    }
+
+    @Benchmark
+    public double falsePositiveRate() {
+        return bf1.getFalsePositiveRate();
+    }
+
+    @Benchmark
+    public double intersectionCount() {
+        return bf1.estimateIntersectionCount(bf2);
+    }
+}
@@ -0,0 +1,508 @@
+package jbloom.core;
+
+import jbloom.util.Funnel;
+import jbloom.util.HashFn;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Looks up and adds keys asynchronously, for many threads each asking about one key at a time.
+ * Calls return a CompletableFuture straight away and queue the key; a single task on the executor
+ * takes the queued keys in micro-batches and runs each batch through hasAll or addAll, so one pass
+ * hashes every key and probes the bits slice by slice while the threads that asked wait for their
+ * answer, not for each other. A batch is cut when it has max_batch keys or when its first key has
+ * waited max_delay, whichever comes first, so a lone key is answered after at most max_delay.
+ *
+ * At most max_pending keys can be waiting: a call that would go past that blocks until a batch
+ * finishes, which holds back a burst instead of letting the queue, and so the wait of every key
+ * in it, grow without bound. Blocking is cheap on virtual threads, pass an executor of them to run
+ * the batches on one. Only the batch task touches the filter, one batch after another, so it can be
+ * a plain BloomFilter or DynamicBloomFilter as long as nothing else changes it.
+ *
+ * Futures are completed on the executor: don't wait on another call's result in a callback that runs
+ * there, use the async variants of CompletableFuture for that
+ */
+public class BatchingFilter implements Closeable {
+    public static final int DEFAULT_MAX_BATCH = 256;
+    public static final long DEFAULT_MAX_DELAY_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    public static final int DEFAULT_MAX_PENDING = 16384;
+
+    /**
+     * hasAll or addAll of the filter
+     */
+    private interface Batch {
+        long[] run(KeyBatch keys, boolean add)
+                throws NoSuchAlgorithmException;
+    }
+
+    /**
+     * One queued key, whatever its type, hashed when its batch runs
+     */
+    private abstract static class Key {
+        /**
+         * Hashes the key into the calling thread's buffer of hash
+         * @param hash
+         * @return 1 hash for each of the segments of the bloom filter, see HashFn.hashToBuffer
+         */
+        abstract int[] hash(HashFn hash);
+
+        static Key of(final CharSequence key) {
+            return new Key() {
+                @Override
+                int[] hash(HashFn hash) {
+                    return hash.hashToBuffer(key);
+                }
+            };
+        }
+
+        static Key of(final long key) {
+            return new Key() {
+                @Override
+                int[] hash(HashFn hash) {
+                    return hash.hashToBuffer(key);
+                }
+            };
+        }
+
+        static Key of(final byte[] key) {
+            return new Key() {
+                @Override
+                int[] hash(HashFn hash) {
+                    return hash.hashToBuffer(key, 0, key.length);
+                }
+            };
+        }
+
+        static <T> Key of(final T key, final Funnel<? super T> funnel) {
+            return new Key() {
+                @Override
+                int[] hash(HashFn hash) {
+                    return hash.hashToBuffer(key, funnel);
+                }
+            };
+        }
+    }
+
+    private static final class Request {
+        final Key key;
+        final boolean add;
+        final long submitted = System.nanoTime();
+        final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+
+        Request(Key key, boolean add) {
+            this.key = key;
+            this.add = add;
+        }
+    }
+
+    private final Batch filter;
+    private final int max_batch, max_pending;
+    private final long max_delay;
+    private final Executor executor;
+    private final ExecutorService owned;
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+    private final Semaphore permits;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong batches = new AtomicLong(), keys = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Batches for filter on a thread of its own, with the default bounds
+     * @param filter
+     */
+    public BatchingFilter(BloomFilter filter) {
+        this(filter, DEFAULT_MAX_BATCH, DEFAULT_MAX_DELAY_NANOS, TimeUnit.NANOSECONDS, DEFAULT_MAX_PENDING, null);
+    }
+
+    /**
+     * @param filter
+     * @param max_batch most keys in a batch
+     * @param max_delay longest a key waits for its batch to fill, 0 to batch only the keys already queued
+     * @param unit of max_delay
+     * @param max_pending most keys queued or in a batch before calls block
+     * @param executor runs the batches, null for a thread of its own that close stops
+     */
+    public BatchingFilter(final BloomFilter filter, int max_batch, long max_delay, TimeUnit unit, int max_pending,
+                          Executor executor) {
+        this(new Batch() {
+            @Override
+            public long[] run(KeyBatch keys, boolean add) {
+                return filter.batch(keys, add);
+            }
+        }, max_batch, max_delay, unit, max_pending, executor);
+    }
+
+    /**
+     * Batches for filter on a thread of its own, with the default bounds
+     * @param filter
+     */
+    public BatchingFilter(DynamicBloomFilter filter) {
+        this(filter, DEFAULT_MAX_BATCH, DEFAULT_MAX_DELAY_NANOS, TimeUnit.NANOSECONDS, DEFAULT_MAX_PENDING, null);
+    }
+
+    /**
+     * @param filter
+     * @param max_batch most keys in a batch
+     * @param max_delay longest a key waits for its batch to fill, 0 to batch only the keys already queued
+     * @param unit of max_delay
+     * @param max_pending most keys queued or in a batch before calls block
+     * @param executor runs the batches, null for a thread of its own that close stops
+     */
+    public BatchingFilter(final DynamicBloomFilter filter, int max_batch, long max_delay, TimeUnit unit, int max_pending,
+                          Executor executor) {
+        this(new Batch() {
+            @Override
+            public long[] run(KeyBatch keys, boolean add)
+                    throws NoSuchAlgorithmException {
+                return add ? filter.addAll(keys) : filter.hasAll(keys);
+            }
+        }, max_batch, max_delay, unit, max_pending, executor);
+    }
+
+    private BatchingFilter(Batch filter, int max_batch, long max_delay, TimeUnit unit, int max_pending, Executor executor) {
+        if(max_batch < 1 || max_pending < 1 || max_delay < 0){
+            throw new IllegalArgumentException("A batching filter needs a max_batch and max_pending of at least 1, and a max_delay of at least 0");
+        }
+        this.filter = filter;
+        this.max_batch = max_batch;
+        this.max_delay = unit.toNanos(max_delay);
+        this.max_pending = max_pending;
+        this.permits = new Semaphore(max_pending);
+        if(executor == null){
+            this.owned = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "jbloom-batcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.executor = owned;
+        }
+        else{
+            this.owned = null;
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * Lookup to see if a key is in the filter, see BloomFilter.has(CharSequence)
+     * @param key
+     * @return completes with True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public CompletableFuture<Boolean> has(CharSequence key) {
+        return submit(Key.of(key), false);
+    }
+
+    /**
+     * Lookup to see if the bytes key[off, off + len) are in the filter. They are copied, key can be reused
+     * @param key
+     * @param off
+     * @param len
+     * @return completes with True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public CompletableFuture<Boolean> has(byte[] key, int off, int len) {
+        return submit(Key.of(Arrays.copyOfRange(key, off, off + len)), false);
+    }
+
+    /**
+     * Lookup to see if the remaining bytes of key are in the filter. They are copied, without moving key's position
+     * @param key
+     * @return completes with True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public CompletableFuture<Boolean> has(ByteBuffer key) {
+        return submit(Key.of(copy(key)), false);
+    }
+
+    /**
+     * Lookup to see if a number is in the filter, see BloomFilter.has(long)
+     * @param key
+     * @return completes with True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public CompletableFuture<Boolean> has(long key) {
+        return submit(Key.of(key), false);
+    }
+
+    /**
+     * Lookup to see if the bytes funnel writes for key are in the filter. The funnel runs in the batch,
+     * so key shouldn't change until the result completes
+     * @param key
+     * @param funnel
+     * @return completes with True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public <T> CompletableFuture<Boolean> has(T key, Funnel<? super T> funnel) {
+        return submit(Key.of(key, funnel), false);
+    }
+
+    /**
+     * Adds a key to the filter, see BloomFilter.add(CharSequence)
+     * @param key
+     * @return completes with True if the key was already in, or exceptionally with what the filter threw
+     */
+    public CompletableFuture<Boolean> add(CharSequence key) {
+        return submit(Key.of(key), true);
+    }
+
+    /**
+     * Adds the bytes key[off, off + len) to the filter. They are copied, key can be reused
+     * @param key
+     * @param off
+     * @param len
+     * @return completes with True if the key was already in, or exceptionally with what the filter threw
+     */
+    public CompletableFuture<Boolean> add(byte[] key, int off, int len) {
+        return submit(Key.of(Arrays.copyOfRange(key, off, off + len)), true);
+    }
+
+    /**
+     * Adds the remaining bytes of key to the filter. They are copied, without moving key's position
+     * @param key
+     * @return completes with True if the key was already in, or exceptionally with what the filter threw
+     */
+    public CompletableFuture<Boolean> add(ByteBuffer key) {
+        return submit(Key.of(copy(key)), true);
+    }
+
+    /**
+     * Adds a number to the filter, see BloomFilter.add(long)
+     * @param key
+     * @return completes with True if the key was already in, or exceptionally with what the filter threw
+     */
+    public CompletableFuture<Boolean> add(long key) {
+        return submit(Key.of(key), true);
+    }
+
+    /**
+     * Adds the bytes funnel writes for key to the filter. The funnel runs in the batch,
+     * so key shouldn't change until the result completes
+     * @param key
+     * @param funnel
+     * @return completes with True if the key was already in, or exceptionally with what the filter threw
+     */
+    public <T> CompletableFuture<Boolean> add(T key, Funnel<? super T> funnel) {
+        return submit(Key.of(key, funnel), true);
+    }
+
+    private static byte[] copy(ByteBuffer key) {
+        byte[] copy = new byte[key.remaining()];
+        key.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * Queues a key, blocking while max_pending keys are, and starts the batch task if it isn't running
+     * @param key hashes the key
+     * @param add
+     * @return completes with the key's bit of the batch result
+     */
+    private CompletableFuture<Boolean> submit(Key key, boolean add) {
+        Request request = new Request(key, add);
+        if(closed){
+            request.result.completeExceptionally(new RejectedExecutionException("Batching filter is closed"));
+            return request.result;
+        }
+        try {
+            permits.acquire();
+        }catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.result.completeExceptionally(e);
+            return request.result;
+        }
+        //close may have run while this waited for a permit, and it doesn't wait for keys queued after it
+        if(closed){
+            permits.release();
+            request.result.completeExceptionally(new RejectedExecutionException("Batching filter is closed"));
+            return request.result;
+        }
+        queue.add(request);
+        if(running.compareAndSet(false, true)){
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                });
+            }catch(RejectedExecutionException e) {
+                running.set(false);
+                fail(e);
+            }
+        }
+        return request.result;
+    }
+
+    /**
+     * Fails every queued key
+     * @param e
+     */
+    private void fail(Throwable e) {
+        List<Request> requests = new ArrayList<Request>();
+        queue.drainTo(requests);
+        permits.release(requests.size());
+        for(Request request : requests){
+            request.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * The batch task: cuts batches off the queue and runs them until the queue is empty
+     */
+    private void drain() {
+        List<Request> batch = new ArrayList<Request>(max_batch);
+        try {
+            while(true){
+                Request first = queue.poll();
+                if(first == null){
+                    running.set(false);
+                    //a key queued after the poll saw running still set, and didn't start a task
+                    if(queue.isEmpty() || !running.compareAndSet(false, true)){
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.submitted + max_delay;
+                while(batch.size() < max_batch){
+                    queue.drainTo(batch, max_batch - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if(batch.size() == max_batch || wait <= 0){
+                        break;
+                    }
+                    Request next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if(next == null){
+                        break;
+                    }
+                    batch.add(next);
+                }
+                run(batch);
+                batch.clear();
+            }
+        }catch(InterruptedException e) {
+            //the executor is shutting down
+            running.set(false);
+            for(Request request : batch){
+                request.result.completeExceptionally(e);
+            }
+            permits.release(batch.size());
+            fail(e);
+        }
+    }
+
+    /**
+     * Runs a batch, each run of lookups or adds with one hasAll or addAll so that keys see the adds
+     * queued before them
+     * @param batch
+     */
+    private void run(List<Request> batch) {
+        int n = batch.size();
+        boolean[] found = new boolean[n];
+        Throwable[] errors = new Throwable[n];
+        for(int from = 0, to; from < n; from = to){
+            boolean add = batch.get(from).add;
+            for(to = from + 1; to < n && batch.get(to).add == add; to++){
+                //find the end of the run
+            }
+            try {
+                long[] result = filter.run(keys(batch, from, to), add);
+                for(int i = 0; i < to - from; i++){
+                    found[from + i] = (result[i >>> 6] >>> i & 1) != 0;
+                }
+            }catch(Throwable e) {
+                Arrays.fill(errors, from, to, e);
+            }
+        }
+        batches.incrementAndGet();
+        keys.addAndGet(n);
+        //free the room first, so a callback that queues another key doesn't wait on this thread
+        permits.release(n);
+        for(int i = 0; i < n; i++){
+            if(errors[i] != null){
+                batch.get(i).result.completeExceptionally(errors[i]);
+            }
+            else{
+                batch.get(i).result.complete(found[i]);
+            }
+        }
+    }
+
+    private static KeyBatch keys(final List<Request> batch, final int from, final int to) {
+        return new KeyBatch() {
+            @Override
+            int size() {
+                return to - from;
+            }
+
+            @Override
+            int[] hash(HashFn hash, int i) {
+                return batch.get(from + i).key.hash(hash);
+            }
+        };
+    }
+
+    /**
+     * Stops taking keys and waits for the queued ones to be answered.
+     * Calls after this complete exceptionally with a RejectedExecutionException
+     */
+    @Override
+    public void close() {
+        closed = true;
+        permits.acquireUninterruptibly(max_pending);
+        permits.release(max_pending);
+        if(owned != null){
+            owned.shutdown();
+        }
+    }
+
+    /**
+     * @return number of batches run
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return number of keys answered, over getBatches that is the mean batch size
+     */
+    public long getKeys() {
+        return keys.get();
+    }
+
+    /**
+     * @return keys queued or in the batch being run
+     */
+    public int getPending() {
+        return max_pending - permits.availablePermits();
+    }
+
+    public int getMaxBatch() {
+        return max_batch;
+    }
+
+    public int getMaxPending() {
+        return max_pending;
+    }
+
+    /**
+     * @param unit
+     * @return longest a key waits for its batch to fill
+     */
+    public long getMaxDelay(TimeUnit unit) {
+        return unit.convert(max_delay, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,710 @@
+package jbloom.core;
+
+import jbloom.metrics.FilterEvents;
+import jbloom.util.BitArray;
+import jbloom.util.HashStrategy;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A compact binary format for BloomFilters, DynamicBloomFilters, ShardedBloomFilters and CuckooFilters, for shipping filters between
+ * java processes. It is about half the size of the text format even for a full filter, and lightly
+ * filled filters (like the newest bloom filter of a DynamicBloomFilter) shrink much further.
+ *
+ * A record starts with the magic "JBLF", a version byte and a kind byte (0 bloom filter,
+ * 1 dynamic bloom filter, 2 blocked bloom filter, 3 sharded bloom filter, 4 filter delta,
+ * 5 dynamic filter delta, 6 cuckoo filter), followed by the parameters and bits, and ends with the CRC32 of everything
+ * before it. The parameters of each bloom filter also have a CRC32 of their own, checked before
+ * anything is allocated for the bits. Numbers are big endian (DataOutput). The bits are split into blocks of 4096 bits,
+ * each written whichever way is smallest:
+ *  EMPTY  no set bits, just the block type
+ *  SPARSE the number of set bits and their positions in the block, 2 bytes each
+ *  DENSE  the block's bytes as they appear in the text format
+ * A delta (see FilterDelta) has the shape of its filter, the count and the number of words,
+ * then each changed word as its offset (int) and its value (long).
+ * A cuckoo filter has its parameters with their own CRC32, its table words as they are (fingerprints are
+ * random, there is nothing to squeeze) and its stash as (bucket, fingerprint) int pairs.
+ *
+ * A codec adds up the sizes of everything it writes, see getCompressionRatio.
+ * Not thread safe
+ */
+public class BinaryCodec {
+    private static final int MAGIC = 0x4A424C46; // "JBLF"
+    private static final int VERSION = 1;
+    private static final int BLOOM_FILTER = 0, DYNAMIC_BLOOM_FILTER = 1, BLOCKED_BLOOM_FILTER = 2,
+            SHARDED_BLOOM_FILTER = 3, FILTER_DELTA = 4, DYNAMIC_FILTER_DELTA = 5, CUCKOO_FILTER = 6;
+    private static final int EMPTY = 0, SPARSE = 1, DENSE = 2;
+    private static final int BLOCK_WORDS = 64; // 4096 bits, so a position fits in 2 bytes
+    private static final int PARAMS_SIZE = 8 + 4 * 4 + 1;
+
+    private final byte[] block = new byte[1 + 8 * BLOCK_WORDS];
+    private long raw_bytes, encoded_bytes;
+
+    /**
+     * Writes a bloom filter record. out is flushed but not closed
+     * @param filter
+     * @param out
+     * @throws IOException
+     */
+    public void write(BloomFilter filter, OutputStream out)
+            throws IOException {
+        Object event = FilterEvents.beginSerialization();
+        Counter counter = new Counter(out);
+        CheckedOutputStream checked = new CheckedOutputStream(counter, new CRC32());
+        DataOutputStream data = new DataOutputStream(checked);
+        writeHeader(data, filter.blocked() ? BLOCKED_BLOOM_FILTER : BLOOM_FILTER);
+        writeFilter(filter, data);
+        finish(data, checked, counter);
+        FilterEvents.endSerialization(event, filter.getClass(), "binary", true, filter.numBits());
+    }
+
+    /**
+     * Writes a dynamic bloom filter record, with all of its bloom filters. out is flushed but not closed
+     * @param filter
+     * @param out
+     * @throws IOException
+     */
+    public void write(DynamicBloomFilter filter, OutputStream out)
+            throws IOException {
+        Object event = FilterEvents.beginSerialization();
+        Counter counter = new Counter(out);
+        CheckedOutputStream checked = new CheckedOutputStream(counter, new CRC32());
+        DataOutputStream data = new DataOutputStream(checked);
+        writeHeader(data, DYNAMIC_BLOOM_FILTER);
+        data.writeInt(filter.getBaseCapacity());
+        data.writeInt(filter.getMaxCapacity());
+        data.writeDouble(filter.getErrorRate());
+        data.writeByte(filter.getStrategy().ordinal());
+        data.writeInt(filter.filters().size());
+        for(BloomFilter bf : filter.filters()){
+            writeFilter(bf, data);
+        }
+        finish(data, checked, counter);
+        FilterEvents.endSerialization(event, DynamicBloomFilter.class, "binary", true, filter.numBits());
+    }
+
+    /**
+     * Writes a sharded bloom filter record, with all of its shards. out is flushed but not closed
+     * @param filter
+     * @param out
+     * @throws IOException
+     */
+    public void write(ShardedBloomFilter filter, OutputStream out)
+            throws IOException {
+        Object event = FilterEvents.beginSerialization();
+        Counter counter = new Counter(out);
+        CheckedOutputStream checked = new CheckedOutputStream(counter, new CRC32());
+        DataOutputStream data = new DataOutputStream(checked);
+        writeHeader(data, SHARDED_BLOOM_FILTER);
+        data.writeInt(filter.getCapacity());
+        data.writeDouble(filter.getErrorRate());
+        data.writeInt(filter.getNumShards());
+        for(BloomFilter shard : filter.shards()){
+            writeFilter(shard, data);
+        }
+        finish(data, checked, counter);
+        FilterEvents.endSerialization(event, ShardedBloomFilter.class, "binary", true, filter.numBits());
+    }
+
+    /**
+     * Reads a bloom filter record, leaving anything after it in the stream unread
+     * @param in
+     * @return BloomFilter with exactly the bits that were written, a BlockedBloomFilter if one was written
+     * @throws IOException if the record is corrupt or isn't a bloom filter
+     * @throws NoSuchAlgorithmException
+     */
+    public BloomFilter readBloomFilter(InputStream in)
+            throws IOException, NoSuchAlgorithmException {
+        Object event = FilterEvents.beginSerialization();
+        CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+        DataInputStream data = new DataInputStream(checked);
+        int kind = readHeader(data);
+        if(kind != BLOOM_FILTER && kind != BLOCKED_BLOOM_FILTER){
+            throw new IOException("Expected a bloom filter but found kind " + kind);
+        }
+        BloomFilter filter = readFilter(data, kind);
+        checkCrc(data, checked);
+        FilterEvents.endSerialization(event, filter.getClass(), "binary", false, filter.numBits());
+        return filter;
+    }
+
+    /**
+     * Reads a dynamic bloom filter record, leaving anything after it in the stream unread
+     * @param in
+     * @return DynamicBloomFilter with exactly the bloom filters that were written
+     * @throws IOException if the record is corrupt or isn't a dynamic bloom filter
+     * @throws NoSuchAlgorithmException
+     */
+    public DynamicBloomFilter readDynamicBloomFilter(InputStream in)
+            throws IOException, NoSuchAlgorithmException {
+        Object event = FilterEvents.beginSerialization();
+        CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+        DataInputStream data = new DataInputStream(checked);
+        int kind = readHeader(data);
+        if(kind != DYNAMIC_BLOOM_FILTER){
+            throw new IOException("Expected a dynamic bloom filter but found kind " + kind);
+        }
+        int base_capacity = data.readInt();
+        int max_capacity = data.readInt();
+        double error_rate = data.readDouble();
+        HashStrategy strategy = readStrategy(data);
+        int num_filters = data.readInt();
+        if(num_filters < 0){
+            throw new IOException("Negative number of bloom filters: " + num_filters);
+        }
+        DynamicBloomFilter filter = new DynamicBloomFilter(base_capacity, max_capacity, error_rate, strategy);
+        for(int i = 0; i < num_filters; i++){
+            filter.filters().add(readFilter(data, BLOOM_FILTER));
+        }
+        checkCrc(data, checked);
+        try {
+            DynamicBloomFilter.checkSameShape(filter.filters());
+        }catch(IllegalArgumentException e) {
+            throw new IOException(e);
+        }
+        FilterEvents.endSerialization(event, DynamicBloomFilter.class, "binary", false, filter.numBits());
+        return filter;
+    }
+
+    /**
+     * Reads a sharded bloom filter record, leaving anything after it in the stream unread
+     * @param in
+     * @return ShardedBloomFilter with exactly the shards that were written
+     * @throws IOException if the record is corrupt or isn't a sharded bloom filter
+     * @throws NoSuchAlgorithmException
+     */
+    public ShardedBloomFilter readShardedBloomFilter(InputStream in)
+            throws IOException, NoSuchAlgorithmException {
+        Object event = FilterEvents.beginSerialization();
+        CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+        DataInputStream data = new DataInputStream(checked);
+        int kind = readHeader(data);
+        if(kind != SHARDED_BLOOM_FILTER){
+            throw new IOException("Expected a sharded bloom filter but found kind " + kind);
+        }
+        int capacity = data.readInt();
+        double error_rate = data.readDouble();
+        int num_shards = data.readInt();
+        if(num_shards < 1){
+            throw new IOException("Bad number of shards: " + num_shards);
+        }
+        List<BloomFilter> shards = new ArrayList<BloomFilter>();
+        for(int i = 0; i < num_shards; i++){
+            shards.add(readFilter(data, SHARDED_BLOOM_FILTER));
+        }
+        checkCrc(data, checked);
+        ShardedBloomFilter filter;
+        try {
+            filter = ShardedBloomFilter.fromShards(capacity, error_rate, num_shards, shards);
+        }catch(IllegalArgumentException e) {
+            throw new IOException(e);
+        }
+        FilterEvents.endSerialization(event, ShardedBloomFilter.class, "binary", false, filter.numBits());
+        return filter;
+    }
+
+    /**
+     * Writes a filter delta record. out is flushed but not closed
+     * @param delta
+     * @param out
+     * @throws IOException
+     */
+    public void write(FilterDelta delta, OutputStream out)
+            throws IOException {
+        Object event = FilterEvents.beginSerialization();
+        Counter counter = new Counter(out);
+        CheckedOutputStream checked = new CheckedOutputStream(counter, new CRC32());
+        DataOutputStream data = new DataOutputStream(checked);
+        writeHeader(data, FILTER_DELTA);
+        writeDelta(delta, data);
+        finish(data, checked, counter);
+        FilterEvents.endSerialization(event, FilterDelta.class, "binary", true, 64L * delta.getNumWords());
+    }
+
+    /**
+     * Writes a dynamic filter delta record, with the deltas of all of its bloom filters. out is flushed but not closed
+     * @param delta
+     * @param out
+     * @throws IOException
+     */
+    public void write(DynamicFilterDelta delta, OutputStream out)
+            throws IOException {
+        Object event = FilterEvents.beginSerialization();
+        Counter counter = new Counter(out);
+        CheckedOutputStream checked = new CheckedOutputStream(counter, new CRC32());
+        DataOutputStream data = new DataOutputStream(checked);
+        writeHeader(data, DYNAMIC_FILTER_DELTA);
+        data.writeInt(delta.getNumFilters());
+        int[] indices = delta.indices();
+        data.writeInt(indices.length);
+        for(int i = 0; i < indices.length; i++){
+            data.writeInt(indices[i]);
+            writeDelta(delta.getDeltas().get(i), data);
+        }
+        finish(data, checked, counter);
+        FilterEvents.endSerialization(event, DynamicFilterDelta.class, "binary", true, 64L * delta.getNumWords());
+    }
+
+    /**
+     * Reads a filter delta record, leaving anything after it in the stream unread
+     * @param in
+     * @return FilterDelta
+     * @throws IOException if the record is corrupt or isn't a filter delta
+     */
+    public FilterDelta readFilterDelta(InputStream in)
+            throws IOException {
+        Object event = FilterEvents.beginSerialization();
+        CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+        DataInputStream data = new DataInputStream(checked);
+        int kind = readHeader(data);
+        if(kind != FILTER_DELTA){
+            throw new IOException("Expected a filter delta but found kind " + kind);
+        }
+        FilterDelta delta = readDelta(data);
+        checkCrc(data, checked);
+        FilterEvents.endSerialization(event, FilterDelta.class, "binary", false, 64L * delta.getNumWords());
+        return delta;
+    }
+
+    /**
+     * Reads a dynamic filter delta record, leaving anything after it in the stream unread
+     * @param in
+     * @return DynamicFilterDelta
+     * @throws IOException if the record is corrupt or isn't a dynamic filter delta
+     */
+    public DynamicFilterDelta readDynamicFilterDelta(InputStream in)
+            throws IOException {
+        Object event = FilterEvents.beginSerialization();
+        CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+        DataInputStream data = new DataInputStream(checked);
+        int kind = readHeader(data);
+        if(kind != DYNAMIC_FILTER_DELTA){
+            throw new IOException("Expected a dynamic filter delta but found kind " + kind);
+        }
+        int num_filters = data.readInt();
+        int n = data.readInt();
+        if(n < 0 || n > num_filters){
+            throw new IOException("Bad number of deltas " + n + " for " + num_filters + " bloom filters");
+        }
+        int[] indices = new int[n];
+        List<FilterDelta> deltas = new ArrayList<FilterDelta>(n);
+        for(int i = 0; i < n; i++){
+            indices[i] = data.readInt();
+            if(indices[i] < (i == 0 ? 0 : indices[i - 1] + 1) || indices[i] >= num_filters){
+                throw new IOException("Bad bloom filter index " + indices[i]);
+            }
+            deltas.add(readDelta(data));
+        }
+        checkCrc(data, checked);
+        DynamicFilterDelta delta = new DynamicFilterDelta(num_filters, indices, deltas);
+        FilterEvents.endSerialization(event, DynamicFilterDelta.class, "binary", false, 64L * delta.getNumWords());
+        return delta;
+    }
+
+    /**
+     * Writes a cuckoo filter record. out is flushed but not closed
+     * @param filter
+     * @param out
+     * @throws IOException
+     */
+    public void write(CuckooFilter filter, OutputStream out)
+            throws IOException {
+        Object event = FilterEvents.beginSerialization();
+        Counter counter = new Counter(out);
+        CheckedOutputStream checked = new CheckedOutputStream(counter, new CRC32());
+        DataOutputStream data = new DataOutputStream(checked);
+        writeHeader(data, CUCKOO_FILTER);
+        ByteBuffer params = ByteBuffer.wrap(block, 0, PARAMS_SIZE);
+        params.putDouble(filter.getErrorRate());
+        params.putInt(filter.getCapacity());
+        params.putInt(filter.getFingerprintBits());
+        params.putInt(filter.getNumBuckets());
+        params.putInt(filter.getCount());
+        params.put((byte) filter.getStrategy().ordinal());
+        data.write(block, 0, PARAMS_SIZE);
+        data.writeInt(crc(block, PARAMS_SIZE));
+        long[] table = filter.table();
+        ByteBuffer words = ByteBuffer.wrap(block, 0, 8 * BLOCK_WORDS);
+        for(int first = 0; first < table.length; first += BLOCK_WORDS){
+            int n = Math.min(BLOCK_WORDS, table.length - first);
+            words.clear();
+            for(int i = first; i < first + n; i++){
+                words.putLong(table[i]);
+            }
+            data.write(block, 0, 8 * n);
+        }
+        raw_bytes += 8L * table.length;
+        data.writeInt(filter.getStashSize());
+        for(int i = 0; i < filter.getStashSize(); i++){
+            data.writeInt(filter.stashBucket(i));
+            data.writeInt(filter.stashFingerprint(i));
+        }
+        finish(data, checked, counter);
+        FilterEvents.endSerialization(event, CuckooFilter.class, "binary", true, filter.numBits());
+    }
+
+    /**
+     * Reads a cuckoo filter record, leaving anything after it in the stream unread
+     * @param in
+     * @return CuckooFilter with exactly the fingerprints that were written
+     * @throws IOException if the record is corrupt or isn't a cuckoo filter
+     * @throws NoSuchAlgorithmException
+     */
+    public CuckooFilter readCuckooFilter(InputStream in)
+            throws IOException, NoSuchAlgorithmException {
+        Object event = FilterEvents.beginSerialization();
+        CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+        DataInputStream data = new DataInputStream(checked);
+        int kind = readHeader(data);
+        if(kind != CUCKOO_FILTER){
+            throw new IOException("Expected a cuckoo filter but found kind " + kind);
+        }
+        data.readFully(block, 0, PARAMS_SIZE);
+        if(data.readInt() != crc(block, PARAMS_SIZE)){
+            throw new IOException("Binary bloom filter checksum mismatch");
+        }
+        ByteBuffer params = ByteBuffer.wrap(block, 0, PARAMS_SIZE);
+        double error_rate = params.getDouble();
+        int capacity = params.getInt();
+        int fingerprint_bits = params.getInt();
+        int num_buckets = params.getInt();
+        int count = params.getInt();
+        int strategy = params.get() & 0xff;
+        if(strategy >= HashStrategy.values().length){
+            throw new IOException("Unknown hash strategy " + strategy);
+        }
+        CuckooFilter filter;
+        try {
+            filter = new CuckooFilter(error_rate, capacity, fingerprint_bits, num_buckets, count,
+                    HashStrategy.values()[strategy]);
+        }catch(IllegalArgumentException e) {
+            throw new IOException(e);
+        }
+        long[] table = filter.table();
+        ByteBuffer words = ByteBuffer.wrap(block, 0, 8 * BLOCK_WORDS);
+        for(int first = 0; first < table.length; first += BLOCK_WORDS){
+            int n = Math.min(BLOCK_WORDS, table.length - first);
+            data.readFully(block, 0, 8 * n);
+            words.clear();
+            for(int i = first; i < first + n; i++){
+                table[i] = words.getLong();
+            }
+        }
+        int stash_size = data.readInt();
+        try {
+            for(int i = 0; i < stash_size; i++){
+                filter.stash(data.readInt(), data.readInt());
+            }
+        }catch(IllegalArgumentException e) {
+            throw new IOException(e);
+        }
+        checkCrc(data, checked);
+        FilterEvents.endSerialization(event, CuckooFilter.class, "binary", false, filter.numBits());
+        return filter;
+    }
+
+    private void writeDelta(FilterDelta delta, DataOutputStream data)
+            throws IOException {
+        data.writeInt(delta.getNumSlices());
+        data.writeInt(delta.getBitsPerSlice());
+        data.writeByte(delta.getStrategy().ordinal());
+        data.writeBoolean(delta.blocked());
+        data.writeInt(delta.getCount());
+        int[] offsets = delta.offsets();
+        long[] words = delta.words();
+        data.writeInt(offsets.length);
+        for(int i = 0; i < offsets.length; i++){
+            data.writeInt(offsets[i]);
+            data.writeLong(words[i]);
+        }
+        raw_bytes += 8L * offsets.length;
+    }
+
+    private FilterDelta readDelta(DataInputStream data)
+            throws IOException {
+        int num_slices = data.readInt();
+        int bits_per_slice = data.readInt();
+        HashStrategy strategy = readStrategy(data);
+        boolean blocked = data.readBoolean();
+        int count = data.readInt();
+        int n = data.readInt();
+        if(num_slices <= 0 || bits_per_slice <= 0){
+            throw new IOException("Bad bloom filter shape " + num_slices + "x" + bits_per_slice);
+        }
+        //a word can only be in a delta once
+        long num_words = ((blocked ? bits_per_slice : (long) num_slices * bits_per_slice) + 63) >>> 6;
+        if(n < 0 || n > num_words){
+            throw new IOException("Bad number of words " + n + " in a delta");
+        }
+        int[] offsets = new int[n];
+        long[] words = new long[n];
+        for(int i = 0; i < n; i++){
+            offsets[i] = data.readInt();
+            words[i] = data.readLong();
+            if(offsets[i] < (i == 0 ? 0 : offsets[i - 1] + 1) || offsets[i] >= num_words){
+                throw new IOException("Bad word offset " + offsets[i] + " in a delta");
+            }
+        }
+        return new FilterDelta(num_slices, bits_per_slice, strategy, blocked, count, offsets, words);
+    }
+
+    /**
+     * @return bytes the bits of every filter written so far take in dense form
+     */
+    public long getRawBytes() {
+        return raw_bytes;
+    }
+
+    /**
+     * @return bytes of every record written so far, headers and checksums included
+     */
+    public long getEncodedBytes() {
+        return encoded_bytes;
+    }
+
+    /**
+     * @return getRawBytes() / getEncodedBytes(), above 1 when the format saved space, NaN before any record
+     */
+    public double getCompressionRatio() {
+        return (double) raw_bytes / encoded_bytes;
+    }
+
+    private static void writeHeader(DataOutputStream data, int kind)
+            throws IOException {
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeByte(kind);
+    }
+
+    /**
+     * @param data
+     * @return the kind of record
+     * @throws IOException
+     */
+    private static int readHeader(DataInputStream data)
+            throws IOException {
+        if(data.readInt() != MAGIC){
+            throw new IOException("Not a binary bloom filter");
+        }
+        int version = data.readUnsignedByte();
+        if(version != VERSION){
+            throw new IOException("Unsupported binary bloom filter version " + version);
+        }
+        return data.readUnsignedByte();
+    }
+
+    private void finish(DataOutputStream data, CheckedOutputStream checked, Counter counter)
+            throws IOException {
+        //the checksum covers everything before it
+        data.writeInt((int) checked.getChecksum().getValue());
+        data.flush();
+        encoded_bytes += counter.count;
+    }
+
+    private void checkCrc(DataInputStream data, CheckedInputStream checked)
+            throws IOException {
+        int expected = (int) checked.getChecksum().getValue();
+        if(data.readInt() != expected){
+            throw new IOException("Binary bloom filter checksum mismatch");
+        }
+    }
+
+    private static HashStrategy readStrategy(DataInputStream data)
+            throws IOException {
+        int strategy = data.readUnsignedByte();
+        if(strategy >= HashStrategy.values().length){
+            throw new IOException("Unknown hash strategy " + strategy);
+        }
+        return HashStrategy.values()[strategy];
+    }
+
+    private void writeFilter(BloomFilter filter, DataOutputStream data)
+            throws IOException {
+        ByteBuffer params = ByteBuffer.wrap(block, 0, PARAMS_SIZE);
+        params.putDouble(filter.getErrorRate());
+        params.putInt(filter.getNumSlices());
+        params.putInt(filter.getBitsPerSlice());
+        params.putInt(filter.getCapacity());
+        params.putInt(filter.getCount());
+        //ordinals, like MappedBloomFilter, so new strategies must be added at the end of HashStrategy
+        params.put((byte) filter.getStrategy().ordinal());
+        data.write(block, 0, PARAMS_SIZE);
+        //the parameters get their own checksum, so a corrupt size is caught before the bits are allocated
+        data.writeInt(crc(block, PARAMS_SIZE));
+        BitArray bits = filter.bitarray;
+        int num_words = bits.numWords();
+        for(int first = 0; first < num_words; first += BLOCK_WORDS){
+            writeBlock(bits, first, Math.min(BLOCK_WORDS, num_words - first), data);
+        }
+        raw_bytes += (long) num_words * 8;
+    }
+
+    /**
+     * @param data
+     * @param kind of the record, which decides the class of the bloom filter
+     * @return BloomFilter, BlockedBloomFilter or, for the shards of a sharded filter, ConcurrentBloomFilter
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    private BloomFilter readFilter(DataInputStream data, int kind)
+            throws IOException, NoSuchAlgorithmException {
+        data.readFully(block, 0, PARAMS_SIZE);
+        if(data.readInt() != crc(block, PARAMS_SIZE)){
+            throw new IOException("Binary bloom filter checksum mismatch");
+        }
+        ByteBuffer params = ByteBuffer.wrap(block, 0, PARAMS_SIZE);
+        double error_rate = params.getDouble();
+        int num_slices = params.getInt();
+        int bits_per_slice = params.getInt();
+        int capacity = params.getInt();
+        int count = params.getInt();
+        int strategy = params.get() & 0xff;
+        if(strategy >= HashStrategy.values().length){
+            throw new IOException("Unknown hash strategy " + strategy);
+        }
+        if(num_slices <= 0 || bits_per_slice <= 0){
+            throw new IOException("Bad bloom filter shape " + num_slices + "x" + bits_per_slice);
+        }
+        BloomFilter filter;
+        try {
+            if(kind == BLOCKED_BLOOM_FILTER){
+                filter = new BlockedBloomFilter(error_rate, num_slices, bits_per_slice, capacity, count,
+                        HashStrategy.values()[strategy]);
+            }
+            else if(kind == SHARDED_BLOOM_FILTER){
+                filter = new ConcurrentBloomFilter(error_rate, num_slices, bits_per_slice, capacity, count,
+                        HashStrategy.values()[strategy]);
+            }
+            else{
+                filter = new BloomFilter(error_rate, num_slices, bits_per_slice, capacity, count,
+                        HashStrategy.values()[strategy]);
+            }
+        }catch(IllegalArgumentException e) {
+            throw new IOException(e);
+        }
+        BitArray bits = filter.bitarray;
+        int num_words = bits.numWords();
+        for(int first = 0; first < num_words; first += BLOCK_WORDS){
+            readBlock(bits, first, Math.min(BLOCK_WORDS, num_words - first), data);
+        }
+        return filter;
+    }
+
+    private static int crc(byte[] bytes, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, len);
+        return (int) crc.getValue();
+    }
+
+    private void writeBlock(BitArray bits, int first, int words, DataOutputStream data)
+            throws IOException {
+        int set = 0;
+        for(int i = first; i < first + words; i++){
+            set += Long.bitCount(bits.getWord(i));
+        }
+        int n;
+        if(set == 0){
+            block[0] = EMPTY;
+            n = 1;
+        }
+        else if(2 + 2 * set < 8 * words){
+            block[0] = SPARSE;
+            block[1] = (byte) (set >>> 8);
+            block[2] = (byte) set;
+            n = 3;
+            for(int i = 0; i < words; i++){
+                long word = bits.getWord(first + i);
+                while(word != 0){
+                    int position = i * 64 + Long.numberOfTrailingZeros(word);
+                    block[n++] = (byte) (position >>> 8);
+                    block[n++] = (byte) position;
+                    word &= word - 1;
+                }
+            }
+        }
+        else{
+            block[0] = DENSE;
+            n = 1;
+            for(int i = 0; i < words; i++){
+                long word = bits.getWord(first + i);
+                for(int b = 0; b < 8; b++){
+                    block[n++] = (byte) (word >>> (8 * b));
+                }
+            }
+        }
+        data.write(block, 0, n);
+    }
+
+    private void readBlock(BitArray bits, int first, int words, DataInputStream data)
+            throws IOException {
+        int type = data.readUnsignedByte();
+        if(type == EMPTY){
+            return;
+        }
+        if(type == SPARSE){
+            int set = data.readUnsignedShort();
+            if(2 + 2 * set >= 8 * words){
+                throw new IOException("Sparse block with " + set + " bits should have been dense");
+            }
+            data.readFully(block, 0, 2 * set);
+            for(int i = 0; i < 2 * set; i += 2){
+                int position = (block[i] & 0xff) << 8 | (block[i + 1] & 0xff);
+                if(position >= words * 64){
+                    throw new IOException("Bit " + position + " is outside its block");
+                }
+                int word = first + (position >>> 6);
+                bits.setWord(word, bits.getWord(word) | 1L << position);
+            }
+        }
+        else if(type == DENSE){
+            data.readFully(block, 0, 8 * words);
+            for(int i = 0; i < words; i++){
+                long word = 0;
+                for(int b = 7; b >= 0; b--){
+                    word = word << 8 | (block[8 * i + b] & 0xff);
+                }
+                bits.setWord(first + i, word);
+            }
+        }
+        else{
+            throw new IOException("Unknown block type " + type);
+        }
+    }
+
+    /**
+     * Counts the bytes going to the underlying stream, DataOutputStream.size() stops at 2GB
+     */
+    private static final class Counter extends FilterOutputStream {
+        long count;
+
+        Counter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b)
+                throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+                throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
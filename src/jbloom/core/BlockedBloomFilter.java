@@ -0,0 +1,264 @@
+package jbloom.core;
+
+import jbloom.util.BitArray;
+import jbloom.util.HashStrategy;
+
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A blocked bloom filter: each key picks one block of 512 bits, the size of a cache line,
+ * and sets all of its num_slices bits inside that block. A lookup in a filter bigger than the caches
+ * then waits for one cache miss instead of one per slice. The JVM only aligns arrays to 8 bytes,
+ * so a block can straddle two neighbouring lines, which the hardware prefetcher usually fetches together.
+ *
+ * Keys are spread over the blocks unevenly, and the fuller blocks give more false positives than
+ * a sliced filter with the same number of bits, so the filter is made bigger until the expected
+ * error rate is back down to error_rate: about 4% more bits at 0.01, 8% at 0.001 and 16% at 0.0001.
+ *
+ * It has the BloomFilter API, but a blocked filter sets different bits for the same key,
+ * so it can only be combined with other blocked filters, and only jbloom can read it.
+ * getBitsPerSlice is the size of the whole filter, which is a single slice
+ */
+public class BlockedBloomFilter extends BloomFilter {
+    static final int BLOCK_BITS = 512;
+    private static final int BLOCK_MASK = BLOCK_BITS - 1;
+
+    /**
+     * Creates a BlockedBloomFilter
+     * @param capacity the desired maximum capacity for the bloom filter, will be statically set
+     * @param error_rate the desired maximum error rte of the filter
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public BlockedBloomFilter(int capacity, double error_rate)
+            throws NoSuchAlgorithmException {
+        this(capacity, error_rate, HashStrategy.DIGEST);
+    }
+
+    /**
+     * Creates a BlockedBloomFilter that hashes its keys with the given strategy
+     * @param capacity the desired maximum capacity for the bloom filter, will be statically set
+     * @param error_rate the desired maximum error rte of the filter
+     * @param strategy how keys are hashed
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public BlockedBloomFilter(int capacity, double error_rate, HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        this(error_rate, numSlices(error_rate), numBits(capacity, error_rate, numSlices(error_rate)),
+                capacity, 0, strategy);
+        assert(0 < error_rate && error_rate < 1);
+        assert(capacity > 0);
+    }
+
+    /**
+     * Creates a BlockedBloomFilter with explicit parameters, for filters read back from a string
+     * @param error_rate
+     * @param num_slices bits set per key
+     * @param num_bits size of the filter, a multiple of BLOCK_BITS
+     * @param capacity
+     * @param count
+     * @param strategy
+     * @throws NoSuchAlgorithmException
+     */
+    protected BlockedBloomFilter(double error_rate, int num_slices, int num_bits, int capacity, int count,
+                                 HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        super(error_rate, num_slices, num_bits, capacity, count, strategy);
+        if(num_bits % BLOCK_BITS != 0){
+            throw new IllegalArgumentException("A blocked filter needs a multiple of " + BLOCK_BITS
+                    + " bits, not " + num_bits);
+        }
+    }
+
+    /**
+     * Size of a blocked filter holding capacity keys at this error rate
+     * @param capacity
+     * @param error_rate
+     * @param num_slices
+     * @return number of bits, a multiple of BLOCK_BITS
+     */
+    static int numBits(int capacity, double error_rate, int num_slices) {
+        //start from the size of a sliced filter and grow it by 1% at a time
+        double num_bits = (double) num_slices * bitsPerSlice(capacity, error_rate, num_slices);
+        while(errorRate(Math.ceil(num_bits / BLOCK_BITS), capacity, num_slices) > error_rate){
+            num_bits *= 1.01;
+            if(num_bits > Integer.MAX_VALUE){
+                break;
+            }
+        }
+        double num_blocks = Math.ceil(num_bits / BLOCK_BITS);
+        if(num_blocks * BLOCK_BITS > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("A blocked filter of " + (long) (num_blocks * BLOCK_BITS)
+                    + " bits is too big, use a DynamicBloomFilter for this many keys");
+        }
+        return (int) num_blocks * BLOCK_BITS;
+    }
+
+    /**
+     * Expected false positive rate of a full filter. The number of keys in a block is Poisson distributed,
+     * and a block holding i keys gives false positives like a bloom filter of BLOCK_BITS bits holding i keys
+     * @param num_blocks
+     * @param capacity
+     * @param num_slices
+     * @return false positive rate
+     */
+    static double errorRate(double num_blocks, int capacity, int num_slices) {
+        double keys_per_block = capacity / num_blocks;
+        double log_keys_per_block = Math.log(keys_per_block);
+        double log_clear = num_slices * Math.log1p(-1.0 / BLOCK_BITS);
+        //the terms are tiny far from the mean, log space keeps exp(-keys_per_block) from underflowing
+        double log_p = -keys_per_block;
+        double rate = 0;
+        int last = (int) (keys_per_block + 12 * Math.sqrt(keys_per_block) + 12);
+        for(int i = 0; i <= last; i++){
+            rate += Math.exp(log_p) * Math.pow(-Math.expm1(i * log_clear), num_slices);
+            log_p += log_keys_per_block - Math.log(i + 1);
+        }
+        return rate;
+    }
+
+    /**
+     * The bit slice s of a key sets. The first index is used as it is, which picks the block.
+     * The low bits of the other indices can't be used as they are: MURMUR3 indices step by the same
+     * amount from slice to slice, so an even step would keep hitting the same few bits of the block,
+     * and even a multiplicative hash of the indices leaves the bits evenly spaced.
+     * The murmur3 finalizer spreads them like independent random bits
+     * @param hashes
+     * @param key offset of the key's indices in hashes
+     * @param s
+     * @return bit index in the filter
+     */
+    static int index(int[] hashes, int key, int s) {
+        int first = hashes[key];
+        if(s == 0){
+            return first;
+        }
+        int index = hashes[key + s];
+        index ^= index >>> 16;
+        index *= 0x85ebca6b;
+        index ^= index >>> 13;
+        index *= 0xc2b2ae35;
+        index ^= index >>> 16;
+        return (first & ~BLOCK_MASK) + (index & BLOCK_MASK);
+    }
+
+    @Override
+    boolean blocked() {
+        return true;
+    }
+
+    @Override
+    protected boolean hasIndices(int[] hashes) {
+        for(int s = 0; s < hashes.length; s++){
+            if(!bitarray.get(index(hashes, 0, s))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected boolean addIndices(int[] hashes, boolean skip_check)
+            throws IndexOutOfBoundsException {
+        boolean found_all_bits = true;
+        if(getCount() > getCapacity()){
+            throw capacityExceeded();
+        }
+        for(int s = 0; s < hashes.length; s++){
+            if(!bitarray.set(index(hashes, 0, s))){
+                found_all_bits = false;
+            }
+        }
+        if(skip_check || !found_all_bits){
+            incrementCount();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The first index of each key picks its block, so the first pass over the chunk
+     * takes all the cache misses and the other passes read blocks that are already cached
+     */
+    @Override
+    int probeChunk(int[] indices, int m, int[] live, int[] next) {
+        BitArray bits = bitarray;
+        int num_slices = getNumSlices();
+        for(int s = 0; s < num_slices; s++){
+            int kept = 0;
+            for(int j = 0; j < m; j++){
+                int k = live[j];
+                int index = index(indices, k * num_slices, s);
+                next[kept] = k;
+                kept += (int) (bits.getWord(index >>> 6) >>> index & 1);
+            }
+            m = kept;
+            int[] swap = live;
+            live = next;
+            next = swap;
+        }
+        return m;
+    }
+
+    @Override
+    long setChunk(int[] indices, int first, int m) {
+        BitArray bits = bitarray;
+        int num_slices = getNumSlices();
+        long found = m == 64 ? -1L : (1L << m) - 1;
+        for(int s = 0; s < num_slices; s++){
+            for(int k = 0, i = first * num_slices; k < m; k++, i += num_slices){
+                found &= ~((bits.set(index(indices, i, s)) ? 0L : 1L) << k);
+            }
+        }
+        for(int k = 0; k < m; k++){
+            if((found >>> k & 1) == 0){
+                incrementCount();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * A key is found when all its bits are set in the one block it picks, so this is the average
+     * over the blocks of the block's fill ratio to the power num_slices. Blocks fill unevenly,
+     * so it is higher than the fill ratio of the whole filter to that power
+     * @return current false positive rate
+     */
+    @Override
+    public double getFalsePositiveRate() {
+        int words = BLOCK_BITS / 64;
+        double[] rates = new double[BLOCK_BITS + 1];
+        for(int c = 0; c <= BLOCK_BITS; c++){
+            rates[c] = Math.pow((double) c / BLOCK_BITS, getNumSlices());
+        }
+        BitArray bits = bitarray;
+        int num_blocks = getBitsPerSlice() / BLOCK_BITS;
+        double rate = 0;
+        for(int b = 0; b < num_blocks; b++){
+            int set = 0;
+            for(int w = b * words; w < (b + 1) * words; w++){
+                set += Long.bitCount(bits.getWord(w));
+            }
+            rate += rates[set];
+        }
+        return rate / num_blocks;
+    }
+
+    /**
+     * Clone the filter
+     * @return cloned filter
+     */
+    @Override
+    public BlockedBloomFilter clone(){
+        try {
+            BlockedBloomFilter return_bloom = new BlockedBloomFilter(getErrorRate(), getNumSlices(),
+                    getBitsPerSlice(), getCapacity(), getCount(), getStrategy());
+            for(int i = 0; i < bitarray.numWords(); i++){
+                return_bloom.bitarray.setWord(i, bitarray.getWord(i));
+            }
+            return return_bloom;
+        }catch(Exception e) {
+            //should never get here but return null just in case
+            return null;
+        }
+    }
+}
@@ -1,11 +1,29 @@
 package jbloom.core;
 
+import jbloom.metrics.FilterEvents;
+import jbloom.metrics.FilterListener;
+import jbloom.util.BitArray;
+import jbloom.util.Funnel;
 import jbloom.util.HashFn;
+import jbloom.util.HashStrategy;
+import jbloom.util.HeapBitArray;
+import jbloom.util.PagedBitArray;
+import jbloom.util.TrackingBitArray;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
-import java.util.BitSet;
+import java.util.Collection;
+import java.util.stream.Stream;
 
 /**
  * A Bloom Filter is a probabilistic data structure that utilizes
@@ -15,14 +33,23 @@ import java.util.BitSet;
  * of finite hashes and finite bit vectors. This implementation is based
  * on the dynamic-pybloom library from python (https://github.com/srf5132/dynamic-pybloom),
  * and is interoperable with it through the toString and fromString methods
+ * as long as it uses the default DIGEST hash strategy
  */
 public class BloomFilter {
-    protected BitSet bitarray;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    //keys hashed ahead in addAll/hasAll, enough for many cache misses in flight while the indices stay in L1
+    static final int BATCH_CHUNK = 256;
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    protected BitArray bitarray;
     private HashFn hash;
+    private HashStrategy strategy;
     private double error_rate;
-    private int num_slices, bits_per_slice, num_bits;
+    private int num_slices, bits_per_slice;
+    private long num_bits;
 
     private int count,capacity;
+    private FilterListener listener;
 
     /**
      * Creates a standard BloomFilter object
@@ -32,15 +59,52 @@ public class BloomFilter {
      */
     public BloomFilter(int capacity, double error_rate)
             throws NoSuchAlgorithmException {
+        this(capacity, error_rate, HashStrategy.DIGEST);
+    }
+
+    /**
+     * Creates a BloomFilter that hashes its keys with the given strategy
+     * @param capacity the desired maximum capacity for the bloom filter, will be statically set
+     * @param error_rate the desired maximum error rte of the filter
+     * @param strategy how keys are hashed, only DIGEST filters can be read by python
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public BloomFilter(int capacity, double error_rate, HashStrategy strategy)
+            throws NoSuchAlgorithmException {
         assert(0 < error_rate && error_rate < 1);
         assert(capacity > 0);
 
-        num_slices = (int)Math.ceil(Math.log(1.0/error_rate)/Math.log(2));
-        bits_per_slice = (int) Math.ceil(
+        num_slices = numSlices(error_rate);
+        bits_per_slice = bitsPerSlice(capacity, error_rate, num_slices);
+        setup(error_rate, num_slices, bits_per_slice, capacity, 0, strategy);
+    }
+
+    /**
+     * Number of slices (hash functions) a filter with this error rate gets
+     * @param error_rate
+     * @return num_slices
+     */
+    static int numSlices(double error_rate) {
+        return (int)Math.ceil(Math.log(1.0/error_rate)/Math.log(2));
+    }
+
+    /**
+     * Size of each slice for a filter holding capacity keys at this error rate
+     * @param capacity
+     * @param error_rate
+     * @param num_slices
+     * @return bits_per_slice
+     */
+    static int bitsPerSlice(int capacity, double error_rate, int num_slices) {
+        double bits_per_slice = Math.ceil(
                 (capacity * Math.abs(Math.log(error_rate)))
                         / (num_slices * (Math.pow(Math.log(2), 2))));
-        setup(error_rate, num_slices, bits_per_slice, capacity, 0);
-        bitarray = new BitSet();
+        //every slice index has to be an int, python would switch to 64 bit digest chunks here
+        if(bits_per_slice > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Slices of " + (long) bits_per_slice
+                    + " bits are too big, use a DynamicBloomFilter for this many keys");
+        }
+        return (int) bits_per_slice;
     }
 
     /**
@@ -53,6 +117,46 @@ public class BloomFilter {
         this(capacity, 0.001);
     }
 
+    /**
+     * Creates a BloomFilter with explicit parameters, for filters read back from a string
+     * and for extensions of the bloom filter
+     * @param error_rate
+     * @param num_slices
+     * @param bits_per_slice
+     * @param capacity
+     * @param count
+     * @param strategy
+     * @throws NoSuchAlgorithmException
+     */
+    protected BloomFilter(double error_rate, int num_slices, int bits_per_slice, int capacity, int count,
+                          HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        setup(error_rate, num_slices, bits_per_slice, capacity, count, strategy);
+    }
+
+    /**
+     * Creates a BloomFilter over existing bits, for extensions of the bloom filter that keep
+     * their bits somewhere other than the heap
+     * @param error_rate
+     * @param num_slices
+     * @param bits_per_slice
+     * @param capacity
+     * @param count
+     * @param strategy
+     * @param bitarray at least num_slices * bits_per_slice bits
+     * @throws NoSuchAlgorithmException
+     */
+    protected BloomFilter(double error_rate, int num_slices, int bits_per_slice, int capacity, int count,
+                          HashStrategy strategy, BitArray bitarray)
+            throws NoSuchAlgorithmException {
+        init(error_rate, num_slices, bits_per_slice, capacity, count, strategy);
+        if(bitarray.size() < num_bits){
+            throw new IllegalArgumentException("Bit array of " + bitarray.size() + " bits is too small for "
+                    + num_bits + " bits");
+        }
+        this.bitarray = bitarray;
+    }
+
     /**
      * Called to actually create the BloomFilter within the package
      * @param error_rate
@@ -64,16 +168,91 @@ public class BloomFilter {
      */
     protected void setup(double error_rate, int num_slices, int bits_per_slice, int capacity, int count)
             throws NoSuchAlgorithmException {
+        setup(error_rate, num_slices, bits_per_slice, capacity, count, HashStrategy.DIGEST);
+    }
+
+    /**
+     * Called to actually create the BloomFilter within the package
+     * @param error_rate
+     * @param num_slices
+     * @param bits_per_slice
+     * @param capacity
+     * @param count
+     * @param strategy
+     * @throws NoSuchAlgorithmException
+     */
+    protected void setup(double error_rate, int num_slices, int bits_per_slice, int capacity, int count,
+                         HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        init(error_rate, num_slices, bits_per_slice, capacity, count, strategy);
+        this.bitarray = newBitArray(this.num_bits);
+    }
+
+    /**
+     * Sets the parameters and the HashFn, everything but the bits
+     */
+    private void init(double error_rate, int num_slices, int bits_per_slice, int capacity, int count,
+                      HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        this.strategy = strategy;
         this.error_rate = error_rate;
         this.num_slices = num_slices;
         this.bits_per_slice = bits_per_slice;
         this.capacity = capacity;
         this.count = count;
-        this.num_bits = num_slices * bits_per_slice;
+        //bits are indexed with longs, so only the number of 64 bit words has to fit in an int
+        this.num_bits = blocked() ? bits_per_slice : (long) num_slices * bits_per_slice;
+        if(((this.num_bits + 63) >>> 6) > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Too many bits for a bloom filter: " + this.num_bits);
+        }
+        this.hash = strategy.newHashFn(num_slices, bits_per_slice);
+    }
 
-        // if num_bits > Integer.MAX_VALUE the indexing will break
-        assert(this.num_bits <= Integer.MAX_VALUE);
-        this.hash = new HashFn(num_slices, bits_per_slice);
+    /**
+     * @return the filter's HashFn, for filters of the same shape to share the indices of a key
+     */
+    HashFn hashFn() {
+        return hash;
+    }
+
+    /**
+     * Clears every bit and the count, keeping the bit array, for filters that recycle their bloom filters
+     */
+    void clear() {
+        for(int i = 0; i < bitarray.numWords(); i++){
+            bitarray.setWord(i, 0);
+        }
+        setCount(0);
+    }
+
+    /**
+     * @return number of bits, num_slices * bits_per_slice unless the filter is blocked
+     */
+    long numBits() {
+        return num_bits;
+    }
+
+    /**
+     * A blocked filter (see BlockedBloomFilter) has a single slice of bits_per_slice bits,
+     * which each key sets num_slices bits of
+     * @return true for a BlockedBloomFilter
+     */
+    boolean blocked() {
+        return false;
+    }
+
+    /**
+     * Creates an empty bit array for setup, extensions of the bloom filter override this
+     * to store their bits differently.
+     * Filters of up to 2^31 bits get a single long[], bigger ones are split into pages
+     * @param num_bits
+     * @return BitArray with all bits clear
+     */
+    protected BitArray newBitArray(long num_bits) {
+        if(num_bits > Integer.MAX_VALUE){
+            return new PagedBitArray(num_bits);
+        }
+        return new HeapBitArray(num_bits);
     }
 
     /**
@@ -84,8 +263,85 @@ public class BloomFilter {
      */
     public boolean has(String key)
             throws CloneNotSupportedException {
-        int[] hashes = hash.hash(key);
-        int offset = 0;
+        if(listener != null){
+            return observeHas(startTiming(), hash.hashToBuffer(key));
+        }
+        return hasIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if a key is in the bloom filter.
+     * Any CharSequence finds the bits of the String with the same characters
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(CharSequence key) {
+        if(listener != null){
+            return observeHas(startTiming(), hash.hashToBuffer(key));
+        }
+        return hasIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if the bytes key[off, off + len) are in the bloom filter
+     * @param key
+     * @param off
+     * @param len
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(byte[] key, int off, int len) {
+        if(listener != null){
+            return observeHas(startTiming(), hash.hashToBuffer(key, off, len));
+        }
+        return hasIndices(hash.hashToBuffer(key, off, len));
+    }
+
+    /**
+     * Lookup to see if the remaining bytes of key are in the bloom filter.
+     * The bytes are read in place and the buffer's position isn't changed
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(ByteBuffer key) {
+        if(listener != null){
+            return observeHas(startTiming(), hash.hashToBuffer(key));
+        }
+        return hasIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if a number is in the bloom filter.
+     * Numbers hash like their decimal string, so has(42) is has("42"), the same as in python
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(long key) {
+        if(listener != null){
+            return observeHas(startTiming(), hash.hashToBuffer(key));
+        }
+        return hasIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if the bytes funnel writes for key are in the bloom filter
+     * @param key
+     * @param funnel
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public <T> boolean has(T key, Funnel<? super T> funnel) {
+        if(listener != null){
+            return observeHas(startTiming(), hash.hashToBuffer(key, funnel));
+        }
+        return hasIndices(hash.hashToBuffer(key, funnel));
+    }
+
+    /**
+     * Checks the bits of a hashed key
+     * @param hashes one index per slice, from this filter's HashFn
+     * @return True if every bit is set
+     */
+    protected boolean hasIndices(int[] hashes) {
+        long offset = 0;
         for(int i : hashes){
             if(!bitarray.get(offset + i)){
                 return false;
@@ -107,36 +363,430 @@ public class BloomFilter {
      */
     public boolean add(String key, boolean skip_check)
             throws CloneNotSupportedException, IndexOutOfBoundsException{
-        int[] hashes = hash.hash(key);
+        if(listener != null){
+            return observeAdd(startTiming(), hash.hashToBuffer(key), skip_check);
+        }
+        return addIndices(hash.hashToBuffer(key), skip_check);
+    }
+
+    /**
+     * Add key to the bloom filter
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws CloneNotSupportedException
+     * @throws IndexOutOfBoundsException
+     */
+    public boolean add(String key)
+            throws CloneNotSupportedException, IndexOutOfBoundsException {
+        return this.add(key, false);
+    }
+
+    /**
+     * Add key to the bloom filter, it sets the same bits as the String with the same characters
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException
+     */
+    public boolean add(CharSequence key)
+            throws IndexOutOfBoundsException {
+        if(listener != null){
+            return observeAdd(startTiming(), hash.hashToBuffer(key), false);
+        }
+        return addIndices(hash.hashToBuffer(key), false);
+    }
+
+    /**
+     * Add the bytes key[off, off + len) to the bloom filter
+     * @param key
+     * @param off
+     * @param len
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException
+     */
+    public boolean add(byte[] key, int off, int len)
+            throws IndexOutOfBoundsException {
+        if(listener != null){
+            return observeAdd(startTiming(), hash.hashToBuffer(key, off, len), false);
+        }
+        return addIndices(hash.hashToBuffer(key, off, len), false);
+    }
+
+    /**
+     * Add the remaining bytes of key to the bloom filter, without changing the buffer's position
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException
+     */
+    public boolean add(ByteBuffer key)
+            throws IndexOutOfBoundsException {
+        if(listener != null){
+            return observeAdd(startTiming(), hash.hashToBuffer(key), false);
+        }
+        return addIndices(hash.hashToBuffer(key), false);
+    }
+
+    /**
+     * Add a number to the bloom filter, it sets the same bits as its decimal string
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException
+     */
+    public boolean add(long key)
+            throws IndexOutOfBoundsException {
+        if(listener != null){
+            return observeAdd(startTiming(), hash.hashToBuffer(key), false);
+        }
+        return addIndices(hash.hashToBuffer(key), false);
+    }
+
+    /**
+     * Add the bytes funnel writes for key to the bloom filter
+     * @param key
+     * @param funnel
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException
+     */
+    public <T> boolean add(T key, Funnel<? super T> funnel)
+            throws IndexOutOfBoundsException {
+        if(listener != null){
+            return observeAdd(startTiming(), hash.hashToBuffer(key, funnel), false);
+        }
+        return addIndices(hash.hashToBuffer(key, funnel), false);
+    }
+
+    /**
+     * Sets the bits of a hashed key
+     * @param hashes one index per slice, from this filter's HashFn
+     * @param skip_check count the key as new without checking its bits first
+     * @return True if it is already in, false if it was just added
+     * @throws IndexOutOfBoundsException
+     */
+    protected boolean addIndices(int[] hashes, boolean skip_check)
+            throws IndexOutOfBoundsException {
         boolean found_all_bits = true;
-        if(count > capacity){
-            throw new IndexOutOfBoundsException("Bloom Capacity Exceeded");
+        if(getCount() > capacity){
+            throw capacityExceeded();
         }
-        int offset = 0;
+        long offset = 0;
         for(int i : hashes){
-            if(!skip_check && found_all_bits && !bitarray.get(offset + i)){
+            if(!bitarray.set(offset + i)){
                 found_all_bits = false;
             }
-            bitarray.set(offset + i);
             offset += bits_per_slice;
         }
         if(skip_check || !found_all_bits){
-            this.count++;
+            incrementCount();
             return false;
         }
         return true;
     }
 
     /**
-     * Add key to the bloom filter
-     * @param key
-     * @return true if it was already in, false if it wasn't
-     * @throws CloneNotSupportedException
+     * Sets the listener told about every has and add, see FilterListener. Set it before the filter
+     * is shared between threads, filters only check for one with a plain read
+     * @param listener null for none, which is the default
+     */
+    public void setListener(FilterListener listener) {
+        this.listener = listener;
+    }
+
+    public FilterListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Arguments are evaluated left to right, so passing this before the hashes starts the clock
+     * before the key is hashed
+     * @return System.nanoTime() if the listener samples this operation, NOT_SAMPLED if not
+     */
+    private long startTiming() {
+        return listener.sample() ? System.nanoTime() : NOT_SAMPLED;
+    }
+
+    private boolean observeHas(long start, int[] hashes) {
+        long hashed = start == NOT_SAMPLED ? NOT_SAMPLED : System.nanoTime();
+        boolean found = hasIndices(hashes);
+        if(start == NOT_SAMPLED){
+            listener.onHas(found, -1, -1);
+        }
+        else{
+            listener.onHas(found, hashed - start, System.nanoTime() - hashed);
+        }
+        return found;
+    }
+
+    private boolean observeAdd(long start, int[] hashes, boolean skip_check) {
+        long hashed = start == NOT_SAMPLED ? NOT_SAMPLED : System.nanoTime();
+        boolean found = addIndices(hashes, skip_check);
+        if(start == NOT_SAMPLED){
+            listener.onAdd(found, -1, -1);
+        }
+        else{
+            listener.onAdd(found, hashed - start, System.nanoTime() - hashed);
+        }
+        return found;
+    }
+
+    /**
+     * Tells the listener and JFR that the filter is full
+     * @return the exception for an add to throw
+     */
+    protected IndexOutOfBoundsException capacityExceeded() {
+        if(listener != null){
+            listener.onCapacityExceeded(capacity);
+        }
+        FilterEvents.capacityExceeded(getClass(), capacity);
+        return new IndexOutOfBoundsException("Bloom Capacity Exceeded");
+    }
+
+    /**
+     * Looks up a batch of keys, see has(CharSequence).
+     * The whole batch is hashed before any bit is read, and the bits are then read slice by slice,
+     * so the cache misses of many keys are waited for at the same time instead of one after another
+     * @param keys
+     * @return bitmap with bit i (result[i >>> 6] >>> i & 1) set if keys[i] is in the filter
+     */
+    public long[] hasAll(CharSequence[] keys) {
+        return batch(KeyBatch.of(keys), false);
+    }
+
+    /**
+     * Looks up a batch of numbers, see has(long) and hasAll(CharSequence[])
+     * @param keys
+     * @return bitmap with bit i (result[i >>> 6] >>> i & 1) set if keys[i] is in the filter
+     */
+    public long[] hasAll(long[] keys) {
+        return batch(KeyBatch.of(keys), false);
+    }
+
+    /**
+     * Looks up a batch of byte array keys, each hashed whole, see hasAll(CharSequence[])
+     * @param keys
+     * @return bitmap with bit i (result[i >>> 6] >>> i & 1) set if keys[i] is in the filter
+     */
+    public long[] hasAll(byte[][] keys) {
+        return batch(KeyBatch.of(keys), false);
+    }
+
+    /**
+     * Looks up a batch of keys, see hasAll(CharSequence[])
+     * @param keys
+     * @return bitmap with bit i set if the i-th key is in the filter
+     */
+    public long[] hasAll(Iterable<? extends CharSequence> keys) {
+        return batch(KeyBatch.of(keys.iterator()), false);
+    }
+
+    /**
+     * Looks up a batch of keys, see hasAll(CharSequence[])
+     * @param keys
+     * @return bitmap with bit i set if the i-th key is in the filter
+     */
+    public long[] hasAll(Stream<? extends CharSequence> keys) {
+        return batch(KeyBatch.of(keys.iterator()), false);
+    }
+
+    /**
+     * Looks up a batch of keys by the bytes funnel writes for them, see hasAll(CharSequence[])
+     * @param keys
+     * @param funnel
+     * @return bitmap with bit i set if the i-th key is in the filter
+     */
+    public <T> long[] hasAll(Iterable<? extends T> keys, Funnel<? super T> funnel) {
+        return batch(KeyBatch.of(keys.iterator(), funnel), false);
+    }
+
+    /**
+     * Adds a batch of keys, hashing them all before setting any bit like hasAll(CharSequence[]).
+     * The results are the same as adding the keys one by one, except that the capacity is only
+     * checked every 256 keys
+     * @param keys
+     * @return bitmap with bit i (result[i >>> 6] >>> i & 1) set if keys[i] was already in
      * @throws IndexOutOfBoundsException
      */
-    public boolean add(String key)
-            throws CloneNotSupportedException, IndexOutOfBoundsException {
-        return this.add(key, false);
+    public long[] addAll(CharSequence[] keys)
+            throws IndexOutOfBoundsException {
+        return batch(KeyBatch.of(keys), true);
+    }
+
+    /**
+     * Adds a batch of numbers, see add(long) and addAll(CharSequence[])
+     * @param keys
+     * @return bitmap with bit i (result[i >>> 6] >>> i & 1) set if keys[i] was already in
+     * @throws IndexOutOfBoundsException
+     */
+    public long[] addAll(long[] keys)
+            throws IndexOutOfBoundsException {
+        return batch(KeyBatch.of(keys), true);
+    }
+
+    /**
+     * Adds a batch of byte array keys, each hashed whole, see addAll(CharSequence[])
+     * @param keys
+     * @return bitmap with bit i (result[i >>> 6] >>> i & 1) set if keys[i] was already in
+     * @throws IndexOutOfBoundsException
+     */
+    public long[] addAll(byte[][] keys)
+            throws IndexOutOfBoundsException {
+        return batch(KeyBatch.of(keys), true);
+    }
+
+    /**
+     * Adds a batch of keys, see addAll(CharSequence[])
+     * @param keys
+     * @return bitmap with bit i set if the i-th key was already in
+     * @throws IndexOutOfBoundsException
+     */
+    public long[] addAll(Iterable<? extends CharSequence> keys)
+            throws IndexOutOfBoundsException {
+        return batch(KeyBatch.of(keys.iterator()), true);
+    }
+
+    /**
+     * Adds a batch of keys, see addAll(CharSequence[])
+     * @param keys
+     * @return bitmap with bit i set if the i-th key was already in
+     * @throws IndexOutOfBoundsException
+     */
+    public long[] addAll(Stream<? extends CharSequence> keys)
+            throws IndexOutOfBoundsException {
+        return batch(KeyBatch.of(keys.iterator()), true);
+    }
+
+    /**
+     * Adds a batch of keys by the bytes funnel writes for them, see addAll(CharSequence[])
+     * @param keys
+     * @param funnel
+     * @return bitmap with bit i set if the i-th key was already in
+     * @throws IndexOutOfBoundsException
+     */
+    public <T> long[] addAll(Iterable<? extends T> keys, Funnel<? super T> funnel)
+            throws IndexOutOfBoundsException {
+        return batch(KeyBatch.of(keys.iterator(), funnel), true);
+    }
+
+    /**
+     * Looks up or adds a batch of keys in chunks of BATCH_CHUNK: first every key of the chunk is hashed,
+     * then the bits are visited a slice at a time. The slices are separate ranges of bits,
+     * so adding slice by slice sets exactly the bits adding key by key would,
+     * and finds the same keys already in
+     * @param keys
+     * @param add set the bits instead of only reading them
+     * @return bitmap with bit i set if key i is (or was already) in the filter
+     * @throws IndexOutOfBoundsException
+     */
+    long[] batch(KeyBatch keys, boolean add)
+            throws IndexOutOfBoundsException {
+        int n = keys.size();
+        long[] result = new long[(n + 63) >>> 6];
+        int[] indices = new int[Math.min(n, BATCH_CHUNK) * num_slices];
+        int[] live = new int[BATCH_CHUNK], next = new int[BATCH_CHUNK];
+        for(int start = 0; start < n; start += BATCH_CHUNK){
+            int m = Math.min(BATCH_CHUNK, n - start);
+            for(int k = 0; k < m; k++){
+                System.arraycopy(keys.hash(hash, start + k), 0, indices, k * num_slices, num_slices);
+            }
+            if(add){
+                if(getCount() > capacity){
+                    throw capacityExceeded();
+                }
+                for(int w = 0; w < m; w += 64){
+                    long found = setChunk(indices, w, Math.min(64, m - w));
+                    result[(start + w) >>> 6] |= found << (start + w);
+                }
+            }
+            else{
+                for(int k = 0; k < m; k++){
+                    live[k] = k;
+                }
+                int found = probeChunk(indices, m, live, next);
+                //the keys that are in end up in live or next, depending on the number of slices
+                int[] in = (num_slices & 1) == 0 ? live : next;
+                for(int j = 0; j < found; j++){
+                    int i = start + in[j];
+                    result[i >>> 6] |= 1L << i;
+                }
+            }
+        }
+        if(listener != null){
+            int found = 0;
+            for(long word : result){
+                found += Long.bitCount(word);
+            }
+            listener.onBatch(add, n, found);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the bits of a hashed chunk of keys. There are no branches on the bits, a mispredicted
+     * branch would throw away the loads in flight: each slice copies the keys whose bit is set
+     * from one list to the other, so keys with a clear bit are dropped without a branch,
+     * and without the next load's address waiting for the last one's bit
+     * @param indices num_slices indices per key
+     * @param m number of keys
+     * @param live the m keys to look for, in ascending order, they stay in that order
+     * @param next scratch list
+     * @return number of keys that are in
+     */
+    int probeChunk(int[] indices, int m, int[] live, int[] next) {
+        BitArray bits = bitarray;
+        long offset = 0;
+        for(int s = 0; s < num_slices; s++){
+            int kept = 0;
+            for(int j = 0; j < m; j++){
+                int k = live[j];
+                long index = offset + indices[k * num_slices + s];
+                next[kept] = k;
+                kept += (int) (bits.getWord((int) (index >>> 6)) >>> index & 1);
+            }
+            m = kept;
+            int[] swap = live;
+            live = next;
+            next = swap;
+            offset += bits_per_slice;
+        }
+        return m;
+    }
+
+    /**
+     * Sets the bits of up to 64 hashed keys and counts the ones that weren't in yet
+     * @param indices num_slices indices per key
+     * @param first first key
+     * @param m number of keys
+     * @return bitmap of the keys that were already in
+     */
+    long setChunk(int[] indices, int first, int m) {
+        BitArray bits = bitarray;
+        long found = m == 64 ? -1L : (1L << m) - 1;
+        long offset = 0;
+        for(int s = 0; s < num_slices; s++){
+            for(int k = 0, i = first * num_slices + s; k < m; k++, i += num_slices){
+                found &= ~((bits.set(offset + indices[i]) ? 0L : 1L) << k);
+            }
+            offset += bits_per_slice;
+        }
+        for(int k = 0; k < m; k++){
+            if((found >>> k & 1) == 0){
+                incrementCount();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Counts one more key, called by add for every key that wasn't in the filter yet
+     */
+    protected void incrementCount() {
+        this.count++;
+    }
+
+    /**
+     * Replaces the count, after the bits were changed some other way than adding keys
+     * @param count
+     */
+    protected void setCount(int count) {
+        this.count = count;
     }
 
     /**
@@ -145,8 +795,11 @@ public class BloomFilter {
      */
     public BloomFilter clone(){
         try {
-            BloomFilter return_bloom = new BloomFilter(this.capacity, this.error_rate);
-            return_bloom.bitarray = (BitSet) this.bitarray.clone();
+            BloomFilter return_bloom = new BloomFilter(error_rate, num_slices, bits_per_slice, capacity,
+                    getCount(), strategy);
+            for(int i = 0; i < bitarray.numWords(); i++){
+                return_bloom.bitarray.setWord(i, bitarray.getWord(i));
+            }
             return return_bloom;
         }catch(Exception e) {
             //should never get here but return null just in case
@@ -154,15 +807,65 @@ public class BloomFilter {
         }
     }
 
+    /**
+     * Starts tracking the words that gain bits, for exportDelta, or if they are already tracked
+     * forgets the words changed so far. Call it when a replica has an exact copy of the filter,
+     * for example right after shipping it whole. Tracking a filter takes 1/64 more memory,
+     * and adding a key that sets new bits costs a little more. Call it before the filter is
+     * shared between threads, the first call swaps its bit array
+     */
+    public void checkpoint(){
+        if(bitarray instanceof TrackingBitArray){
+            ((TrackingBitArray) bitarray).clear();
+        }
+        else{
+            bitarray = new TrackingBitArray(bitarray);
+        }
+    }
+
+    /**
+     * The words that gained bits since the last checkpoint or exportDelta, and the count.
+     * It also starts the next delta, so calling it every minute gives the changes of each minute.
+     * Bits cleared by intersections aren't in deltas, a replica needs a whole copy after one
+     * @return FilterDelta for applyDelta on a replica
+     * @throws IllegalStateException if checkpoint was never called
+     */
+    public FilterDelta exportDelta(){
+        if(!(bitarray instanceof TrackingBitArray)){
+            throw new IllegalStateException("checkpoint() has to be called before exportDelta()");
+        }
+        return FilterDelta.of(this, ((TrackingBitArray) bitarray).drain());
+    }
+
+    /**
+     * ORs the words of a delta exported by another filter into this one, and takes its count
+     * @param delta
+     * @return this
+     * @throws IllegalArgumentException if the delta is of a filter with a different shape or hash strategy,
+     * in which case this isn't changed
+     */
+    public BloomFilter applyDelta(FilterDelta delta){
+        delta.applyTo(this);
+        return this;
+    }
+
+    /**
+     * Copies the filter into a read-only FrozenBloomFilter that any number of threads can look up in
+     * without locking. Freeze a filter no thread is adding to, or the copy may have part of a key's bits
+     * @return FrozenBloomFilter with the same parameters, count and bits
+     */
+    public FrozenBloomFilter freeze(){
+        return new FrozenBloomFilter(this);
+    }
+
     /**
      * Form the intersection of the bloom filter
      * @param other
      * @return this & other
      */
     public BloomFilter intersection(BloomFilter other){
-        BloomFilter return_bloom = this.clone();
-        return_bloom.bitarray.and(other.bitarray);
-        return return_bloom;
+        checkCompatible(other);
+        return this.clone().intersectWith(other);
     }
 
     /**
@@ -171,36 +874,291 @@ public class BloomFilter {
      * @return this | other
      */
     public BloomFilter union(BloomFilter other){
-        BloomFilter return_bloom = this.clone();
-        return_bloom.bitarray.or(other.bitarray);
-        return return_bloom;
+        checkCompatible(other);
+        return this.clone().unionWith(other);
+    }
+
+    /**
+     * Unions other into this one, in place: this = this | other. Unlike union nothing is allocated,
+     * the words of other are ORed straight into the words of this and other isn't changed.
+     * The count becomes the sum of the counts, like merge
+     * @param other
+     * @return this
+     * @throws IllegalArgumentException if other has a different shape or hash strategy,
+     * in which case this isn't changed
+     */
+    public BloomFilter unionWith(BloomFilter other){
+        checkCompatible(other);
+        long count = (long) getCount() + other.getCount();
+        bitarray.or(other.bitarray);
+        setCount((int) Math.min(count, Integer.MAX_VALUE));
+        return this;
+    }
+
+    /**
+     * Intersects other into this one, in place: this = this & other. See unionWith.
+     * The count becomes the smaller of the counts, like intersect
+     * @param other
+     * @return this
+     * @throws IllegalArgumentException if other has a different shape or hash strategy,
+     * in which case this isn't changed
+     */
+    public BloomFilter intersectWith(BloomFilter other){
+        checkCompatible(other);
+        int count = Math.min(getCount(), other.getCount());
+        bitarray.and(other.bitarray);
+        setCount(count);
+        return this;
+    }
+
+    /**
+     * Unions any number of filters into this one, in place: this = this | others[0] | others[1] ...
+     * Unlike a chain of union calls nothing is cloned. Big filters are merged by all the threads
+     * of the fork-join common pool, each taking a range of the words of every filter.
+     * The count becomes the sum of the counts, which is exact when the key sets don't overlap
+     * @param others
+     * @return this
+     * @throws IllegalArgumentException if any of the others has a different shape or hash strategy,
+     * in which case this isn't changed
+     */
+    public BloomFilter merge(Collection<? extends BloomFilter> others){
+        BitArray[] sources = sources(others);
+        long count = getCount();
+        for(BloomFilter other : others){
+            count += other.getCount();
+        }
+        WordMerge.merge(bitarray, sources, true);
+        setCount((int) Math.min(count, Integer.MAX_VALUE));
+        return this;
+    }
+
+    /**
+     * Intersects any number of filters into this one, in place: this = this & others[0] & others[1] ...
+     * See merge(Collection). The count becomes the smallest of the counts
+     * @param others
+     * @return this
+     * @throws IllegalArgumentException if any of the others has a different shape or hash strategy,
+     * in which case this isn't changed
+     */
+    public BloomFilter intersect(Collection<? extends BloomFilter> others){
+        BitArray[] sources = sources(others);
+        int count = getCount();
+        for(BloomFilter other : others){
+            count = Math.min(count, other.getCount());
+        }
+        WordMerge.merge(bitarray, sources, false);
+        setCount(count);
+        return this;
+    }
+
+    private BitArray[] sources(Collection<? extends BloomFilter> others){
+        BitArray[] sources = new BitArray[others.size()];
+        int i = 0;
+        for(BloomFilter other : others){
+            checkCompatible(other);
+            sources[i++] = other.bitarray;
+        }
+        return sources;
+    }
+
+    /**
+     * @return number of set bits, counted by all the threads of the fork-join common pool for big filters
+     */
+    public long getBitCount() {
+        return WordCount.count(bitarray, null, 0, num_bits);
     }
 
     /**
-     * Stringify the bloom filter in a way that is compatible with the python version of the library
+     * @return fraction of the bits that are set, about half at capacity
+     */
+    public double getFillRatio() {
+        return (double) getBitCount() / num_bits;
+    }
+
+    /**
+     * Every key sets one bit in each slice, so the slices fill up evenly unless the hash is biased.
+     * A blocked filter has a single slice
+     * @return fraction of the bits of each slice that are set
+     */
+    public double[] getSliceFillRatios() {
+        if(blocked()){
+            return new double[]{getFillRatio()};
+        }
+        double[] ratios = new double[num_slices];
+        for(int s = 0; s < num_slices; s++){
+            long from = (long) s * bits_per_slice;
+            ratios[s] = (double) WordCount.count(bitarray, null, from, from + bits_per_slice) / bits_per_slice;
+        }
+        return ratios;
+    }
+
+    /**
+     * The chance that a key that was never added is found, given the bits set now. A key is found when
+     * its bit is set in every slice, so this is the product of the slice fill ratios. Unlike getErrorRate
+     * it follows what is really in the filter: it passes the error rate when the filter is overfull,
+     * and it is right after merges, which getCount can only guess at
+     * @return current false positive rate
+     */
+    public double getFalsePositiveRate() {
+        double rate = 1;
+        for(double ratio : getSliceFillRatios()){
+            rate *= ratio;
+        }
+        return rate;
+    }
+
+    /**
+     * Estimates the number of distinct keys in the filter from the number of set bits
+     * (Swamidass and Baldi, 2007), so unlike getCount it stays right after unions and intersections
+     * and doesn't count keys that were added twice
+     * @return estimated number of keys, infinite if every bit is set
+     */
+    public double getEstimatedCount() {
+        return estimateCount(getBitCount());
+    }
+
+    /**
+     * Estimates the number of distinct keys in this | other by counting the bits of the OR
+     * as it goes, without building it
+     * @param other
+     * @return estimated number of keys in either filter, infinite if the union has every bit set
+     * @throws IllegalArgumentException if other has a different shape or hash strategy
+     */
+    public double estimateUnionCount(BloomFilter other) {
+        checkCompatible(other);
+        return estimateCount(WordCount.count(bitarray, other.bitarray, 0, num_bits));
+    }
+
+    /**
+     * Estimates the number of distinct keys in both filters, from the estimates of this, other
+     * and their union. The AND of the filters would overestimate it, bits set by different keys
+     * of the two filters survive the AND
+     * @param other
+     * @return estimated number of keys in both filters, NaN if the filters are full
+     * @throws IllegalArgumentException if other has a different shape or hash strategy
+     */
+    public double estimateIntersectionCount(BloomFilter other) {
+        double union = estimateUnionCount(other);
+        return Math.max(0, getEstimatedCount() + other.getEstimatedCount() - union);
+    }
+
+    /**
+     * n = -(m / k) ln(1 - X / m) for X set bits out of m with k bits per key
+     * @param set_bits
+     * @return estimated number of keys
+     */
+    double estimateCount(long set_bits) {
+        if(set_bits >= num_bits){
+            return Double.POSITIVE_INFINITY;
+        }
+        return -(double) num_bits / num_slices * Math.log1p(-(double) set_bits / num_bits);
+    }
+
+    /**
+     * Filters can only be combined if the same key sets the same bits in both
+     * @param other
+     * @throws IllegalArgumentException if other has a different shape or hash strategy
+     */
+    void checkCompatible(BloomFilter other){
+        if(blocked() != other.blocked()){
+            throw new IllegalArgumentException("Can't combine a blocked filter with a sliced filter");
+        }
+        checkCompatible(other.num_slices, other.bits_per_slice, other.strategy);
+    }
+
+    /**
+     * @param num_slices
+     * @param bits_per_slice
+     * @param strategy
+     * @throws IllegalArgumentException if this filter has a different shape or hash strategy
+     */
+    void checkCompatible(int num_slices, int bits_per_slice, HashStrategy strategy){
+        if(this.strategy != strategy){
+            throw new IllegalArgumentException("Can't combine a " + this.strategy.getName()
+                    + " filter with a " + strategy.getName() + " filter");
+        }
+        if(this.num_slices != num_slices || this.bits_per_slice != bits_per_slice){
+            throw new IllegalArgumentException("Can't combine filters with different num_slices or bits_per_slice");
+        }
+    }
+
+    /**
+     * Stringify the bloom filter in a way that is compatible with the python version of the library.
+     * Filters using a strategy other than DIGEST get the strategy name as an extra trailing field,
+     * so they can't be loaded by python or mistaken for a DIGEST filter, and blocked filters
+     * start with "blocked:"
      * @return stringified bloom filter
      */
     public String toString(){
-        String return_str = "", order = "";
-        ByteBuffer bytes = ByteBuffer.allocate((int) Math.ceil(num_bits/8.));
-        bytes.put(bitarray.toByteArray());
-        if(bytes.order() == ByteOrder.LITTLE_ENDIAN){
-            order = "little";
+        StringWriter out = new StringWriter((int) Math.min(Integer.MAX_VALUE - 8, 64 + num_bits / 4));
+        try {
+            writeTo(out);
+        }catch(IOException e) {
+            //a StringWriter doesn't throw
+            throw new IllegalStateException(e);
         }
-        else{
-            order = "big";
+        return out.toString();
+    }
+
+    /**
+     * Writes the same text as toString, without building it in memory first
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(Writer out)
+            throws IOException {
+        Object event = FilterEvents.beginSerialization();
+        writeText(out);
+        FilterEvents.endSerialization(event, getClass(), "text", true, num_bits);
+    }
+
+    /**
+     * writeTo without the JFR event, for the bloom filters of a DynamicBloomFilter
+     * @param out
+     * @throws IOException
+     */
+    void writeText(Writer out)
+            throws IOException {
+        if(blocked()){
+            //python has no blocked filters, the tag makes it (and old versions of jbloom) refuse the string
+            out.write("blocked:");
         }
-        return_str += Double.valueOf(error_rate).toString();
-        return_str += ":" + Integer.valueOf(num_slices).toString();
-        return_str += ":" + Integer.valueOf(bits_per_slice).toString();
-        return_str += ":" + Integer.valueOf(capacity).toString();
-        return_str += ":" + Integer.valueOf(count).toString();
-        return_str += ":" + order;
-        return_str += ":";
-        for(byte a : bytes.array()){
-            return_str += String.format("%02x", a);
+        out.write(Double.toString(error_rate));
+        out.write(":" + num_slices);
+        out.write(":" + bits_per_slice);
+        out.write(":" + capacity);
+        out.write(":" + getCount());
+        //pybloom writes its bitarray's endianness here, which has always been "big" in java,
+        //the bytes themselves are little endian either way
+        out.write(":big:");
+        char[] buf = new char[8192];
+        long num_bytes = (num_bits + 7) >>> 3;
+        int n = 0;
+        for(long i = 0; i < num_bytes; i++){
+            int b = (int) (bitarray.getWord((int) (i >>> 3)) >>> (8 * (i & 7)));
+            buf[n++] = HEX_DIGITS[(b >>> 4) & 0xf];
+            buf[n++] = HEX_DIGITS[b & 0xf];
+            if(n == buf.length){
+                out.write(buf, 0, n);
+                n = 0;
+            }
+        }
+        out.write(buf, 0, n);
+        if(strategy != HashStrategy.DIGEST){
+            out.write(":" + strategy.getName());
         }
-        return return_str;
+    }
+
+    /**
+     * Writes the same text as toString as ASCII bytes. out is flushed but not closed
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.US_ASCII);
+        writeTo(writer);
+        writer.flush();
     }
 
     /**
@@ -212,37 +1170,140 @@ public class BloomFilter {
      */
     public static BloomFilter fromString(String s)
             throws NoSuchAlgorithmException {
-        String[] values = s.split(":");
-        BloomFilter return_bloom = new BloomFilter(1);
-        double error_rate;
-        int num_slices, bits_per_slice, capacity, count;
-        String order;
-        byte[] buf;
-
-        error_rate = Double.valueOf(values[0]);
-        num_slices = Integer.valueOf(values[1]);
-        bits_per_slice = Integer.valueOf(values[2]);
-        capacity = Integer.valueOf(values[3]);
-        count = Integer.valueOf(values[4]);
-        order = values[5];
-        return_bloom.setup(error_rate, num_slices, bits_per_slice, capacity, count);
-        ByteBuffer bytes = ByteBuffer.allocate((int) Math.ceil(num_slices * bits_per_slice/8.));
-        if(order.equals("little")){
-            bytes.order(ByteOrder.LITTLE_ENDIAN);
+        return fromString(s, HashStrategy.DIGEST);
+    }
+
+    /**
+     * UnStringify a bloom filter s whose keys were hashed with untagged if s doesn't name a strategy.
+     * Filters written by jbloom before 1.1 don't match python's indices, fromString(s, HashStrategy.LEGACY_DIGEST)
+     * reads them as they were hashed
+     * @param s
+     * @param untagged the strategy of a filter without a strategy field
+     * @return Bloom filter from that string
+     * @throws NoSuchAlgorithmException
+     */
+    public static BloomFilter fromString(String s, HashStrategy untagged)
+            throws NoSuchAlgorithmException {
+        try {
+            return readFrom(new StringReader(s), untagged);
+        }catch(IOException e) {
+            //a StringReader doesn't throw
+            throw new IllegalStateException(e);
         }
-        else{
-            bytes.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Reads a filter written by writeTo or toString (or by python), without holding the text in memory.
+     * A blocked filter comes back as a BlockedBloomFilter
+     * @param in
+     * @return Bloom filter from that text
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    public static BloomFilter readFrom(Reader in)
+            throws IOException, NoSuchAlgorithmException {
+        return readFrom(in, HashStrategy.DIGEST);
+    }
+
+    /**
+     * readFrom for text whose keys were hashed with untagged if it doesn't name a strategy,
+     * see fromString(String, HashStrategy)
+     * @param in
+     * @param untagged the strategy of a filter without a strategy field
+     * @return Bloom filter from that text
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    public static BloomFilter readFrom(Reader in, HashStrategy untagged)
+            throws IOException, NoSuchAlgorithmException {
+        Object event = FilterEvents.beginSerialization();
+        BloomFilter filter = read(new TextReader(in), untagged);
+        FilterEvents.endSerialization(event, filter.getClass(), "text", false, filter.num_bits);
+        return filter;
+    }
+
+    /**
+     * Reads a filter written by writeTo(OutputStream)
+     * @param in
+     * @return Bloom filter from that text
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    public static BloomFilter readFrom(InputStream in)
+            throws IOException, NoSuchAlgorithmException {
+        return readFrom(new InputStreamReader(in, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Reads one filter, leaving whatever follows it in the input unread
+     * @param in
+     * @return Bloom filter
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    static BloomFilter read(TextReader in)
+            throws IOException, NoSuchAlgorithmException {
+        return read(in, HashStrategy.DIGEST);
+    }
+
+    /**
+     * Reads one filter, hashed with untagged if it doesn't name a strategy
+     * @param in
+     * @param untagged
+     * @return Bloom filter
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    static BloomFilter read(TextReader in, HashStrategy untagged)
+            throws IOException, NoSuchAlgorithmException {
+        boolean blocked = in.peek() == 'b';
+        if(blocked && !in.field(':').equals("blocked")){
+            throw new IllegalArgumentException("Not a bloom filter");
         }
-        buf = new byte[values[6].length()/2];
-        for(int i = 0; i < values[6].length(); i += 2){
-            buf[i/2] = (byte) (Integer.parseInt(values[6].substring(i, i + 2), 16) & 0xFF);
+        double error_rate = Double.valueOf(in.field(':'));
+        int num_slices = Integer.valueOf(in.field(':'));
+        int bits_per_slice = Integer.valueOf(in.field(':'));
+        int capacity = Integer.valueOf(in.field(':'));
+        int count = Integer.valueOf(in.field(':'));
+        //the byte order, the bits are read little endian either way
+        in.field(':');
+        //the strategy comes after the bits, so they are read into a DIGEST filter
+        //which switches hash functions afterwards if it has to
+        BloomFilter return_bloom = blocked
+                ? new BlockedBloomFilter(error_rate, num_slices, bits_per_slice, capacity, count, HashStrategy.DIGEST)
+                : new BloomFilter(error_rate, num_slices, bits_per_slice, capacity, count, HashStrategy.DIGEST);
+        in.hex(return_bloom.bitarray);
+        HashStrategy strategy = in.skip(':') ? HashStrategy.forName(in.word()) : untagged;
+        if(strategy != HashStrategy.DIGEST){
+            return_bloom.strategy = strategy;
+            return_bloom.hash = strategy.newHashFn(num_slices, bits_per_slice);
         }
-        bytes.put(buf);
-        bytes.position(0);
-        return_bloom.bitarray = (BitSet) BitSet.valueOf(bytes).clone();
         return return_bloom;
     }
 
+    /**
+     * Writes the filter in the binary format of BinaryCodec, which is at most half the size of the text
+     * and much smaller for lightly filled filters. Only jbloom can read it. out is flushed but not closed
+     * @param out
+     * @throws IOException
+     */
+    public void writeBinary(OutputStream out)
+            throws IOException {
+        new BinaryCodec().write(this, out);
+    }
+
+    /**
+     * Reads a filter written by writeBinary
+     * @param in
+     * @return Bloom filter with the same bits
+     * @throws IOException if the data is corrupt
+     * @throws NoSuchAlgorithmException
+     */
+    public static BloomFilter readBinary(InputStream in)
+            throws IOException, NoSuchAlgorithmException {
+        return new BinaryCodec().readBloomFilter(in);
+    }
+
     public int getCount() {
         return count;
     }
@@ -250,4 +1311,20 @@ public class BloomFilter {
     public int getCapacity() {
         return capacity;
     }
+
+    public double getErrorRate() {
+        return error_rate;
+    }
+
+    public int getNumSlices() {
+        return num_slices;
+    }
+
+    public int getBitsPerSlice() {
+        return bits_per_slice;
+    }
+
+    public HashStrategy getStrategy() {
+        return strategy;
+    }
 }
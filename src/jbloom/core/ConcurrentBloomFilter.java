@@ -0,0 +1,117 @@
+package jbloom.core;
+
+import jbloom.util.AtomicBitArray;
+import jbloom.util.BitArray;
+import jbloom.util.HashStrategy;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A BloomFilter that many threads can add to and look up in at the same time without locking.
+ * Bits live in an AtomicBitArray: lookups are plain volatile reads and never wait, adds set each
+ * bit with a compare and swap on its 64 bit word. The count is a LongAdder so that threads adding
+ * keys don't all fight over one counter.
+ *
+ * Single threaded it behaves exactly like a BloomFilter, and it stringifies to the same format.
+ * When several threads add the same new key at the same moment each of them may see
+ * a bit it set itself, so the key can be counted more than once
+ */
+public class ConcurrentBloomFilter extends BloomFilter {
+    //assigned in setup, which runs inside the super constructor, so it mustn't have an initializer
+    private LongAdder count;
+
+    /**
+     * Creates a ConcurrentBloomFilter
+     * @param capacity the desired maximum capacity for the bloom filter, will be statically set
+     * @param error_rate the desired maximum error rte of the filter
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public ConcurrentBloomFilter(int capacity, double error_rate)
+            throws NoSuchAlgorithmException {
+        this(capacity, error_rate, HashStrategy.DIGEST);
+    }
+
+    /**
+     * Creates a ConcurrentBloomFilter that hashes its keys with the given strategy
+     * @param capacity the desired maximum capacity for the bloom filter, will be statically set
+     * @param error_rate the desired maximum error rte of the filter
+     * @param strategy how keys are hashed, only DIGEST filters can be read by python
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public ConcurrentBloomFilter(int capacity, double error_rate, HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        super(capacity, error_rate, strategy);
+    }
+
+    /**
+     * Creates a ConcurrentBloomFilter with the same parameters, count and bits as other
+     * @param other
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public ConcurrentBloomFilter(BloomFilter other)
+            throws NoSuchAlgorithmException {
+        super(other.getErrorRate(), other.getNumSlices(), other.getBitsPerSlice(),
+                other.getCapacity(), other.getCount(), other.getStrategy());
+        for(int i = 0; i < bitarray.numWords(); i++){
+            bitarray.setWord(i, other.bitarray.getWord(i));
+        }
+    }
+
+    /**
+     * Creates an empty ConcurrentBloomFilter with explicit parameters, for filters read back from binary
+     * @param error_rate
+     * @param num_slices
+     * @param bits_per_slice
+     * @param capacity
+     * @param count
+     * @param strategy
+     * @throws NoSuchAlgorithmException
+     */
+    ConcurrentBloomFilter(double error_rate, int num_slices, int bits_per_slice, int capacity, int count,
+                          HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        super(error_rate, num_slices, bits_per_slice, capacity, count, strategy);
+    }
+
+    @Override
+    protected void setup(double error_rate, int num_slices, int bits_per_slice, int capacity, int count,
+                         HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        super.setup(error_rate, num_slices, bits_per_slice, capacity, count, strategy);
+        this.count = new LongAdder();
+        this.count.add(count);
+    }
+
+    @Override
+    protected BitArray newBitArray(long num_bits) {
+        return new AtomicBitArray(num_bits);
+    }
+
+    @Override
+    protected void incrementCount() {
+        count.increment();
+    }
+
+    @Override
+    protected void setCount(int count) {
+        this.count.reset();
+        this.count.add(count);
+    }
+
+    @Override
+    public int getCount() {
+        return count.intValue();
+    }
+
+    /**
+     * UnStringify a Stringified bloom filter s into a ConcurrentBloomFilter
+     * @param s
+     * @return ConcurrentBloomFilter from that string
+     * @throws NoSuchAlgorithmException
+     */
+    public static ConcurrentBloomFilter fromString(String s)
+            throws NoSuchAlgorithmException {
+        return new ConcurrentBloomFilter(BloomFilter.fromString(s));
+    }
+}
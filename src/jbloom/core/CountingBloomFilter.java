@@ -0,0 +1,363 @@
+package jbloom.core;
+
+import jbloom.util.BitArray;
+import jbloom.util.Funnel;
+import jbloom.util.HashFn;
+import jbloom.util.HashStrategy;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A counting bloom filter: a BloomFilter with a 4 bit counter in place of every bit, so keys can be removed.
+ * It has the same slices and HashFn indices as a BloomFilter of the same capacity, error rate and strategy,
+ * and toBloomFilter collapses it into exactly the BloomFilter the same keys would have built.
+ *
+ * The counters are packed 16 to a long, so the filter takes 4 times the memory of the BloomFilter
+ * (3.6 bytes per key more at 0.01, 5.4 at 0.001). A counter only overflows when 15 keys set it,
+ * which for a filter at capacity happens to about one counter in 10^14. A counter that gets there
+ * saturates: it stays at 15 from then on, because it no longer knows how many keys set it,
+ * so the keys behind it can't make it drop to 0 and cause a false negative. getSaturated counts them.
+ *
+ * Keys are counted like a multiset: every add increments the key's counters, even when it is already in,
+ * and needs its own remove. Removing a key that was never added (a false positive) decrements
+ * the counters of other keys and can make them disappear. Like BloomFilter this isn't thread safe
+ */
+public class CountingBloomFilter {
+    private static final int MAX_COUNT = 15;
+    private static final long NIBBLES = 0x1111111111111111L;
+
+    private final long[] counters;
+    private final HashFn hash;
+    private final HashStrategy strategy;
+    private final double error_rate;
+    private final int num_slices, bits_per_slice, capacity;
+    private int count;
+    private long saturated;
+
+    /**
+     * Creates a CountingBloomFilter
+     * @param capacity the desired maximum capacity for the bloom filter, will be statically set
+     * @param error_rate the desired maximum error rte of the filter
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public CountingBloomFilter(int capacity, double error_rate)
+            throws NoSuchAlgorithmException {
+        this(capacity, error_rate, HashStrategy.DIGEST);
+    }
+
+    /**
+     * Creates a CountingBloomFilter that hashes its keys with the given strategy
+     * @param capacity the desired maximum capacity for the bloom filter, will be statically set
+     * @param error_rate the desired maximum error rte of the filter
+     * @param strategy how keys are hashed
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public CountingBloomFilter(int capacity, double error_rate, HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        assert(0 < error_rate && error_rate < 1);
+        assert(capacity > 0);
+        this.num_slices = BloomFilter.numSlices(error_rate);
+        this.bits_per_slice = BloomFilter.bitsPerSlice(capacity, error_rate, num_slices);
+        long num_words = ((long) num_slices * bits_per_slice + 15) >>> 4;
+        if(num_words > Integer.MAX_VALUE - 8){
+            throw new IllegalArgumentException("Too many counters for a counting bloom filter: "
+                    + (long) num_slices * bits_per_slice);
+        }
+        this.counters = new long[(int) num_words];
+        this.hash = strategy.newHashFn(num_slices, bits_per_slice);
+        this.strategy = strategy;
+        this.error_rate = error_rate;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Lookup to see if a key is in the filter.
+     * Any CharSequence finds the counters of the String with the same characters
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(CharSequence key) {
+        return hasIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if the bytes key[off, off + len) are in the filter
+     * @param key
+     * @param off
+     * @param len
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(byte[] key, int off, int len) {
+        return hasIndices(hash.hashToBuffer(key, off, len));
+    }
+
+    /**
+     * Lookup to see if the remaining bytes of key are in the filter, without changing the buffer's position
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(ByteBuffer key) {
+        return hasIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if a number is in the filter, numbers hash like their decimal string
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(long key) {
+        return hasIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if the bytes funnel writes for key are in the filter
+     * @param key
+     * @param funnel
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public <T> boolean has(T key, Funnel<? super T> funnel) {
+        return hasIndices(hash.hashToBuffer(key, funnel));
+    }
+
+    /**
+     * Add key to the filter
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException
+     */
+    public boolean add(CharSequence key)
+            throws IndexOutOfBoundsException {
+        return addIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Add the bytes key[off, off + len) to the filter
+     * @param key
+     * @param off
+     * @param len
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException
+     */
+    public boolean add(byte[] key, int off, int len)
+            throws IndexOutOfBoundsException {
+        return addIndices(hash.hashToBuffer(key, off, len));
+    }
+
+    /**
+     * Add the remaining bytes of key to the filter, without changing the buffer's position
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException
+     */
+    public boolean add(ByteBuffer key)
+            throws IndexOutOfBoundsException {
+        return addIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Add a number to the filter, it sets the same counters as its decimal string
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException
+     */
+    public boolean add(long key)
+            throws IndexOutOfBoundsException {
+        return addIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Add the bytes funnel writes for key to the filter
+     * @param key
+     * @param funnel
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException
+     */
+    public <T> boolean add(T key, Funnel<? super T> funnel)
+            throws IndexOutOfBoundsException {
+        return addIndices(hash.hashToBuffer(key, funnel));
+    }
+
+    /**
+     * Remove key from the filter
+     * @param key
+     * @return true if it was in and was removed, false if it wasn't in, in which case nothing changes
+     */
+    public boolean remove(CharSequence key) {
+        return removeIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Remove the bytes key[off, off + len) from the filter
+     * @param key
+     * @param off
+     * @param len
+     * @return true if it was in and was removed, false if it wasn't in, in which case nothing changes
+     */
+    public boolean remove(byte[] key, int off, int len) {
+        return removeIndices(hash.hashToBuffer(key, off, len));
+    }
+
+    /**
+     * Remove the remaining bytes of key from the filter, without changing the buffer's position
+     * @param key
+     * @return true if it was in and was removed, false if it wasn't in, in which case nothing changes
+     */
+    public boolean remove(ByteBuffer key) {
+        return removeIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Remove a number from the filter
+     * @param key
+     * @return true if it was in and was removed, false if it wasn't in, in which case nothing changes
+     */
+    public boolean remove(long key) {
+        return removeIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Remove the bytes funnel writes for key from the filter
+     * @param key
+     * @param funnel
+     * @return true if it was in and was removed, false if it wasn't in, in which case nothing changes
+     */
+    public <T> boolean remove(T key, Funnel<? super T> funnel) {
+        return removeIndices(hash.hashToBuffer(key, funnel));
+    }
+
+    private int counter(long index) {
+        return (int) (counters[(int) (index >>> 4)] >>> ((index & 15) << 2)) & MAX_COUNT;
+    }
+
+    private boolean hasIndices(int[] hashes) {
+        long offset = 0;
+        for(int i : hashes){
+            if(counter(offset + i) == 0){
+                return false;
+            }
+            offset += bits_per_slice;
+        }
+        return true;
+    }
+
+    private boolean addIndices(int[] hashes)
+            throws IndexOutOfBoundsException {
+        if(count > capacity){
+            throw new IndexOutOfBoundsException("Bloom Capacity Exceeded");
+        }
+        boolean found_all = true;
+        long offset = 0;
+        for(int i : hashes){
+            long index = offset + i;
+            int value = counter(index);
+            if(value == 0){
+                found_all = false;
+            }
+            if(value < MAX_COUNT){
+                counters[(int) (index >>> 4)] += 1L << ((index & 15) << 2);
+                if(value + 1 == MAX_COUNT){
+                    saturated++;
+                }
+            }
+            offset += bits_per_slice;
+        }
+        count++;
+        return found_all;
+    }
+
+    private boolean removeIndices(int[] hashes) {
+        if(!hasIndices(hashes)){
+            return false;
+        }
+        long offset = 0;
+        for(int i : hashes){
+            long index = offset + i;
+            //saturated counters stay, they don't know how many keys are behind them
+            if(counter(index) < MAX_COUNT){
+                counters[(int) (index >>> 4)] -= 1L << ((index & 15) << 2);
+            }
+            offset += bits_per_slice;
+        }
+        count--;
+        return true;
+    }
+
+    /**
+     * Collapses the counters into a plain BloomFilter with a bit set for every counter above 0,
+     * the same BloomFilter adding the keys that are in would give. It is a copy, for shipping or
+     * for read-only use: it doesn't change when this filter does
+     * @return BloomFilter with the same capacity, error rate, strategy and count
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public BloomFilter toBloomFilter()
+            throws NoSuchAlgorithmException {
+        BloomFilter bloom = new BloomFilter(error_rate, num_slices, bits_per_slice, capacity,
+                Math.max(count, 0), strategy);
+        BitArray bits = bloom.bitarray;
+        //4 words of counters make one word of bits
+        for(int w = 0; w < bits.numWords(); w++){
+            long word = 0;
+            for(int q = 0; q < 4 && 4 * w + q < counters.length; q++){
+                word |= nonZero(counters[4 * w + q]) << (16 * q);
+            }
+            bits.setWord(w, word);
+        }
+        return bloom;
+    }
+
+    /**
+     * @param counters 16 counters
+     * @return 16 bits, bit i set if counter i isn't 0
+     */
+    private static long nonZero(long counters) {
+        //a bit at the bottom of every non zero nibble, then squeeze the 16 bits together
+        long x = counters | counters >>> 1;
+        x = (x | x >>> 2) & NIBBLES;
+        x = (x | x >>> 3) & 0x0303030303030303L;
+        x = (x | x >>> 6) & 0x000F000F000F000FL;
+        x = (x | x >>> 12) & 0x000000FF000000FFL;
+        return (x | x >>> 24) & 0xFFFFL;
+    }
+
+    /**
+     * @return number of keys in the filter, adds minus removes
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return number of counters that reached 15 and stopped counting
+     */
+    public long getSaturated() {
+        return saturated;
+    }
+
+    /**
+     * @return bytes taken by the counters, 4 times the bits of the same BloomFilter
+     */
+    public long getSizeInBytes() {
+        return 8L * counters.length;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public double getErrorRate() {
+        return error_rate;
+    }
+
+    public int getNumSlices() {
+        return num_slices;
+    }
+
+    public int getBitsPerSlice() {
+        return bits_per_slice;
+    }
+
+    public HashStrategy getStrategy() {
+        return strategy;
+    }
+}
@@ -0,0 +1,770 @@
+package jbloom.core;
+
+import jbloom.metrics.FilterEvents;
+import jbloom.util.Funnel;
+import jbloom.util.HashFn;
+import jbloom.util.HashStrategy;
+import jbloom.util.HeapBitArray;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A cuckoo filter (Fan et al., "Cuckoo Filter: Practically Better Than Bloom"): a table of buckets of 4
+ * fingerprints of fingerprint_bits bits each, packed end to end in a long[]. A key's fingerprint lives in one
+ * of two buckets: the one its hash picks, or the other one, which the fingerprint alone gives back from
+ * either of them. A lookup reads those 2 buckets, where a BloomFilter reads one bit per slice, and keys
+ * can be removed.
+ *
+ * A fingerprint of log2(8 / error_rate) bits with the table 95% full takes 13.7 bits per key at 0.001
+ * (BloomFilter 14.4) and 17.9 at 0.0001 (19.2), but 10.5 at 0.01 (9.6): below about 0.003 it is
+ * smaller than the BloomFilter of the same error rate.
+ *
+ * When both buckets of a new key are full, add moves a fingerprint to its other bucket to make room,
+ * and so on, for at most 500 moves. A fingerprint left over after that goes to a stash of 8 that
+ * lookups check too, and moves back into the table when removes make room. add throws
+ * IndexOutOfBoundsException past the capacity, or if the stash is full.
+ *
+ * Keys are counted like a multiset, like CountingBloomFilter: every add stores the fingerprint again,
+ * even when it is already in, and needs its own remove. Removing a key that was never added (a false
+ * positive) removes the fingerprint of another key, which then goes missing.
+ *
+ * There is no union or intersection: fingerprints have moved between buckets depending on the order
+ * of the adds, so two filters of the same shape don't line up slot by slot the way the bits of two
+ * BloomFilters do. To combine filters add the keys of one to the other. Like BloomFilter this isn't
+ * thread safe
+ */
+public class CuckooFilter {
+    private static final int SLOTS = 4;
+    private static final double LOAD = 0.95;
+    private static final int MAX_KICKS = 500;
+    private static final int STASH_SIZE = 8;
+    private static final int MAX_FINGERPRINT_BITS = 31;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final long[] table;
+    private HashFn hash;
+    private HashStrategy strategy;
+    private final double error_rate;
+    private final int capacity, fingerprint_bits, num_buckets;
+    private final long fingerprint_mask;
+    private final int[] stash_buckets = new int[STASH_SIZE], stash_fingerprints = new int[STASH_SIZE];
+    private int stash_size, count;
+    private long random = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Creates a CuckooFilter with an error rate of 0.001, like BloomFilter(int)
+     * @param capacity the desired maximum capacity for the filter, will be statically set
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public CuckooFilter(int capacity)
+            throws NoSuchAlgorithmException {
+        this(capacity, 0.001);
+    }
+
+    /**
+     * Creates a CuckooFilter
+     * @param capacity the desired maximum capacity for the filter, will be statically set
+     * @param error_rate the desired maximum error rte of the filter
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public CuckooFilter(int capacity, double error_rate)
+            throws NoSuchAlgorithmException {
+        this(capacity, error_rate, HashStrategy.DIGEST);
+    }
+
+    /**
+     * Creates a CuckooFilter that hashes its keys with the given strategy
+     * @param capacity the desired maximum capacity for the filter, will be statically set
+     * @param error_rate the desired maximum error rte of the filter
+     * @param strategy how keys are hashed
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public CuckooFilter(int capacity, double error_rate, HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        this(error_rate, capacity, fingerprintBits(error_rate), numBuckets(capacity), 0, strategy);
+        assert(0 < error_rate && error_rate < 1);
+        assert(capacity > 0);
+    }
+
+    /**
+     * Creates a CuckooFilter with explicit parameters, for filters read back from a string or binary
+     * @param error_rate
+     * @param capacity
+     * @param fingerprint_bits
+     * @param num_buckets
+     * @param count
+     * @param strategy
+     * @throws NoSuchAlgorithmException
+     * @throws IllegalArgumentException if fingerprint_bits or num_buckets are out of range
+     */
+    CuckooFilter(double error_rate, int capacity, int fingerprint_bits, int num_buckets, int count, HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        if(fingerprint_bits < 1 || fingerprint_bits > MAX_FINGERPRINT_BITS || num_buckets < 1){
+            throw new IllegalArgumentException("Bad cuckoo filter shape: " + fingerprint_bits + " bit fingerprints, "
+                    + num_buckets + " buckets");
+        }
+        long num_words = ((long) num_buckets * SLOTS * fingerprint_bits + 63) >>> 6;
+        if(num_words > Integer.MAX_VALUE - 8){
+            throw new IllegalArgumentException("Too many buckets for a cuckoo filter: " + num_buckets);
+        }
+        this.table = new long[(int) num_words];
+        //one index picks the bucket, the other one is the fingerprint
+        this.hash = strategy.newHashFn(2, Integer.MAX_VALUE);
+        this.strategy = strategy;
+        this.error_rate = error_rate;
+        this.capacity = capacity;
+        this.fingerprint_bits = fingerprint_bits;
+        this.fingerprint_mask = (1L << fingerprint_bits) - 1;
+        this.num_buckets = num_buckets;
+        this.count = count;
+    }
+
+    /**
+     * @param error_rate
+     * @return bits per fingerprint: a lookup compares 2 buckets of 4, so 8 fingerprints, with one of
+     * 2^bits - 1 values
+     */
+    static int fingerprintBits(double error_rate) {
+        int bits = (int) Math.ceil(Math.log(2 * SLOTS / error_rate) / Math.log(2));
+        return Math.max(1, Math.min(MAX_FINGERPRINT_BITS, bits));
+    }
+
+    /**
+     * @param capacity
+     * @return buckets for capacity keys at the load factor kicking reliably reaches with 4 slots
+     */
+    static int numBuckets(int capacity) {
+        return (int) Math.max(1, Math.ceil(capacity / (SLOTS * LOAD)));
+    }
+
+    /**
+     * Lookup to see if a key is in the filter.
+     * Any CharSequence finds the fingerprint of the String with the same characters
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(CharSequence key) {
+        return hasHashes(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if the bytes key[off, off + len) are in the filter
+     * @param key
+     * @param off
+     * @param len
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(byte[] key, int off, int len) {
+        return hasHashes(hash.hashToBuffer(key, off, len));
+    }
+
+    /**
+     * Lookup to see if the remaining bytes of key are in the filter, without changing the buffer's position
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(ByteBuffer key) {
+        return hasHashes(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if a number is in the filter, numbers hash like their decimal string
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(long key) {
+        return hasHashes(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if the bytes funnel writes for key are in the filter
+     * @param key
+     * @param funnel
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public <T> boolean has(T key, Funnel<? super T> funnel) {
+        return hasHashes(hash.hashToBuffer(key, funnel));
+    }
+
+    /**
+     * Add key to the filter
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException
+     */
+    public boolean add(CharSequence key)
+            throws IndexOutOfBoundsException {
+        return addHashes(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Add the bytes key[off, off + len) to the filter
+     * @param key
+     * @param off
+     * @param len
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException
+     */
+    public boolean add(byte[] key, int off, int len)
+            throws IndexOutOfBoundsException {
+        return addHashes(hash.hashToBuffer(key, off, len));
+    }
+
+    /**
+     * Add the remaining bytes of key to the filter, without changing the buffer's position
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException
+     */
+    public boolean add(ByteBuffer key)
+            throws IndexOutOfBoundsException {
+        return addHashes(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Add a number to the filter, it stores the same fingerprint as its decimal string
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException
+     */
+    public boolean add(long key)
+            throws IndexOutOfBoundsException {
+        return addHashes(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Add the bytes funnel writes for key to the filter
+     * @param key
+     * @param funnel
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException
+     */
+    public <T> boolean add(T key, Funnel<? super T> funnel)
+            throws IndexOutOfBoundsException {
+        return addHashes(hash.hashToBuffer(key, funnel));
+    }
+
+    /**
+     * Remove key from the filter
+     * @param key
+     * @return true if it was in and was removed, false if it wasn't in, in which case nothing changes
+     */
+    public boolean remove(CharSequence key) {
+        return removeHashes(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Remove the bytes key[off, off + len) from the filter
+     * @param key
+     * @param off
+     * @param len
+     * @return true if it was in and was removed, false if it wasn't in, in which case nothing changes
+     */
+    public boolean remove(byte[] key, int off, int len) {
+        return removeHashes(hash.hashToBuffer(key, off, len));
+    }
+
+    /**
+     * Remove the remaining bytes of key from the filter, without changing the buffer's position
+     * @param key
+     * @return true if it was in and was removed, false if it wasn't in, in which case nothing changes
+     */
+    public boolean remove(ByteBuffer key) {
+        return removeHashes(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Remove a number from the filter
+     * @param key
+     * @return true if it was in and was removed, false if it wasn't in, in which case nothing changes
+     */
+    public boolean remove(long key) {
+        return removeHashes(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Remove the bytes funnel writes for key from the filter
+     * @param key
+     * @param funnel
+     * @return true if it was in and was removed, false if it wasn't in, in which case nothing changes
+     */
+    public <T> boolean remove(T key, Funnel<? super T> funnel) {
+        return removeHashes(hash.hashToBuffer(key, funnel));
+    }
+
+    /**
+     * @param h first index of the HashFn, below 2^31
+     * @return bucket, by multiplying instead of a modulo
+     */
+    private int bucket(int h) {
+        return (int) ((long) h * num_buckets >>> 31);
+    }
+
+    /**
+     * @param h second index of the HashFn
+     * @return fingerprint, never 0, which marks an empty slot
+     */
+    private int fingerprint(int h) {
+        int fingerprint = (int) (h & fingerprint_mask);
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    /**
+     * The other bucket of a fingerprint. (f - bucket) mod num_buckets gives back bucket from
+     * the other bucket, so it works for any number of buckets, not just powers of 2
+     * @param bucket
+     * @param fingerprint
+     * @return the other bucket fingerprint can be in
+     */
+    private int alternate(int bucket, int fingerprint) {
+        long mixed = (fingerprint * 0x9E3779B97F4A7C15L) >>> 32;
+        int alternate = (int) (mixed * num_buckets >>> 32) - bucket;
+        return alternate < 0 ? alternate + num_buckets : alternate;
+    }
+
+    private int slot(long position) {
+        int w = (int) (position >>> 6);
+        int shift = (int) (position & 63);
+        long value = table[w] >>> shift;
+        if(shift + fingerprint_bits > 64){
+            value |= table[w + 1] << (64 - shift);
+        }
+        return (int) (value & fingerprint_mask);
+    }
+
+    private void setSlot(long position, int fingerprint) {
+        int w = (int) (position >>> 6);
+        int shift = (int) (position & 63);
+        table[w] = table[w] & ~(fingerprint_mask << shift) | (long) fingerprint << shift;
+        if(shift + fingerprint_bits > 64){
+            int spill = 64 - shift;
+            table[w + 1] = table[w + 1] & ~(fingerprint_mask >>> spill) | (long) fingerprint >>> spill;
+        }
+    }
+
+    private long position(int bucket, int slot) {
+        return ((long) bucket * SLOTS + slot) * fingerprint_bits;
+    }
+
+    /**
+     * @param bucket
+     * @param fingerprint
+     * @return position of fingerprint in bucket, -1 if it isn't there
+     */
+    private long find(int bucket, int fingerprint) {
+        long position = position(bucket, 0);
+        for(int s = 0; s < SLOTS; s++, position += fingerprint_bits){
+            if(slot(position) == fingerprint){
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param bucket
+     * @param fingerprint
+     * @return index of fingerprint in the stash under bucket or its alternate, -1 if it isn't there
+     */
+    private int findStashed(int bucket, int fingerprint) {
+        for(int i = 0; i < stash_size; i++){
+            if(stash_fingerprints[i] == fingerprint
+                    && (stash_buckets[i] == bucket || stash_buckets[i] == alternate(bucket, fingerprint))){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Puts fingerprint in an empty slot of bucket
+     * @param bucket
+     * @param fingerprint
+     * @return false if the bucket is full
+     */
+    private boolean insert(int bucket, int fingerprint) {
+        long position = find(bucket, 0);
+        if(position < 0){
+            return false;
+        }
+        setSlot(position, fingerprint);
+        return true;
+    }
+
+    private boolean contains(int bucket, int fingerprint) {
+        return find(bucket, fingerprint) >= 0 || find(alternate(bucket, fingerprint), fingerprint) >= 0
+                || (stash_size > 0 && findStashed(bucket, fingerprint) >= 0);
+    }
+
+    private boolean hasHashes(int[] hashes) {
+        return contains(bucket(hashes[0]), fingerprint(hashes[1]));
+    }
+
+    private boolean addHashes(int[] hashes)
+            throws IndexOutOfBoundsException {
+        if(count > capacity){
+            throw capacityExceeded("Cuckoo Capacity Exceeded");
+        }
+        int fingerprint = fingerprint(hashes[1]);
+        int bucket = bucket(hashes[0]);
+        boolean found = contains(bucket, fingerprint);
+        int other = alternate(bucket, fingerprint);
+        if(insert(bucket, fingerprint) || insert(other, fingerprint)){
+            count++;
+            return found;
+        }
+        //checked before anything moves, so a failed add leaves every key in
+        if(stash_size == STASH_SIZE){
+            throw capacityExceeded("Cuckoo Stash Full");
+        }
+        if((nextRandom() & 1) == 0){
+            bucket = other;
+        }
+        for(int kick = 0; kick < MAX_KICKS; kick++){
+            long position = position(bucket, (int) (nextRandom() & (SLOTS - 1)));
+            int victim = slot(position);
+            setSlot(position, fingerprint);
+            fingerprint = victim;
+            bucket = alternate(bucket, fingerprint);
+            if(insert(bucket, fingerprint)){
+                count++;
+                return found;
+            }
+        }
+        stash_buckets[stash_size] = bucket;
+        stash_fingerprints[stash_size++] = fingerprint;
+        count++;
+        return found;
+    }
+
+    /**
+     * Records a full filter, like BloomFilter.capacityExceeded
+     * @param message
+     * @return the exception for an add to throw
+     */
+    private IndexOutOfBoundsException capacityExceeded(String message) {
+        FilterEvents.capacityExceeded(CuckooFilter.class, capacity);
+        return new IndexOutOfBoundsException(message);
+    }
+
+    private boolean removeHashes(int[] hashes) {
+        int fingerprint = fingerprint(hashes[1]);
+        int bucket = bucket(hashes[0]);
+        long position = find(bucket, fingerprint);
+        if(position < 0){
+            position = find(alternate(bucket, fingerprint), fingerprint);
+        }
+        if(position >= 0){
+            setSlot(position, 0);
+            unstash();
+        }
+        else{
+            int i = stash_size > 0 ? findStashed(bucket, fingerprint) : -1;
+            if(i < 0){
+                return false;
+            }
+            stash_size--;
+            stash_buckets[i] = stash_buckets[stash_size];
+            stash_fingerprints[i] = stash_fingerprints[stash_size];
+        }
+        count--;
+        return true;
+    }
+
+    /**
+     * Moves stashed fingerprints back into the table where a remove made room
+     */
+    private void unstash() {
+        for(int i = stash_size - 1; i > -1; i--){
+            int bucket = stash_buckets[i], fingerprint = stash_fingerprints[i];
+            if(insert(bucket, fingerprint) || insert(alternate(bucket, fingerprint), fingerprint)){
+                stash_size--;
+                stash_buckets[i] = stash_buckets[stash_size];
+                stash_fingerprints[i] = stash_fingerprints[stash_size];
+            }
+        }
+    }
+
+    /**
+     * @return xorshift random numbers for picking the bucket and slot to kick from.
+     * The seed is fixed, so the same adds give the same table
+     */
+    private long nextRandom() {
+        long x = random;
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        random = x;
+        return x >>> 32;
+    }
+
+    /**
+     * Stringify the filter: "cuckoo:", the error rate, capacity, fingerprint bits, number of buckets
+     * and count separated by ':', then the table in hex with the bytes of each word little endian,
+     * the stash as bucket.fingerprint pairs separated by ',' and the strategy. Python can't read it
+     * @return stringified filter
+     */
+    public String toString(){
+        StringWriter out = new StringWriter();
+        try {
+            writeTo(out);
+        }catch(IOException e) {
+            //a StringWriter doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the same text as toString
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(Writer out)
+            throws IOException {
+        Object event = FilterEvents.beginSerialization();
+        out.write("cuckoo:" + Double.toString(error_rate) + ":" + capacity + ":" + fingerprint_bits + ":"
+                + num_buckets + ":" + count + ":");
+        char[] buf = new char[8192];
+        int n = 0;
+        for(long word : table){
+            for(int b = 0; b < 8; b++){
+                int value = (int) (word >>> (8 * b));
+                buf[n++] = HEX_DIGITS[(value >>> 4) & 0xf];
+                buf[n++] = HEX_DIGITS[value & 0xf];
+            }
+            if(n == buf.length){
+                out.write(buf, 0, n);
+                n = 0;
+            }
+        }
+        out.write(buf, 0, n);
+        out.write(':');
+        for(int i = 0; i < stash_size; i++){
+            if(i > 0){
+                out.write(',');
+            }
+            out.write(stash_buckets[i] + "." + stash_fingerprints[i]);
+        }
+        out.write(":" + strategy.getName());
+        FilterEvents.endSerialization(event, CuckooFilter.class, "text", true, numBits());
+    }
+
+    /**
+     * Writes the same text as toString as ASCII bytes. out is flushed but not closed
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.US_ASCII);
+        writeTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * UnStringify a Stringified cuckoo filter s
+     * @param s
+     * @return CuckooFilter from that string
+     * @throws NoSuchAlgorithmException
+     */
+    public static CuckooFilter fromString(String s)
+            throws NoSuchAlgorithmException {
+        try {
+            return readFrom(new StringReader(s));
+        }catch(IOException e) {
+            //a StringReader doesn't throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a filter written by writeTo or toString
+     * @param in
+     * @return CuckooFilter from that text
+     * @throws IOException
+     * @throws IllegalArgumentException if the text isn't a cuckoo filter
+     * @throws NoSuchAlgorithmException
+     */
+    public static CuckooFilter readFrom(Reader in)
+            throws IOException, NoSuchAlgorithmException {
+        Object event = FilterEvents.beginSerialization();
+        TextReader text = new TextReader(in);
+        if(!text.field(':').equals("cuckoo")){
+            throw new IllegalArgumentException("Not a cuckoo filter");
+        }
+        double error_rate = Double.valueOf(text.field(':'));
+        int capacity = Integer.valueOf(text.field(':'));
+        int fingerprint_bits = Integer.valueOf(text.field(':'));
+        int num_buckets = Integer.valueOf(text.field(':'));
+        int count = Integer.valueOf(text.field(':'));
+        //the strategy comes last, the fingerprints don't depend on it
+        CuckooFilter filter = new CuckooFilter(error_rate, capacity, fingerprint_bits, num_buckets, count,
+                HashStrategy.DIGEST);
+        HeapBitArray bits = new HeapBitArray(64L * filter.table.length);
+        text.hex(bits);
+        for(int i = 0; i < filter.table.length; i++){
+            filter.table[i] = bits.getWord(i);
+        }
+        if(!text.skip(':')){
+            throw new IllegalArgumentException("Expected ':' after the cuckoo table");
+        }
+        String stash = text.field(':');
+        if(!stash.isEmpty()){
+            for(String entry : stash.split(",")){
+                int dot = entry.indexOf('.');
+                if(dot < 0){
+                    throw new IllegalArgumentException("Bad stash entry " + entry);
+                }
+                filter.stash(Integer.valueOf(entry.substring(0, dot)), Integer.valueOf(entry.substring(dot + 1)));
+            }
+        }
+        HashStrategy strategy = HashStrategy.forName(text.word());
+        if(strategy != HashStrategy.DIGEST){
+            filter.strategy = strategy;
+            filter.hash = strategy.newHashFn(2, Integer.MAX_VALUE);
+        }
+        FilterEvents.endSerialization(event, CuckooFilter.class, "text", false, filter.numBits());
+        return filter;
+    }
+
+    /**
+     * Reads a filter written by writeTo(OutputStream)
+     * @param in
+     * @return CuckooFilter from that text
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    public static CuckooFilter readFrom(InputStream in)
+            throws IOException, NoSuchAlgorithmException {
+        return readFrom(new InputStreamReader(in, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Writes the filter in the binary format of BinaryCodec: the table as it is, about half the size
+     * of the text. Only jbloom can read it. out is flushed but not closed
+     * @param out
+     * @throws IOException
+     */
+    public void writeBinary(OutputStream out)
+            throws IOException {
+        new BinaryCodec().write(this, out);
+    }
+
+    /**
+     * Reads a filter written by writeBinary
+     * @param in
+     * @return CuckooFilter with the same fingerprints
+     * @throws IOException if the data is corrupt
+     * @throws NoSuchAlgorithmException
+     */
+    public static CuckooFilter readBinary(InputStream in)
+            throws IOException, NoSuchAlgorithmException {
+        return new BinaryCodec().readCuckooFilter(in);
+    }
+
+    /**
+     * @return the packed fingerprints, for the codecs
+     */
+    long[] table() {
+        return table;
+    }
+
+    int stashBucket(int i) {
+        return stash_buckets[i];
+    }
+
+    int stashFingerprint(int i) {
+        return stash_fingerprints[i];
+    }
+
+    /**
+     * Adds a fingerprint to the stash, for the codecs
+     * @param bucket
+     * @param fingerprint
+     * @throws IllegalArgumentException if the stash is full or the entry is out of range
+     */
+    void stash(int bucket, int fingerprint) {
+        if(stash_size == STASH_SIZE || bucket < 0 || bucket >= num_buckets
+                || fingerprint < 1 || fingerprint > fingerprint_mask){
+            throw new IllegalArgumentException("Bad cuckoo stash entry " + bucket + "." + fingerprint);
+        }
+        stash_buckets[stash_size] = bucket;
+        stash_fingerprints[stash_size++] = fingerprint;
+    }
+
+    /**
+     * @return bits of the table
+     */
+    long numBits() {
+        return 64L * table.length;
+    }
+
+    /**
+     * @return number of keys in the filter, adds minus removes
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return share of the slots taken, stashed keys included
+     */
+    public double getLoadFactor() {
+        return (double) count / ((long) num_buckets * SLOTS);
+    }
+
+    /**
+     * Estimated false positive rate at the current load: a lookup compares its fingerprint against
+     * the taken slots of 2 buckets
+     * @return false positive rate
+     */
+    public double getFalsePositiveRate() {
+        return 1 - Math.pow(1 - 1.0 / fingerprint_mask, 2 * SLOTS * Math.min(1, getLoadFactor()));
+    }
+
+    /**
+     * @return number of fingerprints in the stash, at most 8
+     */
+    public int getStashSize() {
+        return stash_size;
+    }
+
+    /**
+     * @return bytes taken by the table
+     */
+    public long getSizeInBytes() {
+        return 8L * table.length;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public double getErrorRate() {
+        return error_rate;
+    }
+
+    public int getFingerprintBits() {
+        return fingerprint_bits;
+    }
+
+    public int getNumBuckets() {
+        return num_buckets;
+    }
+
+    public HashStrategy getStrategy() {
+        return strategy;
+    }
+}
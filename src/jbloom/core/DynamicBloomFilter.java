@@ -1,16 +1,51 @@
 package jbloom.core;
 
+import jbloom.metrics.FilterEvents;
+import jbloom.metrics.FilterListener;
+import jbloom.util.BitArray;
+import jbloom.util.Funnel;
+import jbloom.util.HashFn;
+import jbloom.util.HashStrategy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * A modification of the Bloom Filter that modifies it's size dynamically based on
  * "base_capacity" sized bloom filters, up to some max capacity.
  */
 public class DynamicBloomFilter {
+    private static final int PARALLEL_FILTERS = 16;
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
     private ArrayList<BloomFilter> filters;
     private double individual_error_rate, max_error_rate;
     private int base_capacity, max_capacity;
+    private HashStrategy strategy;
+    private boolean parallel;
+    private FilterListener listener;
+    //number of bloom filters at the last checkpoint or exportDelta, -1 if changes aren't tracked
+    private int tracked = -1;
 
     /**
      * Creates a DynamicBloomFilter
@@ -19,6 +54,17 @@ public class DynamicBloomFilter {
      * @param error_rate maximum error rte
      */
     public DynamicBloomFilter(int base_capacity, int max_capacity, double error_rate){
+        this(base_capacity, max_capacity, error_rate, HashStrategy.DIGEST);
+    }
+
+    /**
+     * Creates a DynamicBloomFilter whose bloom filters hash with the given strategy
+     * @param base_capacity capacity of each bloom filter in the filter
+     * @param max_capacity overall maximum capacity
+     * @param error_rate maximum error rte
+     * @param strategy how keys are hashed, only DIGEST filters can be read by python
+     */
+    public DynamicBloomFilter(int base_capacity, int max_capacity, double error_rate, HashStrategy strategy){
         assert(error_rate > 0 && error_rate < 1);
         assert(base_capacity > 0);
         assert(max_capacity > 0);
@@ -27,6 +73,7 @@ public class DynamicBloomFilter {
         max_error_rate = error_rate;
         this.base_capacity = base_capacity;
         this.max_capacity = max_capacity;
+        this.strategy = strategy;
     }
 
     /**
@@ -37,12 +84,85 @@ public class DynamicBloomFilter {
      */
     public boolean has(String key)
             throws CloneNotSupportedException {
-        for(int i = filters.size() - 1; i > -1; i--){
-            if(filters.get(i).has(key)){
-                return true;
-            }
+        return has((CharSequence) key);
+    }
+
+    /**
+     * Lookup to see if a key is in the bloom filter, see BloomFilter.has(CharSequence)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(CharSequence key) {
+        if(filters.isEmpty()){
+            return false;
         }
-        return false;
+        if(listener != null){
+            return observeHas(startTiming(), hashFn().hashToBuffer(key));
+        }
+        return hasIndices(hashFn().hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if the bytes key[off, off + len) are in the bloom filter
+     * @param key
+     * @param off
+     * @param len
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(byte[] key, int off, int len) {
+        if(filters.isEmpty()){
+            return false;
+        }
+        if(listener != null){
+            return observeHas(startTiming(), hashFn().hashToBuffer(key, off, len));
+        }
+        return hasIndices(hashFn().hashToBuffer(key, off, len));
+    }
+
+    /**
+     * Lookup to see if the remaining bytes of key are in the bloom filter, see BloomFilter.has(ByteBuffer)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(ByteBuffer key) {
+        if(filters.isEmpty()){
+            return false;
+        }
+        if(listener != null){
+            return observeHas(startTiming(), hashFn().hashToBuffer(key));
+        }
+        return hasIndices(hashFn().hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if a number is in the bloom filter, see BloomFilter.has(long)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(long key) {
+        if(filters.isEmpty()){
+            return false;
+        }
+        if(listener != null){
+            return observeHas(startTiming(), hashFn().hashToBuffer(key));
+        }
+        return hasIndices(hashFn().hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if the bytes funnel writes for key are in the bloom filter
+     * @param key
+     * @param funnel
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public <T> boolean has(T key, Funnel<? super T> funnel) {
+        if(filters.isEmpty()){
+            return false;
+        }
+        if(listener != null){
+            return observeHas(startTiming(), hashFn().hashToBuffer(key, funnel));
+        }
+        return hasIndices(hashFn().hashToBuffer(key, funnel));
     }
 
     /**
@@ -54,66 +174,850 @@ public class DynamicBloomFilter {
      */
     public boolean add(String key)
             throws CloneNotSupportedException, NoSuchAlgorithmException {
-        BloomFilter filter;
-        if(this.has(key)){
+        return add((CharSequence) key);
+    }
+
+    /**
+     * Add key to the bloom filter, see BloomFilter.add(CharSequence)
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws NoSuchAlgorithmException
+     */
+    public boolean add(CharSequence key)
+            throws NoSuchAlgorithmException {
+        if(filters.isEmpty()){
+            currentFilter();
+        }
+        if(listener != null){
+            return observeAdd(startTiming(), hashFn().hashToBuffer(key));
+        }
+        return addIndices(hashFn().hashToBuffer(key));
+    }
+
+    /**
+     * Add the bytes key[off, off + len) to the bloom filter
+     * @param key
+     * @param off
+     * @param len
+     * @return true if it was already in, false if it wasn't
+     * @throws NoSuchAlgorithmException
+     */
+    public boolean add(byte[] key, int off, int len)
+            throws NoSuchAlgorithmException {
+        if(filters.isEmpty()){
+            currentFilter();
+        }
+        if(listener != null){
+            return observeAdd(startTiming(), hashFn().hashToBuffer(key, off, len));
+        }
+        return addIndices(hashFn().hashToBuffer(key, off, len));
+    }
+
+    /**
+     * Add the remaining bytes of key to the bloom filter, see BloomFilter.add(ByteBuffer)
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws NoSuchAlgorithmException
+     */
+    public boolean add(ByteBuffer key)
+            throws NoSuchAlgorithmException {
+        if(filters.isEmpty()){
+            currentFilter();
+        }
+        if(listener != null){
+            return observeAdd(startTiming(), hashFn().hashToBuffer(key));
+        }
+        return addIndices(hashFn().hashToBuffer(key));
+    }
+
+    /**
+     * Add a number to the bloom filter, see BloomFilter.add(long)
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws NoSuchAlgorithmException
+     */
+    public boolean add(long key)
+            throws NoSuchAlgorithmException {
+        if(filters.isEmpty()){
+            currentFilter();
+        }
+        if(listener != null){
+            return observeAdd(startTiming(), hashFn().hashToBuffer(key));
+        }
+        return addIndices(hashFn().hashToBuffer(key));
+    }
+
+    /**
+     * Add the bytes funnel writes for key to the bloom filter
+     * @param key
+     * @param funnel
+     * @return true if it was already in, false if it wasn't
+     * @throws NoSuchAlgorithmException
+     */
+    public <T> boolean add(T key, Funnel<? super T> funnel)
+            throws NoSuchAlgorithmException {
+        if(filters.isEmpty()){
+            currentFilter();
+        }
+        if(listener != null){
+            return observeAdd(startTiming(), hashFn().hashToBuffer(key, funnel));
+        }
+        return addIndices(hashFn().hashToBuffer(key, funnel));
+    }
+
+    /**
+     * All the bloom filters have the same shape, so a key has the same indices in every one of them:
+     * it is hashed once with the oldest filter's HashFn and the indices are probed in every filter
+     * @return HashFn of the bloom filters
+     */
+    private HashFn hashFn() {
+        return filters.get(0).hashFn();
+    }
+
+    /**
+     * Probes every bloom filter, newest first, for a hashed key. With parallel probing on,
+     * filters with at least PARALLEL_FILTERS bloom filters split them between the threads
+     * of the fork-join common pool
+     * @param hashes one index per slice, from hashFn()
+     * @return True if any bloom filter has every bit set
+     */
+    private boolean hasIndices(final int[] hashes) {
+        final int n = filters.size();
+        if(parallel && n >= PARALLEL_FILTERS){
+            return IntStream.range(0, n).parallel().anyMatch(new IntPredicate() {
+                @Override
+                public boolean test(int i) {
+                    return filters.get(n - 1 - i).hasIndices(hashes);
+                }
+            });
+        }
+        for(int i = n - 1; i > -1; i--){
+            if(filters.get(i).hasIndices(hashes)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a hashed key to the newest bloom filter unless one of the bloom filters already has it
+     * @param hashes one index per slice, from hashFn()
+     * @return true if it was already in, false if it wasn't
+     * @throws NoSuchAlgorithmException
+     */
+    private boolean addIndices(int[] hashes)
+            throws NoSuchAlgorithmException {
+        if(hasIndices(hashes)){
             return true;
         }
+        currentFilter().addIndices(hashes, true);
+        return false;
+    }
+
+    /**
+     * Sets the listener told about every has and add and about the bloom filters each one probed,
+     * see BloomFilter.setListener. Lookups are counted sequentially, even with parallel probing on
+     * @param listener null for none, which is the default
+     */
+    public void setListener(FilterListener listener) {
+        this.listener = listener;
+    }
+
+    public FilterListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @return System.nanoTime() if the listener samples this operation, NOT_SAMPLED if not
+     */
+    private long startTiming() {
+        return listener.sample() ? System.nanoTime() : NOT_SAMPLED;
+    }
+
+    /**
+     * @param hashes
+     * @return index of the newest bloom filter that has the key, -1 if none has
+     */
+    private int find(int[] hashes) {
+        for(int i = filters.size() - 1; i > -1; i--){
+            if(filters.get(i).hasIndices(hashes)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean observeHas(long start, int[] hashes) {
+        long hashed = start == NOT_SAMPLED ? NOT_SAMPLED : System.nanoTime();
+        int found = find(hashes);
+        if(start == NOT_SAMPLED){
+            listener.onHas(found != -1, -1, -1);
+        }
+        else{
+            listener.onHas(found != -1, hashed - start, System.nanoTime() - hashed);
+        }
+        listener.onScan(filters.size() - Math.max(found, 0));
+        return found != -1;
+    }
+
+    private boolean observeAdd(long start, int[] hashes)
+            throws NoSuchAlgorithmException {
+        long hashed = start == NOT_SAMPLED ? NOT_SAMPLED : System.nanoTime();
+        int found = find(hashes);
+        int scanned = filters.size() - Math.max(found, 0);
+        if(found == -1){
+            currentFilter().addIndices(hashes, true);
+        }
+        if(start == NOT_SAMPLED){
+            listener.onAdd(found != -1, -1, -1);
+        }
+        else{
+            listener.onAdd(found != -1, hashed - start, System.nanoTime() - hashed);
+        }
+        listener.onScan(scanned);
+        return found != -1;
+    }
+
+    /**
+     * Turns parallel probing on or off. A lookup only takes a few hundred nanoseconds per bloom filter,
+     * so it only pays off for filters with many bloom filters on a machine with idle cores
+     * @param parallel
+     */
+    public void setParallelProbing(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Looks up a batch of keys, see BloomFilter.hasAll(CharSequence[]).
+     * Each bloom filter, newest first, only looks for the keys the ones before it didn't find
+     * @param keys
+     * @return bitmap with bit i (result[i >>> 6] >>> i & 1) set if keys[i] is in the filter
+     */
+    public long[] hasAll(CharSequence[] keys) {
+        return hasAll(KeyBatch.of(keys));
+    }
+
+    /**
+     * Looks up a batch of numbers, see BloomFilter.hasAll(long[])
+     * @param keys
+     * @return bitmap with bit i (result[i >>> 6] >>> i & 1) set if keys[i] is in the filter
+     */
+    public long[] hasAll(long[] keys) {
+        return hasAll(KeyBatch.of(keys));
+    }
+
+    /**
+     * Looks up a batch of byte array keys, see BloomFilter.hasAll(byte[][])
+     * @param keys
+     * @return bitmap with bit i (result[i >>> 6] >>> i & 1) set if keys[i] is in the filter
+     */
+    public long[] hasAll(byte[][] keys) {
+        return hasAll(KeyBatch.of(keys));
+    }
+
+    /**
+     * Looks up a batch of keys, see hasAll(CharSequence[])
+     * @param keys
+     * @return bitmap with bit i set if the i-th key is in the filter
+     */
+    public long[] hasAll(Iterable<? extends CharSequence> keys) {
+        return hasAll(KeyBatch.of(keys.iterator()));
+    }
+
+    /**
+     * Looks up a batch of keys, see hasAll(CharSequence[])
+     * @param keys
+     * @return bitmap with bit i set if the i-th key is in the filter
+     */
+    public long[] hasAll(Stream<? extends CharSequence> keys) {
+        return hasAll(KeyBatch.of(keys.iterator()));
+    }
+
+    /**
+     * Looks up a batch of keys by the bytes funnel writes for them, see hasAll(CharSequence[])
+     * @param keys
+     * @param funnel
+     * @return bitmap with bit i set if the i-th key is in the filter
+     */
+    public <T> long[] hasAll(Iterable<? extends T> keys, Funnel<? super T> funnel) {
+        return hasAll(KeyBatch.of(keys.iterator(), funnel));
+    }
+
+    /**
+     * Adds a batch of keys, with the same results as adding them one by one.
+     * The keys are looked up like hasAll(CharSequence[]), and the missing ones go to the newest
+     * bloom filter with BloomFilter.addAll, as many at a time as it has room for
+     * @param keys
+     * @return bitmap with bit i (result[i >>> 6] >>> i & 1) set if keys[i] was already in
+     * @throws NoSuchAlgorithmException
+     */
+    public long[] addAll(CharSequence[] keys)
+            throws NoSuchAlgorithmException {
+        return addAll(KeyBatch.of(keys));
+    }
+
+    /**
+     * Adds a batch of numbers, see addAll(CharSequence[])
+     * @param keys
+     * @return bitmap with bit i (result[i >>> 6] >>> i & 1) set if keys[i] was already in
+     * @throws NoSuchAlgorithmException
+     */
+    public long[] addAll(long[] keys)
+            throws NoSuchAlgorithmException {
+        return addAll(KeyBatch.of(keys));
+    }
+
+    /**
+     * Adds a batch of byte array keys, see addAll(CharSequence[])
+     * @param keys
+     * @return bitmap with bit i (result[i >>> 6] >>> i & 1) set if keys[i] was already in
+     * @throws NoSuchAlgorithmException
+     */
+    public long[] addAll(byte[][] keys)
+            throws NoSuchAlgorithmException {
+        return addAll(KeyBatch.of(keys));
+    }
+
+    /**
+     * Adds a batch of keys, see addAll(CharSequence[])
+     * @param keys
+     * @return bitmap with bit i set if the i-th key was already in
+     * @throws NoSuchAlgorithmException
+     */
+    public long[] addAll(Iterable<? extends CharSequence> keys)
+            throws NoSuchAlgorithmException {
+        return addAll(KeyBatch.of(keys.iterator()));
+    }
+
+    /**
+     * Adds a batch of keys, see addAll(CharSequence[])
+     * @param keys
+     * @return bitmap with bit i set if the i-th key was already in
+     * @throws NoSuchAlgorithmException
+     */
+    public long[] addAll(Stream<? extends CharSequence> keys)
+            throws NoSuchAlgorithmException {
+        return addAll(KeyBatch.of(keys.iterator()));
+    }
+
+    /**
+     * Adds a batch of keys by the bytes funnel writes for them, see addAll(CharSequence[])
+     * @param keys
+     * @param funnel
+     * @return bitmap with bit i set if the i-th key was already in
+     * @throws NoSuchAlgorithmException
+     */
+    public <T> long[] addAll(Iterable<? extends T> keys, Funnel<? super T> funnel)
+            throws NoSuchAlgorithmException {
+        return addAll(KeyBatch.of(keys.iterator(), funnel));
+    }
+
+    /**
+     * Looks up a batch of keys BloomFilter.BATCH_CHUNK at a time. Each chunk is hashed once into the same
+     * buffer, and every bloom filter is probed from it, see lookup
+     * @param keys
+     * @return bitmap with bit i set if key i is in the filter
+     */
+    long[] hasAll(KeyBatch keys) {
+        long[] result = new long[(keys.size() + 63) >>> 6];
+        if(!filters.isEmpty()){
+            HashFn hash = hashFn();
+            Chunk chunk = new Chunk(filters.get(0).getNumSlices());
+            for(int start = 0; start < keys.size(); start += BloomFilter.BATCH_CHUNK){
+                chunk.hash(keys, hash, start);
+                lookup(chunk, result);
+            }
+        }
+        return observeBatch(false, keys.size(), result);
+    }
+
+    /**
+     * @param add
+     * @param n number of keys
+     * @param result
+     * @return result, after telling the listener how many keys were found
+     */
+    private long[] observeBatch(boolean add, int n, long[] result) {
+        if(listener != null){
+            int found = 0;
+            for(long word : result){
+                found += Long.bitCount(word);
+            }
+            listener.onBatch(add, n, found);
+        }
+        return result;
+    }
+
+    /**
+     * Adds a batch of keys a chunk at a time, like hasAll(KeyBatch). The keys of a chunk none of the bloom
+     * filters have go to the newest one, as many at a time as it has room for. A key of a later chunk that
+     * an earlier chunk added is found in the filter, so the results are the same as adding the keys one by one
+     * @param keys
+     * @return bitmap with bit i set if key i was already in
+     * @throws NoSuchAlgorithmException
+     */
+    long[] addAll(KeyBatch keys)
+            throws NoSuchAlgorithmException {
+        long[] result = new long[(keys.size() + 63) >>> 6];
         if(filters.isEmpty()){
-            filter = new BloomFilter(base_capacity, individual_error_rate);
+            currentFilter();
+        }
+        HashFn hash = hashFn();
+        Chunk chunk = new Chunk(filters.get(0).getNumSlices());
+        for(int start = 0; start < keys.size(); start += BloomFilter.BATCH_CHUNK){
+            chunk.hash(keys, hash, start);
+            lookup(chunk, result);
+            int first = 0;
+            while(first < chunk.size){
+                BloomFilter filter = currentFilter();
+                int take = Math.min(filter.getCapacity() - filter.getCount(), chunk.size - first);
+                chunk.add(filter, first, take, result);
+                first += take;
+                if(first < chunk.size){
+                    //the rest were missing from every filter, but the keys just added may have put them in this one
+                    chunk.probe(filter, first, result);
+                }
+            }
+        }
+        return observeBatch(true, keys.size(), result);
+    }
+
+    /**
+     * Looks the keys of a chunk up in the bloom filters from the newest to the oldest, each one only
+     * looking for the keys the newer ones didn't have
+     * @param chunk is left with the keys none of the bloom filters have
+     * @param result gets the bits of the keys that were found set, by their position in the caller's batch
+     */
+    private void lookup(Chunk chunk, long[] result) {
+        for(int i = filters.size() - 1; i > -1 && chunk.size > 0; i--){
+            chunk.probe(filters.get(i), 0, result);
+        }
+    }
+
+    /**
+     * Up to BloomFilter.BATCH_CHUNK hashed keys of a batch. All the bloom filters have the same shape,
+     * so they are all probed from the same indices, and the buffers are reused from one chunk to the next
+     */
+    private static final class Chunk {
+        private final int num_slices;
+        private final int[] indices, positions, live, next;
+        private int size;
+
+        Chunk(int num_slices) {
+            this.num_slices = num_slices;
+            this.indices = new int[BloomFilter.BATCH_CHUNK * num_slices];
+            this.positions = new int[BloomFilter.BATCH_CHUNK];
+            this.live = new int[BloomFilter.BATCH_CHUNK];
+            this.next = new int[BloomFilter.BATCH_CHUNK];
+        }
+
+        /**
+         * Replaces the keys with the next chunk of the batch
+         * @param keys
+         * @param hash
+         * @param start position of the chunk's first key in keys
+         */
+        void hash(KeyBatch keys, HashFn hash, int start) {
+            size = Math.min(BloomFilter.BATCH_CHUNK, keys.size() - start);
+            for(int k = 0; k < size; k++){
+                System.arraycopy(keys.hash(hash, start + k), 0, indices, k * num_slices, num_slices);
+                positions[k] = start + k;
+            }
+        }
+
+        /**
+         * Probes filter for the keys from first on, and drops the ones it has
+         * @param filter
+         * @param first
+         * @param result gets the bits of the keys filter has
+         */
+        void probe(BloomFilter filter, int first, long[] result) {
+            int m = size - first;
+            for(int j = 0; j < m; j++){
+                live[j] = first + j;
+            }
+            int found = filter.probeChunk(indices, m, live, next);
+            //the keys that are in end up in live or next, depending on the number of slices, in order
+            int[] in = (num_slices & 1) == 0 ? live : next;
+            int kept = first;
+            for(int k = first, f = 0; k < size; k++){
+                if(f < found && in[f] == k){
+                    f++;
+                    result[positions[k] >>> 6] |= 1L << positions[k];
+                }
+                else{
+                    if(kept != k){
+                        System.arraycopy(indices, k * num_slices, indices, kept * num_slices, num_slices);
+                        positions[kept] = positions[k];
+                    }
+                    kept++;
+                }
+            }
+            size = kept;
+        }
+
+        /**
+         * Adds m keys from first on to filter
+         * @param filter has room for m more keys
+         * @param first
+         * @param m
+         * @param result gets the bits of the keys that were already in
+         */
+        void add(BloomFilter filter, int first, int m, long[] result) {
+            for(int w = 0; w < m; w += 64){
+                long found = filter.setChunk(indices, first + w, Math.min(64, m - w));
+                while(found != 0){
+                    int position = positions[first + w + Long.numberOfTrailingZeros(found)];
+                    result[position >>> 6] |= 1L << position;
+                    found &= found - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return an empty bloom filter with the shape of the ones already in the filter,
+     * which is the shape base_capacity and the error rate give unless the filter was read from python
+     * @throws NoSuchAlgorithmException
+     */
+    private BloomFilter newFilter()
+            throws NoSuchAlgorithmException {
+        if(filters.isEmpty()){
+            return new BloomFilter(base_capacity, individual_error_rate, strategy);
+        }
+        BloomFilter shape = filters.get(0);
+        if(shape.blocked()){
+            return new BlockedBloomFilter(shape.getErrorRate(), shape.getNumSlices(), shape.getBitsPerSlice(),
+                    shape.getCapacity(), 0, shape.getStrategy());
+        }
+        return new BloomFilter(shape.getErrorRate(), shape.getNumSlices(), shape.getBitsPerSlice(),
+                shape.getCapacity(), 0, shape.getStrategy());
+    }
+
+    /**
+     * Tells the listener and JFR about a bloom filter that was just added to the end of filters
+     * @param filter
+     */
+    private void created(BloomFilter filter) {
+        if(listener != null){
+            listener.onFilterCreated(filters.size());
+        }
+        FilterEvents.filterCreated(filters.size(), filter.getCapacity());
+    }
+
+    /**
+     * The bloom filter new keys go to, a new one is started when the last one is full.
+     * Callers have already checked that the key isn't in any of the filters,
+     * so adding it to this filter always counts it as new
+     * @return the last bloom filter
+     * @throws NoSuchAlgorithmException
+     */
+    private BloomFilter currentFilter()
+            throws NoSuchAlgorithmException {
+        BloomFilter filter;
+        if(filters.isEmpty()){
+            filter = newFilter();
             filters.add(filter);
+            created(filter);
         }
         else{
             filter = filters.get(filters.size() - 1);
             if(filter.getCount() >= filter.getCapacity()){
-                filter = new BloomFilter(base_capacity, individual_error_rate);
+                filter = newFilter();
                 filters.add(filter);
+                created(filter);
             }
         }
-        filter.add(key, true);
-        return false;
+        return filter;
     }
 
     /**
-     * Form the union of two bloom filters
-     * @param other
-     * @return this | other
+     * Unions any number of filters into this one, in place. Each bloom filter of the others is ORed into
+     * the first of this filter's bloom filters with room for its count, or into a new bloom filter if none has.
+     * All the ORs for one bloom filter of this are done in a single pass over its words, and the bloom
+     * filters of this are merged in parallel on the fork-join common pool
+     * @param others
+     * @return this
+     * @throws IllegalArgumentException if any of the others has a different capacity, error rate or hash strategy,
+     * in which case this isn't changed
+     * @throws NoSuchAlgorithmException
      */
-    public DynamicBloomFilter union(DynamicBloomFilter other){
-        DynamicBloomFilter return_filter = new DynamicBloomFilter(base_capacity, max_capacity, max_error_rate);
-        ArrayList<BloomFilter> other_filters = other.filters;
-        for(int i = 0; i < this.filters.size(); i++) {
-            boolean found_union_mate = false;
-            for (int j = 0; j < other.filters.size(); j++) {
-                int other_filter_index = other.filters.size() - 1 - j;
-                BloomFilter union_filter = (this.filters.get(i).union(other.filters.get(other_filter_index)));
-                if(union_filter.getCount() < this.base_capacity){
-                    other_filters.set(other_filter_index, union_filter);
-                    found_union_mate = true;
-                    break;
+    public DynamicBloomFilter merge(Collection<? extends DynamicBloomFilter> others)
+            throws NoSuchAlgorithmException {
+        checkCompatible(others);
+        List<BloomFilter> dests = new ArrayList<BloomFilter>(filters);
+        List<List<BloomFilter>> groups = new ArrayList<List<BloomFilter>>();
+        List<Integer> counts = new ArrayList<Integer>();
+        for(BloomFilter filter : dests){
+            groups.add(new ArrayList<BloomFilter>());
+            counts.add(filter.getCount());
+        }
+        for(DynamicBloomFilter other : others){
+            for(BloomFilter filter : other.filters){
+                //first fit, by count
+                int i = 0;
+                while(i < dests.size() && counts.get(i) + filter.getCount() > base_capacity){
+                    i++;
+                }
+                if(i == dests.size()){
+                    dests.add(newFilter());
+                    groups.add(new ArrayList<BloomFilter>());
+                    counts.add(0);
+                }
+                groups.get(i).add(filter);
+                counts.set(i, counts.get(i) + filter.getCount());
+            }
+        }
+        List<RecursiveAction> merges = new ArrayList<RecursiveAction>(dests.size());
+        for(int i = 0; i < dests.size(); i++){
+            final BloomFilter dest = dests.get(i);
+            final List<BloomFilter> group = groups.get(i);
+            merges.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    dest.merge(group);
                 }
+            });
+        }
+        ForkJoinTask.invokeAll(merges);
+        int old_size = filters.size();
+        filters = new ArrayList<BloomFilter>(dests);
+        for(int i = old_size; i < filters.size(); i++){
+            created(filters.get(i));
+        }
+        return this;
+    }
+
+    /**
+     * Intersects any number of filters into this one, in place. A key is in the intersection if it is in
+     * this and in some bloom filter of every other, so each other is first ORed into a single bloom filter
+     * and those are ANDed into one mask, which every bloom filter of this is then ANDed with.
+     * That is a pass over each bloom filter rather than one for every pair of bloom filters
+     * @param others
+     * @return this
+     * @throws IllegalArgumentException if any of the others has a different capacity, error rate or hash strategy,
+     * in which case this isn't changed
+     * @throws NoSuchAlgorithmException
+     */
+    public DynamicBloomFilter intersect(Collection<? extends DynamicBloomFilter> others)
+            throws NoSuchAlgorithmException {
+        checkCompatible(others);
+        if(others.isEmpty() || filters.isEmpty()){
+            return this;
+        }
+        List<BloomFilter> masks = new ArrayList<BloomFilter>(others.size());
+        for(DynamicBloomFilter other : others){
+            if(other.filters.isEmpty()){
+                //nothing is in other, so nothing is in the intersection
+                filters.clear();
+                return this;
             }
-            if(!found_union_mate){
-                other_filters.add(this.filters.get(i));
+            masks.add(newFilter().merge(other.filters));
+        }
+        final List<BloomFilter> mask = Collections.singletonList(
+                masks.get(0).intersect(masks.subList(1, masks.size())));
+        List<RecursiveAction> intersections = new ArrayList<RecursiveAction>(filters.size());
+        for(final BloomFilter filter : filters){
+            intersections.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    filter.intersect(mask);
+                }
+            });
+        }
+        ForkJoinTask.invokeAll(intersections);
+        return this;
+    }
+
+    private void checkCompatible(Collection<? extends DynamicBloomFilter> others){
+        if(!filters.isEmpty()){
+            for(DynamicBloomFilter other : others){
+                for(BloomFilter filter : other.filters){
+                    filters.get(0).checkCompatible(filter);
+                }
+            }
+            return;
+        }
+        int num_slices = BloomFilter.numSlices(individual_error_rate);
+        int bits_per_slice = BloomFilter.bitsPerSlice(base_capacity, individual_error_rate, num_slices);
+        for(DynamicBloomFilter other : others){
+            for(BloomFilter filter : other.filters){
+                filter.checkCompatible(num_slices, bits_per_slice, strategy);
             }
         }
-        return_filter.filters = other_filters;
-        return return_filter;
     }
 
     /**
-     * Form the intersection of the bloom filter
+     * Starts tracking the changes of every bloom filter, see BloomFilter.checkpoint.
+     * Bloom filters appended from now on are in the next delta whole
+     */
+    public void checkpoint(){
+        for(BloomFilter filter : filters){
+            filter.checkpoint();
+        }
+        tracked = filters.size();
+    }
+
+    /**
+     * The changes since the last checkpoint or exportDelta: the changed words of the bloom filters
+     * that were there then, and every word of the ones appended since. It also starts the next delta
+     * @return DynamicFilterDelta for applyDelta on a replica
+     * @throws IllegalStateException if checkpoint was never called, or bloom filters were dropped
+     * since (by intersecting with an empty filter), in which case a replica needs a whole copy
+     */
+    public DynamicFilterDelta exportDelta(){
+        if(tracked < 0){
+            throw new IllegalStateException("checkpoint() has to be called before exportDelta()");
+        }
+        if(filters.size() < tracked){
+            throw new IllegalStateException("Bloom filters were dropped since the last checkpoint");
+        }
+        List<FilterDelta> deltas = new ArrayList<FilterDelta>();
+        int[] indices = new int[filters.size()];
+        for(int i = 0; i < filters.size(); i++){
+            BloomFilter filter = filters.get(i);
+            FilterDelta delta;
+            if(i < tracked){
+                delta = filter.exportDelta();
+            }
+            else{
+                filter.checkpoint();
+                delta = FilterDelta.full(filter);
+            }
+            //an unchanged filter has no words, but a new empty one still has to be appended
+            if(delta.getNumWords() > 0 || i >= tracked){
+                indices[deltas.size()] = i;
+                deltas.add(delta);
+            }
+        }
+        tracked = filters.size();
+        return new DynamicFilterDelta(filters.size(), Arrays.copyOf(indices, deltas.size()), deltas);
+    }
+
+    /**
+     * Applies a delta exported by another DynamicBloomFilter, appending the bloom filters it added
+     * @param delta
+     * @return this
+     * @throws IllegalArgumentException if the delta doesn't follow on from this filter (it has bloom filters
+     * this one doesn't have and doesn't bring) or is of a filter with a different shape, in which case
+     * this isn't changed
+     * @throws NoSuchAlgorithmException
+     */
+    public DynamicBloomFilter applyDelta(DynamicFilterDelta delta)
+            throws NoSuchAlgorithmException {
+        int[] indices = delta.indices();
+        List<FilterDelta> deltas = delta.getDeltas();
+        //check everything before changing anything
+        int next = filters.size();
+        for(int i = 0; i < indices.length; i++){
+            if(indices[i] > next){
+                throw new IllegalArgumentException("Delta skips bloom filter " + next + ", a delta was missed");
+            }
+            if(indices[i] == next){
+                next++;
+            }
+        }
+        if(next < delta.getNumFilters()){
+            throw new IllegalArgumentException("Delta has " + delta.getNumFilters() + " bloom filters but brings only "
+                    + next + ", a delta was missed");
+        }
+        for(FilterDelta d : deltas){
+            if(filters.isEmpty()){
+                //the shape newFilter will give
+                int num_slices = BloomFilter.numSlices(individual_error_rate);
+                if(d.blocked() || d.getStrategy() != strategy || d.getNumSlices() != num_slices
+                        || d.getBitsPerSlice() != BloomFilter.bitsPerSlice(base_capacity, individual_error_rate, num_slices)){
+                    throw new IllegalArgumentException("Can't apply a delta of a filter with a different shape");
+                }
+            }
+            else{
+                if(d.blocked() != filters.get(0).blocked()){
+                    throw new IllegalArgumentException("Can't apply a delta of a blocked filter to a sliced filter, or back");
+                }
+                filters.get(0).checkCompatible(d.getNumSlices(), d.getBitsPerSlice(), d.getStrategy());
+            }
+        }
+        for(int i = 0; i < indices.length; i++){
+            if(indices[i] == filters.size()){
+                BloomFilter filter = newFilter();
+                filters.add(filter);
+                created(filter);
+            }
+            deltas.get(i).applyTo(filters.get(indices[i]));
+        }
+        return this;
+    }
+
+    /**
+     * Keys are hashed once for all the bloom filters, so they must all have the same shape
+     * @param filters
+     * @throws IllegalArgumentException if a bloom filter has a different shape or strategy than the first
+     */
+    static void checkSameShape(List<BloomFilter> filters){
+        for(int i = 1; i < filters.size(); i++){
+            filters.get(0).checkCompatible(filters.get(i));
+        }
+    }
+
+    /**
+     * Unions other into this one, in place, see merge. other isn't changed
+     * @param other
+     * @return this
+     * @throws IllegalArgumentException if other has a different capacity, error rate or hash strategy
+     * @throws NoSuchAlgorithmException
+     */
+    public DynamicBloomFilter unionWith(DynamicBloomFilter other)
+            throws NoSuchAlgorithmException {
+        return merge(Collections.singletonList(other));
+    }
+
+    /**
+     * Intersects other into this one, in place, see intersect. other isn't changed
+     * @param other
+     * @return this
+     * @throws IllegalArgumentException if other has a different capacity, error rate or hash strategy
+     * @throws NoSuchAlgorithmException
+     */
+    public DynamicBloomFilter intersectWith(DynamicBloomFilter other)
+            throws NoSuchAlgorithmException {
+        return intersect(Collections.singletonList(other));
+    }
+
+    /**
+     * Form the union of two bloom filters, neither of which is changed
+     * @param other
+     * @return this | other
+     * @throws IllegalArgumentException if other has a different capacity, error rate or hash strategy
+     */
+    public DynamicBloomFilter union(DynamicBloomFilter other){
+        try {
+            return copy().unionWith(other);
+        }catch(NoSuchAlgorithmException e) {
+            //the bloom filters of this already made a HashFn with the same strategy
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Form the intersection of the bloom filter, neither of which is changed
      * @param other
      * @return this & other
+     * @throws NoSuchAlgorithmException
      */
     public DynamicBloomFilter intersection(DynamicBloomFilter other)
             throws NoSuchAlgorithmException {
-        DynamicBloomFilter return_filter = new DynamicBloomFilter(base_capacity, max_capacity, max_error_rate);
+        return copy().intersectWith(other);
+    }
+
+    /**
+     * @return a filter with copies of the bloom filters of this one, counts included
+     * @throws NoSuchAlgorithmException
+     */
+    DynamicBloomFilter copy()
+            throws NoSuchAlgorithmException {
+        DynamicBloomFilter return_filter = new DynamicBloomFilter(base_capacity, max_capacity, max_error_rate, strategy);
         for(BloomFilter filter : filters){
-            BloomFilter bf = new BloomFilter(base_capacity, individual_error_rate);
-            for(BloomFilter other_filter : other.filters){
-                bf = bf.union(filter.intersection(other_filter));
-            }
-            return_filter.filters.add(bf);
+            return_filter.filters.add(newFilter().unionWith(filter));
         }
         return return_filter;
     }
@@ -123,15 +1027,44 @@ public class DynamicBloomFilter {
      * @return stringified bloom filter
      */
     public String toString(){
-        String return_string = "";
-        return_string += Integer.valueOf(base_capacity).toString();
-        return_string += "," + Integer.valueOf(max_capacity).toString();
-        return_string += "," + Double.valueOf(max_error_rate).toString();
-        return_string += "," + filters.get(0);
-        for(BloomFilter filter : filters.subList(1, filters.size())){
-            return_string += "|" + filter.toString();
+        StringWriter out = new StringWriter();
+        try {
+            writeTo(out);
+        }catch(IOException e) {
+            //a StringWriter doesn't throw
+            throw new IllegalStateException(e);
         }
-        return return_string;
+        return out.toString();
+    }
+
+    /**
+     * Writes the same text as toString, one bloom filter at a time
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(Writer out)
+            throws IOException {
+        Object event = FilterEvents.beginSerialization();
+        out.write(base_capacity + "," + max_capacity + "," + Double.toString(max_error_rate) + ",");
+        for(int i = 0; i < filters.size(); i++){
+            if(i > 0){
+                out.write('|');
+            }
+            filters.get(i).writeText(out);
+        }
+        FilterEvents.endSerialization(event, DynamicBloomFilter.class, "text", true, numBits());
+    }
+
+    /**
+     * Writes the same text as toString as ASCII bytes. out is flushed but not closed
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.US_ASCII);
+        writeTo(writer);
+        writer.flush();
     }
 
     /**
@@ -143,14 +1076,224 @@ public class DynamicBloomFilter {
      */
     public static DynamicBloomFilter fromString(String s)
             throws NoSuchAlgorithmException {
-        String[] values = s.split(",");
-        int base_capacity = Integer.valueOf(values[0]);
-        int max_capacity = Integer.valueOf(values[1]);
-        double max_error_rate = Double.valueOf(values[2]);
-        DynamicBloomFilter dbf = new DynamicBloomFilter(base_capacity, max_capacity, max_error_rate);
-        for(String filter : values[3].split("\\|")){
-            dbf.filters.add(BloomFilter.fromString(filter));
+        return fromString(s, HashStrategy.DIGEST);
+    }
+
+    /**
+     * UnStringify a filter whose bloom filters were hashed with untagged if they don't name a strategy,
+     * see BloomFilter.fromString(String, HashStrategy)
+     * @param s
+     * @param untagged the strategy of a bloom filter without a strategy field
+     * @return Bloom filter from that string
+     * @throws NoSuchAlgorithmException
+     */
+    public static DynamicBloomFilter fromString(String s, HashStrategy untagged)
+            throws NoSuchAlgorithmException {
+        try {
+            return readFrom(new StringReader(s), untagged);
+        }catch(IOException e) {
+            //a StringReader doesn't throw
+            throw new IllegalStateException(e);
         }
+    }
+
+    /**
+     * Reads a filter written by writeTo or toString (or by python), one bloom filter at a time
+     * @param in
+     * @return Bloom filter from that text
+     * @throws IOException
+     * @throws IllegalArgumentException if the bloom filters have different shapes
+     * @throws NoSuchAlgorithmException
+     */
+    public static DynamicBloomFilter readFrom(Reader in)
+            throws IOException, NoSuchAlgorithmException {
+        return readFrom(in, HashStrategy.DIGEST);
+    }
+
+    /**
+     * readFrom for text whose bloom filters were hashed with untagged if they don't name a strategy,
+     * see BloomFilter.fromString(String, HashStrategy)
+     * @param in
+     * @param untagged the strategy of a bloom filter without a strategy field
+     * @return Bloom filter from that text
+     * @throws IOException
+     * @throws IllegalArgumentException if the bloom filters have different shapes
+     * @throws NoSuchAlgorithmException
+     */
+    public static DynamicBloomFilter readFrom(Reader in, HashStrategy untagged)
+            throws IOException, NoSuchAlgorithmException {
+        Object event = FilterEvents.beginSerialization();
+        TextReader text = new TextReader(in);
+        int base_capacity = Integer.valueOf(text.field(','));
+        int max_capacity = Integer.valueOf(text.field(','));
+        double max_error_rate = Double.valueOf(text.field(','));
+        ArrayList<BloomFilter> filters = new ArrayList<BloomFilter>();
+        if(text.peek() != -1){
+            do {
+                filters.add(BloomFilter.read(text, untagged));
+            } while(text.skip('|'));
+        }
+        checkSameShape(filters);
+        //the strategy isn't in the header, every bloom filter carries its own
+        DynamicBloomFilter dbf = new DynamicBloomFilter(base_capacity, max_capacity, max_error_rate,
+                filters.isEmpty() ? untagged : filters.get(0).getStrategy());
+        dbf.filters.addAll(filters);
+        FilterEvents.endSerialization(event, DynamicBloomFilter.class, "text", false, dbf.numBits());
         return dbf;
     }
+
+    /**
+     * Reads a filter written by writeTo(OutputStream)
+     * @param in
+     * @return Bloom filter from that text
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    public static DynamicBloomFilter readFrom(InputStream in)
+            throws IOException, NoSuchAlgorithmException {
+        return readFrom(new InputStreamReader(in, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Writes the filter in the binary format of BinaryCodec, see BloomFilter.writeBinary
+     * @param out
+     * @throws IOException
+     */
+    public void writeBinary(OutputStream out)
+            throws IOException {
+        new BinaryCodec().write(this, out);
+    }
+
+    /**
+     * Reads a filter written by writeBinary
+     * @param in
+     * @return Bloom filter with the same bits
+     * @throws IOException if the data is corrupt
+     * @throws NoSuchAlgorithmException
+     */
+    public static DynamicBloomFilter readBinary(InputStream in)
+            throws IOException, NoSuchAlgorithmException {
+        return new BinaryCodec().readDynamicBloomFilter(in);
+    }
+
+    /**
+     * A key is only added to the newest bloom filter when none of them has it, so the bloom filters
+     * hold different keys and their estimates add up, see BloomFilter.getEstimatedCount
+     * @return estimated number of keys
+     */
+    public double getEstimatedCount() {
+        double count = 0;
+        for(BloomFilter filter : filters){
+            count += filter.getEstimatedCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return fraction of the bits that are set in each bloom filter, oldest first
+     */
+    public double[] getFillRatios() {
+        double[] ratios = new double[filters.size()];
+        for(int i = 0; i < ratios.length; i++){
+            ratios[i] = filters.get(i).getFillRatio();
+        }
+        return ratios;
+    }
+
+    /**
+     * A key that was never added is found if any of the bloom filters has it
+     * @return current false positive rate, see BloomFilter.getFalsePositiveRate
+     */
+    public double getFalsePositiveRate() {
+        double miss = 1;
+        for(BloomFilter filter : filters){
+            miss *= 1 - filter.getFalsePositiveRate();
+        }
+        return 1 - miss;
+    }
+
+    /**
+     * Estimates the number of distinct keys in both filters. Each key in both is in one bloom filter
+     * of each, so this is the sum of the intersection estimates of every pair of bloom filters,
+     * counted without building any of them. The estimates of the pairs that share no keys scatter
+     * around 0, so they are only clamped at 0 once they are summed, and the more pairs there are,
+     * the more that noise adds up to. The bits of all the pairs' unions are counted in one pass
+     * over the bloom filters of both (see PairCount), so the memory read is that of estimating
+     * one pair of filters of the same total size, and the n x m pairs only cost popcounts of
+     * words already in cache. ORing each side into a single bloom filter would save those too,
+     * but a bloom filter holding the keys of more than a few full ones has nearly every bit set,
+     * and the estimate from it is mostly noise
+     * @param other
+     * @return estimated number of keys in both filters, NaN if some bloom filters are full
+     * @throws IllegalArgumentException if other has a different capacity, error rate or hash strategy
+     */
+    public double estimateIntersectionCount(DynamicBloomFilter other) {
+        checkCompatible(Collections.singletonList(other));
+        if(filters.isEmpty() || other.filters.isEmpty()){
+            return 0;
+        }
+        BloomFilter shape = filters.get(0);
+        BitArray[] left = new BitArray[filters.size()];
+        for(int i = 0; i < left.length; i++){
+            left[i] = filters.get(i).bitarray;
+        }
+        BitArray[] right = new BitArray[other.filters.size()];
+        double[] other_counts = new double[right.length];
+        for(int j = 0; j < right.length; j++){
+            right[j] = other.filters.get(j).bitarray;
+            other_counts[j] = other.filters.get(j).getEstimatedCount();
+        }
+        long[] union_bits = PairCount.count(left, right, shape.numBits());
+        double count = 0;
+        for(int i = 0; i < left.length; i++){
+            double filter_count = filters.get(i).getEstimatedCount();
+            for(int j = 0; j < right.length; j++){
+                count += filter_count + other_counts[j] - shape.estimateCount(union_bits[i * right.length + j]);
+            }
+        }
+        return Math.max(0, count);
+    }
+
+    /**
+     * @param other
+     * @return estimated number of keys in either filter, see estimateIntersectionCount
+     * @throws IllegalArgumentException if other has a different capacity, error rate or hash strategy
+     */
+    public double estimateUnionCount(DynamicBloomFilter other) {
+        return getEstimatedCount() + other.getEstimatedCount() - estimateIntersectionCount(other);
+    }
+
+    /**
+     * @return number of bits of all the bloom filters
+     */
+    long numBits() {
+        long bits = 0;
+        for(BloomFilter filter : filters){
+            bits += filter.numBits();
+        }
+        return bits;
+    }
+
+    /**
+     * @return the bloom filters, oldest first, for the codecs
+     */
+    ArrayList<BloomFilter> filters() {
+        return filters;
+    }
+
+    public int getBaseCapacity() {
+        return base_capacity;
+    }
+
+    public int getMaxCapacity() {
+        return max_capacity;
+    }
+
+    public double getErrorRate() {
+        return max_error_rate;
+    }
+
+    public HashStrategy getStrategy() {
+        return strategy;
+    }
 }
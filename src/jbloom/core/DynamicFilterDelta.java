@@ -0,0 +1,80 @@
+package jbloom.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes to a DynamicBloomFilter since its last checkpoint, see DynamicBloomFilter.exportDelta:
+ * a FilterDelta for each bloom filter that gained bits, with its position in the list. Bloom filters
+ * appended since the checkpoint come whole, as every word with a bit set, and a replica appends them
+ * in turn. Bloom filters that didn't change aren't in the delta at all
+ */
+public final class DynamicFilterDelta {
+    private final int num_filters;
+    private final int[] indices;
+    private final List<FilterDelta> deltas;
+
+    /**
+     * @param num_filters number of bloom filters of the dynamic filter
+     * @param indices position of the bloom filter of each delta, in increasing order
+     * @param deltas
+     */
+    DynamicFilterDelta(int num_filters, int[] indices, List<FilterDelta> deltas) {
+        this.num_filters = num_filters;
+        this.indices = indices;
+        this.deltas = deltas;
+    }
+
+    /**
+     * Writes the delta in the binary format of BinaryCodec
+     * @param out
+     * @throws IOException
+     */
+    public void writeBinary(OutputStream out)
+            throws IOException {
+        new BinaryCodec().write(this, out);
+    }
+
+    /**
+     * Reads a delta written by writeBinary
+     * @param in
+     * @return DynamicFilterDelta
+     * @throws IOException if the data is corrupt
+     */
+    public static DynamicFilterDelta readBinary(InputStream in)
+            throws IOException {
+        return new BinaryCodec().readDynamicFilterDelta(in);
+    }
+
+    /**
+     * @return number of bloom filters the dynamic filter had when the delta was exported
+     */
+    public int getNumFilters() {
+        return num_filters;
+    }
+
+    /**
+     * @return number of changed words over all the bloom filters
+     */
+    public long getNumWords() {
+        long n = 0;
+        for(FilterDelta delta : deltas){
+            n += delta.getNumWords();
+        }
+        return n;
+    }
+
+    int[] indices() {
+        return indices;
+    }
+
+    /**
+     * @return the deltas of the bloom filters that changed, in the order of indices()
+     */
+    public List<FilterDelta> getDeltas() {
+        return Collections.unmodifiableList(deltas);
+    }
+}
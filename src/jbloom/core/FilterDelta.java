@@ -0,0 +1,165 @@
+package jbloom.core;
+
+import jbloom.util.BitArray;
+import jbloom.util.HashStrategy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The 64 bit words of a BloomFilter that gained bits since its last checkpoint, with their offsets
+ * and the filter's count, see BloomFilter.exportDelta. Applying it to a replica that had the filter's
+ * bits at the checkpoint gives it the filter's bits now. Applying is an OR and the count only grows,
+ * so applying a delta twice, or applying deltas out of order, is harmless, and a replica that missed
+ * one only misses its bits.
+ * The binary form (writeBinary) is 12 bytes per changed word
+ */
+public final class FilterDelta {
+    private final int num_slices, bits_per_slice, count;
+    private final HashStrategy strategy;
+    private final boolean blocked;
+    private final int[] offsets;
+    private final long[] words;
+
+    /**
+     * @param num_slices
+     * @param bits_per_slice
+     * @param strategy
+     * @param blocked
+     * @param count of the filter
+     * @param offsets word indices, in increasing order
+     * @param words the words at those offsets
+     */
+    FilterDelta(int num_slices, int bits_per_slice, HashStrategy strategy, boolean blocked, int count,
+                int[] offsets, long[] words) {
+        this.num_slices = num_slices;
+        this.bits_per_slice = bits_per_slice;
+        this.strategy = strategy;
+        this.blocked = blocked;
+        this.count = count;
+        this.offsets = offsets;
+        this.words = words;
+    }
+
+    /**
+     * @param filter
+     * @param offsets words of filter to copy, in increasing order
+     * @return delta with the current value of those words
+     */
+    static FilterDelta of(BloomFilter filter, int[] offsets) {
+        BitArray bits = filter.bitarray;
+        long[] words = new long[offsets.length];
+        for(int i = 0; i < offsets.length; i++){
+            words[i] = bits.getWord(offsets[i]);
+        }
+        return new FilterDelta(filter.getNumSlices(), filter.getBitsPerSlice(), filter.getStrategy(),
+                filter.blocked(), filter.getCount(), offsets, words);
+    }
+
+    /**
+     * @param filter
+     * @return delta with every word of filter that has a bit set, for a replica that has none of them
+     */
+    static FilterDelta full(BloomFilter filter) {
+        BitArray bits = filter.bitarray;
+        int n = 0;
+        for(int i = 0; i < bits.numWords(); i++){
+            if(bits.getWord(i) != 0){
+                n++;
+            }
+        }
+        int[] offsets = new int[n];
+        n = 0;
+        for(int i = 0; i < bits.numWords(); i++){
+            if(bits.getWord(i) != 0){
+                offsets[n++] = i;
+            }
+        }
+        return of(filter, offsets);
+    }
+
+    /**
+     * ORs the words into filter and raises its count to the delta's, an older delta leaves it as is
+     * @param filter
+     * @throws IllegalArgumentException if filter has a different shape or hash strategy,
+     * in which case it isn't changed
+     */
+    void applyTo(BloomFilter filter) {
+        if(blocked != filter.blocked()){
+            throw new IllegalArgumentException("Can't apply a delta of a blocked filter to a sliced filter, or back");
+        }
+        filter.checkCompatible(num_slices, bits_per_slice, strategy);
+        BitArray bits = filter.bitarray;
+        if(offsets.length > 0 && offsets[offsets.length - 1] >= bits.numWords()){
+            throw new IllegalArgumentException("Word " + offsets[offsets.length - 1] + " is outside the filter");
+        }
+        for(int i = 0; i < offsets.length; i++){
+            //bit by bit, so that a concurrent filter doesn't lose the bits other threads set meanwhile
+            long base = (long) offsets[i] << 6;
+            for(long word = words[i] & ~bits.getWord(offsets[i]); word != 0; word &= word - 1){
+                bits.set(base + Long.numberOfTrailingZeros(word));
+            }
+        }
+        filter.setCount(Math.max(filter.getCount(), count));
+    }
+
+    /**
+     * Writes the delta in the binary format of BinaryCodec
+     * @param out
+     * @throws IOException
+     */
+    public void writeBinary(OutputStream out)
+            throws IOException {
+        new BinaryCodec().write(this, out);
+    }
+
+    /**
+     * Reads a delta written by writeBinary
+     * @param in
+     * @return FilterDelta
+     * @throws IOException if the data is corrupt
+     */
+    public static FilterDelta readBinary(InputStream in)
+            throws IOException {
+        return new BinaryCodec().readFilterDelta(in);
+    }
+
+    /**
+     * @return the count of the filter when the delta was exported
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return number of changed words
+     */
+    public int getNumWords() {
+        return offsets.length;
+    }
+
+    int[] offsets() {
+        return offsets;
+    }
+
+    long[] words() {
+        return words;
+    }
+
+    public int getNumSlices() {
+        return num_slices;
+    }
+
+    public int getBitsPerSlice() {
+        return bits_per_slice;
+    }
+
+    public HashStrategy getStrategy() {
+        return strategy;
+    }
+
+    boolean blocked() {
+        return blocked;
+    }
+}
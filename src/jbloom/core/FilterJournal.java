@@ -0,0 +1,600 @@
+package jbloom.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a BloomFilter or DynamicBloomFilter on disk, so it survives a restart without being rebuilt.
+ * A journal is a directory of snapshots, each the whole filter in the BinaryCodec format, and logs,
+ * each a list of deltas (see BloomFilter.exportDelta) appended after the snapshot of the same generation:
+ *  snapshot-N.jblf  the filter at the start of generation N
+ *  log-N.jblf       every commit of generation N, in order
+ *
+ * commit appends the words that gained bits since the last commit as one record, however many keys set
+ * them, so committing every so often groups the adds in between into a single write (group commit).
+ * It reads the filter, so call it from the thread that adds, or with the same lock, unless the filter
+ * is a ConcurrentBloomFilter. When the log of the current generation grows bigger than the filter,
+ * commit starts the next generation and a background thread writes its snapshot from a copy of the
+ * filter, then deletes the older snapshots and logs. Adds carry on while the snapshot is written.
+ *
+ * Opening a journal reads the newest snapshot and replays the logs since, which takes time in
+ * proportion to the logs, not to how long the filter has been around. A record torn by a crash at the
+ * end of the last log is cut off: the filter comes back as of the last whole commit. How often the log
+ * is forced to disk, and so which commits survive a power cut, is up to the SyncPolicy
+ */
+public abstract class FilterJournal<F> implements Closeable {
+    /**
+     * When the log is forced to disk (fsync). Every commit is in the OS's cache as soon as it returns,
+     * so it survives the process dying whatever the policy
+     */
+    public enum SyncPolicy {
+        /** the OS writes the log back when it likes */
+        NEVER,
+        /** a commit forces the log if it wasn't forced in the last sync interval, see setSyncInterval */
+        PERIODIC,
+        /** every commit forces the log before it returns */
+        EVERY_COMMIT
+    }
+
+    private static final String SNAPSHOT = "snapshot-", LOG = "log-", SUFFIX = ".jblf", TMP = ".tmp";
+
+    private final Path dir;
+    private final SyncPolicy sync;
+    private final ExecutorService snapshots;
+    F filter;
+    private FileChannel log;
+    private long generation, log_bytes, last_sync, snapshot_threshold;
+    private long sync_interval = TimeUnit.SECONDS.toNanos(1);
+    private CompletableFuture<Void> pending = CompletableFuture.completedFuture(null);
+    private boolean closed;
+
+    private FilterJournal(final Path dir, SyncPolicy sync, F filter) {
+        this.dir = dir;
+        this.sync = sync;
+        this.filter = filter;
+        this.snapshots = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jbloom-snapshot " + dir);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Opens the journal of a BloomFilter, creating dir if it doesn't exist
+     * @param dir
+     * @param empty filter to recover into: the newest snapshot and the logs are ORed into it,
+     * so it must have the shape and strategy of the filter in dir. In a new journal it is the filter
+     * @param sync
+     * @return journal, with the recovered filter in getFilter
+     * @throws IOException if a snapshot or a log before the last is corrupt
+     * @throws IllegalArgumentException if the filter in dir has a different shape than empty
+     * @throws NoSuchAlgorithmException
+     */
+    public static FilterJournal<BloomFilter> open(Path dir, BloomFilter empty, SyncPolicy sync)
+            throws IOException, NoSuchAlgorithmException {
+        FilterJournal<BloomFilter> journal = new Bloom(dir, sync, empty);
+        journal.recover();
+        return journal;
+    }
+
+    /**
+     * Opens the journal of a DynamicBloomFilter, creating dir if it doesn't exist
+     * @param dir
+     * @param empty filter for a new journal, or to check the parameters of the recovered one against
+     * @param sync
+     * @return journal, with the recovered filter in getFilter
+     * @throws IOException if a snapshot or a log before the last is corrupt
+     * @throws IllegalArgumentException if the filter in dir has different parameters than empty
+     * @throws NoSuchAlgorithmException
+     */
+    public static FilterJournal<DynamicBloomFilter> openDynamic(Path dir, DynamicBloomFilter empty, SyncPolicy sync)
+            throws IOException, NoSuchAlgorithmException {
+        FilterJournal<DynamicBloomFilter> journal = new Dynamic(dir, sync, empty);
+        journal.recover();
+        return journal;
+    }
+
+    private void recover()
+            throws IOException, NoSuchAlgorithmException {
+        Files.createDirectories(dir);
+        List<Long> snapshot_generations = generations(SNAPSHOT, SUFFIX);
+        List<Long> log_generations = generations(LOG, SUFFIX);
+        for(long generation : generations(SNAPSHOT, TMP)){
+            //a snapshot a crash interrupted, its logs are still there
+            Files.deleteIfExists(path(SNAPSHOT, generation, TMP));
+        }
+        long snapshot = -1;
+        if(!snapshot_generations.isEmpty()){
+            snapshot = snapshot_generations.get(snapshot_generations.size() - 1);
+            try(InputStream in = new BufferedInputStream(Files.newInputStream(path(SNAPSHOT, snapshot, SUFFIX)), 1 << 16)) {
+                readSnapshot(in);
+            }
+        }
+        generation = Math.max(snapshot, 0);
+        long valid = 0;
+        for(int i = 0; i < log_generations.size(); i++){
+            long generation = log_generations.get(i);
+            if(generation < snapshot){
+                continue;
+            }
+            valid = replay(path(LOG, generation, SUFFIX), i == log_generations.size() - 1);
+            this.generation = generation;
+        }
+        //replayed words mustn't be logged again
+        checkpoint();
+        log = FileChannel.open(path(LOG, generation, SUFFIX), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        log.truncate(valid);
+        log.position(valid);
+        log_bytes = valid;
+        last_sync = System.nanoTime();
+        deleteBefore(Math.max(snapshot, 0));
+    }
+
+    /**
+     * Applies every record of a log
+     * @param path
+     * @param last if it is the newest log, in which case a torn record at the end is ignored
+     * @return bytes of whole records
+     * @throws IOException if a record before the end is corrupt
+     * @throws NoSuchAlgorithmException
+     */
+    private long replay(Path path, boolean last)
+            throws IOException, NoSuchAlgorithmException {
+        long size = Files.size(path);
+        try(Counter in = new Counter(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            long valid = 0;
+            while(valid < size){
+                try {
+                    readDelta(in);
+                    valid = in.count;
+                }catch(IOException e) {
+                    if(!last){
+                        throw new IOException("Corrupt record at " + valid + " of " + path, e);
+                    }
+                    return valid;
+                }
+            }
+            return valid;
+        }
+    }
+
+    /**
+     * Appends the words that gained bits since the last commit to the log, as one record,
+     * and forces it to disk if the SyncPolicy says so
+     * @throws IOException
+     */
+    public synchronized void commit()
+            throws IOException {
+        append();
+        if(log_bytes > snapshotThreshold() && pending.isDone()){
+            snapshot();
+        }
+    }
+
+    private void append()
+            throws IOException {
+        if(closed){
+            throw new IllegalStateException("Journal is closed");
+        }
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        if(writeDelta(record)){
+            ByteBuffer bytes = ByteBuffer.wrap(record.toByteArray());
+            while(bytes.hasRemaining()){
+                log.write(bytes);
+            }
+            log_bytes += record.size();
+        }
+        long now = System.nanoTime();
+        if(sync == SyncPolicy.EVERY_COMMIT || (sync == SyncPolicy.PERIODIC && now - last_sync >= sync_interval)){
+            log.force(false);
+            last_sync = now;
+        }
+    }
+
+    /**
+     * Commits, starts the next generation, and writes its snapshot from a copy of the filter
+     * on a background thread. The older snapshots and logs are deleted once the snapshot is on disk
+     * @return completes when the snapshot is on disk, or with the exception that stopped it,
+     * in which case the older snapshot and logs stay and recovery uses them
+     * @throws IOException
+     */
+    public synchronized CompletableFuture<Void> snapshot()
+            throws IOException {
+        append();
+        final F copy;
+        try {
+            copy = copy();
+        }catch(NoSuchAlgorithmException e) {
+            //the filter already made a HashFn with the same strategy
+            throw new IllegalStateException(e);
+        }
+        final long next = generation + 1;
+        //the snapshot doesn't exist yet, so this log has to be on disk before the next one starts
+        log.force(false);
+        log.close();
+        log = FileChannel.open(path(LOG, next, SUFFIX), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        generation = next;
+        log_bytes = 0;
+        pending = CompletableFuture.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeSnapshot(copy, next);
+                }catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }, snapshots);
+        return pending;
+    }
+
+    private void writeSnapshot(F copy, long generation)
+            throws IOException {
+        Path tmp = path(SNAPSHOT, generation, TMP);
+        try(FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            writeSnapshot(copy, out);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, path(SNAPSHOT, generation, SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+        //the rename has to be on disk before the logs it replaces are deleted
+        try(FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        }catch(IOException e) {
+            //not every platform can open a directory, there the rename is as durable as the OS makes it
+        }
+        deleteBefore(generation);
+    }
+
+    /**
+     * Deletes the snapshots and logs of the generations before generation
+     * @param generation
+     * @throws IOException
+     */
+    private void deleteBefore(long generation)
+            throws IOException {
+        for(long g : generations(SNAPSHOT, SUFFIX)){
+            if(g < generation){
+                Files.deleteIfExists(path(SNAPSHOT, g, SUFFIX));
+            }
+        }
+        for(long g : generations(LOG, SUFFIX)){
+            if(g < generation){
+                Files.deleteIfExists(path(LOG, g, SUFFIX));
+            }
+        }
+    }
+
+    private Path path(String prefix, long generation, String suffix) {
+        return dir.resolve(prefix + generation + suffix);
+    }
+
+    /**
+     * @param prefix
+     * @param suffix
+     * @return generations of the files in dir named prefix + generation + suffix, in order
+     * @throws IOException
+     */
+    private List<Long> generations(String prefix, String suffix)
+            throws IOException {
+        List<Long> generations = new ArrayList<Long>();
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*" + suffix)) {
+            for(Path file : files){
+                String name = file.getFileName().toString();
+                String number = name.substring(prefix.length(), name.length() - suffix.length());
+                boolean digits = !number.isEmpty();
+                for(int i = 0; i < number.length() && digits; i++){
+                    digits = Character.isDigit(number.charAt(i));
+                }
+                if(digits){
+                    generations.add(Long.valueOf(number));
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private long snapshotThreshold() {
+        return snapshot_threshold > 0 ? snapshot_threshold : numBits() / 8;
+    }
+
+    /**
+     * Commits and forces the log, then waits for a snapshot being written. The filter stays usable,
+     * but nothing is journaled any more
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close()
+            throws IOException {
+        if(closed){
+            return;
+        }
+        try {
+            append();
+            log.force(false);
+        }finally {
+            closed = true;
+            log.close();
+            snapshots.shutdown();
+        }
+        try {
+            snapshots.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the filter, add to it and commit
+     */
+    public F getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return generation of the current log
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return bytes of the current log, what a recovery would replay on top of the snapshot
+     */
+    public synchronized long getLogBytes() {
+        return log_bytes;
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return sync;
+    }
+
+    /**
+     * Sets how often a PERIODIC journal forces its log, 1 second by default
+     * @param interval
+     * @param unit
+     */
+    public synchronized void setSyncInterval(long interval, TimeUnit unit) {
+        this.sync_interval = unit.toNanos(interval);
+    }
+
+    /**
+     * Sets the size of log past which a commit starts a snapshot
+     * @param bytes 0 for the default, the size of the filter's bits, Long.MAX_VALUE for snapshots only on request
+     */
+    public synchronized void setSnapshotThreshold(long bytes) {
+        this.snapshot_threshold = bytes;
+    }
+
+    /**
+     * Starts tracking changes, and forgets the ones made so far
+     */
+    abstract void checkpoint();
+
+    /**
+     * Writes a delta record of the changes since the last one
+     * @param out
+     * @return false if there were no changes, in which case nothing was written
+     * @throws IOException
+     */
+    abstract boolean writeDelta(OutputStream out)
+            throws IOException;
+
+    /**
+     * Reads a delta record and applies it to the filter
+     * @param in
+     * @throws IOException if the record is torn or corrupt
+     * @throws NoSuchAlgorithmException
+     */
+    abstract void readDelta(InputStream in)
+            throws IOException, NoSuchAlgorithmException;
+
+    /**
+     * Reads a snapshot into the filter
+     * @param in
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    abstract void readSnapshot(InputStream in)
+            throws IOException, NoSuchAlgorithmException;
+
+    /**
+     * @return a copy of the filter for a snapshot, that adds to the filter don't change
+     * @throws NoSuchAlgorithmException
+     */
+    abstract F copy()
+            throws NoSuchAlgorithmException;
+
+    abstract void writeSnapshot(F copy, OutputStream out)
+            throws IOException;
+
+    abstract long numBits();
+
+    private static final class Bloom extends FilterJournal<BloomFilter> {
+        private int logged_count;
+
+        Bloom(Path dir, SyncPolicy sync, BloomFilter filter) {
+            super(dir, sync, filter);
+        }
+
+        @Override
+        void checkpoint() {
+            filter.checkpoint();
+            logged_count = filter.getCount();
+        }
+
+        @Override
+        boolean writeDelta(OutputStream out)
+                throws IOException {
+            FilterDelta delta = filter.exportDelta();
+            if(delta.getNumWords() == 0 && delta.getCount() == logged_count){
+                return false;
+            }
+            delta.writeBinary(out);
+            logged_count = delta.getCount();
+            return true;
+        }
+
+        @Override
+        void readDelta(InputStream in)
+                throws IOException {
+            FilterDelta delta = new BinaryCodec().readFilterDelta(in);
+            filter.applyDelta(delta);
+        }
+
+        @Override
+        void readSnapshot(InputStream in)
+                throws IOException, NoSuchAlgorithmException {
+            filter.unionWith(new BinaryCodec().readBloomFilter(in));
+        }
+
+        @Override
+        BloomFilter copy() {
+            return filter.clone();
+        }
+
+        @Override
+        void writeSnapshot(BloomFilter copy, OutputStream out)
+                throws IOException {
+            new BinaryCodec().write(copy, out);
+        }
+
+        @Override
+        long numBits() {
+            return filter.numBits();
+        }
+    }
+
+    private static final class Dynamic extends FilterJournal<DynamicBloomFilter> {
+        Dynamic(Path dir, SyncPolicy sync, DynamicBloomFilter filter) {
+            super(dir, sync, filter);
+        }
+
+        @Override
+        void checkpoint() {
+            filter.checkpoint();
+        }
+
+        @Override
+        boolean writeDelta(OutputStream out)
+                throws IOException {
+            DynamicFilterDelta delta = filter.exportDelta();
+            if(delta.getDeltas().isEmpty()){
+                return false;
+            }
+            delta.writeBinary(out);
+            return true;
+        }
+
+        @Override
+        void readDelta(InputStream in)
+                throws IOException, NoSuchAlgorithmException {
+            DynamicFilterDelta delta = new BinaryCodec().readDynamicFilterDelta(in);
+            try {
+                filter.applyDelta(delta);
+            }catch(IllegalArgumentException e) {
+                //the records of a log follow on from each other, so this is corruption
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        void readSnapshot(InputStream in)
+                throws IOException, NoSuchAlgorithmException {
+            DynamicBloomFilter snapshot = new BinaryCodec().readDynamicBloomFilter(in);
+            if(snapshot.getBaseCapacity() != filter.getBaseCapacity() || snapshot.getMaxCapacity() != filter.getMaxCapacity()
+                    || snapshot.getErrorRate() != filter.getErrorRate() || snapshot.getStrategy() != filter.getStrategy()){
+                throw new IllegalArgumentException("The journal has a dynamic filter with different parameters");
+            }
+            snapshot.setListener(filter.getListener());
+            filter = snapshot;
+        }
+
+        @Override
+        DynamicBloomFilter copy()
+                throws NoSuchAlgorithmException {
+            return filter.copy();
+        }
+
+        @Override
+        void writeSnapshot(DynamicBloomFilter copy, OutputStream out)
+                throws IOException {
+            new BinaryCodec().write(copy, out);
+        }
+
+        @Override
+        long numBits() {
+            return filter.numBits();
+        }
+    }
+
+    /**
+     * Counts the bytes read through it, which a buffer underneath doesn't change
+     */
+    private static final class Counter extends FilterInputStream {
+        long count;
+
+        Counter(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read()
+                throws IOException {
+            int b = in.read();
+            if(b >= 0){
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+                throws IOException {
+            int n = in.read(b, off, len);
+            if(n > 0){
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n)
+                throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
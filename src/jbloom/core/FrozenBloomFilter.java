@@ -0,0 +1,186 @@
+package jbloom.core;
+
+import jbloom.util.Funnel;
+import jbloom.util.HashFn;
+import jbloom.util.HashStrategy;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A read-only copy of a BloomFilter, see BloomFilter.freeze. The bits are a final long[] sized once,
+ * and every parameter is a final field, so it can be shared between any number of threads without
+ * locking or volatile reads, and the JIT can keep the parameters in registers across a lookup loop.
+ * It answers has exactly like the filter it was frozen from, a blocked filter included.
+ *
+ * It can't be added to: to change it, thaw it into a new BloomFilter, add to that and freeze it again,
+ * then publish the new one through a SnapshotHolder
+ */
+public final class FrozenBloomFilter {
+    private final long[] words;
+    private final HashFn hash;
+    private final HashStrategy strategy;
+    private final double error_rate;
+    private final int num_slices, bits_per_slice, capacity, count;
+    private final boolean blocked;
+
+    /**
+     * @param source filter to copy, no thread may be adding to it
+     */
+    FrozenBloomFilter(BloomFilter source) {
+        this.words = new long[source.bitarray.numWords()];
+        for(int i = 0; i < words.length; i++){
+            words[i] = source.bitarray.getWord(i);
+        }
+        //a HashFn is thread safe and never changes, so the frozen copy can share it
+        this.hash = source.hashFn();
+        this.strategy = source.getStrategy();
+        this.error_rate = source.getErrorRate();
+        this.num_slices = source.getNumSlices();
+        this.bits_per_slice = source.getBitsPerSlice();
+        this.capacity = source.getCapacity();
+        this.count = source.getCount();
+        this.blocked = source.blocked();
+    }
+
+    /**
+     * Lookup to see if a key is in the filter, see BloomFilter.has(CharSequence)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(CharSequence key) {
+        return hasIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if the bytes key[off, off + len) are in the filter
+     * @param key
+     * @param off
+     * @param len
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(byte[] key, int off, int len) {
+        return hasIndices(hash.hashToBuffer(key, off, len));
+    }
+
+    /**
+     * Lookup to see if the remaining bytes of key are in the filter, see BloomFilter.has(ByteBuffer)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(ByteBuffer key) {
+        return hasIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if a number is in the filter, see BloomFilter.has(long)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(long key) {
+        return hasIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if the bytes funnel writes for key are in the filter
+     * @param key
+     * @param funnel
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public <T> boolean has(T key, Funnel<? super T> funnel) {
+        return hasIndices(hash.hashToBuffer(key, funnel));
+    }
+
+    private boolean hasIndices(int[] hashes) {
+        long[] words = this.words;
+        if(blocked){
+            for(int s = 0; s < hashes.length; s++){
+                int index = BlockedBloomFilter.index(hashes, 0, s);
+                if((words[index >>> 6] & 1L << index) == 0){
+                    return false;
+                }
+            }
+            return true;
+        }
+        long offset = 0;
+        for(int i : hashes){
+            long index = offset + i;
+            if((words[(int) (index >>> 6)] & 1L << index) == 0){
+                return false;
+            }
+            offset += bits_per_slice;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the bits back into a filter that can be added to
+     * @return BloomFilter, or BlockedBloomFilter, with the same parameters, count and bits
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public BloomFilter thaw()
+            throws NoSuchAlgorithmException {
+        BloomFilter filter = blocked
+                ? new BlockedBloomFilter(error_rate, num_slices, bits_per_slice, capacity, count, strategy)
+                : new BloomFilter(error_rate, num_slices, bits_per_slice, capacity, count, strategy);
+        for(int i = 0; i < words.length; i++){
+            filter.bitarray.setWord(i, words[i]);
+        }
+        return filter;
+    }
+
+    /**
+     * UnStringify a Stringified bloom filter s straight into a frozen one, see BloomFilter.fromString
+     * @param s
+     * @return FrozenBloomFilter from that string
+     * @throws NoSuchAlgorithmException
+     */
+    public static FrozenBloomFilter fromString(String s)
+            throws NoSuchAlgorithmException {
+        return BloomFilter.fromString(s).freeze();
+    }
+
+    /**
+     * Stringify the filter, the same string as the BloomFilter it was frozen from
+     * @return stringified bloom filter
+     */
+    public String toString(){
+        try {
+            return thaw().toString();
+        }catch(NoSuchAlgorithmException e) {
+            //the strategy already made a HashFn once
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return bytes taken by the bits
+     */
+    public long getSizeInBytes() {
+        return 8L * words.length;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public double getErrorRate() {
+        return error_rate;
+    }
+
+    public int getNumSlices() {
+        return num_slices;
+    }
+
+    public int getBitsPerSlice() {
+        return bits_per_slice;
+    }
+
+    public HashStrategy getStrategy() {
+        return strategy;
+    }
+}
@@ -0,0 +1,109 @@
+package jbloom.core;
+
+import jbloom.util.Funnel;
+import jbloom.util.HashFn;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The keys of one addAll or hasAll call, whatever their type, so the batch code only has to be written once.
+ * Keys are hashed by position
+ */
+abstract class KeyBatch {
+
+    /**
+     * @return number of keys
+     */
+    abstract int size();
+
+    /**
+     * Hashes key i into the calling thread's buffer of hash
+     * @param hash
+     * @param i
+     * @return 1 hash for each of the segments of the bloom filter, see HashFn.hashToBuffer
+     */
+    abstract int[] hash(HashFn hash, int i);
+
+    static KeyBatch of(final CharSequence[] keys) {
+        return new KeyBatch() {
+            @Override
+            int size() {
+                return keys.length;
+            }
+
+            @Override
+            int[] hash(HashFn hash, int i) {
+                return hash.hashToBuffer(keys[i]);
+            }
+        };
+    }
+
+    static KeyBatch of(final long[] keys) {
+        return new KeyBatch() {
+            @Override
+            int size() {
+                return keys.length;
+            }
+
+            @Override
+            int[] hash(HashFn hash, int i) {
+                return hash.hashToBuffer(keys[i]);
+            }
+        };
+    }
+
+    static KeyBatch of(final byte[][] keys) {
+        return new KeyBatch() {
+            @Override
+            int size() {
+                return keys.length;
+            }
+
+            @Override
+            int[] hash(HashFn hash, int i) {
+                return hash.hashToBuffer(keys[i], 0, keys[i].length);
+            }
+        };
+    }
+
+    static KeyBatch of(Iterator<? extends CharSequence> keys) {
+        final List<CharSequence> list = toList(keys);
+        return new KeyBatch() {
+            @Override
+            int size() {
+                return list.size();
+            }
+
+            @Override
+            int[] hash(HashFn hash, int i) {
+                return hash.hashToBuffer(list.get(i));
+            }
+        };
+    }
+
+    static <T> KeyBatch of(Iterator<? extends T> keys, final Funnel<? super T> funnel) {
+        final List<T> list = toList(keys);
+        return new KeyBatch() {
+            @Override
+            int size() {
+                return list.size();
+            }
+
+            @Override
+            int[] hash(HashFn hash, int i) {
+                return hash.hashToBuffer(list.get(i), funnel);
+            }
+        };
+    }
+
+    private static <T> List<T> toList(Iterator<? extends T> keys) {
+        //the results are a bitmap by position, so the keys are needed by position anyway
+        List<T> list = new ArrayList<T>();
+        while(keys.hasNext()){
+            list.add(keys.next());
+        }
+        return list;
+    }
+}
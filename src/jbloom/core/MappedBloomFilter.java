@@ -0,0 +1,238 @@
+package jbloom.core;
+
+import jbloom.util.BitArray;
+import jbloom.util.BufferBitArray;
+import jbloom.util.HashStrategy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A BloomFilter whose bits live outside the java heap, either in a memory mapped file or in direct memory,
+ * so even filters of several gigabytes don't add to garbage collection pauses.
+ *
+ * A filter file is a 64 byte header followed by the bits, all little endian:
+ *  0 magic "JBLM", 4 format version, 8 error_rate (double), 16 num_slices, 20 bits_per_slice,
+ *  24 capacity, 28 count, 32 hash strategy, the rest of the header is reserved.
+ * The bits have the same bytes as the payload of toString. Opening a file only maps it,
+ * the OS reads pages in when they are first touched, so opening is near instant however big the filter.
+ * Changes reach the file when the OS writes the pages back, or when force is called.
+ *
+ * Like BloomFilter this isn't thread safe
+ */
+public class MappedBloomFilter extends BloomFilter implements Closeable {
+    private static final int MAGIC = 0x4D4C424A; // "JBLM" read little endian
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    private static final int ERROR_RATE = 8, NUM_SLICES = 16, BITS_PER_SLICE = 20, CAPACITY = 24,
+            COUNT = 28, STRATEGY = 32;
+
+    private final ByteBuffer header;
+    private final BufferBitArray bits;
+
+    private MappedBloomFilter(ByteBuffer header, BufferBitArray bits, HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        super(header.getDouble(ERROR_RATE), header.getInt(NUM_SLICES), header.getInt(BITS_PER_SLICE),
+                header.getInt(CAPACITY), header.getInt(COUNT), strategy, bits);
+        this.header = header;
+        this.bits = bits;
+    }
+
+    /**
+     * Creates a new filter file, failing if path already exists
+     * @param path
+     * @param capacity the desired maximum capacity for the bloom filter, will be statically set
+     * @param error_rate the desired maximum error rte of the filter
+     * @return empty MappedBloomFilter
+     * @throws IOException
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public static MappedBloomFilter create(Path path, int capacity, double error_rate)
+            throws IOException, NoSuchAlgorithmException {
+        return create(path, capacity, error_rate, HashStrategy.DIGEST);
+    }
+
+    /**
+     * Creates a new filter file that hashes its keys with the given strategy, failing if path already exists
+     * @param path
+     * @param capacity the desired maximum capacity for the bloom filter, will be statically set
+     * @param error_rate the desired maximum error rte of the filter
+     * @param strategy how keys are hashed, only DIGEST filters can be read by python
+     * @return empty MappedBloomFilter
+     * @throws IOException
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public static MappedBloomFilter create(Path path, int capacity, double error_rate, HashStrategy strategy)
+            throws IOException, NoSuchAlgorithmException {
+        assert(0 < error_rate && error_rate < 1);
+        assert(capacity > 0);
+        int num_slices = numSlices(error_rate);
+        int bits_per_slice = bitsPerSlice(capacity, error_rate, num_slices);
+        return create(path, error_rate, num_slices, bits_per_slice, capacity, 0, strategy);
+    }
+
+    /**
+     * Writes a copy of source to a new filter file, failing if path already exists
+     * @param path
+     * @param source
+     * @return MappedBloomFilter with the parameters, count and bits of source
+     * @throws IOException
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     * @throws IllegalArgumentException if source is a BlockedBloomFilter, which can't be mapped
+     */
+    public static MappedBloomFilter create(Path path, BloomFilter source)
+            throws IOException, NoSuchAlgorithmException {
+        if(source.blocked()){
+            throw new IllegalArgumentException("Blocked bloom filters can't be mapped");
+        }
+        MappedBloomFilter filter = create(path, source.getErrorRate(), source.getNumSlices(),
+                source.getBitsPerSlice(), source.getCapacity(), source.getCount(), source.getStrategy());
+        filter.copyWords(source.bitarray);
+        return filter;
+    }
+
+    private static MappedBloomFilter create(Path path, double error_rate, int num_slices, int bits_per_slice,
+                                            int capacity, int count, HashStrategy strategy)
+            throws IOException, NoSuchAlgorithmException {
+        long num_bits = (long) num_slices * bits_per_slice;
+        //the mappings stay valid after the channel is closed
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            writeHeader(header, error_rate, num_slices, bits_per_slice, capacity, count, strategy);
+            BufferBitArray bits = BufferBitArray.map(channel, FileChannel.MapMode.READ_WRITE, HEADER_SIZE, num_bits);
+            return new MappedBloomFilter(header, bits, strategy);
+        }
+    }
+
+    /**
+     * Opens an existing filter file for reading and adding
+     * @param path
+     * @return MappedBloomFilter
+     * @throws IOException if the file isn't a filter file or is truncated
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public static MappedBloomFilter open(Path path)
+            throws IOException, NoSuchAlgorithmException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if(channel.size() < HEADER_SIZE){
+                throw new IOException(path + " is too short to be a bloom filter file");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if(header.getInt(0) != MAGIC){
+                throw new IOException(path + " is not a bloom filter file");
+            }
+            if(header.getInt(4) != VERSION){
+                throw new IOException("Unsupported bloom filter file version " + header.getInt(4));
+            }
+            int strategy = header.getInt(STRATEGY);
+            if(strategy < 0 || strategy >= HashStrategy.values().length){
+                throw new IOException("Unknown hash strategy " + strategy + " in " + path);
+            }
+            long num_bits = (long) header.getInt(NUM_SLICES) * header.getInt(BITS_PER_SLICE);
+            if(channel.size() < HEADER_SIZE + ((num_bits + 63) >>> 6) * 8){
+                throw new IOException(path + " is truncated");
+            }
+            BufferBitArray bits = BufferBitArray.map(channel, FileChannel.MapMode.READ_WRITE, HEADER_SIZE, num_bits);
+            return new MappedBloomFilter(header, bits, HashStrategy.values()[strategy]);
+        }
+    }
+
+    /**
+     * Creates a filter in direct memory, outside the heap but not backed by a file
+     * @param capacity the desired maximum capacity for the bloom filter, will be statically set
+     * @param error_rate the desired maximum error rte of the filter
+     * @return empty MappedBloomFilter
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public static MappedBloomFilter allocateDirect(int capacity, double error_rate)
+            throws NoSuchAlgorithmException {
+        return allocateDirect(capacity, error_rate, HashStrategy.DIGEST);
+    }
+
+    /**
+     * Creates a filter in direct memory that hashes its keys with the given strategy
+     * @param capacity the desired maximum capacity for the bloom filter, will be statically set
+     * @param error_rate the desired maximum error rte of the filter
+     * @param strategy how keys are hashed, only DIGEST filters can be read by python
+     * @return empty MappedBloomFilter
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public static MappedBloomFilter allocateDirect(int capacity, double error_rate, HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        assert(0 < error_rate && error_rate < 1);
+        assert(capacity > 0);
+        int num_slices = numSlices(error_rate);
+        int bits_per_slice = bitsPerSlice(capacity, error_rate, num_slices);
+        ByteBuffer header = ByteBuffer.allocateDirect(HEADER_SIZE);
+        writeHeader(header, error_rate, num_slices, bits_per_slice, capacity, 0, strategy);
+        BufferBitArray bits = BufferBitArray.allocateDirect((long) num_slices * bits_per_slice);
+        return new MappedBloomFilter(header, bits, strategy);
+    }
+
+    private static void writeHeader(ByteBuffer header, double error_rate, int num_slices, int bits_per_slice,
+                                    int capacity, int count, HashStrategy strategy) {
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putDouble(ERROR_RATE, error_rate);
+        header.putInt(NUM_SLICES, num_slices);
+        header.putInt(BITS_PER_SLICE, bits_per_slice);
+        header.putInt(CAPACITY, capacity);
+        header.putInt(COUNT, count);
+        //new strategies must be added at the end of HashStrategy so that ordinals in old files stay valid
+        header.putInt(STRATEGY, strategy.ordinal());
+    }
+
+    private void copyWords(BitArray from) {
+        for(int i = 0; i < bits.numWords(); i++){
+            bits.setWord(i, from.getWord(i));
+        }
+    }
+
+    /**
+     * The count lives in the header, so it is saved along with the bits
+     */
+    @Override
+    protected void incrementCount() {
+        header.putInt(COUNT, header.getInt(COUNT) + 1);
+    }
+
+    @Override
+    protected void setCount(int count) {
+        header.putInt(COUNT, count);
+    }
+
+    @Override
+    public int getCount() {
+        return header.getInt(COUNT);
+    }
+
+    /**
+     * Writes the bits and the header through to the file (msync) and waits until they are on disk.
+     * Does nothing for filters in direct memory
+     */
+    public void force() {
+        bits.force();
+        if(header instanceof MappedByteBuffer){
+            ((MappedByteBuffer) header).force();
+        }
+    }
+
+    /**
+     * Forces the filter to disk. Java can't unmap the file, the mapping is released
+     * when the filter is garbage collected
+     */
+    @Override
+    public void close() {
+        force();
+    }
+}
@@ -0,0 +1,105 @@
+package jbloom.core;
+
+import jbloom.util.BitArray;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the set bits of left[i] | right[j] for every pair of two lists of equally sized bit arrays,
+ * without building any of the ORs. Like WordCount the words are split in halves down to ranges of
+ * LEAF_WORDS that run as fork-join tasks. Each range goes through the words a block at a time, copying
+ * the block of every array once and counting all the pairs from the copies, so the arrays are read
+ * once whatever the number of pairs, where counting each pair on its own reads them n x m times
+ */
+class PairCount extends RecursiveTask<long[]> {
+    private static final long serialVersionUID = 1L;
+    private static final int LEAF_WORDS = 1 << 16; // 512KB of each array per task
+    private static final int BLOCK_WORDS = 256;
+
+    private final BitArray[] left, right;
+    private final long num_bits;
+    private final int from, to;
+
+    private PairCount(BitArray[] left, BitArray[] right, long num_bits, int from, int to) {
+        this.left = left;
+        this.right = right;
+        this.num_bits = num_bits;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @param left
+     * @param right
+     * @param num_bits bits of each array, the ones after them aren't counted
+     * @return number of set bits in left[i] | right[j] at i * right.length + j
+     */
+    static long[] count(BitArray[] left, BitArray[] right, long num_bits) {
+        int num_words = (int) ((num_bits + 63) >>> 6);
+        if(left.length == 0 || right.length == 0 || num_words == 0){
+            return new long[left.length * right.length];
+        }
+        PairCount task = new PairCount(left, right, num_bits, 0, num_words);
+        if(num_words <= LEAF_WORDS){
+            //not worth handing to another thread
+            return task.compute();
+        }
+        return ForkJoinPool.commonPool().invoke(task);
+    }
+
+    @Override
+    protected long[] compute() {
+        if(to - from > LEAF_WORDS){
+            int middle = (from + to) >>> 1;
+            PairCount right_half = new PairCount(left, right, num_bits, middle, to);
+            right_half.fork();
+            long[] counts = new PairCount(left, right, num_bits, from, middle).compute();
+            long[] right_counts = right_half.join();
+            for(int i = 0; i < counts.length; i++){
+                counts[i] += right_counts[i];
+            }
+            return counts;
+        }
+        long[] counts = new long[left.length * right.length];
+        long[][] left_block = new long[left.length][BLOCK_WORDS];
+        long[][] right_block = new long[right.length][BLOCK_WORDS];
+        int last = (int) ((num_bits - 1) >>> 6);
+        for(int start = from; start < to; start += BLOCK_WORDS){
+            int n = Math.min(BLOCK_WORDS, to - start);
+            copy(left, left_block, start, n, last);
+            copy(right, right_block, start, n, last);
+            for(int i = 0; i < left.length; i++){
+                long[] a = left_block[i];
+                for(int j = 0; j < right.length; j++){
+                    long[] b = right_block[j];
+                    long count = 0;
+                    for(int w = 0; w < n; w++){
+                        count += Long.bitCount(a[w] | b[w]);
+                    }
+                    counts[i * right.length + j] += count;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Copies words [start, start + n) of each array, without the bits after num_bits
+     * @param arrays
+     * @param blocks
+     * @param start
+     * @param n
+     * @param last index of the word holding the last bit
+     */
+    private void copy(BitArray[] arrays, long[][] blocks, int start, int n, int last) {
+        for(int i = 0; i < arrays.length; i++){
+            for(int w = 0; w < n; w++){
+                blocks[i][w] = arrays[i].getWord(start + w);
+            }
+            if(start + n - 1 == last){
+                blocks[i][n - 1] &= -1L >>> (63 - ((num_bits - 1) & 63));
+            }
+        }
+    }
+}
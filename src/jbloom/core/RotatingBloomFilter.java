@@ -0,0 +1,342 @@
+package jbloom.core;
+
+import jbloom.util.Funnel;
+import jbloom.util.HashStrategy;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A sliding window filter, for deduplicating a stream over its last N minutes or last N keys.
+ * Like a DynamicBloomFilter it is a list of bloom filters of the same shape, but a fixed ring of
+ * them (generations): keys go into the newest generation, and when it is done the oldest one is
+ * cleared and becomes the newest. Nothing is allocated after the constructor, and the window moves
+ * a generation at a time instead of being thrown away whole, so a key is remembered for between
+ * (generations - 1) and generations generations.
+ *
+ * A generation is done when it holds generation_capacity keys (a window by count), or when
+ * window / generations has gone by since it started (a window by time). A window by time still
+ * starts the next generation early when one fills up, so a burst shortens the window instead of
+ * pushing the error rate past error_rate.
+ *
+ * Adding a key that is already in an older generation adds it to the newest too, so a key that keeps
+ * coming back stays in the window. Keys are hashed once and the indices probed in every generation.
+ * Like BloomFilter this isn't thread safe
+ */
+public class RotatingBloomFilter {
+    private static final LongSupplier NANO_TIME = new LongSupplier() {
+        @Override
+        public long getAsLong() {
+            return System.nanoTime();
+        }
+    };
+
+    private final BloomFilter[] generations;
+    private final int generation_capacity;
+    private final double error_rate;
+    private final HashStrategy strategy;
+    private final long generation_nanos;
+    private final LongSupplier clock;
+    private int current;
+    private long generation_start, rotations;
+
+    /**
+     * Creates a RotatingBloomFilter with a window by count: it remembers the last
+     * (generations - 1) * generation_capacity to generations * generation_capacity keys
+     * @param generations number of bloom filters, at least 2
+     * @param generation_capacity keys per bloom filter
+     * @param error_rate maximum error rate of the whole filter
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public RotatingBloomFilter(int generations, int generation_capacity, double error_rate)
+            throws NoSuchAlgorithmException {
+        this(generations, generation_capacity, error_rate, HashStrategy.DIGEST);
+    }
+
+    /**
+     * Creates a RotatingBloomFilter with a window by count whose bloom filters hash with the given strategy
+     * @param generations number of bloom filters, at least 2
+     * @param generation_capacity keys per bloom filter
+     * @param error_rate maximum error rate of the whole filter
+     * @param strategy how keys are hashed
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public RotatingBloomFilter(int generations, int generation_capacity, double error_rate, HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        this(generations, generation_capacity, error_rate, 0, strategy, null);
+    }
+
+    /**
+     * Creates a RotatingBloomFilter with a window by time: it remembers the keys of the last
+     * (generations - 1) / generations * window to window
+     * @param generations number of bloom filters, at least 2
+     * @param generation_capacity most keys a bloom filter will get in window / generations
+     * @param error_rate maximum error rate of the whole filter
+     * @param window
+     * @param unit of window
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public RotatingBloomFilter(int generations, int generation_capacity, double error_rate,
+                               long window, TimeUnit unit)
+            throws NoSuchAlgorithmException {
+        this(generations, generation_capacity, error_rate, window, unit, HashStrategy.DIGEST, NANO_TIME);
+    }
+
+    /**
+     * Creates a RotatingBloomFilter with a window by time on the given clock
+     * @param generations number of bloom filters, at least 2
+     * @param generation_capacity most keys a bloom filter will get in window / generations
+     * @param error_rate maximum error rate of the whole filter
+     * @param window
+     * @param unit of window
+     * @param strategy how keys are hashed
+     * @param clock nanoseconds, like System.nanoTime, read on every has and add
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public RotatingBloomFilter(int generations, int generation_capacity, double error_rate,
+                               long window, TimeUnit unit, HashStrategy strategy, LongSupplier clock)
+            throws NoSuchAlgorithmException {
+        this(generations, generation_capacity, error_rate,
+                Math.max(1, unit.toNanos(window) / Math.max(1, generations)),
+                strategy, clock);
+        assert(window > 0);
+    }
+
+    private RotatingBloomFilter(int generations, int generation_capacity, double error_rate,
+                                long generation_nanos, HashStrategy strategy, LongSupplier clock)
+            throws NoSuchAlgorithmException {
+        assert(0 < error_rate && error_rate < 1);
+        assert(generation_capacity > 0);
+        if(generations < 2){
+            throw new IllegalArgumentException("A rotating filter needs at least 2 generations, not " + generations);
+        }
+        //a key that was never added is found if any generation has it, same as DynamicBloomFilter
+        double individual_error_rate = 1 - Math.exp(Math.log(1 - error_rate) / generations);
+        this.generations = new BloomFilter[generations];
+        for(int i = 0; i < generations; i++){
+            this.generations[i] = new BloomFilter(generation_capacity, individual_error_rate, strategy);
+        }
+        this.generation_capacity = generation_capacity;
+        this.error_rate = error_rate;
+        this.strategy = strategy;
+        this.generation_nanos = generation_nanos;
+        this.clock = clock;
+        if(clock != null){
+            this.generation_start = clock.getAsLong();
+        }
+    }
+
+    /**
+     * Lookup to see if a key was added in the window, see BloomFilter.has(CharSequence)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(CharSequence key) {
+        expire();
+        return hasIndices(generations[0].hashFn().hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if the bytes key[off, off + len) were added in the window
+     * @param key
+     * @param off
+     * @param len
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(byte[] key, int off, int len) {
+        expire();
+        return hasIndices(generations[0].hashFn().hashToBuffer(key, off, len));
+    }
+
+    /**
+     * Lookup to see if the remaining bytes of key were added in the window, see BloomFilter.has(ByteBuffer)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(ByteBuffer key) {
+        expire();
+        return hasIndices(generations[0].hashFn().hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if a number was added in the window, see BloomFilter.has(long)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(long key) {
+        expire();
+        return hasIndices(generations[0].hashFn().hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if the bytes funnel writes for key were added in the window
+     * @param key
+     * @param funnel
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public <T> boolean has(T key, Funnel<? super T> funnel) {
+        expire();
+        return hasIndices(generations[0].hashFn().hashToBuffer(key, funnel));
+    }
+
+    /**
+     * Add key to the newest generation
+     * @param key
+     * @return true if it was already in the window, false if it wasn't
+     */
+    public boolean add(CharSequence key) {
+        expire();
+        return addIndices(generations[0].hashFn().hashToBuffer(key));
+    }
+
+    /**
+     * Add the bytes key[off, off + len) to the newest generation
+     * @param key
+     * @param off
+     * @param len
+     * @return true if it was already in the window, false if it wasn't
+     */
+    public boolean add(byte[] key, int off, int len) {
+        expire();
+        return addIndices(generations[0].hashFn().hashToBuffer(key, off, len));
+    }
+
+    /**
+     * Add the remaining bytes of key to the newest generation, without changing the buffer's position
+     * @param key
+     * @return true if it was already in the window, false if it wasn't
+     */
+    public boolean add(ByteBuffer key) {
+        expire();
+        return addIndices(generations[0].hashFn().hashToBuffer(key));
+    }
+
+    /**
+     * Add a number to the newest generation
+     * @param key
+     * @return true if it was already in the window, false if it wasn't
+     */
+    public boolean add(long key) {
+        expire();
+        return addIndices(generations[0].hashFn().hashToBuffer(key));
+    }
+
+    /**
+     * Add the bytes funnel writes for key to the newest generation
+     * @param key
+     * @param funnel
+     * @return true if it was already in the window, false if it wasn't
+     */
+    public <T> boolean add(T key, Funnel<? super T> funnel) {
+        expire();
+        return addIndices(generations[0].hashFn().hashToBuffer(key, funnel));
+    }
+
+    private boolean hasIndices(int[] hashes) {
+        return hasIndices(hashes, 0);
+    }
+
+    /**
+     * Probes the generations newest first, skipping the empty ones
+     * @param hashes one index per slice, from the generations' HashFn
+     * @param from number of the newest generations to skip
+     * @return True if any generation has every bit set
+     */
+    private boolean hasIndices(int[] hashes, int from) {
+        int n = generations.length;
+        for(int i = from; i < n; i++){
+            BloomFilter generation = generations[(current - i + n) % n];
+            if(generation.getCount() > 0 && generation.hasIndices(hashes)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean addIndices(int[] hashes) {
+        BloomFilter newest = generations[current];
+        if(newest.hasIndices(hashes)){
+            return true;
+        }
+        boolean found = hasIndices(hashes, 1);
+        if(newest.getCount() >= generation_capacity){
+            rotate();
+            newest = generations[current];
+        }
+        newest.addIndices(hashes, true);
+        return found;
+    }
+
+    /**
+     * Starts the generations that are due on the clock, clearing the ones that fell out of the window
+     */
+    private void expire() {
+        if(clock == null){
+            return;
+        }
+        long elapsed = clock.getAsLong() - generation_start;
+        if(elapsed < generation_nanos){
+            return;
+        }
+        //after a whole window without a call every generation is out of it
+        long due = Math.min(elapsed / generation_nanos, generations.length);
+        for(long i = 0; i < due; i++){
+            rotate();
+        }
+        generation_start += (elapsed / generation_nanos) * generation_nanos;
+    }
+
+    /**
+     * Clears the oldest generation, in place, and makes it the newest. The oldest generation's keys
+     * are no longer in the filter. Rotations the clock or the count start don't have to be asked for,
+     * this is for windows driven by something else
+     */
+    public void rotate() {
+        current = (current + 1) % generations.length;
+        generations[current].clear();
+        rotations++;
+    }
+
+    /**
+     * @return number of keys in the window, counted once per generation they were added to
+     */
+    public long getCount() {
+        long count = 0;
+        for(BloomFilter generation : generations){
+            count += generation.getCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return number of generations started since the filter was created
+     */
+    public long getRotations() {
+        return rotations;
+    }
+
+    public int getGenerations() {
+        return generations.length;
+    }
+
+    public int getGenerationCapacity() {
+        return generation_capacity;
+    }
+
+    /**
+     * @return how long a generation lasts, 0 for a window by count
+     */
+    public long getGenerationNanos() {
+        return clock == null ? 0 : generation_nanos;
+    }
+
+    public double getErrorRate() {
+        return error_rate;
+    }
+
+    public HashStrategy getStrategy() {
+        return strategy;
+    }
+}
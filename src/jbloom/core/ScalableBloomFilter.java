@@ -0,0 +1,484 @@
+package jbloom.core;
+
+import jbloom.util.Funnel;
+import jbloom.util.HashStrategy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+
+/**
+ * A Scalable Bloom Filter[1] grows without a maximum capacity. When its newest bloom filter is full
+ * it adds one growth times bigger, with an error rate ratio times tighter, so the error rates of all
+ * the bloom filters add up to less than error_rate however many there are. The first bloom filter
+ * gets error_rate * (1 - ratio). Because the bloom filters grow geometrically, n keys take about
+ * log_growth(n / initial_capacity) of them, and a lookup only checks that many.
+ *
+ * Unlike a DynamicBloomFilter the bloom filters all have different shapes, so scalable filters
+ * can't be unioned or intersected. The defaults are a growth of 4
+ * (LARGE_SET_GROWTH) and a ratio of 0.9
+ */
+public class ScalableBloomFilter {
+    /**
+     * Grows slower, but takes less memory
+     */
+    public static final int SMALL_SET_GROWTH = 2;
+    /**
+     * Grows faster, and so has fewer bloom filters to look through, but takes more memory
+     */
+    public static final int LARGE_SET_GROWTH = 4;
+
+    private ArrayList<BloomFilter> filters;
+    private int initial_capacity, growth;
+    private double error_rate, ratio;
+    private HashStrategy strategy;
+
+    /**
+     * Creates a ScalableBloomFilter with a growth of 4 and a ratio of 0.9
+     * @param initial_capacity capacity of the first bloom filter
+     * @param error_rate maximum error rte
+     */
+    public ScalableBloomFilter(int initial_capacity, double error_rate){
+        this(initial_capacity, error_rate, LARGE_SET_GROWTH, 0.9);
+    }
+
+    /**
+     * Creates a ScalableBloomFilter
+     * @param initial_capacity capacity of the first bloom filter
+     * @param error_rate maximum error rte
+     * @param growth each bloom filter has growth times the capacity of the one before it
+     * @param ratio each bloom filter has ratio times the error rate of the one before it
+     */
+    public ScalableBloomFilter(int initial_capacity, double error_rate, int growth, double ratio){
+        this(initial_capacity, error_rate, growth, ratio, HashStrategy.DIGEST);
+    }
+
+    /**
+     * Creates a ScalableBloomFilter whose bloom filters hash with the given strategy
+     * @param initial_capacity capacity of the first bloom filter
+     * @param error_rate maximum error rte
+     * @param growth each bloom filter has growth times the capacity of the one before it
+     * @param ratio each bloom filter has ratio times the error rate of the one before it
+     * @param strategy how keys are hashed, only DIGEST filters can be read by python
+     */
+    public ScalableBloomFilter(int initial_capacity, double error_rate, int growth, double ratio,
+                               HashStrategy strategy){
+        assert(error_rate > 0 && error_rate < 1);
+        assert(initial_capacity > 0);
+        assert(growth > 0);
+        assert(ratio > 0 && ratio < 1);
+        filters = new ArrayList<BloomFilter>();
+        this.initial_capacity = initial_capacity;
+        this.error_rate = error_rate;
+        this.growth = growth;
+        this.ratio = ratio;
+        this.strategy = strategy;
+    }
+
+    /**
+     * Lookup to see if a key is in the bloom filter
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     * @throws CloneNotSupportedException
+     */
+    public boolean has(String key)
+            throws CloneNotSupportedException {
+        for(int i = filters.size() - 1; i > -1; i--){
+            if(filters.get(i).has(key)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lookup to see if a key is in the bloom filter, see BloomFilter.has(CharSequence)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(CharSequence key) {
+        for(int i = filters.size() - 1; i > -1; i--){
+            if(filters.get(i).has(key)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lookup to see if the bytes key[off, off + len) are in the bloom filter
+     * @param key
+     * @param off
+     * @param len
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(byte[] key, int off, int len) {
+        for(int i = filters.size() - 1; i > -1; i--){
+            if(filters.get(i).has(key, off, len)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lookup to see if the remaining bytes of key are in the bloom filter, see BloomFilter.has(ByteBuffer)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(ByteBuffer key) {
+        for(int i = filters.size() - 1; i > -1; i--){
+            if(filters.get(i).has(key)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lookup to see if a number is in the bloom filter, see BloomFilter.has(long)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(long key) {
+        for(int i = filters.size() - 1; i > -1; i--){
+            if(filters.get(i).has(key)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lookup to see if the bytes funnel writes for key are in the bloom filter
+     * @param key
+     * @param funnel
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public <T> boolean has(T key, Funnel<? super T> funnel) {
+        for(int i = filters.size() - 1; i > -1; i--){
+            if(filters.get(i).has(key, funnel)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add key to the bloom filter
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws CloneNotSupportedException
+     * @throws NoSuchAlgorithmException
+     */
+    public boolean add(String key)
+            throws CloneNotSupportedException, NoSuchAlgorithmException {
+        if(this.has(key)){
+            return true;
+        }
+        currentFilter().add(key, true);
+        return false;
+    }
+
+    /**
+     * Add key to the bloom filter, see BloomFilter.add(CharSequence)
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws NoSuchAlgorithmException
+     */
+    public boolean add(CharSequence key)
+            throws NoSuchAlgorithmException {
+        if(this.has(key)){
+            return true;
+        }
+        currentFilter().add(key);
+        return false;
+    }
+
+    /**
+     * Add the bytes key[off, off + len) to the bloom filter
+     * @param key
+     * @param off
+     * @param len
+     * @return true if it was already in, false if it wasn't
+     * @throws NoSuchAlgorithmException
+     */
+    public boolean add(byte[] key, int off, int len)
+            throws NoSuchAlgorithmException {
+        if(this.has(key, off, len)){
+            return true;
+        }
+        currentFilter().add(key, off, len);
+        return false;
+    }
+
+    /**
+     * Add the remaining bytes of key to the bloom filter, see BloomFilter.add(ByteBuffer)
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws NoSuchAlgorithmException
+     */
+    public boolean add(ByteBuffer key)
+            throws NoSuchAlgorithmException {
+        if(this.has(key)){
+            return true;
+        }
+        currentFilter().add(key);
+        return false;
+    }
+
+    /**
+     * Add a number to the bloom filter, see BloomFilter.add(long)
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws NoSuchAlgorithmException
+     */
+    public boolean add(long key)
+            throws NoSuchAlgorithmException {
+        if(this.has(key)){
+            return true;
+        }
+        currentFilter().add(key);
+        return false;
+    }
+
+    /**
+     * Add the bytes funnel writes for key to the bloom filter
+     * @param key
+     * @param funnel
+     * @return true if it was already in, false if it wasn't
+     * @throws NoSuchAlgorithmException
+     */
+    public <T> boolean add(T key, Funnel<? super T> funnel)
+            throws NoSuchAlgorithmException {
+        if(this.has(key, funnel)){
+            return true;
+        }
+        currentFilter().add(key, funnel);
+        return false;
+    }
+
+    /**
+     * The bloom filter new keys go to, adding a bigger one if the newest is full.
+     * Only called for keys that aren't in any bloom filter yet,
+     * so adding it to this filter always counts it as new
+     * @return the last bloom filter
+     * @throws NoSuchAlgorithmException
+     */
+    private BloomFilter currentFilter()
+            throws NoSuchAlgorithmException {
+        BloomFilter filter;
+        if(filters.isEmpty()){
+            filter = new BloomFilter(initial_capacity, error_rate * (1 - ratio), strategy);
+            filters.add(filter);
+        }
+        else{
+            filter = filters.get(filters.size() - 1);
+            if(filter.getCount() >= filter.getCapacity()){
+                //the last one can't grow any more, bitsPerSlice gives up well before this
+                int capacity = (int) Math.min((long) filter.getCapacity() * growth, Integer.MAX_VALUE);
+                filter = new BloomFilter(capacity, filter.getErrorRate() * ratio, strategy);
+                filters.add(filter);
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Stringify the bloom filter in a way that is compatible with the python version of the library:
+     * "growth,ratio,initial_capacity,error_rate," (python's scale, ratio, initial_capacity and error_rate)
+     * then the bloom filters as BloomFilter.toString writes them, oldest first, separated by '|'
+     * @return stringified bloom filter
+     */
+    public String toString(){
+        StringWriter out = new StringWriter();
+        try {
+            writeTo(out);
+        }catch(IOException e) {
+            //a StringWriter doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the same text as toString, one bloom filter at a time
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(Writer out)
+            throws IOException {
+        out.write(growth + "," + Double.toString(ratio) + "," + initial_capacity + ","
+                + Double.toString(error_rate) + ",");
+        for(int i = 0; i < filters.size(); i++){
+            if(i > 0){
+                out.write('|');
+            }
+            filters.get(i).writeTo(out);
+        }
+    }
+
+    /**
+     * Writes the same text as toString as ASCII bytes. out is flushed but not closed
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.US_ASCII);
+        writeTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * UnStringify a Stringified scalable bloom filter s
+     * Used to import from python
+     * @param s
+     * @return Bloom filter from that string
+     * @throws NoSuchAlgorithmException
+     */
+    public static ScalableBloomFilter fromString(String s)
+            throws NoSuchAlgorithmException {
+        try {
+            return readFrom(new StringReader(s));
+        }catch(IOException e) {
+            //a StringReader doesn't throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a filter written by writeTo or toString (or by python), one bloom filter at a time
+     * @param in
+     * @return Bloom filter from that text
+     * @throws IOException
+     * @throws IllegalArgumentException if the bloom filters don't all hash with the same strategy, or don't
+     * have the capacities, error rates and shapes the header gives them
+     * @throws NoSuchAlgorithmException
+     */
+    public static ScalableBloomFilter readFrom(Reader in)
+            throws IOException, NoSuchAlgorithmException {
+        TextReader text = new TextReader(in);
+        int growth = Integer.valueOf(text.field(','));
+        double ratio = Double.valueOf(text.field(','));
+        int initial_capacity = Integer.valueOf(text.field(','));
+        double error_rate = Double.valueOf(text.field(','));
+        ArrayList<BloomFilter> filters = new ArrayList<BloomFilter>();
+        if(text.peek() != -1){
+            do {
+                filters.add(BloomFilter.read(text));
+            } while(text.skip('|'));
+        }
+        checkProgression(filters, initial_capacity, error_rate, growth, ratio);
+        //the strategy isn't in the header, every bloom filter carries its own
+        ScalableBloomFilter sbf = new ScalableBloomFilter(initial_capacity, error_rate, growth, ratio,
+                filters.isEmpty() ? HashStrategy.DIGEST : filters.get(0).getStrategy());
+        sbf.filters.addAll(filters);
+        return sbf;
+    }
+
+    /**
+     * Checks that read bloom filters are the ones add would have created for this header,
+     * so they all hash with the strategy of the first. Error rates only have to be close,
+     * python prints them with 12 digits
+     * @param filters
+     * @param initial_capacity
+     * @param error_rate
+     * @param growth
+     * @param ratio
+     * @throws IllegalArgumentException if one of them isn't
+     */
+    private static void checkProgression(ArrayList<BloomFilter> filters, int initial_capacity, double error_rate,
+                                         int growth, double ratio){
+        int capacity = initial_capacity;
+        double filter_error_rate = error_rate * (1 - ratio);
+        for(int i = 0; i < filters.size(); i++){
+            BloomFilter filter = filters.get(i);
+            if(filter.getStrategy() != filters.get(0).getStrategy()){
+                throw new IllegalArgumentException("Bloom filter " + i + " is a " + filter.getStrategy().getName()
+                        + " filter in a " + filters.get(0).getStrategy().getName() + " scalable filter");
+            }
+            int num_slices = BloomFilter.numSlices(filter_error_rate);
+            if(filter.blocked() || filter.getCapacity() != capacity
+                    || Math.abs(filter.getErrorRate() - filter_error_rate) > filter_error_rate * 1e-9
+                    || filter.getNumSlices() != num_slices
+                    || filter.getBitsPerSlice() != BloomFilter.bitsPerSlice(capacity, filter_error_rate, num_slices)){
+                throw new IllegalArgumentException("Bloom filter " + i + " doesn't have the capacity " + capacity
+                        + " and error rate " + filter_error_rate + " of the scalable filter");
+            }
+            capacity = (int) Math.min((long) capacity * growth, Integer.MAX_VALUE);
+            filter_error_rate *= ratio;
+        }
+    }
+
+    /**
+     * Reads a filter written by writeTo(OutputStream)
+     * @param in
+     * @return Bloom filter from that text
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    public static ScalableBloomFilter readFrom(InputStream in)
+            throws IOException, NoSuchAlgorithmException {
+        return readFrom(new InputStreamReader(in, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return number of keys added, over all the bloom filters
+     */
+    public long getCount() {
+        long count = 0;
+        for(BloomFilter filter : filters){
+            count += filter.getCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return number of keys the filter holds before it adds another bloom filter
+     */
+    public long getCapacity() {
+        long capacity = 0;
+        for(BloomFilter filter : filters){
+            capacity += filter.getCapacity();
+        }
+        return capacity;
+    }
+
+    /**
+     * @return number of bloom filters, which is what a lookup that misses pays for
+     */
+    public int getNumFilters() {
+        return filters.size();
+    }
+
+    public int getInitialCapacity() {
+        return initial_capacity;
+    }
+
+    public double getErrorRate() {
+        return error_rate;
+    }
+
+    public int getGrowth() {
+        return growth;
+    }
+
+    public double getRatio() {
+        return ratio;
+    }
+
+    public HashStrategy getStrategy() {
+        return strategy;
+    }
+}
@@ -0,0 +1,489 @@
+package jbloom.core;
+
+import jbloom.metrics.FilterEvents;
+import jbloom.util.Funnel;
+import jbloom.util.HashFn;
+import jbloom.util.HashStrategy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A filter for many threads adding at once: num_shards independent ConcurrentBloomFilters, each key
+ * going to the one picked by a hash of its indices. Threads adding different keys mostly write to
+ * different shards, so they don't fight over the same cache lines of bits, and every shard counts
+ * its keys in its own LongAdder. Each shard has its own bit array, so no two shards share a line
+ * except at the ends of the arrays. Lookups and adds never lock, see ConcurrentBloomFilter.
+ *
+ * A key is only ever in one shard, so the error rate of the whole filter is the error rate of a shard.
+ * The shards all have the same shape and share one HashFn, a key is hashed once to pick its shard
+ * and to probe it. Hashing spreads keys over the shards binomially, not exactly evenly, so each shard
+ * is sized to capacity / num_shards plus 4 standard deviations: the filter holds capacity keys before
+ * any shard is full. getShardLoads and getSkew show how evenly the keys really are spread
+ */
+public class ShardedBloomFilter {
+    private final BloomFilter[] shards;
+    private final int capacity;
+    private final double error_rate;
+    private final HashFn hash;
+
+    /**
+     * Creates a ShardedBloomFilter
+     * @param capacity the desired maximum capacity for the whole filter, will be statically set
+     * @param error_rate the desired maximum error rte of the filter
+     * @param num_shards number of bloom filters, at least 1
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public ShardedBloomFilter(int capacity, double error_rate, int num_shards)
+            throws NoSuchAlgorithmException {
+        this(capacity, error_rate, num_shards, HashStrategy.DIGEST);
+    }
+
+    /**
+     * Creates a ShardedBloomFilter whose shards hash with the given strategy
+     * @param capacity the desired maximum capacity for the whole filter, will be statically set
+     * @param error_rate the desired maximum error rte of the filter
+     * @param num_shards number of bloom filters, at least 1
+     * @param strategy how keys are hashed
+     * @throws NoSuchAlgorithmException (for the hashfn, in practice this should never be thrown)
+     */
+    public ShardedBloomFilter(int capacity, double error_rate, int num_shards, HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        this(capacity, error_rate, newShards(capacity, error_rate, num_shards, strategy));
+    }
+
+    private ShardedBloomFilter(int capacity, double error_rate, BloomFilter[] shards) {
+        this.capacity = capacity;
+        this.error_rate = error_rate;
+        this.shards = shards;
+        this.hash = shards[0].hashFn();
+    }
+
+    private static BloomFilter[] newShards(int capacity, double error_rate, int num_shards, HashStrategy strategy)
+            throws NoSuchAlgorithmException {
+        assert(0 < error_rate && error_rate < 1);
+        assert(capacity > 0);
+        if(num_shards < 1){
+            throw new IllegalArgumentException("A sharded filter needs at least 1 shard, not " + num_shards);
+        }
+        BloomFilter[] shards = new BloomFilter[num_shards];
+        int shard_capacity = shardCapacity(capacity, num_shards);
+        for(int i = 0; i < num_shards; i++){
+            shards[i] = new ConcurrentBloomFilter(shard_capacity, error_rate, strategy);
+        }
+        return shards;
+    }
+
+    /**
+     * @param capacity
+     * @param num_shards
+     * @return capacity / num_shards with room for 4 standard deviations of hashing skew
+     */
+    static int shardCapacity(int capacity, int num_shards) {
+        if(num_shards == 1){
+            return capacity;
+        }
+        long share = (capacity + (long) num_shards - 1) / num_shards;
+        return (int) Math.min(Integer.MAX_VALUE, share + (long) Math.ceil(4 * Math.sqrt(share)));
+    }
+
+    /**
+     * Lookup to see if a key is in the filter, see BloomFilter.has(CharSequence)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(CharSequence key) {
+        return hasIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if the bytes key[off, off + len) are in the filter
+     * @param key
+     * @param off
+     * @param len
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(byte[] key, int off, int len) {
+        return hasIndices(hash.hashToBuffer(key, off, len));
+    }
+
+    /**
+     * Lookup to see if the remaining bytes of key are in the filter, see BloomFilter.has(ByteBuffer)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(ByteBuffer key) {
+        return hasIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if a number is in the filter, see BloomFilter.has(long)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(long key) {
+        return hasIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Lookup to see if the bytes funnel writes for key are in the filter
+     * @param key
+     * @param funnel
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public <T> boolean has(T key, Funnel<? super T> funnel) {
+        return hasIndices(hash.hashToBuffer(key, funnel));
+    }
+
+    /**
+     * Add key to its shard
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException if the shard is full
+     */
+    public boolean add(CharSequence key)
+            throws IndexOutOfBoundsException {
+        return addIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Add the bytes key[off, off + len) to their shard
+     * @param key
+     * @param off
+     * @param len
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException if the shard is full
+     */
+    public boolean add(byte[] key, int off, int len)
+            throws IndexOutOfBoundsException {
+        return addIndices(hash.hashToBuffer(key, off, len));
+    }
+
+    /**
+     * Add the remaining bytes of key to their shard, without changing the buffer's position
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException if the shard is full
+     */
+    public boolean add(ByteBuffer key)
+            throws IndexOutOfBoundsException {
+        return addIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Add a number to its shard
+     * @param key
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException if the shard is full
+     */
+    public boolean add(long key)
+            throws IndexOutOfBoundsException {
+        return addIndices(hash.hashToBuffer(key));
+    }
+
+    /**
+     * Add the bytes funnel writes for key to their shard
+     * @param key
+     * @param funnel
+     * @return true if it was already in, false if it wasn't
+     * @throws IndexOutOfBoundsException if the shard is full
+     */
+    public <T> boolean add(T key, Funnel<? super T> funnel)
+            throws IndexOutOfBoundsException {
+        return addIndices(hash.hashToBuffer(key, funnel));
+    }
+
+    private boolean hasIndices(int[] hashes) {
+        return shards[shardOf(hashes)].hasIndices(hashes);
+    }
+
+    private boolean addIndices(int[] hashes) {
+        return shards[shardOf(hashes)].addIndices(hashes, false);
+    }
+
+    /**
+     * Mixes every index of a key, so the shard doesn't depend on any one slice and
+     * the keys of a shard still spread evenly over all of its bits
+     * @param hashes one index per slice, from the shards' HashFn
+     * @return shard of the key
+     */
+    private int shardOf(int[] hashes) {
+        int h = 0;
+        for(int i : hashes){
+            h = (h + i) * 0x9E3779B9;
+        }
+        h ^= h >>> 16;
+        //the top bits pick the shard, without the bias of a modulo
+        return (int) (((h & 0xFFFFFFFFL) * shards.length) >>> 32);
+    }
+
+    /**
+     * @return number of keys in the filter, the sum of the shards' counts
+     */
+    public long getCount() {
+        long count = 0;
+        for(BloomFilter shard : shards){
+            count += shard.getCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return number of keys in each shard
+     */
+    public int[] getShardCounts() {
+        int[] counts = new int[shards.length];
+        for(int i = 0; i < shards.length; i++){
+            counts[i] = shards[i].getCount();
+        }
+        return counts;
+    }
+
+    /**
+     * @return fraction of its capacity each shard holds, a shard at 1 is full and its adds start failing
+     */
+    public double[] getShardLoads() {
+        double[] loads = new double[shards.length];
+        for(int i = 0; i < shards.length; i++){
+            loads[i] = (double) shards[i].getCount() / shards[i].getCapacity();
+        }
+        return loads;
+    }
+
+    /**
+     * How much fuller the fullest shard is than the average one. Hashing alone keeps it close to 1
+     * for big shards, a skew well above that means many keys hash the same, like the same key
+     * added under different encodings
+     * @return count of the fullest shard / average count, 1 for an empty filter
+     */
+    public double getSkew() {
+        long count = getCount();
+        if(count == 0){
+            return 1;
+        }
+        int max = 0;
+        for(BloomFilter shard : shards){
+            max = Math.max(max, shard.getCount());
+        }
+        return (double) max * shards.length / count;
+    }
+
+    /**
+     * Shards hold different keys, so their estimates add up, see BloomFilter.getEstimatedCount
+     * @return estimated number of keys
+     */
+    public double getEstimatedCount() {
+        double count = 0;
+        for(BloomFilter shard : shards){
+            count += shard.getEstimatedCount();
+        }
+        return count;
+    }
+
+    /**
+     * A key that was never added is looked up in one shard, each as likely as the others
+     * @return estimated chance a key that was never added is found, the average of the shards'
+     */
+    public double getFalsePositiveRate() {
+        double rate = 0;
+        for(BloomFilter shard : shards){
+            rate += shard.getFalsePositiveRate();
+        }
+        return rate / shards.length;
+    }
+
+    /**
+     * @return the shards, for the codecs
+     */
+    List<BloomFilter> shards() {
+        return Collections.unmodifiableList(Arrays.asList(shards));
+    }
+
+    /**
+     * @return number of bits of all the shards
+     */
+    long numBits() {
+        return shards.length * shards[0].numBits();
+    }
+
+    /**
+     * Stringify the filter: "sharded:", the capacity, error rate and number of shards, then each shard
+     * as BloomFilter.toString would, separated by '|'. Python can't read it
+     * @return stringified filter
+     */
+    public String toString(){
+        StringWriter out = new StringWriter();
+        try {
+            writeTo(out);
+        }catch(IOException e) {
+            //a StringWriter doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the same text as toString, one shard at a time. Shards that threads are adding to
+     * while they are written may or may not have the new keys
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(Writer out)
+            throws IOException {
+        Object event = FilterEvents.beginSerialization();
+        out.write("sharded:" + capacity + "," + Double.toString(error_rate) + "," + shards.length + ",");
+        for(int i = 0; i < shards.length; i++){
+            if(i > 0){
+                out.write('|');
+            }
+            shards[i].writeText(out);
+        }
+        FilterEvents.endSerialization(event, ShardedBloomFilter.class, "text", true, numBits());
+    }
+
+    /**
+     * Writes the same text as toString as ASCII bytes. out is flushed but not closed
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.US_ASCII);
+        writeTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * UnStringify a Stringified sharded filter s
+     * @param s
+     * @return ShardedBloomFilter from that string
+     * @throws NoSuchAlgorithmException
+     */
+    public static ShardedBloomFilter fromString(String s)
+            throws NoSuchAlgorithmException {
+        try {
+            return readFrom(new StringReader(s));
+        }catch(IOException e) {
+            //a StringReader doesn't throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a filter written by writeTo or toString, one shard at a time
+     * @param in
+     * @return ShardedBloomFilter from that text
+     * @throws IOException
+     * @throws IllegalArgumentException if the text isn't a sharded filter or its shards have different shapes
+     * @throws NoSuchAlgorithmException
+     */
+    public static ShardedBloomFilter readFrom(Reader in)
+            throws IOException, NoSuchAlgorithmException {
+        Object event = FilterEvents.beginSerialization();
+        TextReader text = new TextReader(in);
+        if(!text.field(':').equals("sharded")){
+            throw new IllegalArgumentException("Not a sharded bloom filter");
+        }
+        int capacity = Integer.valueOf(text.field(','));
+        double error_rate = Double.valueOf(text.field(','));
+        int num_shards = Integer.valueOf(text.field(','));
+        List<BloomFilter> shards = new ArrayList<BloomFilter>();
+        do {
+            BloomFilter shard = BloomFilter.read(text);
+            if(shard.blocked()){
+                throw new IllegalArgumentException("Shards can't be blocked bloom filters");
+            }
+            shards.add(new ConcurrentBloomFilter(shard));
+        } while(text.skip('|'));
+        ShardedBloomFilter filter = fromShards(capacity, error_rate, num_shards, shards);
+        FilterEvents.endSerialization(event, ShardedBloomFilter.class, "text", false, filter.numBits());
+        return filter;
+    }
+
+    /**
+     * Reads a filter written by writeTo(OutputStream)
+     * @param in
+     * @return ShardedBloomFilter from that text
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    public static ShardedBloomFilter readFrom(InputStream in)
+            throws IOException, NoSuchAlgorithmException {
+        return readFrom(new InputStreamReader(in, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @param capacity
+     * @param error_rate
+     * @param num_shards
+     * @param shards ConcurrentBloomFilters
+     * @return filter over shards
+     * @throws IllegalArgumentException if there aren't num_shards shards or they have different shapes
+     */
+    static ShardedBloomFilter fromShards(int capacity, double error_rate, int num_shards, List<BloomFilter> shards) {
+        if(num_shards < 1 || shards.size() != num_shards){
+            throw new IllegalArgumentException("Expected " + num_shards + " shards but found " + shards.size());
+        }
+        DynamicBloomFilter.checkSameShape(shards);
+        return new ShardedBloomFilter(capacity, error_rate, shards.toArray(new BloomFilter[0]));
+    }
+
+    /**
+     * Writes the filter in the binary format of BinaryCodec, see BloomFilter.writeBinary
+     * @param out
+     * @throws IOException
+     */
+    public void writeBinary(OutputStream out)
+            throws IOException {
+        new BinaryCodec().write(this, out);
+    }
+
+    /**
+     * Reads a filter written by writeBinary
+     * @param in
+     * @return ShardedBloomFilter with the same shards
+     * @throws IOException if the data is corrupt
+     * @throws NoSuchAlgorithmException
+     */
+    public static ShardedBloomFilter readBinary(InputStream in)
+            throws IOException, NoSuchAlgorithmException {
+        return new BinaryCodec().readShardedBloomFilter(in);
+    }
+
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    /**
+     * @return capacity of each shard, see the class comment
+     */
+    public int getShardCapacity() {
+        return shards[0].getCapacity();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public double getErrorRate() {
+        return error_rate;
+    }
+
+    public HashStrategy getStrategy() {
+        return shards[0].getStrategy();
+    }
+}
@@ -0,0 +1,131 @@
+package jbloom.core;
+
+import jbloom.util.Funnel;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes FrozenBloomFilters to reader threads, for filters rebuilt offline and swapped in whole.
+ * Readers get the current snapshot with a single volatile read and never wait, a swap is a single
+ * atomic write: a lookup that started on the old snapshot finishes on it, the ones after the swap
+ * see the new one. The old snapshot is garbage collected once no reader holds it.
+ *
+ * To run several lookups against the same snapshot, get() it once and look up in that
+ */
+public class SnapshotHolder {
+    private final AtomicReference<FrozenBloomFilter> current;
+    private final AtomicLong swaps = new AtomicLong();
+
+    /**
+     * @param initial first snapshot, not null
+     */
+    public SnapshotHolder(FrozenBloomFilter initial) {
+        if(initial == null){
+            throw new IllegalArgumentException("A snapshot holder needs a snapshot");
+        }
+        this.current = new AtomicReference<FrozenBloomFilter>(initial);
+    }
+
+    /**
+     * @return the current snapshot
+     */
+    public FrozenBloomFilter get() {
+        return current.get();
+    }
+
+    /**
+     * Lookup in the current snapshot, see BloomFilter.has(CharSequence)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(CharSequence key) {
+        return current.get().has(key);
+    }
+
+    /**
+     * Lookup in the current snapshot, see BloomFilter.has(byte[], int, int)
+     * @param key
+     * @param off
+     * @param len
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(byte[] key, int off, int len) {
+        return current.get().has(key, off, len);
+    }
+
+    /**
+     * Lookup in the current snapshot, see BloomFilter.has(ByteBuffer)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(ByteBuffer key) {
+        return current.get().has(key);
+    }
+
+    /**
+     * Lookup in the current snapshot, see BloomFilter.has(long)
+     * @param key
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public boolean has(long key) {
+        return current.get().has(key);
+    }
+
+    /**
+     * Lookup in the current snapshot, see BloomFilter.has(Object, Funnel)
+     * @param key
+     * @param funnel
+     * @return True if in the filter, False if not in the filter with error_rate < the max fro the filter
+     */
+    public <T> boolean has(T key, Funnel<? super T> funnel) {
+        return current.get().has(key, funnel);
+    }
+
+    /**
+     * Makes snapshot the current one
+     * @param snapshot not null
+     * @return the snapshot it replaced
+     */
+    public FrozenBloomFilter swap(FrozenBloomFilter snapshot) {
+        if(snapshot == null){
+            throw new IllegalArgumentException("Can't swap in a null snapshot");
+        }
+        FrozenBloomFilter old = current.getAndSet(snapshot);
+        swaps.incrementAndGet();
+        return old;
+    }
+
+    /**
+     * Loads a new snapshot and swaps it in. Readers keep using the current one while it loads,
+     * and if loading fails it stays current
+     * @param loader reads or builds the new snapshot, for example from a file with BloomFilter.readBinary
+     * @return the snapshot it replaced
+     * @throws Exception whatever loader threw
+     */
+    public FrozenBloomFilter reload(Callable<? extends FrozenBloomFilter> loader)
+            throws Exception {
+        return swap(loader.call());
+    }
+
+    /**
+     * Swaps in the filter a string holds, see BloomFilter.fromString
+     * @param s
+     * @return the snapshot it replaced
+     * @throws NoSuchAlgorithmException
+     */
+    public FrozenBloomFilter reload(String s)
+            throws NoSuchAlgorithmException {
+        return swap(FrozenBloomFilter.fromString(s));
+    }
+
+    /**
+     * @return number of snapshots swapped in since the holder was created
+     */
+    public long getSwaps() {
+        return swaps.get();
+    }
+}
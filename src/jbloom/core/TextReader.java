@@ -0,0 +1,143 @@
+package jbloom.core;
+
+import jbloom.util.BitArray;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the stringified filter formats piece by piece from a Reader.
+ * It keeps its own small buffer, so the Reader doesn't have to be buffered, and it can look
+ * one character ahead, so a filter nested in a bigger string (the bloom filters of a
+ * DynamicBloomFilter) is read without consuming whatever follows it
+ */
+class TextReader {
+    private static final int EOF = -1;
+
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos, limit;
+
+    TextReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * @return the next character without consuming it, or -1 at the end of the input
+     * @throws IOException
+     */
+    int peek()
+            throws IOException {
+        if(pos == limit){
+            limit = in.read(buf, 0, buf.length);
+            pos = 0;
+            if(limit <= 0){
+                limit = 0;
+                return EOF;
+            }
+        }
+        return buf[pos];
+    }
+
+    /**
+     * @return the next character, or -1 at the end of the input
+     * @throws IOException
+     */
+    int read()
+            throws IOException {
+        int c = peek();
+        if(c != EOF){
+            pos++;
+        }
+        return c;
+    }
+
+    /**
+     * Consumes c if it is the next character
+     * @param c
+     * @return true if it was
+     * @throws IOException
+     */
+    boolean skip(char c)
+            throws IOException {
+        if(peek() == c){
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads a field up to its separator, consuming the separator
+     * @param separator
+     * @return the field without the separator
+     * @throws IOException
+     * @throws IllegalArgumentException if the input ends first
+     */
+    String field(char separator)
+            throws IOException {
+        StringBuilder field = new StringBuilder();
+        int c;
+        while((c = read()) != separator){
+            if(c == EOF){
+                throw new IllegalArgumentException("Expected '" + separator + "' after \"" + field + "\"");
+            }
+            field.append((char) c);
+        }
+        return field.toString();
+    }
+
+    /**
+     * Reads letters and digits up to the first character that is neither, which is left unread
+     * @return the word, possibly empty
+     * @throws IOException
+     */
+    String word()
+            throws IOException {
+        StringBuilder word = new StringBuilder();
+        int c;
+        while((c = peek()) != EOF && Character.isLetterOrDigit(c)){
+            word.append((char) c);
+            pos++;
+        }
+        return word.toString();
+    }
+
+    /**
+     * Reads hex digits up to the first character that isn't one, ORing the bytes they spell
+     * into bits in the little endian order of BitArray. Bytes past the end of bits are skipped
+     * @param bits
+     * @throws IOException
+     * @throws IllegalArgumentException if there is an odd number of digits
+     */
+    void hex(BitArray bits)
+            throws IOException {
+        long max_bytes = (long) bits.numWords() * 8;
+        long i = 0, word = 0;
+        int high;
+        while((high = Character.digit(peek(), 16)) != EOF){
+            pos++;
+            int low = Character.digit(read(), 16);
+            if(low == EOF){
+                throw new IllegalArgumentException("Odd number of hex digits in bloom filter bits");
+            }
+            word |= (long) (high << 4 | low) << (8 * (i & 7));
+            i++;
+            //whole words go in at once
+            if((i & 7) == 0){
+                orWord(bits, i - 1, word, max_bytes);
+                word = 0;
+            }
+        }
+        if((i & 7) != 0){
+            orWord(bits, i - 1, word, max_bytes);
+        }
+    }
+
+    private static void orWord(BitArray bits, long byte_index, long word, long max_bytes) {
+        if(byte_index < max_bytes){
+            int w = (int) (byte_index >>> 3);
+            bits.setWord(w, bits.getWord(w) | word);
+        }
+    }
+}
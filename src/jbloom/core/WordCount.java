@@ -0,0 +1,72 @@
+package jbloom.core;
+
+import jbloom.util.BitArray;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the set bits of a range of a bit array, or of the OR of two bit arrays without building it.
+ * Like WordMerge the words are split in halves down to ranges of LEAF_WORDS that run as fork-join
+ * tasks, so counting a multi gigabyte filter takes a single pass at the memory speed of every core
+ */
+class WordCount extends RecursiveTask<Long> {
+    private static final long serialVersionUID = 1L;
+    private static final int LEAF_WORDS = 1 << 16; // 512KB of each array per task
+
+    private final BitArray bits, or;
+    private final long from, to;
+
+    private WordCount(BitArray bits, BitArray or, long from, long to) {
+        this.bits = bits;
+        this.or = or;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @param bits
+     * @param or null, or bits of the same size to OR with bits before counting
+     * @param from first bit
+     * @param to bit after the last
+     * @return number of set bits in [from, to) of bits | or
+     */
+    static long count(BitArray bits, BitArray or, long from, long to) {
+        if(from >= to){
+            return 0;
+        }
+        WordCount task = new WordCount(bits, or, from, to);
+        if(to - from <= 64L * LEAF_WORDS){
+            //not worth handing to another thread
+            return task.compute();
+        }
+        return ForkJoinPool.commonPool().invoke(task);
+    }
+
+    @Override
+    protected Long compute() {
+        if(to - from > 64L * LEAF_WORDS){
+            //split on a word boundary so that no word is shared
+            long middle = ((from + to) >>> 1) & ~63L;
+            WordCount right = new WordCount(bits, or, middle, to);
+            right.fork();
+            return new WordCount(bits, or, from, middle).compute() + right.join();
+        }
+        int first = (int) (from >>> 6), last = (int) ((to - 1) >>> 6);
+        long count = 0;
+        for(int i = first; i <= last; i++){
+            long word = bits.getWord(i);
+            if(or != null){
+                word |= or.getWord(i);
+            }
+            if(i == first){
+                word &= -1L << from;
+            }
+            if(i == last){
+                word &= -1L >>> (63 - ((to - 1) & 63));
+            }
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+}
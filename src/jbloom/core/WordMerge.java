@@ -0,0 +1,84 @@
+package jbloom.core;
+
+import jbloom.util.BitArray;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ORs or ANDs the words of many bit arrays into one, in place.
+ * The words are split in halves, recursively, down to ranges of LEAF_WORDS that run as fork-join
+ * tasks, so a multi gigabyte merge uses every core of the common pool. Each range goes through
+ * the sources a block at a time, so every destination word is read and written once whatever
+ * the number of sources, and each source is read front to back
+ */
+class WordMerge extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int LEAF_WORDS = 1 << 16; // 512KB of each source per task
+    private static final int BLOCK_WORDS = 512;
+
+    private final BitArray dest;
+    private final BitArray[] sources;
+    private final boolean union;
+    private final int from, to;
+
+    private WordMerge(BitArray dest, BitArray[] sources, boolean union, int from, int to) {
+        this.dest = dest;
+        this.sources = sources;
+        this.union = union;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * dest = dest | sources[0] | sources[1] ... or dest = dest & sources[0] & sources[1] ...
+     * @param dest
+     * @param sources each with at least as many words as dest
+     * @param union OR if true, AND if false
+     */
+    static void merge(BitArray dest, BitArray[] sources, boolean union) {
+        if(sources.length == 0){
+            return;
+        }
+        WordMerge task = new WordMerge(dest, sources, union, 0, dest.numWords());
+        if(dest.numWords() <= LEAF_WORDS){
+            //not worth handing to another thread
+            task.compute();
+        }
+        else{
+            ForkJoinPool.commonPool().invoke(task);
+        }
+    }
+
+    @Override
+    protected void compute() {
+        if(to - from > LEAF_WORDS){
+            int middle = (from + to) >>> 1;
+            invokeAll(new WordMerge(dest, sources, union, from, middle),
+                    new WordMerge(dest, sources, union, middle, to));
+            return;
+        }
+        long[] block = new long[Math.min(BLOCK_WORDS, to - from)];
+        for(int start = from; start < to; start += BLOCK_WORDS){
+            int n = Math.min(BLOCK_WORDS, to - start);
+            for(int i = 0; i < n; i++){
+                block[i] = dest.getWord(start + i);
+            }
+            for(BitArray source : sources){
+                if(union){
+                    for(int i = 0; i < n; i++){
+                        block[i] |= source.getWord(start + i);
+                    }
+                }
+                else{
+                    for(int i = 0; i < n; i++){
+                        block[i] &= source.getWord(start + i);
+                    }
+                }
+            }
+            for(int i = 0; i < n; i++){
+                dest.setWord(start + i, block[i]);
+            }
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package jbloom.examples;
 
 import jbloom.core.BloomFilter;
+import jbloom.core.MappedBloomFilter;
+import jbloom.util.HashStrategy;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 
 /**
@@ -9,13 +14,14 @@ import java.security.NoSuchAlgorithmException;
  */
 public class BloomFilterExample {
     public static void main(String[] args)
-            throws NoSuchAlgorithmException, CloneNotSupportedException, IndexOutOfBoundsException {
+            throws NoSuchAlgorithmException, CloneNotSupportedException, IndexOutOfBoundsException, IOException {
 
         //instantiates a bloom filter with capacity = 1000, error_rate = 5%
         int capacity = 1000;
         BloomFilter bf = new BloomFilter(capacity, 0.05);
 
-        //add a String x to the bloom filter.  Currently only strings can be added
+        //add a String x to the bloom filter. There are also overloads for longs, byte arrays,
+        //ByteBuffers, CharSequences and any object with a Funnel
         bf.add("x");
 
         //bf.has("x") returns true
@@ -51,5 +57,23 @@ public class BloomFilterExample {
         for(int i = 0; i < capacity; i++){
             assert(bf.has(Integer.valueOf(i).toString()));
         }
+
+        //if the filter never has to be read by python, MURMUR3 hashing is much faster than the
+        //default pybloom compatible digests. The strategy is kept in the string form
+        BloomFilter fast = new BloomFilter(capacity, 0.05, HashStrategy.MURMUR3);
+        fast.add("x");
+        assert(BloomFilter.fromString(fast.toString()).has("x"));
+
+        //very big filters can keep their bits in a memory mapped file instead of on the heap.
+        //Opening the file again later is near instant, pages are read in as they are used
+        File file = File.createTempFile("example", ".bf");
+        file.delete();
+        Path path = file.toPath();
+        MappedBloomFilter mapped = MappedBloomFilter.create(path, bf1);
+        mapped.add("x");
+        mapped.close(); //writes everything to disk
+        mapped = MappedBloomFilter.open(path);
+        assert(mapped.has("x"));
+        file.delete();
     }
 }
@@ -16,7 +16,8 @@ public class DynamicBloomFilterExample {
         int base_capacity = 10;
         DynamicBloomFilter bf = new DynamicBloomFilter(base_capacity, capacity, 0.05);
 
-        //add a String x to the bloom filter.  Currently only strings can be added
+        //add a String x to the bloom filter. There are also overloads for longs, byte arrays,
+        //ByteBuffers, CharSequences and any object with a Funnel
         bf.add("x");
 
         //bf.has("x") returns true
@@ -0,0 +1,83 @@
+package jbloom.metrics;
+
+/**
+ * Java Flight Recorder events for the rare things a filter does: starting a new bloom filter,
+ * running out of capacity and being written or read. They are recorded whenever a recording
+ * has the jbloom events enabled, which they are by default, with no listener needed.
+ * On a JVM without JFR (java 8 before 8u262) every method does nothing.
+ * This is for jbloom.core, it isn't meant to be called from anywhere else
+ */
+public final class FilterEvents {
+    private static final Recorder RECORDER = recorder();
+
+    private FilterEvents() {
+    }
+
+    /**
+     * JfrEvents is compiled on its own, against the jdk.jfr of the JDK building jbloom, so the rest of
+     * jbloom builds against the plain java 8 API. It is only loaded, by name, once jdk.jfr is known to be there
+     * @return the JFR events, null without JFR
+     */
+    private static Recorder recorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Recorder) Class.forName("jbloom.metrics.JfrEvents").getDeclaredConstructor().newInstance();
+        }catch(ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * What JfrEvents records, see the methods of FilterEvents
+     */
+    abstract static class Recorder {
+        abstract Object beginSerialization();
+
+        abstract void endSerialization(Object event, Class<?> filter, String format, boolean write, long bits);
+
+        abstract void filterCreated(int num_filters, int capacity);
+
+        abstract void capacityExceeded(Class<?> filter, int capacity);
+    }
+
+    /**
+     * Starts timing a serialization
+     * @return the event to pass to endSerialization, null without JFR
+     */
+    public static Object beginSerialization() {
+        return RECORDER != null ? RECORDER.beginSerialization() : null;
+    }
+
+    /**
+     * @param event from beginSerialization
+     * @param filter class of the filter
+     * @param format "text" or "binary"
+     * @param write true for a write, false for a read
+     * @param bits number of bits of the filter
+     */
+    public static void endSerialization(Object event, Class<?> filter, String format, boolean write, long bits) {
+        if(event != null){
+            RECORDER.endSerialization(event, filter, format, write, bits);
+        }
+    }
+
+    /**
+     * @param num_filters number of bloom filters the dynamic bloom filter has now
+     * @param capacity of the new bloom filter
+     */
+    public static void filterCreated(int num_filters, int capacity) {
+        if(RECORDER != null){
+            RECORDER.filterCreated(num_filters, capacity);
+        }
+    }
+
+    /**
+     * @param filter class of the filter
+     * @param capacity
+     */
+    public static void capacityExceeded(Class<?> filter, int capacity) {
+        if(RECORDER != null){
+            RECORDER.capacityExceeded(filter, capacity);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package jbloom.metrics;
+
+/**
+ * Gets told what a filter does, for metrics. Set one with BloomFilter.setListener or
+ * DynamicBloomFilter.setListener; a filter without one only pays a null check per operation.
+ * A filter shared between threads calls its listener from all of them, so implementations
+ * must be thread safe, and they run on the caller's thread so they must be quick.
+ * Every method does nothing by default, see FilterMetrics for one that counts everything
+ */
+public interface FilterListener {
+
+    /**
+     * Asked before every has and add, timing a key takes two calls to System.nanoTime
+     * so it is only worth doing for a sample of them
+     * @return true to time this operation
+     */
+    default boolean sample() {
+        return false;
+    }
+
+    /**
+     * A key was looked up
+     * @param found
+     * @param hash_nanos time spent hashing the key, -1 if the lookup wasn't sampled
+     * @param probe_nanos time spent reading its bits, -1 if the lookup wasn't sampled
+     */
+    default void onHas(boolean found, long hash_nanos, long probe_nanos) {
+    }
+
+    /**
+     * A key was added
+     * @param found true if it was already in
+     * @param hash_nanos time spent hashing the key, -1 if the add wasn't sampled
+     * @param probe_nanos time spent reading and setting its bits, -1 if the add wasn't sampled
+     */
+    default void onAdd(boolean found, long hash_nanos, long probe_nanos) {
+    }
+
+    /**
+     * A batch of keys was looked up or added with hasAll or addAll
+     * @param add
+     * @param keys number of keys in the batch
+     * @param found number of them that were (already) in
+     */
+    default void onBatch(boolean add, int keys, int found) {
+    }
+
+    /**
+     * A DynamicBloomFilter looked for a key in some of its bloom filters
+     * @param scanned number of bloom filters it probed, newest first, before it found the key or ran out
+     */
+    default void onScan(int scanned) {
+    }
+
+    /**
+     * A DynamicBloomFilter started a new bloom filter
+     * @param num_filters number of bloom filters it has now
+     */
+    default void onFilterCreated(int num_filters) {
+    }
+
+    /**
+     * An add failed with an IndexOutOfBoundsException because the filter is full
+     * @param capacity
+     */
+    default void onCapacityExceeded(int capacity) {
+    }
+}
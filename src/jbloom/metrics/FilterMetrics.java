@@ -0,0 +1,174 @@
+package jbloom.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A FilterListener that counts everything a filter does. The counters are LongAdders, striped
+ * over cells so threads don't fight over one cache line, and one operation in sample_interval
+ * (picked at random, so a periodic access pattern can't hide from it) is timed into the hash
+ * and probe histograms. One FilterMetrics can be shared by many filters to get their totals
+ */
+public class FilterMetrics implements FilterListener {
+    public static final int DEFAULT_SAMPLE_INTERVAL = 1024;
+
+    private final int sample_interval;
+    private final LongAdder has = new LongAdder(), has_found = new LongAdder();
+    private final LongAdder add = new LongAdder(), add_found = new LongAdder();
+    private final LongAdder scans = new LongAdder(), scanned = new LongAdder();
+    private final LongAdder filters_created = new LongAdder(), capacity_exceeded = new LongAdder();
+    private final Histogram hash_latency = new Histogram(), probe_latency = new Histogram();
+
+    /**
+     * FilterMetrics timing one operation in DEFAULT_SAMPLE_INTERVAL
+     */
+    public FilterMetrics() {
+        this(DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param sample_interval time one operation in this many, 0 to time none
+     */
+    public FilterMetrics(int sample_interval) {
+        assert(sample_interval >= 0);
+        this.sample_interval = sample_interval;
+    }
+
+    @Override
+    public boolean sample() {
+        return sample_interval > 0 && ThreadLocalRandom.current().nextInt(sample_interval) == 0;
+    }
+
+    @Override
+    public void onHas(boolean found, long hash_nanos, long probe_nanos) {
+        has.increment();
+        if(found){
+            has_found.increment();
+        }
+        hash_latency.record(hash_nanos);
+        probe_latency.record(probe_nanos);
+    }
+
+    @Override
+    public void onAdd(boolean found, long hash_nanos, long probe_nanos) {
+        add.increment();
+        if(found){
+            add_found.increment();
+        }
+        hash_latency.record(hash_nanos);
+        probe_latency.record(probe_nanos);
+    }
+
+    @Override
+    public void onBatch(boolean add, int keys, int found) {
+        (add ? this.add : has).add(keys);
+        (add ? add_found : has_found).add(found);
+    }
+
+    @Override
+    public void onScan(int scanned) {
+        scans.increment();
+        this.scanned.add(scanned);
+    }
+
+    @Override
+    public void onFilterCreated(int num_filters) {
+        filters_created.increment();
+    }
+
+    @Override
+    public void onCapacityExceeded(int capacity) {
+        capacity_exceeded.increment();
+    }
+
+    /**
+     * @return number of keys looked up, one at a time or in batches
+     */
+    public long getHasCount() {
+        return has.sum();
+    }
+
+    /**
+     * @return number of lookups that found the key
+     */
+    public long getHasFoundCount() {
+        return has_found.sum();
+    }
+
+    /**
+     * @return share of the lookups that found the key, 0 before any lookup
+     */
+    public double getPositiveRatio() {
+        long has = getHasCount();
+        return has == 0 ? 0 : (double) getHasFoundCount() / has;
+    }
+
+    /**
+     * @return number of keys added, one at a time or in batches
+     */
+    public long getAddCount() {
+        return add.sum();
+    }
+
+    /**
+     * @return number of adds of keys that were already in
+     */
+    public long getAddFoundCount() {
+        return add_found.sum();
+    }
+
+    /**
+     * @return average number of bloom filters a DynamicBloomFilter probes for a key, 0 before any
+     */
+    public double getMeanScanned() {
+        long scans = this.scans.sum();
+        return scans == 0 ? 0 : (double) scanned.sum() / scans;
+    }
+
+    public long getFiltersCreated() {
+        return filters_created.sum();
+    }
+
+    public long getCapacityExceeded() {
+        return capacity_exceeded.sum();
+    }
+
+    /**
+     * @return time spent hashing keys, for the sampled operations
+     */
+    public Histogram getHashLatency() {
+        return hash_latency;
+    }
+
+    /**
+     * @return time spent reading and setting bits, for the sampled operations
+     */
+    public Histogram getProbeLatency() {
+        return probe_latency;
+    }
+
+    /**
+     * Clears every counter and histogram. Operations running meanwhile may or may not be kept
+     */
+    public void reset() {
+        has.reset();
+        has_found.reset();
+        add.reset();
+        add_found.reset();
+        scans.reset();
+        scanned.reset();
+        filters_created.reset();
+        capacity_exceeded.reset();
+        hash_latency.reset();
+        probe_latency.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "has=" + getHasCount() + " positive=" + getPositiveRatio() + " add=" + getAddCount()
+                + " add_found=" + getAddFoundCount() + " scanned=" + getMeanScanned()
+                + " filters_created=" + getFiltersCreated() + " capacity_exceeded=" + getCapacityExceeded()
+                + " hash_p50=" + hash_latency.getPercentile(50) + " probe_p50=" + probe_latency.getPercentile(50)
+                + " probe_p99=" + probe_latency.getPercentile(99);
+    }
+}
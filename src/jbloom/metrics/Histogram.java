@@ -0,0 +1,79 @@
+package jbloom.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of nanosecond latencies in power of two buckets: bucket b counts values in [2^(b-1), 2^b),
+ * bucket 0 counts 0. Buckets are LongAdders, so threads recording at the same time don't contend,
+ * and a percentile is only known to within a factor of 2, which is plenty to tell a cache hit
+ * from a miss or a page fault
+ */
+public class Histogram {
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    public Histogram() {
+        for(int b = 0; b < BUCKETS; b++){
+            buckets[b] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos a latency, negative values are ignored
+     */
+    public void record(long nanos) {
+        if(nanos >= 0){
+            buckets[BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+        }
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for(LongAdder bucket : buckets){
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return count of each bucket, bucket b holds values below 2^b
+     */
+    public long[] getBuckets() {
+        long[] counts = new long[BUCKETS];
+        for(int b = 0; b < BUCKETS; b++){
+            counts[b] = buckets[b].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket the percentile falls in, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = getBuckets();
+        long total = 0;
+        for(long count : counts){
+            total += count;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for(int b = 0; b < BUCKETS; b++){
+            seen += counts[b];
+            if(seen >= rank && counts[b] > 0){
+                return b == BUCKETS - 1 ? Long.MAX_VALUE : 1L << b;
+            }
+        }
+        return 0;
+    }
+
+    public void reset() {
+        for(LongAdder bucket : buckets){
+            bucket.reset();
+        }
+    }
+}
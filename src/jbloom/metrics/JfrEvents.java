@@ -0,0 +1,95 @@
+package jbloom.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JFR events behind FilterEvents, in a class of their own so that nothing loads jdk.jfr
+ * on a JVM that doesn't have it. It is the only class compiled against jdk.jfr (see the compile-jfr
+ * execution in the pom), nothing refers to it by type, FilterEvents loads it by name
+ */
+final class JfrEvents extends FilterEvents.Recorder {
+
+    JfrEvents() {
+    }
+
+    @Name("jbloom.Serialization")
+    @Label("Filter Serialization")
+    @Category("jbloom")
+    @StackTrace(false)
+    static final class SerializationEvent extends Event {
+        @Label("Filter")
+        Class<?> filter;
+        @Label("Format")
+        String format;
+        @Label("Write")
+        boolean write;
+        @Label("Bits")
+        @DataAmount(DataAmount.BITS)
+        long bits;
+    }
+
+    @Name("jbloom.FilterCreated")
+    @Label("Bloom Filter Started")
+    @Category("jbloom")
+    static final class FilterCreatedEvent extends Event {
+        @Label("Bloom Filters")
+        int num_filters;
+        @Label("Capacity")
+        int capacity;
+    }
+
+    @Name("jbloom.CapacityExceeded")
+    @Label("Filter Capacity Exceeded")
+    @Category("jbloom")
+    static final class CapacityExceededEvent extends Event {
+        @Label("Filter")
+        Class<?> filter;
+        @Label("Capacity")
+        int capacity;
+    }
+
+    @Override
+    Object beginSerialization() {
+        SerializationEvent event = new SerializationEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endSerialization(Object begun, Class<?> filter, String format, boolean write, long bits) {
+        SerializationEvent event = (SerializationEvent) begun;
+        event.end();
+        if(event.shouldCommit()){
+            event.filter = filter;
+            event.format = format;
+            event.write = write;
+            event.bits = bits;
+            event.commit();
+        }
+    }
+
+    @Override
+    void filterCreated(int num_filters, int capacity) {
+        FilterCreatedEvent event = new FilterCreatedEvent();
+        if(event.isEnabled()){
+            event.num_filters = num_filters;
+            event.capacity = capacity;
+            event.commit();
+        }
+    }
+
+    @Override
+    void capacityExceeded(Class<?> filter, int capacity) {
+        CapacityExceededEvent event = new CapacityExceededEvent();
+        if(event.isEnabled()){
+            event.filter = filter;
+            event.capacity = capacity;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package jbloom.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe BitArray over an AtomicLongArray.
+ * Reads are a single volatile load, so they are wait-free. Setting a bit is a compare and swap
+ * on its word, retried only if another thread changed the same word in between, and skipped
+ * entirely when the bit is already set
+ */
+public class AtomicBitArray implements BitArray {
+    private final AtomicLongArray words;
+    private final long size;
+
+    /**
+     * @param size number of bits
+     */
+    public AtomicBitArray(long size) {
+        this.size = size;
+        this.words = new AtomicLongArray((int) ((size + 63) >>> 6));
+    }
+
+    @Override
+    public boolean get(long index) {
+        return (words.get((int) (index >>> 6)) & (1L << index)) != 0;
+    }
+
+    @Override
+    public boolean set(long index) {
+        int i = (int) (index >>> 6);
+        long mask = 1L << index;
+        long word = words.get(i);
+        while((word & mask) == 0){
+            if(words.compareAndSet(i, word, word | mask)){
+                return false;
+            }
+            word = words.get(i);
+        }
+        return true;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public int numWords() {
+        return words.length();
+    }
+
+    @Override
+    public long getWord(int word_index) {
+        return words.get(word_index);
+    }
+
+    @Override
+    public void setWord(int word_index, long word) {
+        words.set(word_index, word);
+    }
+
+    /**
+     * Each word is ORed in with a compare and swap, so bits other threads set meanwhile aren't lost
+     * @param other with at least as many words as this
+     */
+    @Override
+    public void or(BitArray other) {
+        for(int i = 0; i < words.length(); i++){
+            long from = other.getWord(i);
+            long word = words.get(i);
+            while((word | from) != word && !words.compareAndSet(i, word, word | from)){
+                word = words.get(i);
+            }
+        }
+    }
+
+    /**
+     * See or
+     * @param other with at least as many words as this
+     */
+    @Override
+    public void and(BitArray other) {
+        for(int i = 0; i < words.length(); i++){
+            long from = other.getWord(i);
+            long word = words.get(i);
+            while((word & from) != word && !words.compareAndSet(i, word, word & from)){
+                word = words.get(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package jbloom.util;
+
+/**
+ * The bits behind a bloom filter, stored as 64 bit words.
+ * Bit i is bit (i % 64) of word (i / 64), the same little endian order as java.util.BitSet
+ * and python's bitarray(endian='little'), so the words can be written out byte by byte
+ * in the order pybloom expects
+ */
+public interface BitArray {
+    /**
+     * @param index
+     * @return true if the bit is set
+     */
+    boolean get(long index);
+
+    /**
+     * Sets a bit
+     * @param index
+     * @return true if the bit was already set
+     */
+    boolean set(long index);
+
+    /**
+     * @return number of bits
+     */
+    long size();
+
+    /**
+     * @return number of 64 bit words, ceil(size() / 64)
+     */
+    int numWords();
+
+    /**
+     * @param word_index
+     * @return the 64 bits starting at bit 64 * word_index
+     */
+    long getWord(int word_index);
+
+    /**
+     * Replaces a whole word
+     * @param word_index
+     * @param word
+     */
+    void setWord(int word_index, long word);
+
+    /**
+     * ORs other into this, in place: this = this | other
+     * @param other with at least as many words as this
+     */
+    default void or(BitArray other) {
+        for(int i = 0; i < numWords(); i++){
+            setWord(i, getWord(i) | other.getWord(i));
+        }
+    }
+
+    /**
+     * ANDs other into this, in place: this = this & other
+     * @param other with at least as many words as this
+     */
+    default void and(BitArray other) {
+        for(int i = 0; i < numWords(); i++){
+            setWord(i, getWord(i) & other.getWord(i));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package jbloom.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * BitArray over ByteBuffers, so the bits can live outside the java heap:
+ * in direct memory, or in a memory mapped file whose pages the OS loads on first touch.
+ * Words are stored little endian, which makes the bytes the same as the payload of a
+ * stringified filter. A single buffer can't hold more than 2GB, so the words are split
+ * over 1GB segments. Not thread safe
+ */
+public class BufferBitArray implements BitArray {
+    private static final int SEGMENT_SHIFT = 27; // 2^27 words = 1GB per segment
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    private final ByteBuffer[] segments;
+    private final long size;
+    private final int num_words;
+
+    /**
+     * @param segments buffers of 2^27 words each (the last one can be shorter), starting at position 0
+     * @param size number of bits
+     */
+    public BufferBitArray(ByteBuffer[] segments, long size) {
+        this.segments = segments;
+        this.size = size;
+        this.num_words = words(size);
+        for(ByteBuffer segment : segments){
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Allocates a zeroed BufferBitArray in direct memory
+     * @param size number of bits
+     * @return BufferBitArray
+     */
+    public static BufferBitArray allocateDirect(long size) {
+        ByteBuffer[] segments = new ByteBuffer[numSegments(size)];
+        for(int i = 0; i < segments.length; i++){
+            segments[i] = ByteBuffer.allocateDirect(segmentBytes(size, i));
+        }
+        return new BufferBitArray(segments, size);
+    }
+
+    /**
+     * Maps size bits of a file, starting at byte offset. The file grows if it is too short,
+     * and bits in the grown part read as clear
+     * @param channel a channel opened for reading, and for writing unless mode is READ_ONLY
+     * @param mode
+     * @param offset
+     * @param size number of bits
+     * @return BufferBitArray
+     * @throws IOException
+     */
+    public static BufferBitArray map(FileChannel channel, FileChannel.MapMode mode, long offset, long size)
+            throws IOException {
+        ByteBuffer[] segments = new ByteBuffer[numSegments(size)];
+        long position = offset;
+        for(int i = 0; i < segments.length; i++){
+            int bytes = segmentBytes(size, i);
+            segments[i] = channel.map(mode, position, bytes);
+            position += bytes;
+        }
+        return new BufferBitArray(segments, size);
+    }
+
+    private static int words(long size) {
+        return (int) ((size + 63) >>> 6);
+    }
+
+    private static int numSegments(long size) {
+        return Math.max(1, (int) (((long) words(size) + SEGMENT_MASK) >>> SEGMENT_SHIFT));
+    }
+
+    private static int segmentBytes(long size, int segment) {
+        long first_word = (long) segment << SEGMENT_SHIFT;
+        return (int) (Math.min(words(size) - first_word, 1L << SEGMENT_SHIFT) * 8);
+    }
+
+    /**
+     * Writes changes to mapped segments through to the file (msync).
+     * Does nothing for direct memory
+     */
+    public void force() {
+        for(ByteBuffer segment : segments){
+            if(segment instanceof MappedByteBuffer){
+                ((MappedByteBuffer) segment).force();
+            }
+        }
+    }
+
+    @Override
+    public boolean get(long index) {
+        return (getWord((int) (index >>> 6)) & (1L << index)) != 0;
+    }
+
+    @Override
+    public boolean set(long index) {
+        int i = (int) (index >>> 6);
+        long word = getWord(i);
+        long mask = 1L << index;
+        if((word & mask) != 0){
+            return true;
+        }
+        setWord(i, word | mask);
+        return false;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public int numWords() {
+        return num_words;
+    }
+
+    @Override
+    public long getWord(int word_index) {
+        return segments[word_index >>> SEGMENT_SHIFT].getLong((word_index & SEGMENT_MASK) << 3);
+    }
+
+    @Override
+    public void setWord(int word_index, long word) {
+        segments[word_index >>> SEGMENT_SHIFT].putLong((word_index & SEGMENT_MASK) << 3, word);
+    }
+}
@@ -0,0 +1,16 @@
+package jbloom.util;
+
+/**
+ * Describes how to turn an object into the bytes a bloom filter hashes, so domain objects
+ * can be added and looked up without formatting them into strings first.
+ * Two objects that should count as the same key have to write the same bytes
+ * @param <T> the type of object this funnel accepts
+ */
+public interface Funnel<T> {
+    /**
+     * Writes the identifying bytes of from into the sink
+     * @param from
+     * @param into
+     */
+    void funnel(T from, KeySink into);
+}
@@ -2,19 +2,28 @@ package jbloom.util;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.charset.Charset;
+import java.security.DigestException;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Every Bloom Filter has a series of hash functions associated with it.
- * HashFn implements that hash and allows the BloomFilter to carry it around with it
- * Unfortunately a current limitation of java is 32 bit array indexing, so it won't be quite as
- * robust as the python version
+ * HashFn implements that hash and allows the BloomFilter to carry it around with it.
+ * The indices are per slice, so they are ints however big the whole filter is: the filter
+ * adds the long offset of each slice itself
+ *
+ * Apart from hash(String), hashing doesn't allocate: every thread gets its own digests and
+ * buffers the first time it uses a HashFn, and the indices go to a caller supplied array
+ * or to the thread's buffer (see hashToBuffer)
  */
 public class HashFn {
-    private int num_salts, fmt_length, num_slices, num_bits;
+    protected final int num_slices, num_bits;
+    private final HashStrategy strategy;
+    private final ThreadLocal<Scratch> scratch;
+    private int num_salts, fmt_length, chunk_size;
     private char fmt_code;
-    private MessageDigest[] salts;
+    private String hash_type;
+    private byte[][] salts;
 
     /**
      * This is a HashFn container that generates the hash functions
@@ -25,13 +34,26 @@ public class HashFn {
      */
     public HashFn(int num_slices, int num_bits)
             throws java.security.NoSuchAlgorithmException{
-        String hash_type;
-        int chunk_size, total_hash_bits;
+        this(num_slices, num_bits, false);
+    }
 
-        this.num_slices = num_slices;
-        this.num_bits = num_bits;
+    /**
+     * The salted digest HashFn, as python hashes or as jbloom hashed before it matched python.
+     * Before 1.1 the salt numbers were packed big endian and 32 bit chunks only started at
+     * Short.MAX_VALUE bits, which gives other indices as soon as a key needs more than one
+     * salted digest or a slice has exactly 32767 bits
+     * @param num_slices
+     * @param num_bits
+     * @param legacy hash like jbloom before 1.1 (HashStrategy.LEGACY_DIGEST)
+     * @throws NoSuchAlgorithmException
+     */
+    HashFn(int num_slices, int num_bits, boolean legacy)
+            throws java.security.NoSuchAlgorithmException{
+        this(legacy ? HashStrategy.LEGACY_DIGEST : HashStrategy.DIGEST, num_slices, num_bits);
+        int total_hash_bits;
 
-        if(num_bits >= Short.MAX_VALUE){
+        //python switches to 32 bit chunks at 1 << 15 bits
+        if(num_bits >= (legacy ? Short.MAX_VALUE : 1 << 15)){
             fmt_code = 'I';
             chunk_size = 4;
         }
@@ -57,17 +79,36 @@ public class HashFn {
         }
         fmt_length = MessageDigest.getInstance(hash_type).getDigestLength() / chunk_size;
         num_salts = (int) Math.ceil((double) num_slices / (double) fmt_length);
-        salts = new MessageDigest[num_salts];
+        // python salts every digest with the digest of the salt number, so the salt is
+        // just a prefix of the key that gets hashed every time
+        salts = new byte[num_salts][];
         for(int i = 0; i < num_salts; i++){
-            ByteBuffer struct = ByteBuffer.allocate(4);
+            //struct.pack('I', i) uses the native byte order, which is little endian on x86 and ARM
+            ByteBuffer struct = ByteBuffer.allocate(4).order(legacy ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
             struct.putInt(i);
-            salts[i] = MessageDigest.getInstance(hash_type);
-            MessageDigest temp = MessageDigest.getInstance(hash_type);
-            temp.update(struct.array());
-            salts[i].update(temp.digest());
+            salts[i] = MessageDigest.getInstance(hash_type).digest(struct.array());
         }
     }
 
+    /**
+     * Constructor for HashFn implementations of the other hash strategies,
+     * which don't need the salted digests
+     * @param strategy
+     * @param num_slices
+     * @param num_bits
+     */
+    protected HashFn(HashStrategy strategy, int num_slices, int num_bits) {
+        this.strategy = strategy;
+        this.num_slices = num_slices;
+        this.num_bits = num_bits;
+        this.scratch = new ThreadLocal<Scratch>() {
+            @Override
+            protected Scratch initialValue() {
+                return newScratch();
+            }
+        };
+    }
+
     /**
      * Hashes a key to perform a lookup in the bloom filter
      * @param key
@@ -76,39 +117,260 @@ public class HashFn {
     public int[] hash(String key)
             throws java.lang.CloneNotSupportedException{
         int[] return_val = new int[num_slices];
+        hash(key, return_val);
+        return return_val;
+    }
+
+    /**
+     * Hashes a key into a caller supplied array, without allocating.
+     * Gives the same indices as hash(key.toString())
+     * @param key
+     * @param out receives 1 hash for each of the segments of the bloom filter, needs num_slices entries
+     */
+    public void hash(CharSequence key, int[] out) {
+        Scratch s = scratch.get();
+        s.key.reset();
+        s.key.putString(key);
+        hashBytes(s.key.bytes, 0, s.key.length, out, s);
+    }
+
+    /**
+     * Hashes the bytes key[off, off + len) into a caller supplied array.
+     * A String key hashes like its UTF-8 bytes
+     * @param key
+     * @param off
+     * @param len
+     * @param out receives 1 hash for each of the segments of the bloom filter, needs num_slices entries
+     */
+    public void hash(byte[] key, int off, int len, int[] out) {
+        hashBytes(key, off, len, out, scratch.get());
+    }
+
+    /**
+     * Hashes the remaining bytes of key into a caller supplied array.
+     * The bytes are read in place, also from direct buffers, and the position is left unchanged
+     * @param key
+     * @param out receives 1 hash for each of the segments of the bloom filter, needs num_slices entries
+     */
+    public void hash(ByteBuffer key, int[] out) {
+        hashBuffer(key, out, scratch.get());
+    }
+
+    /**
+     * Hashes a number into a caller supplied array.
+     * The number hashes like its decimal string, which is what python does with non string keys,
+     * so hash(42L, out) gives the same indices as hash("42")
+     * @param key
+     * @param out receives 1 hash for each of the segments of the bloom filter, needs num_slices entries
+     */
+    public void hash(long key, int[] out) {
+        Scratch s = scratch.get();
+        s.key.reset();
+        s.key.putDecimal(key);
+        hashBytes(s.key.bytes, 0, s.key.length, out, s);
+    }
+
+    /**
+     * Hashes the bytes funnel writes for key into a caller supplied array
+     * @param key
+     * @param funnel
+     * @param out receives 1 hash for each of the segments of the bloom filter, needs num_slices entries
+     */
+    public <T> void hash(T key, Funnel<? super T> funnel, int[] out) {
+        Scratch s = scratch.get();
+        s.key.reset();
+        funnel.funnel(key, s.key);
+        hashBytes(s.key.bytes, 0, s.key.length, out, s);
+    }
+
+    /**
+     * Hashes a key into the calling thread's index buffer, without allocating.
+     * The returned array belongs to this HashFn and the calling thread, and is overwritten
+     * by the thread's next hashToBuffer call on this HashFn
+     * @param key
+     * @return 1 hash for each of the segments of the bloom filter
+     */
+    public int[] hashToBuffer(CharSequence key) {
+        Scratch s = scratch.get();
+        s.key.reset();
+        s.key.putString(key);
+        hashBytes(s.key.bytes, 0, s.key.length, s.indices, s);
+        return s.indices;
+    }
+
+    /**
+     * hash(byte[], int, int, int[]) into the calling thread's index buffer, see hashToBuffer(CharSequence)
+     * @param key
+     * @param off
+     * @param len
+     * @return 1 hash for each of the segments of the bloom filter
+     */
+    public int[] hashToBuffer(byte[] key, int off, int len) {
+        Scratch s = scratch.get();
+        hashBytes(key, off, len, s.indices, s);
+        return s.indices;
+    }
+
+    /**
+     * hash(ByteBuffer, int[]) into the calling thread's index buffer, see hashToBuffer(CharSequence)
+     * @param key
+     * @return 1 hash for each of the segments of the bloom filter
+     */
+    public int[] hashToBuffer(ByteBuffer key) {
+        Scratch s = scratch.get();
+        hashBuffer(key, s.indices, s);
+        return s.indices;
+    }
+
+    /**
+     * hash(long, int[]) into the calling thread's index buffer, see hashToBuffer(CharSequence)
+     * @param key
+     * @return 1 hash for each of the segments of the bloom filter
+     */
+    public int[] hashToBuffer(long key) {
+        Scratch s = scratch.get();
+        s.key.reset();
+        s.key.putDecimal(key);
+        hashBytes(s.key.bytes, 0, s.key.length, s.indices, s);
+        return s.indices;
+    }
+
+    /**
+     * hash(T, Funnel, int[]) into the calling thread's index buffer, see hashToBuffer(CharSequence)
+     * @param key
+     * @param funnel
+     * @return 1 hash for each of the segments of the bloom filter
+     */
+    public <T> int[] hashToBuffer(T key, Funnel<? super T> funnel) {
+        Scratch s = scratch.get();
+        s.key.reset();
+        funnel.funnel(key, s.key);
+        hashBytes(s.key.bytes, 0, s.key.length, s.indices, s);
+        return s.indices;
+    }
+
+    /**
+     * Turns the bytes of a key into one index per slice.
+     * HashFns of other strategies override this, the default is the pybloom salted digest scheme
+     * @param key
+     * @param off
+     * @param len
+     * @param out receives 1 hash for each of the segments of the bloom filter
+     * @param s the calling thread's scratch space
+     */
+    protected void hashBytes(byte[] key, int off, int len, int[] out, Scratch s) {
         int counter = 0;
         for(int i = 0; i < num_salts; i++){
-            MessageDigest hash = (MessageDigest) salts[i].clone();
-            hash.update(key.getBytes(Charset.forName("UTF-8")));
+            MessageDigest hash = s.digests[i];
+            hash.update(salts[i]);
+            hash.update(key, off, len);
+            counter = unpack(hash, s.digest, out, counter);
+        }
+    }
+
+    /**
+     * Turns the remaining bytes of a key buffer into one index per slice, leaving its position unchanged.
+     * HashFns of other strategies override this, the default is the pybloom salted digest scheme
+     * @param key
+     * @param out receives 1 hash for each of the segments of the bloom filter
+     * @param s the calling thread's scratch space
+     */
+    protected void hashBuffer(ByteBuffer key, int[] out, Scratch s) {
+        int counter = 0;
+        int position = key.position();
+        for(int i = 0; i < num_salts; i++){
+            MessageDigest hash = s.digests[i];
+            hash.update(salts[i]);
+            hash.update(key);
+            key.position(position);
+            counter = unpack(hash, s.digest, out, counter);
+        }
+    }
+
+    /**
+     * Finishes one salted digest and splits it into indices
+     * @param hash
+     * @param digest buffer for the digest
+     * @param out
+     * @param counter number of indices already in out
+     * @return number of indices in out afterwards
+     */
+    private int unpack(MessageDigest hash, byte[] digest, int[] out, int counter) {
+        try {
+            hash.digest(digest, 0, digest.length);
+        }catch(DigestException e) {
+            //the buffer is sized from the digest length, so this can't happen
+            throw new IllegalStateException(e);
+        }
+        for(int j = 0; j < fmt_length; j++){
+            //the digest is read as little endian unsigned chunks, like python's struct.unpack
             if(fmt_code == 'I'){
-                ByteBuffer buffer = ByteBuffer.allocate(4*fmt_length);
-                buffer.order(ByteOrder.LITTLE_ENDIAN);
-                buffer.put(hash.digest());
-                buffer.position(0);
-                for(int j = 0; j < fmt_length; j++){
-                    long item = Integer.toUnsignedLong(buffer.getInt());
-                    return_val[counter] = (int) item % num_bits;
-                    counter++;
-                    if(counter == num_slices){
-                        return return_val;
-                    }
-                }
+                int p = 4 * j;
+                long item = (digest[p] & 0xffL)
+                        | (digest[p + 1] & 0xffL) << 8
+                        | (digest[p + 2] & 0xffL) << 16
+                        | (digest[p + 3] & 0xffL) << 24;
+                out[counter] = (int) (item % num_bits);
+            }
+            else{
+                int p = 2 * j;
+                int item = (digest[p] & 0xff) | (digest[p + 1] & 0xff) << 8;
+                out[counter] = item % num_bits;
+            }
+            counter++;
+            if(counter == num_slices){
+                break;
             }
-            else if(fmt_code == 'H'){
-                ByteBuffer buffer = ByteBuffer.allocate(2*fmt_length);
-                buffer.order(ByteOrder.LITTLE_ENDIAN);
-                buffer.put(hash.digest());
-                buffer.position(0);
-                for(int j = 0; j < fmt_length; j++){
-                    int item = Short.toUnsignedInt(buffer.getShort());
-                    return_val[counter] = item % num_bits;
-                    counter++;
-                    if(counter == num_slices){
-                        return return_val;
-                    }
+        }
+        return counter;
+    }
+
+    /**
+     * Creates the per thread state, called once per thread that uses this HashFn
+     * @return Scratch
+     */
+    private Scratch newScratch() {
+        Scratch s = new Scratch(num_slices);
+        if(num_salts > 0){
+            s.digests = new MessageDigest[num_salts];
+            try {
+                for(int i = 0; i < num_salts; i++){
+                    s.digests[i] = MessageDigest.getInstance(hash_type);
                 }
+            }catch(NoSuchAlgorithmException e) {
+                //the constructor already got an instance of this algorithm
+                throw new IllegalStateException(e);
             }
+            s.digest = new byte[fmt_length * chunk_size];
+        }
+        return s;
+    }
+
+    /**
+     * @return the strategy these hashes are computed with
+     */
+    public HashStrategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Buffers reused by one thread across all its hash calls on one HashFn
+     */
+    protected static final class Scratch {
+        /**
+         * the bytes of keys that aren't already bytes
+         */
+        final KeySink key = new KeySink();
+        final int[] indices;
+        /**
+         * the 128 bit hash for the MURMUR3 strategy
+         */
+        final long[] h128 = new long[2];
+        MessageDigest[] digests;
+        byte[] digest;
+
+        Scratch(int num_slices) {
+            indices = new int[num_slices];
         }
-        return return_val;
     }
 }
@@ -0,0 +1,78 @@
+package jbloom.util;
+
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The ways a key can be turned into one index per slice of a bloom filter.
+ * The strategy is part of a filter's identity: two filters built with different strategies set
+ * different bits for the same key, so they can't be compared, unioned or intersected
+ */
+public enum HashStrategy {
+    /**
+     * Salted MD5/SHA digests, bit for bit the same indices as the dynamic-pybloom library.
+     * This is the default, and the only strategy python can read
+     */
+    DIGEST("digest"),
+
+    /**
+     * One 128 bit MurmurHash3 per key, split into two 64 bit halves that are combined
+     * to give every slice index (Kirsch-Mitzenmacher double hashing).
+     * Much faster than DIGEST, but only readable by jbloom
+     */
+    MURMUR3("murmur3"),
+
+    /**
+     * Salted digests as jbloom computed them before 1.1, before DIGEST was checked against python:
+     * the salt numbers were packed big endian and 32 bit chunks started at Short.MAX_VALUE bits.
+     * Only for reading filters written by those versions until they are rebuilt,
+     * see BloomFilter.fromString(String, HashStrategy)
+     */
+    LEGACY_DIGEST("legacydigest");
+
+    private final String name;
+
+    HashStrategy(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Creates the HashFn for this strategy
+     * @param num_slices number of indices produced per key
+     * @param num_bits bits per slice, every index is in [0, num_bits)
+     * @return HashFn
+     * @throws NoSuchAlgorithmException (for the digest strategy, in practice this should never be thrown)
+     */
+    public HashFn newHashFn(int num_slices, int num_bits)
+            throws NoSuchAlgorithmException {
+        switch(this){
+            case MURMUR3:
+                return new Murmur3HashFn(num_slices, num_bits);
+            case LEGACY_DIGEST:
+                return new HashFn(num_slices, num_bits, true);
+            default:
+                return new HashFn(num_slices, num_bits);
+        }
+    }
+
+    /**
+     * @return the name used for this strategy in stringified filters
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Looks up a strategy by the name it is stringified with
+     * @param name
+     * @return the strategy with that name
+     * @throws IllegalArgumentException if no strategy has that name
+     */
+    public static HashStrategy forName(String name) {
+        for(HashStrategy strategy : values()){
+            if(strategy.name.equals(name)){
+                return strategy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown hash strategy: " + name);
+    }
+}
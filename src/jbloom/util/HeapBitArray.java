@@ -0,0 +1,85 @@
+package jbloom.util;
+
+/**
+ * BitArray over a plain long[], allocated up front so setting a bit never has to grow it.
+ * Not thread safe
+ */
+public class HeapBitArray implements BitArray {
+    private final long[] words;
+    private final long size;
+
+    /**
+     * @param size number of bits
+     */
+    public HeapBitArray(long size) {
+        this.size = size;
+        this.words = new long[(int) ((size + 63) >>> 6)];
+    }
+
+    @Override
+    public boolean get(long index) {
+        return (words[(int) (index >>> 6)] & (1L << index)) != 0;
+    }
+
+    @Override
+    public boolean set(long index) {
+        int i = (int) (index >>> 6);
+        long word = words[i];
+        long mask = 1L << index;
+        words[i] = word | mask;
+        return (word & mask) != 0;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public int numWords() {
+        return words.length;
+    }
+
+    @Override
+    public long getWord(int word_index) {
+        return words[word_index];
+    }
+
+    @Override
+    public void setWord(int word_index, long word) {
+        words[word_index] = word;
+    }
+
+    /**
+     * Between two HeapBitArrays this is a plain loop over the arrays, which the JIT unrolls
+     * and turns into SIMD instructions, so it runs at memory speed
+     * @param other with at least as many words as this
+     */
+    @Override
+    public void or(BitArray other) {
+        if(!(other instanceof HeapBitArray)){
+            BitArray.super.or(other);
+            return;
+        }
+        long[] from = ((HeapBitArray) other).words;
+        for(int i = 0; i < words.length; i++){
+            words[i] |= from[i];
+        }
+    }
+
+    /**
+     * See or
+     * @param other with at least as many words as this
+     */
+    @Override
+    public void and(BitArray other) {
+        if(!(other instanceof HeapBitArray)){
+            BitArray.super.and(other);
+            return;
+        }
+        long[] from = ((HeapBitArray) other).words;
+        for(int i = 0; i < words.length; i++){
+            words[i] &= from[i];
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package jbloom.util;
+
+/**
+ * The bytes of one key while a Funnel writes it.
+ * Numbers are written big endian like java.io.DataOutput, strings as UTF-8.
+ * A HashFn reuses one sink per thread, so a funnel must not keep a reference to it
+ * or hash other keys with the same HashFn while it is writing
+ */
+public final class KeySink {
+    byte[] bytes = new byte[64];
+    int length;
+
+    KeySink() {
+    }
+
+    /**
+     * Empties the sink for the next key
+     */
+    void reset() {
+        length = 0;
+    }
+
+    private void ensure(int extra) {
+        if(bytes.length - length < extra){
+            byte[] grown = new byte[Math.max(length + extra, 2 * bytes.length)];
+            System.arraycopy(bytes, 0, grown, 0, length);
+            bytes = grown;
+        }
+    }
+
+    public KeySink putByte(byte b) {
+        ensure(1);
+        bytes[length++] = b;
+        return this;
+    }
+
+    public KeySink putBytes(byte[] b) {
+        return putBytes(b, 0, b.length);
+    }
+
+    public KeySink putBytes(byte[] b, int off, int len) {
+        ensure(len);
+        System.arraycopy(b, off, bytes, length, len);
+        length += len;
+        return this;
+    }
+
+    public KeySink putBoolean(boolean b) {
+        return putByte(b ? (byte) 1 : (byte) 0);
+    }
+
+    public KeySink putInt(int v) {
+        ensure(4);
+        bytes[length++] = (byte) (v >>> 24);
+        bytes[length++] = (byte) (v >>> 16);
+        bytes[length++] = (byte) (v >>> 8);
+        bytes[length++] = (byte) v;
+        return this;
+    }
+
+    public KeySink putLong(long v) {
+        putInt((int) (v >>> 32));
+        return putInt((int) v);
+    }
+
+    public KeySink putDouble(double v) {
+        return putLong(Double.doubleToLongBits(v));
+    }
+
+    /**
+     * Appends s encoded the way String.getBytes does for UTF-8,
+     * including replacing unpaired surrogates with '?'
+     * @param s
+     * @return this sink
+     */
+    public KeySink putString(CharSequence s) {
+        int n = s.length();
+        ensure(3 * n);
+        byte[] b = bytes;
+        int p = length;
+        for(int i = 0; i < n; i++){
+            char c = s.charAt(i);
+            if(c < 0x80){
+                b[p++] = (byte) c;
+            }
+            else if(c < 0x800){
+                b[p++] = (byte) (0xc0 | (c >> 6));
+                b[p++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if(Character.isSurrogate(c)){
+                char low;
+                if(Character.isHighSurrogate(c) && i + 1 < n
+                        && Character.isLowSurrogate(low = s.charAt(i + 1))){
+                    int cp = Character.toCodePoint(c, low);
+                    b[p++] = (byte) (0xf0 | (cp >> 18));
+                    b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    b[p++] = (byte) (0x80 | (cp & 0x3f));
+                    i++;
+                }
+                else{
+                    b[p++] = (byte) '?';
+                }
+            }
+            else{
+                b[p++] = (byte) (0xe0 | (c >> 12));
+                b[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[p++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        length = p;
+        return this;
+    }
+
+    /**
+     * Appends v as decimal digits, the same bytes as putString(Long.toString(v))
+     * @param v
+     * @return this sink
+     */
+    KeySink putDecimal(long v) {
+        ensure(20);
+        if(v == Long.MIN_VALUE){
+            return putString("-9223372036854775808");
+        }
+        if(v < 0){
+            bytes[length++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for(long t = v; t >= 10; t /= 10){
+            digits++;
+        }
+        int p = length + digits;
+        length = p;
+        do{
+            bytes[--p] = (byte) ('0' + (v % 10));
+            v /= 10;
+        }while(v != 0);
+        return this;
+    }
+}
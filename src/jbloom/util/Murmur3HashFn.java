@@ -0,0 +1,186 @@
+package jbloom.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * HashFn for the MURMUR3 strategy.
+ * The key is hashed once with the 128 bit x64 variant of MurmurHash3, and slice i gets
+ * (h1 + i * h2) mod num_bits. Kirsch and Mitzenmacher showed that deriving the indices this way
+ * keeps the false positive rate of k independent hash functions, so the cost of a lookup
+ * no longer grows with the number of slices
+ */
+public class Murmur3HashFn extends HashFn {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * @param num_slices
+     * @param num_bits
+     */
+    public Murmur3HashFn(int num_slices, int num_bits) {
+        super(HashStrategy.MURMUR3, num_slices, num_bits);
+    }
+
+    @Override
+    protected void hashBytes(byte[] key, int off, int len, int[] out, Scratch s) {
+        hash128(key, off, len, 0, s.h128);
+        split(s.h128, out);
+    }
+
+    @Override
+    protected void hashBuffer(ByteBuffer key, int[] out, Scratch s) {
+        if(key.hasArray()){
+            hash128(key.array(), key.arrayOffset() + key.position(), key.remaining(), 0, s.h128);
+        }
+        else{
+            hash128(key, key.position(), key.remaining(), 0, s.h128);
+        }
+        split(s.h128, out);
+    }
+
+    /**
+     * Double hashing, slice i gets (h1 + i * h2) mod num_bits
+     * @param h the two halves of the 128 bit hash
+     * @param out
+     */
+    private void split(long[] h, int[] out) {
+        long combined = h[0];
+        for(int i = 0; i < num_slices; i++){
+            out[i] = (int) ((combined & Long.MAX_VALUE) % num_bits);
+            combined += h[1];
+        }
+    }
+
+    /**
+     * MurmurHash3_x64_128 of data[off, off + len)
+     * @param data
+     * @param off
+     * @param len
+     * @param seed
+     * @param out receives the two 64 bit halves of the hash
+     */
+    public static void hash128(byte[] data, int off, int len, long seed, long[] out) {
+        long h1 = seed, h2 = seed;
+        int nblocks = len >>> 4;
+        for(int i = 0; i < nblocks; i++){
+            int p = off + (i << 4);
+            h1 ^= mixK1(getLongLE(data, p));
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(getLongLE(data, p + 8));
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0, k2 = 0;
+        int tail = off + (nblocks << 4), rem = len & 15;
+        for(int i = rem - 1; i >= 8; i--){
+            k2 = (k2 << 8) | (data[tail + i] & 0xffL);
+        }
+        for(int i = Math.min(rem, 8) - 1; i >= 0; i--){
+            k1 = (k1 << 8) | (data[tail + i] & 0xffL);
+        }
+        finish(h1, h2, k1, k2, rem, len, out);
+    }
+
+    /**
+     * MurmurHash3_x64_128 of the bytes at [off, off + len) of a buffer, read with absolute gets
+     * so the buffer's position and byte order are left alone
+     * @param data
+     * @param off
+     * @param len
+     * @param seed
+     * @param out receives the two 64 bit halves of the hash
+     */
+    public static void hash128(ByteBuffer data, int off, int len, long seed, long[] out) {
+        boolean swap = data.order() == ByteOrder.BIG_ENDIAN;
+        long h1 = seed, h2 = seed;
+        int nblocks = len >>> 4;
+        for(int i = 0; i < nblocks; i++){
+            int p = off + (i << 4);
+            long k1 = data.getLong(p), k2 = data.getLong(p + 8);
+            if(swap){
+                k1 = Long.reverseBytes(k1);
+                k2 = Long.reverseBytes(k2);
+            }
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0, k2 = 0;
+        int tail = off + (nblocks << 4), rem = len & 15;
+        for(int i = rem - 1; i >= 8; i--){
+            k2 = (k2 << 8) | (data.get(tail + i) & 0xffL);
+        }
+        for(int i = Math.min(rem, 8) - 1; i >= 0; i--){
+            k1 = (k1 << 8) | (data.get(tail + i) & 0xffL);
+        }
+        finish(h1, h2, k1, k2, rem, len, out);
+    }
+
+    /**
+     * Mixes in the last len % 16 bytes, given as two little endian words, and finalizes the hash
+     */
+    private static void finish(long h1, long h2, long k1, long k2, int rem, int len, long[] out) {
+        if(rem > 8){
+            h2 ^= mixK2(k2);
+        }
+        if(rem > 0){
+            h1 ^= mixK1(k1);
+        }
+
+        h1 ^= len;
+        h2 ^= len;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        out[0] = h1;
+        out[1] = h2;
+    }
+
+    private static long getLongLE(byte[] data, int p) {
+        return (data[p] & 0xffL)
+                | (data[p + 1] & 0xffL) << 8
+                | (data[p + 2] & 0xffL) << 16
+                | (data[p + 3] & 0xffL) << 24
+                | (data[p + 4] & 0xffL) << 32
+                | (data[p + 5] & 0xffL) << 40
+                | (data[p + 6] & 0xffL) << 48
+                | (data[p + 7] & 0xffL) << 56;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,106 @@
+package jbloom.util;
+
+/**
+ * BitArray over pages of long[], for filters with more bits than fit comfortably in one array.
+ * A single long[] can't go past 2^31 words, and long before that it becomes one huge object
+ * the garbage collector has to find contiguous room for. Pages of 2^21 words (16MB) avoid both,
+ * at the cost of one more array lookup per bit. Not thread safe
+ */
+public class PagedBitArray implements BitArray {
+    private static final int PAGE_SHIFT = 21; // 2^21 words = 16MB per page
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+
+    private final long[][] pages;
+    private final long size;
+    private final int num_words;
+
+    /**
+     * @param size number of bits
+     */
+    public PagedBitArray(long size) {
+        long words = (size + 63) >>> 6;
+        if(words > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Too many bits for a bit array: " + size);
+        }
+        this.size = size;
+        this.num_words = (int) words;
+        this.pages = new long[(int) ((words + PAGE_MASK) >>> PAGE_SHIFT)][];
+        for(int i = 0; i < pages.length; i++){
+            pages[i] = new long[(int) Math.min(words - ((long) i << PAGE_SHIFT), 1L << PAGE_SHIFT)];
+        }
+    }
+
+    @Override
+    public boolean get(long index) {
+        int i = (int) (index >>> 6);
+        return (pages[i >>> PAGE_SHIFT][i & PAGE_MASK] & (1L << index)) != 0;
+    }
+
+    @Override
+    public boolean set(long index) {
+        int i = (int) (index >>> 6);
+        long[] page = pages[i >>> PAGE_SHIFT];
+        long word = page[i & PAGE_MASK];
+        long mask = 1L << index;
+        page[i & PAGE_MASK] = word | mask;
+        return (word & mask) != 0;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public int numWords() {
+        return num_words;
+    }
+
+    @Override
+    public long getWord(int word_index) {
+        return pages[word_index >>> PAGE_SHIFT][word_index & PAGE_MASK];
+    }
+
+    @Override
+    public void setWord(int word_index, long word) {
+        pages[word_index >>> PAGE_SHIFT][word_index & PAGE_MASK] = word;
+    }
+
+    /**
+     * Between two PagedBitArrays of the same size this loops over the pages, see HeapBitArray.or
+     * @param other with at least as many words as this
+     */
+    @Override
+    public void or(BitArray other) {
+        if(!(other instanceof PagedBitArray) || ((PagedBitArray) other).num_words != num_words){
+            BitArray.super.or(other);
+            return;
+        }
+        long[][] from = ((PagedBitArray) other).pages;
+        for(int p = 0; p < pages.length; p++){
+            long[] page = pages[p], from_page = from[p];
+            for(int i = 0; i < page.length; i++){
+                page[i] |= from_page[i];
+            }
+        }
+    }
+
+    /**
+     * See or
+     * @param other with at least as many words as this
+     */
+    @Override
+    public void and(BitArray other) {
+        if(!(other instanceof PagedBitArray) || ((PagedBitArray) other).num_words != num_words){
+            BitArray.super.and(other);
+            return;
+        }
+        long[][] from = ((PagedBitArray) other).pages;
+        for(int p = 0; p < pages.length; p++){
+            long[] page = pages[p], from_page = from[p];
+            for(int i = 0; i < page.length; i++){
+                page[i] &= from_page[i];
+            }
+        }
+    }
+}
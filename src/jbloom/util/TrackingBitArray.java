@@ -0,0 +1,152 @@
+package jbloom.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A BitArray that remembers which of its words gained bits, for shipping only the changed words
+ * of a filter (see BloomFilter.exportDelta). It wraps the filter's own bits, and keeps one dirty
+ * mark per word: 1 bit per 64, so tracking a filter takes 1/64 more memory.
+ *
+ * Setting a bit that is already set costs nothing more than in the wrapped array, a new bit costs
+ * a read of its mark and, the first time its word changes, a compare and swap. Bits are set before
+ * their word is marked, so whoever drains the marks and then reads the words sees every bit set
+ * before the drain. Only bits that are set are tracked: and() and setWord can clear bits, which
+ * nothing downstream of the marks hears about. Thread safe if the wrapped array is
+ */
+public class TrackingBitArray implements BitArray {
+    private final BitArray bits;
+    private final AtomicLongArray dirty;
+
+    /**
+     * @param bits to wrap, from now on they should only be changed through this
+     */
+    public TrackingBitArray(BitArray bits) {
+        this.bits = bits;
+        this.dirty = new AtomicLongArray((bits.numWords() + 63) >>> 6);
+    }
+
+    /**
+     * @return the wrapped array
+     */
+    public BitArray unwrap() {
+        return bits;
+    }
+
+    private void mark(int word_index) {
+        int i = word_index >>> 6;
+        long mask = 1L << word_index;
+        long marks = dirty.get(i);
+        while((marks & mask) == 0 && !dirty.compareAndSet(i, marks, marks | mask)){
+            marks = dirty.get(i);
+        }
+    }
+
+    /**
+     * Clears every mark and returns the words that were marked, in order. A word that gains bits
+     * while this runs is in the result, in the next one, or in both
+     * @return indices of the words that gained bits since the last drain or clear
+     */
+    public int[] drain() {
+        int n = 0;
+        int[] words = new int[64];
+        for(int i = 0; i < dirty.length(); i++){
+            if(dirty.get(i) == 0){
+                continue;
+            }
+            long marks = dirty.getAndSet(i, 0);
+            while(marks != 0){
+                if(n == words.length){
+                    words = Arrays.copyOf(words, 2 * n);
+                }
+                words[n++] = (i << 6) + Long.numberOfTrailingZeros(marks);
+                marks &= marks - 1;
+            }
+        }
+        return Arrays.copyOf(words, n);
+    }
+
+    /**
+     * Clears every mark
+     */
+    public void clear() {
+        for(int i = 0; i < dirty.length(); i++){
+            dirty.set(i, 0);
+        }
+    }
+
+    @Override
+    public boolean get(long index) {
+        return bits.get(index);
+    }
+
+    @Override
+    public boolean set(long index) {
+        if(bits.set(index)){
+            return true;
+        }
+        mark((int) (index >>> 6));
+        return false;
+    }
+
+    @Override
+    public long size() {
+        return bits.size();
+    }
+
+    @Override
+    public int numWords() {
+        return bits.numWords();
+    }
+
+    @Override
+    public long getWord(int word_index) {
+        return bits.getWord(word_index);
+    }
+
+    @Override
+    public void setWord(int word_index, long word) {
+        long old = bits.getWord(word_index);
+        bits.setWord(word_index, word);
+        if((word & ~old) != 0){
+            mark(word_index);
+        }
+    }
+
+    /**
+     * ORs the wrapped arrays, so the fast paths of HeapBitArray and PagedBitArray still apply,
+     * after a pass to find the words that are going to gain bits
+     * @param other with at least as many words as this
+     */
+    @Override
+    public void or(BitArray other) {
+        if(other instanceof TrackingBitArray){
+            other = ((TrackingBitArray) other).bits;
+        }
+        int num_words = bits.numWords();
+        long[] gaining = new long[dirty.length()];
+        for(int i = 0; i < num_words; i++){
+            if((other.getWord(i) & ~bits.getWord(i)) != 0){
+                gaining[i >>> 6] |= 1L << i;
+            }
+        }
+        bits.or(other);
+        for(int i = 0; i < gaining.length; i++){
+            for(long marks = gaining[i]; marks != 0; marks &= marks - 1){
+                mark((i << 6) + Long.numberOfTrailingZeros(marks));
+            }
+        }
+    }
+
+    /**
+     * ANDing only clears bits, so nothing is marked
+     * @param other with at least as many words as this
+     */
+    @Override
+    public void and(BitArray other) {
+        if(other instanceof TrackingBitArray){
+            other = ((TrackingBitArray) other).bits;
+        }
+        bits.and(other);
+    }
+}
@@ -0,0 +1,205 @@
+package jbloom.test;
+
+import jbloom.core.BatchingFilter;
+import jbloom.core.BloomFilter;
+import jbloom.core.DynamicBloomFilter;
+import jbloom.util.HashStrategy;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for BatchingFilter
+ */
+public class BatchingFilterTest extends TestCase {
+
+    @Test
+    public void testHas() throws Exception {
+        final BloomFilter bf = new BloomFilter(100000, 0.01, HashStrategy.MURMUR3);
+        for(int i = 0; i < 50000; i++){
+            bf.add(i);
+            bf.add(Integer.toString(i));
+        }
+        final BatchingFilter batching = new BatchingFilter(bf, 64, 1, TimeUnit.MILLISECONDS, 1024, null);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> workers = new ArrayList<Thread>();
+        for(int t = 0; t < 8; t++){
+            final int first = t * 12500;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        List<CompletableFuture<Boolean>> results = new ArrayList<CompletableFuture<Boolean>>();
+                        for(int i = first; i < first + 12500; i++){
+                            results.add(batching.has(i));
+                        }
+                        for(int i = first; i < first + 12500; i++){
+                            if(results.get(i - first).get() != bf.has(i)){
+                                throw new AssertionError("Wrong answer for " + i);
+                            }
+                        }
+                    }catch(Throwable e) {
+                        synchronized(errors){
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for(Thread worker : workers){
+            worker.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(100000, batching.getKeys());
+        //the threads' keys were answered together
+        assertTrue(batching.getBatches() < 100000 / 2);
+
+        byte[] key = "123".getBytes(StandardCharsets.UTF_8);
+        assertTrue(batching.has("123").get());
+        assertEquals(bf.has(key, 0, 3), (boolean) batching.has(key, 0, 3).get());
+        assertEquals(bf.has(ByteBuffer.wrap(key)), (boolean) batching.has(ByteBuffer.wrap(key)).get());
+        batching.close();
+        assertEquals(0, batching.getPending());
+    }
+
+    @Test
+    public void testAdd() throws Exception {
+        DynamicBloomFilter dbf = new DynamicBloomFilter(1000, 100000, 0.01);
+        BatchingFilter batching = new BatchingFilter(dbf);
+        List<CompletableFuture<Boolean>> added = new ArrayList<CompletableFuture<Boolean>>();
+        for(int i = 0; i < 5000; i++){
+            added.add(batching.add(i));
+        }
+        //a lookup queued after an add sees it, even in the same batch
+        assertTrue(batching.has(4999).get());
+        int already = 0;
+        for(CompletableFuture<Boolean> result : added){
+            if(result.get()){
+                already++;
+            }
+        }
+        assertTrue(already < 50);
+        for(int i = 0; i < 5000; i++){
+            assertTrue(dbf.has(i));
+        }
+        assertTrue(batching.add(0).get());
+
+        //a full filter fails the adds it couldn't take
+        BatchingFilter full = new BatchingFilter(new BloomFilter(10, 0.01));
+        List<CompletableFuture<Boolean>> results = new ArrayList<CompletableFuture<Boolean>>();
+        for(int i = 0; i < 1000; i++){
+            results.add(full.add(i));
+        }
+        try {
+            results.get(999).get();
+            fail();
+        }catch(ExecutionException e) {
+            assertTrue(e.getCause() instanceof IndexOutOfBoundsException);
+        }
+        batching.close();
+        full.close();
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        //hold the batch thread up until the queue is full
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await();
+                }catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        BloomFilter bf = new BloomFilter(1000, 0.01);
+        bf.add("a");
+        final BatchingFilter batching = new BatchingFilter(bf, 2, 0, TimeUnit.NANOSECONDS, 4, executor);
+        List<CompletableFuture<Boolean>> results = new ArrayList<CompletableFuture<Boolean>>();
+        for(int i = 0; i < 4; i++){
+            results.add(batching.has("a"));
+        }
+        assertEquals(4, batching.getPending());
+        final CountDownLatch submitted = new CountDownLatch(1);
+        Thread blocked = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                batching.has("b");
+                submitted.countDown();
+            }
+        });
+        blocked.start();
+        assertFalse(submitted.await(100, TimeUnit.MILLISECONDS));
+
+        gate.countDown();
+        assertTrue(submitted.await(10, TimeUnit.SECONDS));
+        for(CompletableFuture<Boolean> result : results){
+            assertTrue(result.get());
+        }
+        batching.close();
+        try {
+            batching.has("a").get();
+            fail();
+        }catch(ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testCloseWhileSubmitting() throws Exception {
+        for(int round = 0; round < 20; round++){
+            final BatchingFilter batching = new BatchingFilter(new BloomFilter(100000, 0.01), 16, 0,
+                    TimeUnit.NANOSECONDS, 8, null);
+            final List<CompletableFuture<Boolean>> results = new ArrayList<CompletableFuture<Boolean>>();
+            final CountDownLatch started = new CountDownLatch(4);
+            List<Thread> workers = new ArrayList<Thread>();
+            for(int t = 0; t < 4; t++){
+                Thread worker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        for(int i = 0; i < 2000; i++){
+                            CompletableFuture<Boolean> result = batching.add(i);
+                            synchronized(results){
+                                results.add(result);
+                            }
+                        }
+                    }
+                });
+                worker.start();
+                workers.add(worker);
+            }
+            started.await();
+            batching.close();
+            //whatever close raced with was either answered or rejected, nothing is left hanging
+            for(Thread worker : workers){
+                worker.join();
+            }
+            assertEquals(0, batching.getPending());
+            for(CompletableFuture<Boolean> result : results){
+                try {
+                    result.get(10, TimeUnit.SECONDS);
+                }catch(ExecutionException e) {
+                    assertTrue(e.getCause() instanceof RejectedExecutionException);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package jbloom.test;
+
+import jbloom.core.BinaryCodec;
+import jbloom.core.BloomFilter;
+import jbloom.core.DynamicBloomFilter;
+import jbloom.util.HashStrategy;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests for BinaryCodec
+ */
+public class BinaryCodecTest extends TestCase {
+
+    private BloomFilter roundTrip(BloomFilter bf, BinaryCodec codec) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.write(bf, out);
+        assertEquals(out.size(), codec.getEncodedBytes());
+        BloomFilter read = codec.readBloomFilter(new ByteArrayInputStream(out.toByteArray()));
+        //the text form has every parameter and bit, so equal text means an exact copy
+        assertEquals(bf.toString(), read.toString());
+        return read;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        //empty, sparse and dense blocks
+        for(int keys : new int[]{0, 10, 1000, 100000}){
+            BloomFilter bf = new BloomFilter(100000, 0.01);
+            for(int i = 0; i < keys; i++){
+                bf.add(i);
+            }
+            BloomFilter read = roundTrip(bf, new BinaryCodec());
+            for(int i = 0; i < keys; i++){
+                assertTrue(read.has(i));
+            }
+        }
+        //filters whose last block is short
+        for(int capacity : new int[]{1, 7, 333}){
+            BloomFilter bf = new BloomFilter(capacity, 0.001, HashStrategy.MURMUR3);
+            for(int i = 0; i < capacity; i++){
+                bf.add("key" + i);
+            }
+            assertEquals(HashStrategy.MURMUR3, roundTrip(bf, new BinaryCodec()).getStrategy());
+        }
+    }
+
+    @Test
+    public void testCompressionRatio() throws Exception {
+        BloomFilter bf = new BloomFilter(100000, 0.01);
+        for(int i = 0; i < 1000; i++){
+            bf.add(i);
+        }
+        BinaryCodec codec = new BinaryCodec();
+        roundTrip(bf, codec);
+        //1% full: 2 bytes per set bit against 8 per 64 bits
+        assertTrue(codec.getCompressionRatio() > 3);
+
+        for(int i = 1000; i < 100000; i++){
+            bf.add(i);
+        }
+        codec = new BinaryCodec();
+        roundTrip(bf, codec);
+        //full filters are written as they are, plus a byte per block and the header
+        assertTrue(codec.getCompressionRatio() < 1);
+        assertTrue(codec.getCompressionRatio() > 0.99);
+    }
+
+    @Test
+    public void testDynamicBloomFilter() throws Exception {
+        DynamicBloomFilter dbf = new DynamicBloomFilter(1000, 100000, 0.001);
+        for(int i = 0; i < 2010; i++){
+            dbf.add(i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        dbf.writeBinary(out);
+        DynamicBloomFilter read = DynamicBloomFilter.readBinary(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(dbf.toString(), read.toString());
+        for(int i = 0; i < 2010; i++){
+            assertTrue(read.has(i));
+        }
+        //the nearly empty newest filter is what makes it smaller than half the text
+        assertTrue(out.size() < dbf.toString().length() / 2);
+    }
+
+    @Test
+    public void testCorruption() throws Exception {
+        BloomFilter bf = new BloomFilter(1000, 0.01);
+        for(int i = 0; i < 500; i++){
+            bf.add(i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bf.writeBinary(out);
+        byte[] bytes = out.toByteArray();
+        for(int i = 0; i < bytes.length; i++){
+            byte[] corrupt = bytes.clone();
+            corrupt[i] ^= 0x10;
+            try {
+                BloomFilter.readBinary(new ByteArrayInputStream(corrupt));
+                fail("flipped a bit of byte " + i + " without noticing");
+            }catch(IOException e) {
+                //expected, a truncated read is an EOFException
+            }
+        }
+        try {
+            DynamicBloomFilter.readBinary(new ByteArrayInputStream(bytes));
+            fail("read a bloom filter as a dynamic bloom filter");
+        }catch(IOException e) {
+            //expected
+        }
+    }
+}
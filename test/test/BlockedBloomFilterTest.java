@@ -0,0 +1,138 @@
+package jbloom.test;
+
+import jbloom.core.BlockedBloomFilter;
+import jbloom.core.BloomFilter;
+import jbloom.util.HashStrategy;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Tests for BlockedBloomFilter
+ */
+public class BlockedBloomFilterTest extends TestCase {
+
+    @Test
+    public void testAdd() throws Exception {
+        for(HashStrategy strategy : HashStrategy.values()){
+            BlockedBloomFilter bf = new BlockedBloomFilter(100000, 0.001, strategy);
+            for(int i = 0; i < 100000; i++){
+                assertFalse(bf.has(i) && !bf.add(i));
+                bf.add(i);
+            }
+            for(int i = 0; i < 100000; i++){
+                assertTrue(bf.has(i));
+            }
+            assertTrue(bf.getCount() > 99800);
+        }
+    }
+
+    @Test
+    public void testErrorRate() throws Exception {
+        for(double error_rate : new double[]{0.1, 0.01, 0.001}){
+            for(HashStrategy strategy : HashStrategy.values()){
+                BlockedBloomFilter bf = new BlockedBloomFilter(100000, error_rate, strategy);
+                //more bits than a sliced filter, in whole blocks
+                BloomFilter sliced = new BloomFilter(100000, error_rate, strategy);
+                assertEquals(sliced.getNumSlices(), bf.getNumSlices());
+                assertTrue(bf.getBitsPerSlice() > sliced.getNumSlices() * sliced.getBitsPerSlice());
+                assertEquals(0, bf.getBitsPerSlice() % 512);
+                for(int i = 0; i < 100000; i++){
+                    bf.add(i);
+                }
+                int false_positives = 0;
+                for(int i = 100000; i < 1100000; i++){
+                    if(bf.has(i)){
+                        false_positives++;
+                    }
+                }
+                //well within the noise of a million lookups
+                assertTrue(strategy + " " + error_rate + ": " + false_positives,
+                        false_positives < 1000000 * error_rate * 1.15);
+                double expected = 1000000 * bf.getFalsePositiveRate();
+                assertTrue(strategy + " " + error_rate + ": " + expected + " " + false_positives,
+                        Math.abs(false_positives - expected) < 0.15 * expected);
+            }
+        }
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        BlockedBloomFilter batch = new BlockedBloomFilter(10000, 0.01, HashStrategy.MURMUR3);
+        BlockedBloomFilter serial = new BlockedBloomFilter(10000, 0.01, HashStrategy.MURMUR3);
+        long[] keys = new long[5000];
+        for(int i = 0; i < keys.length; i++){
+            keys[i] = i % 3000;
+        }
+        long[] added = batch.addAll(keys);
+        for(int i = 0; i < keys.length; i++){
+            assertEquals(serial.add(keys[i]), (added[i >>> 6] >>> i & 1) == 1);
+        }
+        assertEquals(serial.toString(), batch.toString());
+        long[] lookups = new long[6000];
+        for(int i = 0; i < lookups.length; i++){
+            lookups[i] = i;
+        }
+        long[] found = batch.hasAll(lookups);
+        for(int i = 0; i < lookups.length; i++){
+            assertEquals(batch.has(lookups[i]), (found[i >>> 6] >>> i & 1) == 1);
+        }
+    }
+
+    @Test
+    public void testToString() throws Exception {
+        for(HashStrategy strategy : HashStrategy.values()){
+            BlockedBloomFilter bf = new BlockedBloomFilter(1000, 0.01, strategy);
+            for(int i = 0; i < 500; i++){
+                bf.add(i);
+            }
+            String s = bf.toString();
+            assertTrue(s.startsWith("blocked:"));
+            BloomFilter read = BloomFilter.fromString(s);
+            assertTrue(read instanceof BlockedBloomFilter);
+            assertEquals(s, read.toString());
+            for(int i = 0; i < 500; i++){
+                assertTrue(read.has(i));
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            bf.writeBinary(out);
+            read = BloomFilter.readBinary(new ByteArrayInputStream(out.toByteArray()));
+            assertTrue(read instanceof BlockedBloomFilter);
+            assertEquals(s, read.toString());
+        }
+    }
+
+    @Test
+    public void testSetOperations() throws Exception {
+        BlockedBloomFilter bf1 = new BlockedBloomFilter(1000, 0.01);
+        BlockedBloomFilter bf2 = new BlockedBloomFilter(1000, 0.01);
+        for(int i = 0; i < 600; i++){
+            bf1.add(i);
+            bf2.add(i + 400);
+        }
+        BloomFilter union = bf1.union(bf2);
+        BloomFilter intersection = bf1.intersection(bf2);
+        assertTrue(union instanceof BlockedBloomFilter);
+        for(int i = 0; i < 1000; i++){
+            assertTrue(union.has(i));
+        }
+        for(int i = 400; i < 600; i++){
+            assertTrue(intersection.has(i));
+        }
+        String merged = bf1.clone().merge(Arrays.asList(bf2)).toString();
+        assertEquals(union.toString().split(":big:")[1], merged.split(":big:")[1]);
+
+        //same number of bits and slices, but the key's bits are laid out differently
+        BlockedBloomFilter blocked = new BlockedBloomFilter(1000, 0.01);
+        try {
+            blocked.union(BloomFilter.fromString(blocked.toString().substring("blocked:".length())));
+            fail("combined a blocked filter with a sliced one");
+        }catch(IllegalArgumentException e) {
+            //expected
+        }
+    }
+}
@@ -1,10 +1,23 @@
 package jbloom.test;
 
 import jbloom.core.BloomFilter;
+import jbloom.util.Funnel;
+import jbloom.util.HashFn;
+import jbloom.util.HashStrategy;
+import jbloom.util.KeySink;
 import junit.framework.TestCase;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * Created by srf51 on 4/12/2017.
@@ -80,6 +93,32 @@ public class BloomFilterTest extends TestCase {
         }
     }
 
+    @Test
+    public void testWriteTo()
+            throws Exception {
+        int capacity = 1000;
+        BloomFilter bf = new BloomFilter(capacity, 0.01, HashStrategy.MURMUR3);
+        for(int i = 0; i < capacity; i++){
+            bf.add(i);
+        }
+
+        //the streams carry exactly the text of toString
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bf.writeTo(bytes);
+        assertEquals(bf.toString(), new String(bytes.toByteArray(), StandardCharsets.US_ASCII));
+        StringWriter chars = new StringWriter();
+        bf.writeTo(chars);
+        assertEquals(bf.toString(), chars.toString());
+
+        BloomFilter read = BloomFilter.readFrom(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(HashStrategy.MURMUR3, read.getStrategy());
+        assertEquals(bf.getCount(), read.getCount());
+        assertEquals(bf.toString(), read.toString());
+        for(int i = 0; i < capacity; i++){
+            assertTrue(read.has(i));
+        }
+    }
+
     @Test
     public void testFromString()
             throws NoSuchAlgorithmException, CloneNotSupportedException {
@@ -90,4 +129,346 @@ public class BloomFilterTest extends TestCase {
             assertTrue(bf.has(Integer.valueOf(i).toString()));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMurmur3()
+            throws NoSuchAlgorithmException, CloneNotSupportedException {
+        int capacity = 1000;
+        BloomFilter bf = new BloomFilter(capacity, 0.001, HashStrategy.MURMUR3);
+        for(int i = 0; i < capacity; i++){
+            bf.add(Integer.valueOf(i).toString());
+        }
+
+        //the strategy has to survive a round trip, otherwise the keys would hash to other bits
+        bf = BloomFilter.fromString(bf.toString());
+        assertEquals(HashStrategy.MURMUR3, bf.getStrategy());
+        for(int i = 0; i < capacity; i++){
+            assertTrue(bf.has(Integer.valueOf(i).toString()));
+        }
+
+        //filters hashed differently can't be mixed
+        try{
+            bf.union(new BloomFilter(capacity, 0.001));
+            fail();
+        }catch(IllegalArgumentException e){
+            //expected
+        }
+    }
+
+    @Test
+    public void testLegacyDigest()
+            throws NoSuchAlgorithmException, CloneNotSupportedException {
+        //40 slices need two SHA-512 digests, only the second salt depends on its byte order
+        int[] legacy = HashStrategy.LEGACY_DIGEST.newHashFn(40, 1000).hash("key");
+        int[] digest = HashStrategy.DIGEST.newHashFn(40, 1000).hash("key");
+        assertTrue(Arrays.equals(Arrays.copyOf(legacy, 32), Arrays.copyOf(digest, 32)));
+        assertFalse(Arrays.equals(legacy, digest));
+        //at 32767 bits per slice legacy filters still used 16 bit chunks
+        assertFalse(Arrays.equals(HashStrategy.LEGACY_DIGEST.newHashFn(4, 32767).hash("key"),
+                HashStrategy.DIGEST.newHashFn(4, 32767).hash("key")));
+
+        BloomFilter bf = new BloomFilter(100, 1e-12, HashStrategy.LEGACY_DIGEST);
+        assertTrue(bf.getNumSlices() > 32);
+        for(int i = 0; i < 100; i++){
+            bf.add(Integer.toString(i));
+        }
+        assertEquals(HashStrategy.LEGACY_DIGEST, BloomFilter.fromString(bf.toString()).getStrategy());
+        //what jbloom wrote before 1.1, without a strategy field
+        String old = bf.toString().substring(0, bf.toString().lastIndexOf(':'));
+        BloomFilter read = BloomFilter.fromString(old, HashStrategy.LEGACY_DIGEST);
+        assertEquals(HashStrategy.LEGACY_DIGEST, read.getStrategy());
+        for(int i = 0; i < 100; i++){
+            assertTrue(read.has(Integer.toString(i)));
+        }
+        //a strategy named in the string wins over untagged
+        assertEquals(HashStrategy.MURMUR3, BloomFilter.fromString(
+                new BloomFilter(100, 0.01, HashStrategy.MURMUR3).toString(), HashStrategy.LEGACY_DIGEST).getStrategy());
+    }
+
+    @Test
+    public void testKeyTypes()
+            throws NoSuchAlgorithmException, CloneNotSupportedException {
+        int capacity = 1000;
+        for(HashStrategy strategy : HashStrategy.values()){
+            BloomFilter bf = new BloomFilter(capacity, 0.001, strategy);
+            for(int i = 0; i < capacity; i++){
+                bf.add(Integer.valueOf(i).toString());
+            }
+
+            //every kind of key has to find the bits set through the String of the same key
+            for(int i = 0; i < capacity; i++){
+                String key = Integer.valueOf(i).toString();
+                byte[] bytes = ("xx" + key).getBytes(StandardCharsets.UTF_8);
+                ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+                direct.put(bytes);
+                direct.position(2);
+
+                assertTrue(bf.has(i));
+                assertTrue(bf.has(new StringBuilder(key)));
+                assertTrue(bf.has(bytes, 2, bytes.length - 2));
+                assertTrue(bf.has(ByteBuffer.wrap(bytes, 2, bytes.length - 2)));
+                assertTrue(bf.has(direct));
+                //reading the buffer mustn't move it
+                assertEquals(2, direct.position());
+            }
+            assertTrue(!bf.has(1001L));
+
+            //and adding them sets the same bits
+            BloomFilter bf2 = new BloomFilter(capacity, 0.001, strategy);
+            for(int i = 0; i < capacity; i++){
+                bf2.add(i);
+            }
+            assertEquals(bf.toString(), bf2.toString());
+        }
+    }
+
+    @Test
+    public void testFunnel()
+            throws NoSuchAlgorithmException, CloneNotSupportedException {
+        Funnel<UUID> funnel = new Funnel<UUID>() {
+            @Override
+            public void funnel(UUID from, KeySink into) {
+                into.putLong(from.getMostSignificantBits()).putLong(from.getLeastSignificantBits());
+            }
+        };
+        UUID[] ids = new UUID[1000];
+        BloomFilter bf = new BloomFilter(ids.length);
+        for(int i = 0; i < ids.length; i++){
+            ids[i] = new UUID(i, -i);
+            bf.add(ids[i], funnel);
+        }
+        for(UUID id : ids){
+            assertTrue(bf.has(new UUID(id.getMostSignificantBits(), id.getLeastSignificantBits()), funnel));
+        }
+
+        //a funnel's bytes hash like the same raw bytes
+        ByteBuffer raw = ByteBuffer.allocate(16);
+        raw.putLong(ids[7].getMostSignificantBits()).putLong(ids[7].getLeastSignificantBits());
+        assertTrue(bf.has(raw.array(), 0, 16));
+    }
+
+    @Test
+    public void testMoreThan2To31Bits()
+            throws NoSuchAlgorithmException {
+        //150 million keys at 0.1% take about 2.16 billion bits, so the last slice ends past Integer.MAX_VALUE
+        BloomFilter bf = new BloomFilter(150000000, 0.001, HashStrategy.MURMUR3);
+        long last_slice = (long) (bf.getNumSlices() - 1) * bf.getBitsPerSlice();
+        assertTrue(last_slice + bf.getBitsPerSlice() > Integer.MAX_VALUE);
+        HashFn hash = HashStrategy.MURMUR3.newHashFn(bf.getNumSlices(), bf.getBitsPerSlice());
+
+        int past = 0;
+        int[] indices = new int[bf.getNumSlices()];
+        for(int i = 0; i < 10000; i++){
+            assertTrue(!bf.add(i));
+            hash.hash(i, indices);
+            if(last_slice + indices[indices.length - 1] > Integer.MAX_VALUE){
+                past++;
+            }
+        }
+        //some of the keys set bits past 2^31
+        assertTrue(past > 0);
+        for(int i = 0; i < 10000; i++){
+            assertTrue(bf.has(i));
+        }
+        int false_positives = 0;
+        for(int i = 10000; i < 20000; i++){
+            if(bf.has(i)){
+                false_positives++;
+            }
+        }
+        assertEquals(0, false_positives);
+    }
+
+    @Test
+    public void testBatch()
+            throws NoSuchAlgorithmException {
+        int capacity = 2000;
+        BloomFilter batch = new BloomFilter(capacity, 0.01);
+        BloomFilter serial = new BloomFilter(capacity, 0.01);
+        //duplicates inside a batch and across batches, and a partial last word of results
+        String[] keys = new String[1500];
+        for(int i = 0; i < keys.length; i++){
+            keys[i] = Integer.toString(i % 1000);
+        }
+        for(int round = 0; round < 2; round++){
+            long[] added = batch.addAll(keys);
+            assertEquals((keys.length + 63) / 64, added.length);
+            for(int i = 0; i < keys.length; i++){
+                assertEquals(serial.add((CharSequence) keys[i]), (added[i >>> 6] >>> i & 1) == 1);
+            }
+        }
+        assertEquals(serial.getCount(), batch.getCount());
+        assertEquals(serial.toString(), batch.toString());
+
+        long[] numbers = new long[3000];
+        for(int i = 0; i < numbers.length; i++){
+            numbers[i] = i;
+        }
+        long[] found = batch.hasAll(numbers);
+        for(int i = 0; i < numbers.length; i++){
+            assertEquals(batch.has(numbers[i]), (found[i >>> 6] >>> i & 1) == 1);
+        }
+        assertEquals(-1L, found[0]);
+
+        //the other key types find the same bits
+        List<String> list = Arrays.asList(keys);
+        assertTrue(Arrays.equals(found(keys.length), batch.hasAll(list)));
+        assertTrue(Arrays.equals(found(keys.length), batch.hasAll(list.stream())));
+        byte[][] bytes = new byte[keys.length][];
+        for(int i = 0; i < keys.length; i++){
+            bytes[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+        }
+        assertTrue(Arrays.equals(found(keys.length), batch.hasAll(bytes)));
+        Funnel<String> funnel = new Funnel<String>() {
+            @Override
+            public void funnel(String from, KeySink into) {
+                into.putString(from);
+            }
+        };
+        assertTrue(Arrays.equals(found(keys.length), batch.hasAll(list, funnel)));
+        assertEquals(0, batch.hasAll(new String[0]).length);
+    }
+
+    @Test
+    public void testUnionWith()
+            throws NoSuchAlgorithmException {
+        BloomFilter bf1 = new BloomFilter(1000, 0.01);
+        BloomFilter bf2 = new BloomFilter(1000, 0.01);
+        for(int i = 0; i < 500; i++){
+            bf1.add(i);
+            bf2.add(i + 250);
+        }
+        String other = bf2.toString();
+        BloomFilter union = bf1.union(bf2);
+        BloomFilter intersection = bf1.intersection(bf2);
+
+        BloomFilter in_place = bf1.clone();
+        assertSame(in_place, in_place.unionWith(bf2));
+        assertEquals(bits(union), bits(in_place));
+        assertEquals(bf1.getCount() + bf2.getCount(), in_place.getCount());
+        in_place = bf1.clone().intersectWith(bf2);
+        assertEquals(bits(intersection), bits(in_place));
+        for(int i = 250; i < 500; i++){
+            assertTrue(in_place.has(i));
+        }
+        assertEquals(other, bf2.toString());
+
+        try {
+            bf1.unionWith(new BloomFilter(1000, 0.001));
+            fail("unioned filters of different sizes");
+        }catch(IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testMerge()
+            throws NoSuchAlgorithmException, CloneNotSupportedException {
+        //big enough to be split between threads
+        for(int capacity : new int[]{1000, 2000000}){
+            List<BloomFilter> others = new ArrayList<BloomFilter>();
+            int count = 0, min_count = Integer.MAX_VALUE;
+            BloomFilter union = new BloomFilter(capacity, 0.01);
+            BloomFilter intersection = new BloomFilter(capacity, 0.01);
+            for(int f = 0; f < 4; f++){
+                BloomFilter bf = new BloomFilter(capacity, 0.01);
+                for(int i = f * 100; i < f * 100 + 1000; i++){
+                    bf.add(i);
+                }
+                others.add(bf);
+                count += bf.getCount();
+                min_count = Math.min(min_count, bf.getCount());
+                union = union.union(bf);
+                intersection = f == 0 ? bf.union(intersection) : intersection.intersection(bf);
+            }
+            BloomFilter merged = new BloomFilter(capacity, 0.01);
+            assertSame(merged, merged.merge(others));
+            assertEquals(bits(union), bits(merged));
+            assertEquals(count, merged.getCount());
+            for(int i = 0; i < 1300; i++){
+                assertTrue(merged.has(i));
+            }
+
+            BloomFilter intersected = new BloomFilter(capacity, 0.01).merge(others.subList(0, 1));
+            intersected.intersect(others.subList(1, others.size()));
+            assertEquals(bits(intersection), bits(intersected));
+            assertEquals(min_count, intersected.getCount());
+            for(int i = 300; i < 1000; i++){
+                assertTrue(intersected.has(i));
+            }
+        }
+
+        BloomFilter bf = new BloomFilter(1000, 0.01);
+        bf.add(1);
+        String before = bf.toString();
+        List<BloomFilter> others = Arrays.asList(new BloomFilter(1000, 0.01), new BloomFilter(1000, 0.001));
+        try {
+            bf.merge(others);
+            fail("merged filters of different sizes");
+        }catch(IllegalArgumentException e) {
+            //expected
+        }
+        assertEquals(before, bf.toString());
+        try {
+            bf.intersect(Arrays.asList(new BloomFilter(1000, 0.01, HashStrategy.MURMUR3)));
+            fail("intersected filters with different hash strategies");
+        }catch(IllegalArgumentException e) {
+            //expected
+        }
+        assertEquals(before, bf.merge(new ArrayList<BloomFilter>()).toString());
+    }
+
+    @Test
+    public void testStatistics()
+            throws NoSuchAlgorithmException {
+        BloomFilter bf1 = new BloomFilter(100000, 0.01);
+        BloomFilter bf2 = new BloomFilter(100000, 0.01);
+        assertEquals(0, bf1.getBitCount());
+        assertEquals(0.0, bf1.getEstimatedCount());
+        assertEquals(0.0, bf1.getFalsePositiveRate());
+        for(int i = 0; i < 60000; i++){
+            bf1.add(i);
+            bf1.add(i);
+            bf2.add(i + 40000);
+        }
+        //an estimate from 1 million bits is good to well under 1%
+        assertEquals(60000, bf1.getEstimatedCount(), 600);
+        assertEquals(100000, bf1.estimateUnionCount(bf2), 1000);
+        assertEquals(20000, bf1.estimateIntersectionCount(bf2), 1000);
+        assertEquals(100000, bf1.union(bf2).getEstimatedCount(), 1000);
+
+        double[] ratios = bf1.getSliceFillRatios();
+        assertEquals(bf1.getNumSlices(), ratios.length);
+        double fpr = 1;
+        for(double ratio : ratios){
+            //each slice is filled by the same 60000 keys
+            assertEquals(1 - Math.exp(-60000.0 / bf1.getBitsPerSlice()), ratio, 0.01);
+            fpr *= ratio;
+        }
+        assertEquals(fpr, bf1.getFalsePositiveRate(), 1e-12);
+        assertTrue(fpr < bf1.getErrorRate());
+        int false_positives = 0;
+        for(int i = 100000; i < 1100000; i++){
+            if(bf1.has(i)){
+                false_positives++;
+            }
+        }
+        assertEquals(1000000 * fpr, false_positives, 0.1 * 1000000 * fpr);
+
+        //clones keep their count
+        assertEquals(bf1.getCount(), bf1.clone().getCount());
+        assertEquals(bf1.getBitCount(), bf1.clone().getBitCount());
+    }
+
+    private static String bits(BloomFilter bf) {
+        return bf.toString().split(":")[6];
+    }
+
+    private static long[] found(int n) {
+        long[] all = new long[(n + 63) / 64];
+        for(int i = 0; i < n; i++){
+            all[i >>> 6] |= 1L << i;
+        }
+        return all;
+    }
+}
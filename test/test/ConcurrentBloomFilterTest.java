@@ -0,0 +1,113 @@
+package jbloom.test;
+
+import jbloom.core.BloomFilter;
+import jbloom.core.ConcurrentBloomFilter;
+import jbloom.util.HashStrategy;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for ConcurrentBloomFilter
+ */
+public class ConcurrentBloomFilterTest extends TestCase {
+
+    @Test
+    public void testAdd() throws Exception {
+        int capacity = 1000;
+        ConcurrentBloomFilter bf = new ConcurrentBloomFilter(capacity, 0.001);
+        BloomFilter serial = new BloomFilter(capacity, 0.001);
+
+        //used from one thread it has to answer exactly like a BloomFilter
+        for(int i = 0; i < capacity; i++){
+            assertEquals(serial.add(Integer.valueOf(i).toString()), bf.add(Integer.valueOf(i).toString()));
+        }
+        for(int i = 0; i < capacity; i++){
+            assertTrue(bf.has(Integer.valueOf(i).toString()));
+            assertTrue(bf.add(Integer.valueOf(i).toString()));
+        }
+        assertTrue(!bf.has(Integer.valueOf(1001).toString()));
+        assertEquals(serial.getCount(), bf.getCount());
+        assertEquals(serial.toString(), bf.toString());
+    }
+
+    @Test
+    public void testStress() throws Exception {
+        final int threads = 8, per_thread = 20000;
+        final ConcurrentBloomFilter bf = new ConcurrentBloomFilter(threads * per_thread, 0.001, HashStrategy.MURMUR3);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger misses = new AtomicInteger();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> workers = new ArrayList<Thread>();
+        for(int t = 0; t < threads; t++){
+            final int first = t * per_thread;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for(int i = first; i < first + per_thread; i++){
+                            bf.add(i);
+                            //a key this thread added must be visible to it straight away
+                            if(!bf.has(i)){
+                                misses.incrementAndGet();
+                            }
+                            //and reading keys other threads are adding mustn't break anything
+                            bf.has(i + per_thread);
+                        }
+                    }catch(Throwable e) {
+                        synchronized(errors){
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for(Thread worker : workers){
+            worker.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(0, misses.get());
+
+        //no bit may be lost to a racing update: every key of every thread is there
+        for(int i = 0; i < threads * per_thread; i++){
+            assertTrue(bf.has(i));
+        }
+
+        //the bits are exactly what a single thread would have set
+        BloomFilter serial = new BloomFilter(threads * per_thread, 0.001, HashStrategy.MURMUR3);
+        for(int i = 0; i < threads * per_thread; i++){
+            serial.add(i);
+        }
+        assertEquals(serial.toString().split(":")[6], bf.toString().split(":")[6]);
+
+        //keys are only counted twice when they look already present, so the count can only be
+        //off by the handful of false positives the serial filter saw
+        assertTrue(Math.abs(serial.getCount() - bf.getCount()) <= threads * per_thread * 0.001 * 2);
+    }
+
+    @Test
+    public void testToString() throws Exception {
+        int capacity = 1000;
+        ConcurrentBloomFilter bf = new ConcurrentBloomFilter(capacity, 0.001);
+        for(int i = 0; i < capacity; i++){
+            bf.add(Integer.valueOf(i).toString());
+        }
+
+        //same format as BloomFilter, in both directions
+        BloomFilter plain = BloomFilter.fromString(bf.toString());
+        assertEquals(bf.toString(), plain.toString());
+        bf = ConcurrentBloomFilter.fromString(plain.toString());
+        assertEquals(plain.getCount(), bf.getCount());
+        for(int i = 0; i < capacity; i++){
+            assertTrue(bf.has(Integer.valueOf(i).toString()));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package jbloom.test;
+
+import jbloom.core.BloomFilter;
+import jbloom.core.CountingBloomFilter;
+import jbloom.util.HashStrategy;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Tests for CountingBloomFilter
+ */
+public class CountingBloomFilterTest extends TestCase {
+
+    @Test
+    public void testRemove() throws Exception {
+        for(HashStrategy strategy : HashStrategy.values()){
+            CountingBloomFilter cbf = new CountingBloomFilter(10000, 0.001, strategy);
+            for(int i = 0; i < 10000; i++){
+                cbf.add(i);
+            }
+            for(int i = 0; i < 10000; i += 2){
+                assertTrue(cbf.remove(i));
+            }
+            assertEquals(5000, cbf.getCount());
+            int false_positives = 0;
+            for(int i = 0; i < 10000; i++){
+                if(i % 2 == 1){
+                    assertTrue(cbf.has(i));
+                }
+                else if(cbf.has(i)){
+                    false_positives++;
+                }
+            }
+            assertTrue(false_positives < 20);
+            for(int i = 1; i < 10000; i += 2){
+                assertTrue(cbf.remove(i));
+            }
+            //every counter is back to 0
+            assertEquals(0, cbf.getCount());
+            assertEquals(new BloomFilter(10000, 0.001, strategy).toString(), cbf.toBloomFilter().toString());
+        }
+    }
+
+    @Test
+    public void testRemoveMissing() throws Exception {
+        CountingBloomFilter cbf = new CountingBloomFilter(1000, 0.01);
+        cbf.add("a");
+        assertFalse(cbf.remove("b"));
+        assertTrue(cbf.has("a"));
+        assertEquals(1, cbf.getCount());
+        //keys are counted like a multiset
+        assertTrue(cbf.add("a"));
+        assertTrue(cbf.remove("a"));
+        assertTrue(cbf.has("a"));
+        assertTrue(cbf.remove("a"));
+        assertFalse(cbf.has("a"));
+    }
+
+    @Test
+    public void testSaturation() throws Exception {
+        CountingBloomFilter cbf = new CountingBloomFilter(1000, 0.01);
+        for(int i = 0; i < 20; i++){
+            cbf.add("key");
+        }
+        assertEquals(cbf.getNumSlices(), cbf.getSaturated());
+        for(int i = 0; i < 30; i++){
+            cbf.remove("key");
+        }
+        //the saturated counters stick, so the key can't be removed any more
+        assertTrue(cbf.has("key"));
+    }
+
+    @Test
+    public void testToBloomFilter() throws Exception {
+        for(HashStrategy strategy : HashStrategy.values()){
+            //odd sizes, so the last word of counters is partly used
+            for(int capacity : new int[]{1, 77, 100000}){
+                CountingBloomFilter cbf = new CountingBloomFilter(capacity, 0.01, strategy);
+                BloomFilter bf = new BloomFilter(capacity, 0.01, strategy);
+                for(int i = 0; i < capacity; i++){
+                    cbf.add("key" + i);
+                    bf.add((CharSequence) ("key" + i));
+                }
+                BloomFilter collapsed = cbf.toBloomFilter();
+                assertEquals(bf.toString().split(":big:")[1], collapsed.toString().split(":big:")[1]);
+                assertEquals(bf.getNumSlices(), collapsed.getNumSlices());
+                assertEquals(bf.getBitsPerSlice(), collapsed.getBitsPerSlice());
+                assertEquals(strategy, collapsed.getStrategy());
+                //4 bits per counter, 4 times the bits of the BloomFilter
+                long num_bits = (long) bf.getNumSlices() * bf.getBitsPerSlice();
+                assertEquals((num_bits + 15) / 16 * 8, cbf.getSizeInBytes());
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package jbloom.test;
+
+import jbloom.core.BloomFilter;
+import jbloom.core.CuckooFilter;
+import jbloom.util.HashStrategy;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests for CuckooFilter
+ */
+public class CuckooFilterTest extends TestCase {
+
+    @Test
+    public void testAdd() throws Exception {
+        for(HashStrategy strategy : HashStrategy.values()){
+            int capacity = 100000;
+            CuckooFilter cf = new CuckooFilter(capacity, 0.001, strategy);
+            for(int i = 0; i < capacity; i++){
+                cf.add(i);
+            }
+            assertEquals(capacity, cf.getCount());
+            for(int i = 0; i < capacity; i++){
+                assertTrue(cf.has(i));
+            }
+            int false_positives = 0;
+            for(int i = capacity; i < 2 * capacity; i++){
+                if(cf.has(i)){
+                    false_positives++;
+                }
+            }
+            assertTrue(false_positives + " false positives", false_positives < capacity * 0.001 * 1.5);
+            assertTrue(cf.getLoadFactor() > 0.9);
+            assertTrue(cf.getFalsePositiveRate() < 0.001);
+
+            //smaller than the bloom filter at this error rate
+            BloomFilter bf = new BloomFilter(capacity, 0.001, strategy);
+            assertTrue(cf.getSizeInBytes() < (long) bf.getNumSlices() * bf.getBitsPerSlice() / 8);
+        }
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        CuckooFilter cf = new CuckooFilter(10000, 0.0001, HashStrategy.MURMUR3);
+        for(int i = 0; i < 10000; i++){
+            assertFalse(cf.add("key" + i));
+        }
+        for(int i = 0; i < 10000; i += 2){
+            assertTrue(cf.remove("key" + i));
+        }
+        assertEquals(5000, cf.getCount());
+        for(int i = 1; i < 10000; i += 2){
+            assertTrue(cf.has("key" + i));
+        }
+        for(int i = 0; i < 10000; i += 2){
+            assertFalse(cf.has("key" + i));
+        }
+        assertFalse(cf.remove("key0"));
+
+        //a key added twice needs two removes
+        assertFalse(cf.add("twice"));
+        assertTrue(cf.add("twice"));
+        assertTrue(cf.remove("twice"));
+        assertTrue(cf.has("twice"));
+        assertTrue(cf.remove("twice"));
+        assertFalse(cf.has("twice"));
+    }
+
+    @Test
+    public void testFull() throws Exception {
+        CuckooFilter cf = new CuckooFilter(1000, 0.001);
+        try {
+            for(int i = 0; i < 2000; i++){
+                cf.add(i);
+            }
+            fail();
+        }catch(IndexOutOfBoundsException e) {
+            //expected
+        }
+        //whatever made the add fail, every key that went in is still there
+        for(int i = 0; i < cf.getCount(); i++){
+            assertTrue(cf.has(i));
+        }
+        assertTrue(cf.getStashSize() <= 8);
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        for(HashStrategy strategy : HashStrategy.values()){
+            CuckooFilter cf = new CuckooFilter(5000, 0.001, strategy);
+            for(int i = 0; i < 5000; i++){
+                cf.add(i);
+            }
+            CuckooFilter text = CuckooFilter.fromString(cf.toString());
+            assertEquals(cf.toString(), text.toString());
+            assertEquals(strategy, text.getStrategy());
+            assertEquals(5000, text.getCount());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            cf.writeBinary(out);
+            //the table is incompressible, the binary is its size and a few parameters
+            assertTrue(out.size() < cf.getSizeInBytes() + 100);
+            CuckooFilter binary = CuckooFilter.readBinary(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(cf.toString(), binary.toString());
+            for(int i = 0; i < 5000; i++){
+                assertTrue(binary.has(i));
+            }
+            assertTrue(binary.remove(0));
+
+            byte[] corrupt = out.toByteArray();
+            corrupt[corrupt.length / 2] ^= 1;
+            try {
+                CuckooFilter.readBinary(new ByteArrayInputStream(corrupt));
+                fail();
+            }catch(IOException e) {
+                //expected
+            }
+        }
+        try {
+            CuckooFilter.fromString(new BloomFilter(100, 0.01).toString());
+            fail();
+        }catch(IllegalArgumentException e) {
+            //expected
+        }
+    }
+}
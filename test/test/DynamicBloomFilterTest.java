@@ -1,9 +1,17 @@
 package jbloom.test;
 
 import jbloom.core.DynamicBloomFilter;
+import jbloom.util.HashStrategy;
 import junit.framework.TestCase;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Created by Sam on 4/13/2017.
  */
@@ -33,6 +41,41 @@ public class DynamicBloomFilterTest extends TestCase {
         }
     }
 
+    @Test
+    public void testUnionWith() throws Exception {
+        DynamicBloomFilter dbf1 = new DynamicBloomFilter(100, 100000, 0.01);
+        DynamicBloomFilter dbf2 = new DynamicBloomFilter(100, 100000, 0.01);
+        for(int i = 0; i < 250; i++){
+            dbf1.add(i);
+            dbf2.add(i + 1000);
+        }
+        String other = dbf2.toString();
+        DynamicBloomFilter union = dbf1.union(dbf2);
+        DynamicBloomFilter intersection = dbf1.intersection(dbf2);
+        assertEquals(other, dbf2.toString());
+        for(int i = 0; i < 250; i++){
+            assertTrue(union.has(i));
+            assertTrue(union.has(i + 1000));
+            assertTrue(dbf1.has(i));
+        }
+        assertFalse(dbf1.toString().equals(union.toString()));
+        int false_positives = 0;
+        for(int i = 0; i < 250; i++){
+            if(intersection.has(i)){
+                false_positives++;
+            }
+        }
+        assertTrue(false_positives < 25);
+
+        assertSame(dbf1, dbf1.unionWith(dbf2));
+        assertEquals(union.toString(), dbf1.toString());
+        assertEquals(other, dbf2.toString());
+        assertSame(dbf1, dbf1.intersectWith(dbf2));
+        for(int i = 1000; i < 1250; i++){
+            assertTrue(dbf1.has(i));
+        }
+    }
+
     @Test
     public void testIntersection() throws Exception {
         DynamicBloomFilter dbf1 = new DynamicBloomFilter(100,1000000,0.001);
@@ -60,6 +103,23 @@ public class DynamicBloomFilterTest extends TestCase {
         }
     }
 
+    @Test
+    public void testWriteTo() throws Exception {
+        DynamicBloomFilter dbf = new DynamicBloomFilter(100,1000000,0.001);
+        for(int i = 0; i < 1000; i++){
+            dbf.add(i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        dbf.writeTo(bytes);
+        assertEquals(dbf.toString(), new String(bytes.toByteArray(), StandardCharsets.US_ASCII));
+
+        DynamicBloomFilter read = DynamicBloomFilter.readFrom(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(dbf.toString(), read.toString());
+        for(int i = 0; i < 1000; i++){
+            assertTrue(read.has(i));
+        }
+    }
+
     @Test
     public void testFromString() throws Exception {
         //test reading a dbf in from python
@@ -70,4 +130,246 @@ public class DynamicBloomFilterTest extends TestCase {
             assertTrue(dbf.has(Integer.valueOf(i).toString()));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMurmur3() throws Exception {
+        DynamicBloomFilter dbf = new DynamicBloomFilter(100,1000000,0.001,HashStrategy.MURMUR3);
+        for(int i = 0; i < 1000; i++){
+            dbf.add(Integer.valueOf(i).toString());
+        }
+        dbf = DynamicBloomFilter.fromString(dbf.toString());
+        assertEquals(HashStrategy.MURMUR3, dbf.getStrategy());
+        for(int i = 0; i < 1000; i++){
+            assertTrue(dbf.has(Integer.valueOf(i).toString()));
+        }
+    }
+
+    @Test
+    public void testKeyTypes() throws Exception {
+        DynamicBloomFilter dbf = new DynamicBloomFilter(100,1000000,0.001);
+        for(long i = 0; i < 1000; i++){
+            assertTrue(!dbf.add(i));
+        }
+        //longs are added as their decimal strings, so the String lookups find them
+        for(int i = 0; i < 1000; i++){
+            assertTrue(dbf.has(Integer.valueOf(i).toString()));
+            assertTrue(dbf.add(new StringBuilder(Integer.valueOf(i).toString())));
+        }
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        DynamicBloomFilter batch = new DynamicBloomFilter(100, 1000000, 0.01);
+        DynamicBloomFilter serial = new DynamicBloomFilter(100, 1000000, 0.01);
+        //enough keys to fill several bloom filters in one call, with duplicates
+        long[] keys = new long[1000];
+        for(int i = 0; i < keys.length; i++){
+            keys[i] = i % 700;
+        }
+        for(int round = 0; round < 2; round++){
+            long[] added = batch.addAll(keys);
+            for(int i = 0; i < keys.length; i++){
+                assertEquals(serial.add(keys[i]), (added[i >>> 6] >>> i & 1) == 1);
+            }
+        }
+        assertEquals(serial.toString(), batch.toString());
+
+        String[] lookups = new String[2000];
+        for(int i = 0; i < lookups.length; i++){
+            lookups[i] = Integer.toString(i);
+        }
+        long[] found = batch.hasAll(lookups);
+        for(int i = 0; i < lookups.length; i++){
+            assertEquals(batch.has(lookups[i]), (found[i >>> 6] >>> i & 1) == 1);
+        }
+        assertTrue(Arrays.equals(found, batch.hasAll(Arrays.asList(lookups))));
+    }
+
+    @Test
+    public void testBatchOverManyChunks() throws Exception {
+        DynamicBloomFilter batch = new DynamicBloomFilter(200, 1000000, 0.01, HashStrategy.MURMUR3);
+        DynamicBloomFilter serial = new DynamicBloomFilter(200, 1000000, 0.01, HashStrategy.MURMUR3);
+        //five and a bit chunks of 256 keys, each key coming back in a later chunk than the one that adds it
+        String[] keys = new String[5 * 256 + 17];
+        for(int i = 0; i < keys.length; i++){
+            keys[i] = "key" + i % 300;
+        }
+        long[] added = batch.addAll(keys);
+        for(int i = 0; i < keys.length; i++){
+            assertEquals(keys[i], serial.add(keys[i]), (added[i >>> 6] >>> i & 1) == 1);
+        }
+        assertEquals(serial.toString(), batch.toString());
+
+        String[] lookups = new String[3 * 256 + 5];
+        for(int i = 0; i < lookups.length; i++){
+            lookups[i] = "key" + (i * 7 % 600);
+        }
+        long[] found = batch.hasAll(lookups);
+        for(int i = 0; i < lookups.length; i++){
+            assertEquals(lookups[i], serial.has(lookups[i]), (found[i >>> 6] >>> i & 1) == 1);
+        }
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        List<DynamicBloomFilter> others = new ArrayList<DynamicBloomFilter>();
+        for(int f = 0; f < 3; f++){
+            DynamicBloomFilter dbf = new DynamicBloomFilter(100, 100000, 0.01);
+            for(int i = 0; i < 250; i++){
+                dbf.add(f * 1000 + i);
+            }
+            others.add(dbf);
+        }
+        DynamicBloomFilter merged = new DynamicBloomFilter(100, 100000, 0.01);
+        for(int i = 0; i < 30; i++){
+            merged.add(5000 + i);
+        }
+        assertSame(merged, merged.merge(others));
+        for(int f = 0; f < 3; f++){
+            for(int i = 0; i < 250; i++){
+                assertTrue(merged.has(f * 1000 + i));
+            }
+        }
+        for(int i = 0; i < 30; i++){
+            assertTrue(merged.has(5000 + i));
+        }
+        //the others weren't changed
+        assertFalse(others.get(0).has(1000));
+        //the half full filters were packed together, 3 * 3 + 1 filters would hold 780 keys
+        assertTrue(merged.toString().split("\\|").length < 10);
+
+        try {
+            merged.merge(Arrays.asList(new DynamicBloomFilter(100, 100000, 0.01, HashStrategy.MURMUR3)));
+            merged.merge(Arrays.asList(twoKeys(new DynamicBloomFilter(100, 100000, 0.01, HashStrategy.MURMUR3))));
+            fail("merged filters with different hash strategies");
+        }catch(IllegalArgumentException e) {
+            //expected, an empty filter has nothing to merge so it doesn't fail
+        }
+    }
+
+    @Test
+    public void testIntersect() throws Exception {
+        DynamicBloomFilter dbf = new DynamicBloomFilter(100, 100000, 0.01);
+        DynamicBloomFilter other1 = new DynamicBloomFilter(100, 100000, 0.01);
+        DynamicBloomFilter other2 = new DynamicBloomFilter(100, 100000, 0.01);
+        for(int i = 0; i < 300; i++){
+            dbf.add(i);
+        }
+        for(int i = 0; i < 100; i++){
+            other1.add(i + 150);
+            other2.add(i + 200);
+        }
+        dbf.intersect(Arrays.asList(other1, other2));
+        for(int i = 200; i < 250; i++){
+            assertTrue(dbf.has(i));
+        }
+        int false_positives = 0;
+        for(int i = 0; i < 100; i++){
+            if(dbf.has(i)){
+                false_positives++;
+            }
+        }
+        assertTrue(false_positives < 10);
+
+        dbf.intersect(Arrays.asList(new DynamicBloomFilter(100, 100000, 0.01)));
+        assertFalse(dbf.has(220));
+    }
+
+    @Test
+    public void testParallelProbing() throws Exception {
+        DynamicBloomFilter dbf = new DynamicBloomFilter(10, 100000, 0.01);
+        DynamicBloomFilter parallel = new DynamicBloomFilter(10, 100000, 0.01);
+        parallel.setParallelProbing(true);
+        for(int i = 0; i < 500; i++){
+            assertEquals(dbf.add(i), parallel.add(i));
+        }
+        assertEquals(dbf.toString(), parallel.toString());
+        for(int i = 0; i < 1000; i++){
+            assertEquals(dbf.has(i), parallel.has(i));
+            assertEquals(dbf.has(Integer.toString(i)), parallel.has(Integer.toString(i)));
+        }
+    }
+
+    @Test
+    public void testMixedShapes() throws Exception {
+        DynamicBloomFilter small = new DynamicBloomFilter(100, 1000, 0.01);
+        DynamicBloomFilter big = new DynamicBloomFilter(1000, 10000, 0.01);
+        small.add(1);
+        big.add(1);
+        String bits = big.toString();
+        String mixed = small.toString() + "|" + bits.substring(bits.lastIndexOf(',') + 1);
+        try {
+            DynamicBloomFilter.fromString(mixed);
+            fail("read bloom filters of different shapes");
+        }catch(IllegalArgumentException e) {
+            //expected, keys are hashed once for all the bloom filters
+        }
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        DynamicBloomFilter dbf1 = new DynamicBloomFilter(10000, 1000000, 0.01);
+        DynamicBloomFilter dbf2 = new DynamicBloomFilter(10000, 1000000, 0.01);
+        for(int i = 0; i < 50000; i++){
+            dbf1.add(i);
+            dbf2.add(i + 30000);
+        }
+        assertEquals(50000, dbf1.getEstimatedCount(), 1000);
+        assertEquals(20000, dbf1.estimateIntersectionCount(dbf2), 2000);
+        assertEquals(80000, dbf1.estimateUnionCount(dbf2), 2000);
+        assertEquals(5, dbf1.getFillRatios().length);
+        for(double ratio : dbf1.getFillRatios()){
+            //full bloom filters are about half set
+            assertEquals(0.5, ratio, 0.05);
+        }
+        assertTrue(dbf1.getFalsePositiveRate() > 0);
+        assertTrue(dbf1.getFalsePositiveRate() < 0.01);
+        assertEquals(0.0, new DynamicBloomFilter(100, 1000, 0.01).getFalsePositiveRate());
+    }
+
+    @Test
+    public void testEstimateIntersectionOfManyFilters() throws Exception {
+        //8 bloom filters against 3, with the shared keys spread over several of each
+        DynamicBloomFilter dbf1 = new DynamicBloomFilter(5000, 1000000, 0.01, HashStrategy.MURMUR3);
+        DynamicBloomFilter dbf2 = new DynamicBloomFilter(5000, 1000000, 0.01, HashStrategy.MURMUR3);
+        for(int i = 0; i < 40000; i++){
+            dbf1.add(i);
+        }
+        for(int i = 0; i < 15000; i++){
+            dbf2.add(i % 2 == 0 ? i * 2 : 1000000 + i);
+        }
+        assertEquals(8, dbf1.getFillRatios().length);
+        assertEquals(3, dbf2.getFillRatios().length);
+        //the even i * 2 below 40000 are in both: 7500 keys
+        assertEquals(7500, dbf1.estimateIntersectionCount(dbf2), 750);
+        assertEquals(7500, dbf2.estimateIntersectionCount(dbf1), 750);
+        assertEquals(47500, dbf1.estimateUnionCount(dbf2), 1500);
+        //nothing in common
+        DynamicBloomFilter disjoint = new DynamicBloomFilter(5000, 1000000, 0.01, HashStrategy.MURMUR3);
+        for(int i = 0; i < 15000; i++){
+            disjoint.add(2000000 + i);
+        }
+        assertEquals(0, dbf1.estimateIntersectionCount(disjoint), 750);
+    }
+
+    @Test
+    public void testEstimateIntersectionOfBigFilters() throws Exception {
+        //bloom filters of more than one fork-join task's worth of words
+        DynamicBloomFilter dbf1 = new DynamicBloomFilter(600000, 10000000, 0.01, HashStrategy.MURMUR3);
+        DynamicBloomFilter dbf2 = new DynamicBloomFilter(600000, 10000000, 0.01, HashStrategy.MURMUR3);
+        for(long i = 0; i < 1200000; i++){
+            dbf1.add(i);
+        }
+        for(long i = 600000; i < 1500000; i++){
+            dbf2.add(i);
+        }
+        assertEquals(600000, dbf1.estimateIntersectionCount(dbf2), 6000);
+        assertEquals(1500000, dbf1.estimateUnionCount(dbf2), 15000);
+    }
+
+    private static DynamicBloomFilter twoKeys(DynamicBloomFilter dbf) throws Exception {
+        dbf.add(1);
+        dbf.add(2);
+        return dbf;
+    }
+}
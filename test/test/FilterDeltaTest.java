@@ -0,0 +1,178 @@
+package jbloom.test;
+
+import jbloom.core.BlockedBloomFilter;
+import jbloom.core.BloomFilter;
+import jbloom.core.ConcurrentBloomFilter;
+import jbloom.core.DynamicBloomFilter;
+import jbloom.core.DynamicFilterDelta;
+import jbloom.core.FilterDelta;
+import jbloom.util.HashStrategy;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests for BloomFilter and DynamicBloomFilter deltas
+ */
+public class FilterDeltaTest extends TestCase {
+
+    private static FilterDelta ship(FilterDelta delta) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        delta.writeBinary(out);
+        return FilterDelta.readBinary(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static DynamicFilterDelta ship(DynamicFilterDelta delta) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        delta.writeBinary(out);
+        return DynamicFilterDelta.readBinary(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void testDelta() throws Exception {
+        for(BloomFilter primary : new BloomFilter[]{new BloomFilter(100000, 0.01),
+                new ConcurrentBloomFilter(100000, 0.01, HashStrategy.MURMUR3),
+                new BlockedBloomFilter(100000, 0.01, HashStrategy.MURMUR3)}){
+            for(int i = 0; i < 50000; i++){
+                primary.add(i);
+            }
+            BloomFilter replica = BloomFilter.fromString(primary.toString());
+            primary.checkpoint();
+            assertEquals(0, primary.exportDelta().getNumWords());
+
+            for(int i = 50000; i < 50100; i++){
+                primary.add(i);
+            }
+            FilterDelta delta = ship(primary.exportDelta());
+            //each key changes at most one word per slice
+            assertTrue(delta.getNumWords() > 0);
+            assertTrue(delta.getNumWords() <= 100 * primary.getNumSlices());
+            replica.applyDelta(delta);
+            assertEquals(primary.toString(), replica.toString());
+            assertEquals(primary.getCount(), replica.getCount());
+
+            //exporting started the next delta, and applying again changes nothing
+            assertEquals(0, primary.exportDelta().getNumWords());
+            replica.applyDelta(delta);
+            assertEquals(primary.toString(), replica.toString());
+
+            //unions are tracked too
+            BloomFilter other = primary.clone();
+            other.add(-1);
+            primary.unionWith(other);
+            replica.applyDelta(primary.exportDelta());
+            assertTrue(replica.has(-1));
+            assertEquals(primary.toString(), replica.toString());
+        }
+    }
+
+    @Test
+    public void testOutOfOrder() throws Exception {
+        BloomFilter primary = new BloomFilter(100000, 0.01);
+        BloomFilter replica = primary.clone();
+        primary.checkpoint();
+        for(int i = 0; i < 1000; i++){
+            primary.add(i);
+        }
+        FilterDelta first = ship(primary.exportDelta());
+        for(int i = 1000; i < 2000; i++){
+            primary.add(i);
+        }
+        FilterDelta second = ship(primary.exportDelta());
+
+        replica.applyDelta(second);
+        replica.applyDelta(first);
+        assertEquals(primary.toString(), replica.toString());
+        //the older delta doesn't take the count back
+        assertEquals(primary.getCount(), replica.getCount());
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        BloomFilter primary = new BloomFilter(1000, 0.01);
+        try {
+            primary.exportDelta();
+            fail();
+        }catch(IllegalStateException e) {
+            //expected
+        }
+        primary.checkpoint();
+        primary.add("a");
+        FilterDelta delta = primary.exportDelta();
+        try {
+            new BloomFilter(1000, 0.01, HashStrategy.MURMUR3).applyDelta(delta);
+            fail();
+        }catch(IllegalArgumentException e) {
+            //expected
+        }
+        try {
+            new BloomFilter(2000, 0.01).applyDelta(delta);
+            fail();
+        }catch(IllegalArgumentException e) {
+            //expected
+        }
+
+        //a corrupt delta is caught by the checksum
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        delta.writeBinary(out);
+        byte[] bytes = out.toByteArray();
+        bytes[bytes.length - 6] ^= 1;
+        try {
+            FilterDelta.readBinary(new ByteArrayInputStream(bytes));
+            fail();
+        }catch(IOException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testDynamicDelta() throws Exception {
+        DynamicBloomFilter primary = new DynamicBloomFilter(1000, 100000, 0.01, HashStrategy.MURMUR3);
+        for(int i = 0; i < 2500; i++){
+            primary.add(i);
+        }
+        DynamicBloomFilter replica = DynamicBloomFilter.fromString(primary.toString());
+        primary.checkpoint();
+
+        //fills the third bloom filter and appends two more
+        for(int i = 2500; i < 5000; i++){
+            primary.add(i);
+        }
+        DynamicFilterDelta delta = ship(primary.exportDelta());
+        assertEquals(5, delta.getNumFilters());
+        //the two full bloom filters didn't change
+        assertEquals(3, delta.getDeltas().size());
+        replica.applyDelta(delta);
+        assertEquals(primary.toString(), replica.toString());
+
+        //an empty replica gets every bloom filter
+        DynamicBloomFilter empty = new DynamicBloomFilter(1000, 100000, 0.01, HashStrategy.MURMUR3);
+        DynamicBloomFilter fresh = new DynamicBloomFilter(1000, 100000, 0.01, HashStrategy.MURMUR3);
+        fresh.checkpoint();
+        for(int i = 0; i < 1500; i++){
+            fresh.add(i);
+        }
+        empty.applyDelta(fresh.exportDelta());
+        assertEquals(fresh.toString(), empty.toString());
+
+        //a replica that missed a delta is refused instead of silently missing a bloom filter
+        for(int i = 5000; i < 6500; i++){
+            primary.add(i);
+        }
+        primary.exportDelta();
+        for(int i = 6500; i < 7000; i++){
+            primary.add(i);
+        }
+        DynamicFilterDelta late = primary.exportDelta();
+        try {
+            replica.applyDelta(late);
+            fail();
+        }catch(IllegalArgumentException e) {
+            //expected
+        }
+        assertEquals(5, replica.getFillRatios().length);
+    }
+}
@@ -0,0 +1,179 @@
+package jbloom.test;
+
+import jbloom.core.BloomFilter;
+import jbloom.core.DynamicBloomFilter;
+import jbloom.core.FilterJournal;
+import jbloom.core.FilterJournal.SyncPolicy;
+import jbloom.util.HashStrategy;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests for FilterJournal
+ */
+public class FilterJournalTest extends TestCase {
+    private Path dir;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("jbloom-journal");
+    }
+
+    @Override
+    protected void tearDown() {
+        File[] files = dir.toFile().listFiles();
+        if(files != null){
+            for(File file : files){
+                file.delete();
+            }
+        }
+        dir.toFile().delete();
+    }
+
+    @Test
+    public void testRecoverFromLog() throws Exception {
+        BloomFilter expected;
+        try(FilterJournal<BloomFilter> journal = FilterJournal.open(dir, new BloomFilter(100000, 0.01), SyncPolicy.EVERY_COMMIT)) {
+            journal.setSnapshotThreshold(Long.MAX_VALUE);
+            BloomFilter filter = journal.getFilter();
+            for(int i = 0; i < 20000; i++){
+                filter.add(i);
+                if(i % 1000 == 999){
+                    journal.commit();
+                }
+            }
+            long log_bytes = journal.getLogBytes();
+            assertTrue(log_bytes > 0);
+            //nothing new, nothing written
+            journal.commit();
+            assertEquals(log_bytes, journal.getLogBytes());
+            expected = filter.clone();
+        }
+
+        try(FilterJournal<BloomFilter> journal = FilterJournal.open(dir, new BloomFilter(100000, 0.01), SyncPolicy.NEVER)) {
+            journal.setSnapshotThreshold(Long.MAX_VALUE);
+            assertEquals(expected.toString(), journal.getFilter().toString());
+            assertEquals(expected.getCount(), journal.getFilter().getCount());
+            //recovered words aren't logged again
+            long log_bytes = journal.getLogBytes();
+            journal.commit();
+            assertEquals(log_bytes, journal.getLogBytes());
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        BloomFilter expected;
+        try(FilterJournal<BloomFilter> journal = FilterJournal.open(dir, new BloomFilter(100000, 0.01, HashStrategy.MURMUR3),
+                SyncPolicy.PERIODIC)) {
+            BloomFilter filter = journal.getFilter();
+            for(int i = 0; i < 10000; i++){
+                filter.add(i);
+            }
+            journal.snapshot().get();
+            assertEquals(1, journal.getGeneration());
+            assertEquals(0, journal.getLogBytes());
+            assertFalse(Files.exists(dir.resolve("log-0.jblf")));
+            assertTrue(Files.exists(dir.resolve("snapshot-1.jblf")));
+
+            for(int i = 10000; i < 12000; i++){
+                filter.add(i);
+            }
+            journal.commit();
+            assertTrue(journal.getLogBytes() > 0);
+            expected = filter.clone();
+        }
+
+        try(FilterJournal<BloomFilter> journal = FilterJournal.open(dir, new BloomFilter(100000, 0.01, HashStrategy.MURMUR3),
+                SyncPolicy.PERIODIC)) {
+            assertEquals(1, journal.getGeneration());
+            assertEquals(expected.toString(), journal.getFilter().toString());
+            for(int i = 0; i < 12000; i++){
+                assertTrue(journal.getFilter().has(i));
+            }
+        }
+
+        //a filter of another shape doesn't match the journal
+        try {
+            FilterJournal.open(dir, new BloomFilter(1000, 0.01, HashStrategy.MURMUR3), SyncPolicy.NEVER);
+            fail();
+        }catch(IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testTornTail() throws Exception {
+        BloomFilter expected;
+        try(FilterJournal<BloomFilter> journal = FilterJournal.open(dir, new BloomFilter(10000, 0.01), SyncPolicy.EVERY_COMMIT)) {
+            journal.setSnapshotThreshold(Long.MAX_VALUE);
+            for(int i = 0; i < 1000; i++){
+                journal.getFilter().add(i);
+            }
+            journal.commit();
+            expected = journal.getFilter().clone();
+            for(int i = 1000; i < 2000; i++){
+                journal.getFilter().add(i);
+            }
+        }
+        //a crash halfway through writing the second record
+        File log = dir.resolve("log-0.jblf").toFile();
+        long size = log.length();
+        try(RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(size - 10);
+        }
+
+        try(FilterJournal<BloomFilter> journal = FilterJournal.open(dir, new BloomFilter(10000, 0.01), SyncPolicy.EVERY_COMMIT)) {
+            assertEquals(expected.toString(), journal.getFilter().toString());
+            assertTrue(log.length() < size - 10);
+            //the journal carries on after the last whole record
+            journal.setSnapshotThreshold(Long.MAX_VALUE);
+            journal.getFilter().add(5000);
+            journal.commit();
+        }
+        try(FilterJournal<BloomFilter> journal = FilterJournal.open(dir, new BloomFilter(10000, 0.01), SyncPolicy.EVERY_COMMIT)) {
+            assertTrue(journal.getFilter().has(5000));
+            assertTrue(journal.getFilter().has(999));
+        }
+    }
+
+    @Test
+    public void testDynamic() throws Exception {
+        DynamicBloomFilter expected;
+        try(FilterJournal<DynamicBloomFilter> journal = FilterJournal.openDynamic(dir,
+                new DynamicBloomFilter(1000, 100000, 0.01), SyncPolicy.EVERY_COMMIT)) {
+            journal.setSnapshotThreshold(20000);
+            for(int i = 0; i < 20000; i++){
+                journal.getFilter().add(i);
+                if(i % 500 == 499){
+                    journal.commit();
+                }
+            }
+            //the log outgrew the threshold at least once
+            assertTrue(journal.getGeneration() > 0);
+            expected = journal.getFilter();
+        }
+
+        try(FilterJournal<DynamicBloomFilter> journal = FilterJournal.openDynamic(dir,
+                new DynamicBloomFilter(1000, 100000, 0.01), SyncPolicy.EVERY_COMMIT)) {
+            DynamicBloomFilter filter = journal.getFilter();
+            assertEquals(expected.toString(), filter.toString());
+            for(int i = 0; i < 20000; i++){
+                assertTrue(filter.has(i));
+            }
+        }
+
+        try {
+            FilterJournal.openDynamic(dir, new DynamicBloomFilter(1000, 100000, 0.001), SyncPolicy.NEVER);
+            fail();
+        }catch(IllegalArgumentException e) {
+            //expected
+        }
+    }
+}
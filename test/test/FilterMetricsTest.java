@@ -0,0 +1,156 @@
+package jbloom.test;
+
+import jbloom.core.BloomFilter;
+import jbloom.core.CuckooFilter;
+import jbloom.core.DynamicBloomFilter;
+import jbloom.metrics.FilterMetrics;
+import jbloom.metrics.Histogram;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FilterMetricsTest extends TestCase {
+
+    @Test
+    public void testBloomFilter() throws Exception {
+        BloomFilter bf = new BloomFilter(1000, 0.01);
+        FilterMetrics metrics = new FilterMetrics(1);
+        bf.setListener(metrics);
+        for(int i = 0; i < 500; i++){
+            bf.add(i);
+        }
+        bf.add(0);
+        for(int i = 0; i < 1000; i++){
+            bf.has(i);
+        }
+        bf.hasAll(new long[]{1, 2, 3, 1000000});
+        assertEquals(501, metrics.getAddCount());
+        assertTrue(metrics.getAddFoundCount() >= 1);
+        assertEquals(1004, metrics.getHasCount());
+        assertTrue(metrics.getHasFoundCount() >= 503);
+        assertTrue(metrics.getHasFoundCount() < 520);
+        //every single key operation was sampled, the batch isn't timed
+        assertEquals(1501, metrics.getHashLatency().getCount());
+        assertEquals(1501, metrics.getProbeLatency().getCount());
+        assertTrue(metrics.getProbeLatency().getPercentile(50) > 0);
+
+        try {
+            for(int i = 500; i < 2000; i++){
+                bf.add(i);
+            }
+            fail("added past capacity");
+        }catch(IndexOutOfBoundsException e) {
+            //expected
+        }
+        assertEquals(1, metrics.getCapacityExceeded());
+
+        metrics.reset();
+        bf.setListener(new FilterMetrics(0));
+        bf.has(1);
+        assertEquals(0, metrics.getHasCount());
+        assertEquals(0, ((FilterMetrics) bf.getListener()).getHashLatency().getCount());
+        assertEquals(1, ((FilterMetrics) bf.getListener()).getHasCount());
+    }
+
+    @Test
+    public void testDynamicBloomFilter() throws Exception {
+        DynamicBloomFilter dbf = new DynamicBloomFilter(100, 10000, 0.01);
+        FilterMetrics metrics = new FilterMetrics();
+        dbf.setListener(metrics);
+        for(int i = 0; i < 500; i++){
+            dbf.add(i);
+        }
+        assertEquals(5, metrics.getFiltersCreated());
+        metrics.reset();
+        for(int i = 100000; i < 101000; i++){
+            dbf.has(i);
+        }
+        //a miss probes every bloom filter
+        assertEquals(5.0, metrics.getMeanScanned());
+        metrics.reset();
+        for(int i = 400; i < 500; i++){
+            dbf.has(i);
+        }
+        //keys of the newest bloom filter are found in it first
+        assertEquals(1.0, metrics.getMeanScanned(), 0.05);
+        dbf.addAll(new long[]{1, 2, 1000000});
+        assertEquals(3, metrics.getAddCount());
+        assertEquals(2, metrics.getAddFoundCount());
+    }
+
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for(int i = 0; i < 99; i++){
+            histogram.record(100);
+        }
+        histogram.record(5000);
+        histogram.record(-1);
+        assertEquals(100, histogram.getCount());
+        assertEquals(128, histogram.getPercentile(50));
+        assertEquals(128, histogram.getPercentile(99));
+        assertEquals(8192, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        Path file = Files.createTempFile("jbloom", ".jfr");
+        try(Recording recording = new Recording()) {
+            recording.enable("jbloom.Serialization");
+            recording.enable("jbloom.FilterCreated");
+            recording.enable("jbloom.CapacityExceeded");
+            recording.start();
+            DynamicBloomFilter dbf = new DynamicBloomFilter(10, 1000, 0.01);
+            for(int i = 0; i < 25; i++){
+                dbf.add(i);
+            }
+            dbf.writeBinary(new ByteArrayOutputStream());
+            BloomFilter bf = new BloomFilter(1, 0.01);
+            try {
+                for(int i = 0; i < 10; i++){
+                    bf.add(i);
+                }
+            }catch(IndexOutOfBoundsException e) {
+                //expected
+            }
+            CuckooFilter cf = new CuckooFilter(1000, 0.001);
+            try {
+                for(int i = 0; i < 2000; i++){
+                    cf.add(i);
+                }
+            }catch(IndexOutOfBoundsException e) {
+                //expected
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+        List<String> names = new ArrayList<String>();
+        for(RecordedEvent event : RecordingFile.readAllEvents(file)){
+            names.add(event.getEventType().getName());
+        }
+        Files.delete(file);
+        assertEquals(3, count(names, "jbloom.FilterCreated"));
+        assertEquals(1, count(names, "jbloom.Serialization"));
+        //the bloom filter's and the cuckoo filter's
+        assertEquals(2, count(names, "jbloom.CapacityExceeded"));
+    }
+
+    private static int count(List<String> names, String name) {
+        int count = 0;
+        for(String n : names){
+            if(n.equals(name)){
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,136 @@
+package jbloom.test;
+
+import jbloom.core.BlockedBloomFilter;
+import jbloom.core.BloomFilter;
+import jbloom.core.FrozenBloomFilter;
+import jbloom.core.SnapshotHolder;
+import jbloom.util.HashStrategy;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests for FrozenBloomFilter and SnapshotHolder
+ */
+public class FrozenBloomFilterTest extends TestCase {
+
+    @Test
+    public void testFreeze() throws Exception {
+        for(BloomFilter bf : new BloomFilter[]{new BloomFilter(10000, 0.01),
+                new BloomFilter(10000, 0.001, HashStrategy.MURMUR3),
+                new BlockedBloomFilter(10000, 0.01, HashStrategy.MURMUR3)}){
+            for(int i = 0; i < 10000; i++){
+                bf.add(i);
+            }
+            FrozenBloomFilter frozen = bf.freeze();
+            //the same answer as the filter for every key, present or not
+            for(int i = 0; i < 20000; i++){
+                assertEquals(bf.has(i), frozen.has(i));
+                assertEquals(bf.has((CharSequence) Integer.toString(i)), frozen.has((CharSequence) Integer.toString(i)));
+            }
+            assertEquals(bf.toString(), frozen.toString());
+            assertEquals(bf.getCount(), frozen.getCount());
+            assertEquals(bf.getStrategy(), frozen.getStrategy());
+
+            //a copy: adding to the filter doesn't change it
+            bf.add(-1);
+            assertFalse(frozen.has(-1));
+
+            BloomFilter thawed = frozen.thaw();
+            assertEquals(bf.getClass(), thawed.getClass());
+            assertFalse(thawed.add(-1));
+            assertEquals(bf.toString(), thawed.toString());
+        }
+    }
+
+    @Test
+    public void testSwap() throws Exception {
+        final BloomFilter first = new BloomFilter(1000, 0.001);
+        first.add("a");
+        final SnapshotHolder holder = new SnapshotHolder(first.freeze());
+        assertTrue(holder.has("a"));
+        assertFalse(holder.has("b"));
+
+        BloomFilter second = new BloomFilter(1000, 0.001);
+        second.add("b");
+        FrozenBloomFilter old = holder.reload(second.toString());
+        //a reader holding the old snapshot still sees it
+        assertTrue(old.has("a"));
+        assertFalse(holder.has("a"));
+        assertTrue(holder.has("b"));
+
+        //a failed load leaves the current snapshot in place
+        try {
+            holder.reload(new Callable<FrozenBloomFilter>() {
+                @Override
+                public FrozenBloomFilter call() throws Exception {
+                    throw new IOException("missing");
+                }
+            });
+            fail();
+        }catch(IOException e) {
+            //expected
+        }
+        assertTrue(holder.has("b"));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        first.writeBinary(out);
+        holder.reload(new Callable<FrozenBloomFilter>() {
+            @Override
+            public FrozenBloomFilter call() throws Exception {
+                return BloomFilter.readBinary(new ByteArrayInputStream(out.toByteArray())).freeze();
+            }
+        });
+        assertTrue(holder.has("a"));
+        assertEquals(2, holder.getSwaps());
+    }
+
+    @Test
+    public void testReadersDuringSwaps() throws Exception {
+        //every snapshot has the keys 0..999, so no reader may ever miss one however the swaps fall
+        BloomFilter bf = new BloomFilter(2000, 0.001, HashStrategy.MURMUR3);
+        for(int i = 0; i < 1000; i++){
+            bf.add(i);
+        }
+        final SnapshotHolder holder = new SnapshotHolder(bf.freeze());
+        final AtomicBoolean done = new AtomicBoolean();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> readers = new ArrayList<Thread>();
+        for(int t = 0; t < 4; t++){
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while(!done.get()){
+                        for(int i = 0; i < 1000; i++){
+                            if(!holder.has(i)){
+                                synchronized(errors){
+                                    errors.add(new AssertionError("Missed " + i));
+                                }
+                                return;
+                            }
+                        }
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        for(int swap = 0; swap < 200; swap++){
+            bf.add(1000 + swap);
+            holder.swap(bf.freeze());
+        }
+        done.set(true);
+        for(Thread reader : readers){
+            reader.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(holder.has(1199));
+    }
+}
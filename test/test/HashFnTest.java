@@ -1,6 +1,8 @@
 package jbloom.test;
 
 import jbloom.util.HashFn;
+import jbloom.util.HashStrategy;
+import jbloom.util.Murmur3HashFn;
 import junit.framework.TestCase;
 import org.junit.Test;
 
@@ -32,4 +34,87 @@ public class HashFnTest extends TestCase {
         //we know that for this setup the hash of "a" and "b" should be different
         assertNotEquals(hash.hash("b")[0], hash.hash("a")[0]);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testHashWideSlices()
+            throws NoSuchAlgorithmException, CloneNotSupportedException {
+        //slices of 2^15 bits or more hash with 32 bit chunks, which can be larger than Integer.MAX_VALUE
+        HashFn hash = new HashFn(10,100000);
+
+        int[] hashed = hash.hash("a");
+        int[] test = new int[]{18732, 2557, 49252, 12193, 12605, 84276, 6619, 41797, 35373, 1866};
+
+        //test is what the python version gives for the hash
+        assertArrayEquals(test, hashed);
+    }
+
+    @Test
+    public void testHashManySalts()
+            throws NoSuchAlgorithmException, CloneNotSupportedException {
+        //more slices than one digest has chunks for, so later slices come from digests salted with 1, 2...
+        HashFn hash = new HashFn(40,1000);
+        int[] test = new int[]{105, 96, 360, 912, 879, 836, 105, 780, 552, 289, 750, 734, 392, 382, 532, 303,
+                152, 495, 793, 878, 964, 762, 880, 233, 915, 104, 518, 156, 447, 452, 740, 531,
+                964, 129, 572, 901, 185, 56, 735, 901};
+        assertArrayEquals(test, hash.hash("a"));
+
+        hash = new HashFn(20,100000);
+        test = new int[]{47561, 17192, 94975, 1185, 32456, 59174, 65144, 57940, 28472, 93401, 76396, 10768,
+                37659, 69134, 85719, 91356, 59108, 23508, 99201, 27671};
+        assertArrayEquals(test, hash.hash("a"));
+
+        //the widest slices that still hash with 16 bit chunks in python
+        hash = new HashFn(4,32767);
+        assertArrayEquals(new int[]{28808, 2080, 1040, 20166}, hash.hash("a"));
+    }
+
+    @Test
+    public void testMurmur3()
+            throws NoSuchAlgorithmException, CloneNotSupportedException {
+        //SMHasher's verification for MurmurHash3_x64_128: hash {}, {0}, {0, 1}, ... with seed 256 - i,
+        //then hash the concatenated results with seed 0
+        byte[] key = new byte[256];
+        byte[] hashes = new byte[256 * 16];
+        long[] h = new long[2];
+        for(int i = 0; i < 256; i++){
+            key[i] = (byte) i;
+            Murmur3HashFn.hash128(key, 0, i, 256 - i, h);
+            for(int j = 0; j < 16; j++){
+                hashes[i * 16 + j] = (byte) (h[j / 8] >>> (8 * (j % 8)));
+            }
+        }
+        Murmur3HashFn.hash128(hashes, 0, hashes.length, 0, h);
+        assertEquals(0x6384BA69, (int) h[0]);
+
+        HashFn hash = HashStrategy.MURMUR3.newHashFn(10, 1438);
+        assertEquals(HashStrategy.MURMUR3, hash.getStrategy());
+        assertArrayEquals(hash.hash("a"), hash.hash("a"));
+        for(int i : hash.hash("a")){
+            assertTrue(i >= 0 && i < 1438);
+        }
+    }
+
+    @Test
+    public void testHashIntoBuffer()
+            throws NoSuchAlgorithmException, CloneNotSupportedException {
+        String unicode = "h\u00e9llo w\u00f6rld \u65e5\u672c \ud83d\ude00";
+        HashFn hash = new HashFn(10,1438);
+
+        //multi byte characters have to be encoded like python encodes them
+        int[] test = new int[]{887, 77, 1027, 689, 1015, 249, 261, 1064, 1430, 1007};
+        assertArrayEquals(test, hash.hashToBuffer(unicode));
+
+        //every way of hashing a key has to give the same indices, for both strategies
+        String[] keys = new String[]{"", "a", unicode, "\ud83d", "a longer key that spans more than one murmur block"};
+        for(HashStrategy strategy : HashStrategy.values()){
+            hash = strategy.newHashFn(10, 100000);
+            int[] out = new int[10];
+            for(String key : keys){
+                int[] expected = hash.hash(key);
+                hash.hash(new StringBuilder(key), out);
+                assertArrayEquals(expected, out);
+                assertArrayEquals(expected, hash.hashToBuffer(key));
+            }
+        }
+    }
+}
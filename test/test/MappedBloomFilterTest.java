@@ -0,0 +1,95 @@
+package jbloom.test;
+
+import jbloom.core.BloomFilter;
+import jbloom.core.MappedBloomFilter;
+import jbloom.util.HashStrategy;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests for MappedBloomFilter
+ */
+public class MappedBloomFilterTest extends TestCase {
+
+    private Path tempFile() throws IOException {
+        File file = File.createTempFile("jbloom", ".bf");
+        file.delete();
+        file.deleteOnExit();
+        return file.toPath();
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        Path path = tempFile();
+        BloomFilter heap = new BloomFilter(1000, 0.001);
+        MappedBloomFilter bf = MappedBloomFilter.create(path, 1000, 0.001);
+        for(int i = 0; i < 1000; i++){
+            assertEquals(heap.add(i), bf.add(i));
+        }
+        assertEquals(heap.toString(), bf.toString());
+        bf.close();
+
+        bf = MappedBloomFilter.open(path);
+        for(int i = 0; i < 1000; i++){
+            assertTrue(bf.has(i));
+        }
+        assertTrue(!bf.has(1001));
+        assertEquals(heap.getCount(), bf.getCount());
+        assertEquals(heap.toString(), bf.toString());
+        bf.close();
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        Path path = tempFile();
+        BloomFilter heap = new BloomFilter(1000, 0.01, HashStrategy.MURMUR3);
+        for(int i = 0; i < 500; i++){
+            heap.add("key" + i);
+        }
+        MappedBloomFilter bf = MappedBloomFilter.create(path, heap);
+        bf.add("one more");
+        bf.close();
+
+        bf = MappedBloomFilter.open(path);
+        assertEquals(HashStrategy.MURMUR3, bf.getStrategy());
+        assertEquals(heap.getCount() + 1, bf.getCount());
+        assertTrue(bf.has("one more"));
+        heap.add("one more");
+        assertEquals(heap.toString().substring(heap.toString().indexOf(":big")),
+                bf.toString().substring(bf.toString().indexOf(":big")));
+    }
+
+    @Test
+    public void testDirect() throws Exception {
+        BloomFilter heap = new BloomFilter(1000, 0.001);
+        MappedBloomFilter bf = MappedBloomFilter.allocateDirect(1000, 0.001);
+        for(int i = 0; i < 1000; i++){
+            assertEquals(heap.add("" + i), bf.add("" + i));
+        }
+        assertEquals(heap.toString(), bf.toString());
+        assertEquals(heap.toString(), BloomFilter.fromString(bf.toString()).toString());
+    }
+
+    @Test
+    public void testNotAFilter() throws Exception {
+        Path path = tempFile();
+        Files.write(path, new byte[100]);
+        try {
+            MappedBloomFilter.open(path);
+            fail("opened a file of zeros");
+        }catch(IOException e) {
+            //expected
+        }
+        try {
+            MappedBloomFilter.create(path, 10, 0.01);
+            fail("overwrote an existing file");
+        }catch(IOException e) {
+            //expected
+        }
+    }
+}
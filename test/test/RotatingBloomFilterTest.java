@@ -0,0 +1,95 @@
+package jbloom.test;
+
+import jbloom.core.RotatingBloomFilter;
+import jbloom.util.HashStrategy;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+public class RotatingBloomFilterTest extends TestCase {
+
+    @Test
+    public void testWindowByCount() throws Exception {
+        RotatingBloomFilter rbf = new RotatingBloomFilter(4, 1000, 0.01);
+        for(int i = 0; i < 10000; i++){
+            rbf.add(i);
+        }
+        assertEquals(9, rbf.getRotations());
+        //false positives aren't added
+        assertTrue(rbf.getCount() > 3950);
+        assertTrue(rbf.getCount() <= 4000);
+        //the generations hold the last 4000 keys, a few more as the false positives weren't counted
+        for(int i = 6100; i < 10000; i++){
+            assertTrue(rbf.has(i));
+        }
+        int false_positives = 0;
+        for(int i = 0; i < 5900; i++){
+            if(rbf.has(i)){
+                false_positives++;
+            }
+        }
+        assertTrue(false_positives < 5900 * 0.01 * 1.5);
+
+        //adding an old key again keeps it in the window
+        assertTrue(rbf.add(6200));
+        for(int i = 10000; i < 12500; i++){
+            rbf.add(i);
+        }
+        assertTrue(rbf.has(6200));
+        assertFalse(rbf.has(6201) && rbf.has(6202) && rbf.has(6203));
+    }
+
+    @Test
+    public void testWindowByTime() throws Exception {
+        final AtomicLong now = new AtomicLong();
+        RotatingBloomFilter rbf = new RotatingBloomFilter(4, 1000, 0.01, 4, TimeUnit.MINUTES,
+                HashStrategy.MURMUR3, new LongSupplier() {
+                    @Override
+                    public long getAsLong() {
+                        return now.get();
+                    }
+                });
+        assertEquals(TimeUnit.MINUTES.toNanos(1), rbf.getGenerationNanos());
+        rbf.add("a");
+        now.addAndGet(TimeUnit.SECONDS.toNanos(90));
+        rbf.add("b");
+        now.addAndGet(TimeUnit.SECONDS.toNanos(90));
+        assertTrue(rbf.has("a"));
+        assertEquals(3, rbf.getRotations());
+        assertTrue(rbf.has("b"));
+        //"a" was added in the first minute, which leaves the window at 4 minutes
+        now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        assertFalse(rbf.has("a"));
+        assertTrue(rbf.has("b"));
+        //nothing is left after a whole window
+        now.addAndGet(TimeUnit.MINUTES.toNanos(10));
+        assertFalse(rbf.has("b"));
+        assertEquals(0, rbf.getCount());
+
+        //a burst starts the next generation early instead of overfilling one
+        for(int i = 0; i < 2500; i++){
+            rbf.add(i);
+        }
+        assertTrue(rbf.has(0));
+        assertTrue(rbf.getCount() > 2450);
+    }
+
+    @Test
+    public void testGenerations() throws Exception {
+        try {
+            new RotatingBloomFilter(1, 1000, 0.01);
+            fail("made a rotating filter of 1 generation");
+        }catch(IllegalArgumentException e) {
+            //expected
+        }
+        RotatingBloomFilter rbf = new RotatingBloomFilter(2, 1000, 0.01);
+        rbf.add("a");
+        rbf.rotate();
+        assertTrue(rbf.has("a"));
+        rbf.rotate();
+        assertFalse(rbf.has("a"));
+    }
+}
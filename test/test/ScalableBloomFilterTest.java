@@ -0,0 +1,147 @@
+package jbloom.test;
+
+import jbloom.core.ScalableBloomFilter;
+import jbloom.util.HashStrategy;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Tests for ScalableBloomFilter
+ */
+public class ScalableBloomFilterTest extends TestCase {
+
+    @Test
+    public void testAdd() throws Exception {
+        ScalableBloomFilter sbf = new ScalableBloomFilter(100, 0.01);
+        for(int i = 0; i < 100000; i++){
+            sbf.add(i);
+        }
+        for(int i = 0; i < 100000; i++){
+            assertTrue(sbf.has(i));
+        }
+        //100 + 400 + 1600 + ... + 102400 holds 136500 keys
+        assertEquals(6, sbf.getNumFilters());
+        assertEquals(136500, sbf.getCapacity());
+        assertTrue(sbf.getCount() > 99000);
+
+        int false_positives = 0;
+        for(int i = 100000; i < 200000; i++){
+            if(sbf.has(i)){
+                false_positives++;
+            }
+        }
+        assertTrue(false_positives < 100000 * 0.01);
+    }
+
+    @Test
+    public void testGrowth() throws Exception {
+        ScalableBloomFilter sbf = new ScalableBloomFilter(1000, 0.001, ScalableBloomFilter.SMALL_SET_GROWTH, 0.5);
+        assertFalse(sbf.add("key"));
+        assertTrue(sbf.add("key"));
+        for(int i = 0; i < 7100; i++){
+            sbf.add(i);
+        }
+        //1000 + 2000 + 4000 + 8000
+        assertEquals(4, sbf.getNumFilters());
+        String[] filters = sbf.toString().split(",", 5)[4].split("\\|");
+        double error_rate = 0.001 * 0.5;
+        int capacity = 1000;
+        for(String filter : filters){
+            String[] fields = filter.split(":");
+            assertEquals(error_rate, Double.valueOf(fields[0]), 1e-12);
+            assertEquals(capacity, (int) Integer.valueOf(fields[3]));
+            error_rate *= 0.5;
+            capacity *= 2;
+        }
+    }
+
+    @Test
+    public void testToString() throws Exception {
+        for(HashStrategy strategy : HashStrategy.values()){
+            ScalableBloomFilter sbf = new ScalableBloomFilter(10, 0.01, 3, 0.8, strategy);
+            assertEquals("3,0.8,10,0.01,", sbf.toString());
+            assertEquals(sbf.toString(), ScalableBloomFilter.fromString(sbf.toString()).toString());
+            for(int i = 0; i < 500; i++){
+                sbf.add("key" + i);
+            }
+            String s = sbf.toString();
+            assertTrue(s.startsWith("3,0.8,10,0.01,"));
+            ScalableBloomFilter read = ScalableBloomFilter.fromString(s);
+            assertEquals(s, read.toString());
+            assertEquals(strategy, read.getStrategy());
+            for(int i = 0; i < 500; i++){
+                assertTrue(read.has("key" + i));
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            sbf.writeTo(out);
+            assertEquals(s, ScalableBloomFilter.readFrom(new ByteArrayInputStream(out.toByteArray())).toString());
+            //the read filter keeps growing the same way
+            for(int i = 500; i < 2000; i++){
+                read.add("key" + i);
+                sbf.add("key" + i);
+            }
+            assertEquals(sbf.toString(), read.toString());
+        }
+    }
+
+    @Test
+    public void testFromString() throws Exception {
+        //a scalable filter exported from python, with 0-499 in it, a growth of 2 and the 0.9 ratio.
+        //python prints the bloom filters' error rates with 12 digits, 0.0001 for 0.001 * (1 - 0.9)
+        ScalableBloomFilter sbf = ScalableBloomFilter.fromString("2,0.9,100,0.001,0.0001:14:137:100:100:little:975dc602590fe0dd4a38fe1d6f8e6cc34d2fdc2134065817565873bcccd9b833735f97ed341ce99295efecba658f93b3ebc19cd900fe46e9b5d372781d649476be4e8ce4054cf4323f04fabcc394ad8f86a4d329c93e74661c7fc91f28c32bf8cfc04f4276fa6a85b79542bee4a32f02f782ffe63f20dac86cc5964542f71ded0fb2d56aa0b115e77b2b92e2695ca9ffd3b50c401fc9c5b3be5be367d55d7f3aee309408588d5cd087050076746e8feb0c8ceb3eb54545e9d1ade01166120e754c160667f31d1ac65bb6bbea607ba8c29194e7ed4aa3654b1b1d65529b61b0b19db01a13dfbf3e7cf755941a50bd9909|9e-05:14:277:200:200:little:ea8decdb6d56ecc57475ee9ff2130f6a1542ccbaf1da0c73c57e01be6f969fad17304dac1b956cab0e4924eddd5b5f9b0be289440d6d7a27681a904e16b7d28d16e281ef7d6ea1fd7f8a251bbe6f913cf38758afe36c8d300f863861557f559cf4b07e2cc4a3f204b4af0d81989b180c280c7524ace8c3731774e3a09ebb7ad345fc79e75596665cddb85247a66d6455b9c03315aaf06dd91128095a3f8d7150f92d5a9b9799eecb0df325bbe5a03d680236460be073b92de1ff45fd5b0e6cb0ac8a71fffaf44468e7c099ed08bb22f521c16bd22254e9f3c993b53b7a127e730b2d29627b06f9b3d2f35b522f8d195ac4530fef6b7ea36d9694f5923051fe8629cef64eead89c121c10506b631bcc76f648b532642d32286710fad3d2d767ed232ff8425572b07b4a1fd9972f673849442283c99bc58fe6f90bd7009e809148a3e8667c7119ff9bbf4b745f35de15ac1863e34f5af37f5dc1478c3053acac7a86b84930d180157c22ee8c143bdfdf321c44ebbef75166ed2d95d7fc9ffbddf24a5a0dee751c429e64265106f6008dfc7c6bad95524b1a1934160c4d11a266dd3c9153cb803c76fb159f5179885a759eac890d2af1a9ca70f5d8b4d4528a561a796eae8f055c076a29731e3330c03636c7341ce52c57d014ea21cfbf9cef9fd1cdb6ffed09|8.1e-05:14:561:400:200:little:11980324700509503c985298372ca92011f03007230b08c084003040eb084040a180040096404148881659379c0b1c01206e285440c5081a404650843300840049cb20790210ca000c10803105c06010104062e8e800c14514030aaeb454ad01eb4544808e9a00600c00411303140b9920428dc7005002240001624101090ac8e75764018cf8ca004282791026000b6015418072c2c142661ed930023409800034d80a4c2018110c0c142d9290028912100a26937b0e0000bfb2803059616040c040d4204026130e8ba2422837094044461a8286c40035810a6080080dd080e21843002130000212365958108a290092a3440388c02c4a34c0a38003880005343156137108000102c4804121363027e1c01280406b4105218b5220068c8149445400a25704d28506191c45140c90120220c05d044c175c64e02d4c413880914401980c1d16000130004ec431c0038405604b11a1002008d8c0644860a206241628ac0290408c0ab4902643400c6884c84053a0210029c0c2100029a209010040850080580e2b08f16a410543c2aaa9481069228290888d00ec0609f71621c2216784204d400002b3008078b48000450145c0374b09931a4116aad3104419206240008100082000403904200c844402409021051918c84420b0b3b11c8702026416438215329a88380a37b3218805b880a311c92a4234580c109016421882903bca1004510011817120e404c0034cc00000c028c8ad02bcad1a0839d1450103c00804910c6471320508404dc84880221a0b1210103510185b118e00908004050a10580a05a93420d26041630194381a51044101a011a29c66107442070f44002688663e0a5209808702001c813421b054340646881213830e22014a04002e0a340b04c485645000910126a00d426d0601102028c30a00031d472c111a511404a824c32300274c604180a111024a4e19908bd01a5800290030b1046126240e1004116208313402085604b422785e041282ca14826b332b060059be1042095402490480409000f02b390846aa2606014a52a720d0a10484c0810401650021d44a081306a2014b907a104e0904950648045088800194a74e0d6658a4000b40002000211685a4b58643750e5351009008004232c021048ad38c2605804a04183310a90c01682c0146028156101c0182684b1520050040041a881416185a0c0884480e200a83dc448309998244414a00ccc3631901241a3100222411a03ab68648c00020c0411452830a3ab00504ac6a6094480a442064c1284620d98a1260405a48c2c10a016440520884272006b01201214103468aeaa00981002f8090312c84440405b60301060ed8020ba0230c2b419188928020448010");
+        assertEquals(2, sbf.getGrowth());
+        assertEquals(0.9, sbf.getRatio());
+        assertEquals(100, sbf.getInitialCapacity());
+        assertEquals(0.001, sbf.getErrorRate());
+        //100 + 200 + 200 of 400
+        assertEquals(3, sbf.getNumFilters());
+        assertEquals(500, sbf.getCount());
+        for(int i = 0; i < 500; i++){
+            assertTrue(sbf.has(Integer.valueOf(i).toString()));
+        }
+
+        ScalableBloomFilter read = ScalableBloomFilter.fromString(sbf.toString());
+        assertEquals(sbf.toString(), read.toString());
+        for(int i = 500; i < 1000; i++){
+            read.add(i);
+        }
+        assertEquals(4, read.getNumFilters());
+        for(int i = 0; i < 1000; i++){
+            assertTrue(read.has(i));
+        }
+    }
+
+    @Test
+    public void testFromStringChecksFilters() throws Exception {
+        ScalableBloomFilter digest = new ScalableBloomFilter(10, 0.01, 3, 0.8, HashStrategy.DIGEST);
+        ScalableBloomFilter murmur3 = new ScalableBloomFilter(10, 0.01, 3, 0.8, HashStrategy.MURMUR3);
+        for(int i = 0; i < 100; i++){
+            digest.add("key" + i);
+            murmur3.add("key" + i);
+        }
+        String[] digest_filters = digest.toString().split("\\|");
+        String[] murmur3_filters = murmur3.toString().split("\\|");
+        assertTrue(digest_filters.length > 2);
+        //a second filter hashed another way
+        assertBadString(digest_filters[0] + "|" + murmur3_filters[1]);
+        //the header doesn't match the filters' capacities or error rates
+        assertBadString(digest.toString().replaceFirst("^3,0.8,", "4,0.8,"));
+        assertBadString(digest.toString().replaceFirst("^3,0.8,", "3,0.5,"));
+        assertBadString(digest.toString().replaceFirst("^3,0.8,10,0.01,", "3,0.8,10,0.001,"));
+        //a filter missing from the middle
+        assertBadString(digest_filters[0] + "|" + digest_filters[2]);
+    }
+
+    private static void assertBadString(String s) throws Exception {
+        try {
+            ScalableBloomFilter.fromString(s);
+            fail();
+        }catch(IllegalArgumentException e) {
+            //expected
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package jbloom.test;
+
+import jbloom.core.ShardedBloomFilter;
+import jbloom.util.HashStrategy;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests for ShardedBloomFilter
+ */
+public class ShardedBloomFilterTest extends TestCase {
+
+    @Test
+    public void testAdd() throws Exception {
+        int capacity = 100000;
+        ShardedBloomFilter sbf = new ShardedBloomFilter(capacity, 0.01, 8, HashStrategy.MURMUR3);
+        for(int i = 0; i < capacity; i++){
+            sbf.add(i);
+        }
+        for(int i = 0; i < capacity; i++){
+            assertTrue(sbf.has(i));
+        }
+        int false_positives = 0;
+        for(int i = capacity; i < 2 * capacity; i++){
+            if(sbf.has(i)){
+                false_positives++;
+            }
+        }
+        assertTrue(false_positives < capacity * 0.01 * 1.5);
+        //false positives aren't counted
+        assertTrue(sbf.getCount() > capacity * 0.99);
+        assertTrue(sbf.getCount() <= capacity);
+
+        //every shard has about its share of the keys, and room to spare
+        assertEquals(8, sbf.getShardCounts().length);
+        for(double load : sbf.getShardLoads()){
+            assertTrue(load > 0.9);
+            assertTrue(load < 1);
+        }
+        assertTrue(sbf.getSkew() < 1.05);
+        assertEquals(0.01, sbf.getFalsePositiveRate(), 0.005);
+    }
+
+    @Test
+    public void testOneShard() throws Exception {
+        ShardedBloomFilter sbf = new ShardedBloomFilter(1000, 0.001, 1);
+        assertEquals(1000, sbf.getShardCapacity());
+        for(int i = 0; i < 1000; i++){
+            sbf.add(Integer.toString(i));
+        }
+        assertTrue(sbf.has("999"));
+        assertEquals(1, sbf.getSkew(), 0);
+        try {
+            new ShardedBloomFilter(1000, 0.001, 0);
+            fail();
+        }catch(IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testStress() throws Exception {
+        final int threads = 8, per_thread = 20000;
+        final ShardedBloomFilter sbf = new ShardedBloomFilter(threads * per_thread, 0.001, 16, HashStrategy.MURMUR3);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> workers = new ArrayList<Thread>();
+        for(int t = 0; t < threads; t++){
+            final int first = t * per_thread;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for(int i = first; i < first + per_thread; i++){
+                            sbf.add(i);
+                            if(!sbf.has(i)){
+                                throw new AssertionError("Lost " + i);
+                            }
+                        }
+                    }catch(Throwable e) {
+                        synchronized(errors){
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for(Thread worker : workers){
+            worker.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        for(int i = 0; i < threads * per_thread; i++){
+            assertTrue(sbf.has(i));
+        }
+        assertTrue(sbf.getCount() > threads * per_thread * 0.99);
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        ShardedBloomFilter sbf = new ShardedBloomFilter(10000, 0.01, 4, HashStrategy.MURMUR3);
+        for(int i = 0; i < 5000; i++){
+            sbf.add(i);
+        }
+
+        ShardedBloomFilter text = ShardedBloomFilter.fromString(sbf.toString());
+        assertEquals(sbf.toString(), text.toString());
+        assertEquals(HashStrategy.MURMUR3, text.getStrategy());
+        assertEquals(4, text.getNumShards());
+        assertEquals(10000, text.getCapacity());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sbf.writeBinary(out);
+        ShardedBloomFilter binary = ShardedBloomFilter.readBinary(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(sbf.toString(), binary.toString());
+        for(int i = 0; i < 4; i++){
+            assertEquals(sbf.getShardCounts()[i], binary.getShardCounts()[i]);
+        }
+        for(int i = 0; i < 5000; i++){
+            assertTrue(binary.has(i));
+        }
+        //shards read back can still be added to
+        assertFalse(binary.add(-1));
+        assertTrue(binary.has(-1));
+
+        try {
+            ShardedBloomFilter.fromString(sbf.toString().replaceFirst(",4,", ",5,"));
+            fail();
+        }catch(IllegalArgumentException e) {
+            //expected
+        }
+    }
+}